@@ -0,0 +1,66 @@
+#!/bin/bash
+
+# Java Socket 项目基准测试脚本
+# 基于JMH，需要把以下jar放到lib目录（离线环境可从本地Maven仓库复制）：
+#   jmh-core、jmh-generator-annprocess、jopt-simple、commons-math3
+# 数据库相关的基准测试还需要lib目录中的sqlite-jdbc
+# 用法:
+#   ./bench.sh [JMH参数]              运行基准测试，例如 ./bench.sh StorageProfileBenchmark -p profile=fast
+#                                     结果默认保存为 bench-results/时间.json，传入-rf/-rff时按传入的参数保存
+#   ./bench.sh compare 旧.json 新.json  对比两次结果
+#   ./bench.sh footprint 引擎 用户数     测量memory/offheap引擎的堆占用和GC停顿，JVM参数放在FOOTPRINT_JVM_OPTS中，
+#                                     例如 FOOTPRINT_JVM_OPTS="-Xmx4g -XX:+UseG1GC" ./bench.sh footprint offheap 10000000
+
+echo "=================================="
+echo "Java Socket 项目基准测试"
+echo "=================================="
+
+if ! ls lib/jmh-core-*.jar &> /dev/null; then
+    echo "错误: 未找到JMH，请把jmh-core等jar放到lib目录"
+    exit 1
+fi
+
+# 先编译主程序
+if [ ! -f "build/server/SocketServer.class" ]; then
+    ./compile.sh || exit 1
+fi
+
+echo "编译基准测试代码..."
+mkdir -p build/bench
+javac -cp "build:lib/*" -d build/bench bench/src/bench/*.java
+
+if [ $? -eq 0 ]; then
+    echo "✓ 基准测试编译成功"
+else
+    echo "✗ 基准测试编译失败"
+    exit 1
+fi
+
+echo ""
+if [ "$1" = "compare" ]; then
+    shift
+    java -cp "build:build/bench" bench.CompareResults "$@"
+    exit $?
+fi
+if [ "$1" = "footprint" ]; then
+    shift
+    java $FOOTPRINT_JVM_OPTS -cp "build:build/bench" bench.StoreFootprint "$@"
+    exit $?
+fi
+
+RESULT_ARGS=()
+if [[ " $* " != *" -rf "* && " $* " != *" -rff "* ]]; then
+    mkdir -p bench-results
+    RESULT_FILE="bench-results/$(date +%Y%m%d-%H%M%S).json"
+    RESULT_ARGS=(-rf json -rff "$RESULT_FILE")
+fi
+
+java -cp "build:build/bench:lib/*" org.openjdk.jmh.Main "${RESULT_ARGS[@]}" "$@"
+STATUS=$?
+
+if [ -n "$RESULT_FILE" ] && [ -f "$RESULT_FILE" ]; then
+    echo ""
+    echo "结果已保存: $RESULT_FILE"
+    echo "对比两次结果: ./bench.sh compare 旧结果.json $RESULT_FILE"
+fi
+exit $STATUS
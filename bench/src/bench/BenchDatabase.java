@@ -0,0 +1,77 @@
+package bench;
+
+import server.DatabaseManager;
+import server.MemoryUserStore;
+import server.OffHeapUserStore;
+import server.StorageProfile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * 基准测试用的临时SQLite数据库
+ * 每次试验新建一个空的临时文件，结束时连同WAL和共享内存文件一起删除，不会读写database/app.db；
+ * 内存引擎不建立文件，堆外引擎使用临时目录
+ */
+final class BenchDatabase {
+
+    private final Path file;
+    private final DatabaseManager dbManager;
+
+    private BenchDatabase(Path file, DatabaseManager dbManager) {
+        this.file = file;
+        this.dbManager = dbManager;
+    }
+
+    /**
+     * 创建临时数据库
+     * @param profile 存储配置档名称
+     * @return 临时数据库
+     * @throws IOException 创建临时文件失败
+     */
+    static BenchDatabase create(String profile) throws IOException {
+        Path file = Files.createTempFile("bench-db-", ".db");
+        return new BenchDatabase(file, new DatabaseManager(file.toString(), StorageProfile.fromName(profile)));
+    }
+
+    /**
+     * 按引擎创建临时存储
+     * @param engine 存储引擎名称，sqlite、memory或offheap
+     * @param profile SQLite的存储配置档名称，其他引擎忽略
+     * @return 临时存储
+     * @throws IOException 创建临时文件失败
+     */
+    static BenchDatabase create(String engine, String profile) throws IOException {
+        if ("memory".equals(engine)) {
+            return new BenchDatabase(null, new DatabaseManager(new MemoryUserStore()));
+        }
+        if ("offheap".equals(engine)) {
+            Path dir = Files.createTempDirectory("bench-offheap-");
+            return new BenchDatabase(dir, new DatabaseManager(OffHeapUserStore.open(dir)));
+        }
+        return create(profile);
+    }
+
+    DatabaseManager manager() {
+        return dbManager;
+    }
+
+    void delete() throws IOException {
+        dbManager.closeConnection();
+        if (file == null) {
+            return;
+        }
+        if (Files.isDirectory(file)) {
+            for (String name : new String[] {"users.dat", "users.ids", "users.idx"}) {
+                Files.deleteIfExists(file.resolve(name));
+            }
+            Files.delete(file);
+            return;
+        }
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(Paths.get(file + "-wal"));
+        Files.deleteIfExists(Paths.get(file + "-shm"));
+    }
+}
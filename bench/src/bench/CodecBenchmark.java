@@ -0,0 +1,221 @@
+package bench;
+
+import client.SocketClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import protocol.BinaryWriter;
+import protocol.JsonWriter;
+import server.Response;
+import server.User;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON编解码基准测试
+ * 用1万个用户的列表响应对比原来的字符串拼接/indexOf解析、共用的JsonWriter/JsonReader和二进制帧。
+ * legacy*方法是改造前代码的原样副本，只用于对比
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+    private static final int USER_COUNT = 10_000;
+
+    private List<User> users;
+    private Response response;
+    private JsonWriter writer;
+    private BinaryWriter binaryWriter;
+    private String json;
+    private SocketClient client;
+
+    @Setup
+    public void setUp() {
+        users = new ArrayList<>(USER_COUNT);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < USER_COUNT; i++) {
+            users.add(new User(i + 1, "user" + i,
+                    "0123456789abcdef0123456789abcdef:0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef",
+                    "user" + i + "@example.com", new Timestamp(now - i * 1000L)));
+        }
+        response = Response.userList(users);
+        writer = new JsonWriter(1024 * 1024);
+        binaryWriter = new BinaryWriter(1024 * 1024);
+        json = response.toJson();
+        client = new SocketClient();
+    }
+
+    @Benchmark
+    public String legacySerialize() {
+        return legacyCreateUserListResponse(users);
+    }
+
+    @Benchmark
+    public int writerSerialize() {
+        writer.reset();
+        response.writeJson(writer);
+        return writer.buffer().length();
+    }
+
+    @Benchmark
+    public int binarySerialize() {
+        response.writeBinary(binaryWriter);
+        return binaryWriter.length();
+    }
+
+    @Benchmark
+    public String[] legacyParse() {
+        return legacyParseUserList(json);
+    }
+
+    @Benchmark
+    public String[] readerParse() {
+        return client.parseUserList(json);
+    }
+
+    private static String legacyCreateUserListResponse(List<User> users) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"status\":\"success\",\"data\":[");
+
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            sb.append("{")
+                    .append("\"id\":").append(user.getId()).append(",")
+                    .append("\"username\":\"").append(user.getUsername()).append("\",")
+                    .append("\"email\":\"").append(user.getEmail() != null ? user.getEmail() : "").append("\"")
+                    .append("\"password\":\"").append(user.getPassword()).append("\",")
+                    .append("\"createdAt\":\"").append(user.getCreatedAt()).append("\"")
+                    .append("}");
+
+            if (i < users.size() - 1) {
+                sb.append(",");
+            }
+        }
+
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    private static String[] legacyParseUserList(String response) {
+        List<String> users = new ArrayList<>();
+        int dataStart = response.indexOf("\"data\":[");
+        if (dataStart == -1) return new String[0];
+
+        int pos = response.indexOf("[", dataStart) + 1;
+        int braceCount = 0;
+        StringBuilder currentObject = new StringBuilder();
+        boolean inString = false;
+        boolean escapeNext = false;
+
+        while (pos < response.length()) {
+            char c = response.charAt(pos);
+
+            if (escapeNext) {
+                currentObject.append(c);
+                escapeNext = false;
+            } else if (c == '\\') {
+                currentObject.append(c);
+                escapeNext = true;
+            } else if (c == '"') {
+                currentObject.append(c);
+                inString = !inString;
+            } else if (!inString) {
+                if (c == '{') {
+                    braceCount++;
+                    currentObject.append(c);
+                } else if (c == '}') {
+                    braceCount--;
+                    currentObject.append(c);
+
+                    if (braceCount == 0) {
+                        String userObj = currentObject.toString();
+                        String username = legacyExtractJsonValue(userObj, "username");
+                        String email = legacyExtractJsonValue(userObj, "email");
+
+                        if (username != null) {
+                            String userInfo = username;
+                            if (email != null && !email.isEmpty()) {
+                                userInfo += " (" + email + ")";
+                            }
+                            users.add(userInfo);
+                        }
+
+                        currentObject.setLength(0);
+                    }
+                } else if (c == ']') {
+                    break;
+                } else if (c != ',' && c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                    currentObject.append(c);
+                }
+            } else {
+                currentObject.append(c);
+            }
+
+            pos++;
+        }
+
+        return users.toArray(new String[0]);
+    }
+
+    private static String legacyExtractJsonValue(String jsonObj, String key) {
+        String pattern = "\"" + key + "\":";
+        int startIndex = jsonObj.indexOf(pattern);
+        if (startIndex == -1) return null;
+
+        startIndex += pattern.length();
+        while (startIndex < jsonObj.length() && Character.isWhitespace(jsonObj.charAt(startIndex))) {
+            startIndex++;
+        }
+        if (startIndex >= jsonObj.length()) return null;
+
+        if (jsonObj.charAt(startIndex) == '"') {
+            startIndex++;
+            int endIndex = startIndex;
+            boolean escapeNext = false;
+
+            while (endIndex < jsonObj.length()) {
+                char c = jsonObj.charAt(endIndex);
+                if (escapeNext) {
+                    escapeNext = false;
+                } else if (c == '\\') {
+                    escapeNext = true;
+                } else if (c == '"') {
+                    break;
+                }
+                endIndex++;
+            }
+
+            if (endIndex < jsonObj.length()) {
+                return jsonObj.substring(startIndex, endIndex);
+            }
+        } else {
+            int endIndex = startIndex;
+            while (endIndex < jsonObj.length()
+                    && jsonObj.charAt(endIndex) != ','
+                    && jsonObj.charAt(endIndex) != '}'
+                    && !Character.isWhitespace(jsonObj.charAt(endIndex))) {
+                endIndex++;
+            }
+
+            if (endIndex > startIndex) {
+                return jsonObj.substring(startIndex, endIndex);
+            }
+        }
+
+        return null;
+    }
+}
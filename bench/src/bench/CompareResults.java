@@ -0,0 +1,144 @@
+package bench;
+
+import protocol.JsonReader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 对比两次基准测试的JSON结果（JMH的-rf json输出）
+ * 按基准方法和参数配对，打印两次的得分和变化；吞吐量越高越好，其余模式越低越好。
+ * 两次结果的误差区间不重叠时才标记为变好或变差，否则视为噪声
+ *
+ * 用法: ./bench.sh compare 旧结果.json 新结果.json
+ */
+public final class CompareResults {
+
+    private CompareResults() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("用法: CompareResults 旧结果.json 新结果.json");
+            System.exit(1);
+        }
+        Map<String, Result> before = read(args[0]);
+        Map<String, Result> after = read(args[1]);
+
+        System.out.printf("%-70s %14s %14s %9s  %s%n", "基准", "旧", "新", "变化", "结论");
+        Map<String, Result> all = new TreeMap<>(before);
+        for (Map.Entry<String, Result> entry : after.entrySet()) {
+            all.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+        for (String key : all.keySet()) {
+            Result old = before.get(key);
+            Result now = after.get(key);
+            if (old == null || now == null) {
+                System.out.printf("%-70s %14s %14s %9s  %s%n", key,
+                        old != null ? format(old) : "-", now != null ? format(now) : "-", "", "只在一次结果中");
+                continue;
+            }
+            double change = (now.score - old.score) / old.score * 100;
+            System.out.printf("%-70s %14s %14s %+8.1f%%  %s%n", key, format(old), format(now), change, verdict(old, now));
+        }
+    }
+
+    private static String verdict(Result old, Result now) {
+        if (Double.isNaN(old.error) || Double.isNaN(now.error)) {
+            return "缺少误差数据，无法判断";
+        }
+        boolean overlap = now.score - now.error <= old.score + old.error
+                && old.score - old.error <= now.score + now.error;
+        if (overlap) {
+            return "无显著差异";
+        }
+        boolean higher = now.score > old.score;
+        boolean higherIsBetter = "thrpt".equals(now.mode);
+        return higher == higherIsBetter ? "变好" : "变差";
+    }
+
+    private static String format(Result result) {
+        return String.format("%.3f %s", result.score, result.unit);
+    }
+
+    /**
+     * 读取JMH结果文件
+     * @return 以"基准方法 模式 {参数}"为键的结果
+     */
+    private static Map<String, Result> read(String path) throws IOException {
+        String json = new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
+        Map<String, Result> results = new LinkedHashMap<>();
+        JsonReader reader = new JsonReader(json);
+        reader.beginArray();
+        while (reader.hasNext()) {
+            Result result = new Result();
+            String benchmark = null;
+            Map<String, String> params = new TreeMap<>();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                switch (name) {
+                    case "benchmark":
+                        benchmark = reader.nextString();
+                        break;
+                    case "mode":
+                        result.mode = reader.nextString();
+                        break;
+                    case "params":
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            params.put(reader.nextName(), reader.nextString());
+                        }
+                        reader.endObject();
+                        break;
+                    case "primaryMetric":
+                        readMetric(reader, result);
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+            String key = benchmark + " " + result.mode + (params.isEmpty() ? "" : " " + params);
+            results.put(key, result);
+        }
+        reader.endArray();
+        return results;
+    }
+
+    private static void readMetric(JsonReader reader, Result result) {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (name) {
+                case "score":
+                    result.score = Double.parseDouble(reader.nextString());
+                    break;
+                case "scoreError":
+                    // 只有一次迭代时JMH写入"NaN"
+                    result.error = Double.parseDouble(reader.nextString());
+                    break;
+                case "scoreUnit":
+                    result.unit = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+    }
+
+    private static final class Result {
+        private String mode;
+        private double score;
+        private double error;
+        private String unit;
+    }
+}
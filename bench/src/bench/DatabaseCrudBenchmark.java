@@ -0,0 +1,125 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.DatabaseManager;
+import server.User;
+import server.UserPage;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DatabaseManager增删改查基准测试
+ * 在临时SQLite文件上预先注册一批用户，再逐个测量各个公开方法的单次耗时。
+ * 默认关闭用户缓存、使用SHA-256存储密码，结果反映SQL和连接池本身的开销而不是PBKDF2；
+ * 用-p cacheSize=10000或-p hashAlgorithm=pbkdf2可以测量线上配置；
+ * -p engine=memory或offheap改用内存或堆外存储引擎，可以与SQLite对比存储本身的开销；
+ * 组提交只在并发写入时起作用，用-p groupCommit=true -t 线程数比较register和updateEmail的吞吐量。
+ * 删除单独测量需要不断补充用户，这里与注册成对执行，减去register的结果即为删除的耗时
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseCrudBenchmark {
+
+    private static final String PASSWORD = "secret-password";
+
+    @Param({"1000"})
+    public int users;
+
+    @Param({"0"})
+    public String cacheSize;
+
+    @Param({"sha256"})
+    public String hashAlgorithm;
+
+    @Param({"sqlite"})
+    public String engine;
+
+    @Param({"balanced"})
+    public String profile;
+
+    @Param({"false"})
+    public String groupCommit;
+
+    private BenchDatabase database;
+    private DatabaseManager dbManager;
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // 这些配置在DatabaseManager构造时读取
+        System.setProperty("cache.users.maxSize", cacheSize);
+        System.setProperty("hash.algorithm", hashAlgorithm);
+        System.setProperty("db.groupCommit.enabled", groupCommit);
+        database = BenchDatabase.create(engine, profile);
+        dbManager = database.manager();
+        for (int i = 0; i < users; i++) {
+            dbManager.registerUser(new User("bench_user_" + i, PASSWORD, "user" + i + "@example.com"));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        database.delete();
+    }
+
+    private String existingUsername() {
+        return "bench_user_" + ThreadLocalRandom.current().nextInt(users);
+    }
+
+    @Benchmark
+    public boolean register() {
+        return dbManager.registerUser(new User("bench_new_" + sequence.incrementAndGet(), PASSWORD, "new@example.com"));
+    }
+
+    @Benchmark
+    public boolean registerAndDelete() {
+        String username = "bench_tmp_" + sequence.incrementAndGet();
+        dbManager.registerUser(new User(username, PASSWORD, "tmp@example.com"));
+        return dbManager.deleteUserByUsername(username);
+    }
+
+    @Benchmark
+    public User login() {
+        return dbManager.loginUser(existingUsername(), PASSWORD);
+    }
+
+    @Benchmark
+    public User findUserByUsername() {
+        return dbManager.findUserByUsername(existingUsername());
+    }
+
+    @Benchmark
+    public boolean updateEmail() {
+        return dbManager.updateUserInfo(existingUsername(), null, "changed@example.com");
+    }
+
+    @Benchmark
+    public UserPage getUserPage() {
+        return dbManager.getUserPage(null, 50);
+    }
+
+    @Benchmark
+    public List<User> getAllUsers() {
+        return dbManager.getAllUsers();
+    }
+}
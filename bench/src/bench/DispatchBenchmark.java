@@ -0,0 +1,80 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import server.Command;
+import server.CommandRouter;
+import server.Request;
+import server.Response;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 请求分发基准测试
+ * 对比原来逐个contains匹配action的if/else链和CommandRouter一次解析加哈希查找的开销，
+ * 命令本身不做任何事，只测量分发成本。register位于原链的第一位，updateUser位于最后一位
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+    private static final String[] ACTIONS = {
+            "register", "login", "getUserList", "deleteUser", "getUserByUsername", "updateUser"
+    };
+
+    @Param({"register", "updateUser"})
+    public String action;
+
+    private String request;
+    private CommandRouter router;
+
+    @Setup
+    public void setUp() {
+        request = "{\"action\":\"" + action + "\",\"data\":{"
+                + "\"username\":\"alice\",\"password\":\"secret-password\",\"email\":\"alice@example.com\"}}";
+        router = new CommandRouter();
+        for (String name : ACTIONS) {
+            Response response = Response.success(name);
+            Command command = parsed -> response;
+            router.register(name, command);
+        }
+    }
+
+    @Benchmark
+    public String containsChain() {
+        if (request.contains("\"action\":\"register\"")) {
+            return "register";
+        } else if (request.contains("\"action\":\"login\"")) {
+            return "login";
+        } else if (request.contains("\"action\":\"getUserList\"")) {
+            return "getUserList";
+        } else if (request.contains("\"action\":\"deleteUser\"")) {
+            return "deleteUser";
+        } else if (request.contains("\"action\":\"getUserByUsername\"")) {
+            return "getUserByUsername";
+        } else if (request.contains("\"action\":\"updateUser\"")) {
+            return "updateUser";
+        }
+        return null;
+    }
+
+    @Benchmark
+    public String router() {
+        Request parsed = Request.parse(request);
+        Command command = router.find(parsed.getAction());
+        return command == null ? null : command.execute(parsed).getMessage();
+    }
+}
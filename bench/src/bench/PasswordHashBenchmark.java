@@ -0,0 +1,96 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import server.Sha256Hasher;
+
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 密码哈希基准测试
+ * 单线程吞吐量即每核每秒哈希次数。encrypt对应注册（生成盐值 + 哈希），verify对应登录。
+ * legacy*方法是改造前DatabaseManager代码的原样副本，只用于对比
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(1)
+@Fork(1)
+public class PasswordHashBenchmark {
+
+    private static final String PASSWORD = "correct horse battery staple";
+
+    private String salt;
+    private String storedHash;
+
+    @Setup
+    public void setUp() {
+        salt = Sha256Hasher.newSalt();
+        storedHash = Sha256Hasher.hashHex(salt, PASSWORD);
+    }
+
+    @Benchmark
+    public String legacyEncrypt() {
+        String newSalt = legacyGenerateSalt();
+        return newSalt + ":" + legacyHashPasswordWithSalt(PASSWORD, newSalt);
+    }
+
+    @Benchmark
+    public String encrypt() {
+        String newSalt = Sha256Hasher.newSalt();
+        return newSalt + ":" + Sha256Hasher.hashHex(newSalt, PASSWORD);
+    }
+
+    @Benchmark
+    public boolean legacyVerify() {
+        return storedHash.equals(legacyHashPasswordWithSalt(PASSWORD, salt));
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return Sha256Hasher.matchesHex(salt, PASSWORD, storedHash);
+    }
+
+    private static String legacyGenerateSalt() {
+        SecureRandom random = new SecureRandom();
+        byte[] salt = new byte[16];
+        random.nextBytes(salt);
+        return Base64.getEncoder().encodeToString(salt);
+    }
+
+    private static String legacyHashPasswordWithSalt(String password, String salt) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+
+            // 将盐值和密码组合
+            String saltedPassword = salt + password;
+
+            // 计算哈希值
+            byte[] hashedBytes = md.digest(saltedPassword.getBytes("UTF-8"));
+
+            // 转换为十六进制字符串
+            StringBuilder sb = new StringBuilder();
+            for (byte b : hashedBytes) {
+                sb.append(String.format("%02x", b));
+            }
+
+            return sb.toString();
+        } catch (Exception e) {
+            return "fallback_" + password.hashCode();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import server.Pbkdf2PasswordHasher;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PBKDF2工作因子校准
+ * 按采样模式测量一次登录校验的耗时分布，结果中的p0.99就是该迭代次数下哈希部分的p99登录延迟。
+ * 用法：./bench.sh PasswordHasherCalibrationBenchmark -t 核数，
+ * 线程数等于-Dhash.threads时模拟哈希线程池满载；选p0.99低于目标延迟的最大迭代次数，
+ * 再用-Dhash.pbkdf2.iterations配置服务器，也可以用-p iterations=...测试其他取值
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 4)
+@Fork(1)
+public class PasswordHasherCalibrationBenchmark {
+
+    private static final String PASSWORD = "correct horse battery staple";
+
+    @Param({"100000", "210000", "310000", "600000", "1000000"})
+    public int iterations;
+
+    private Pbkdf2PasswordHasher hasher;
+    private String stored;
+
+    @Setup
+    public void setUp() {
+        hasher = new Pbkdf2PasswordHasher(iterations);
+        stored = hasher.hash(PASSWORD);
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return hasher.verify(PASSWORD, stored);
+    }
+}
@@ -0,0 +1,87 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import protocol.BinaryProtocol;
+import protocol.BinaryWriter;
+import server.Request;
+import server.RequestProcessor;
+import server.User;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 请求处理基准测试
+ * 分别测量请求解析（JSON和二进制帧，取代了原来ClientHandler.extractValue的逐字段查找）
+ * 和RequestProcessor.processRequest从解析、分发、执行到序列化响应的完整路径。
+ * 查找用户命中用户缓存，测的是服务器自身的开销；数据库本身的开销见DatabaseCrudBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+
+    private static final String LOGIN_REQUEST = "{\"action\":\"login\",\"data\":"
+            + "{\"username\":\"alice\",\"password\":\"secret-password\"}}";
+    private static final String FIND_REQUEST = "{\"action\":\"getUserByUsername\",\"data\":{\"username\":\"alice\"}}";
+    private static final String UNKNOWN_REQUEST = "{\"action\":\"noSuchAction\",\"data\":{}}";
+
+    private byte[] loginFrame;
+    private BenchDatabase database;
+    private RequestProcessor processor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BinaryWriter writer = new BinaryWriter();
+        writer.beginFrame(BinaryProtocol.LOGIN).writeNullableString("alice").writeNullableString("secret-password");
+        writer.endFrame();
+        // 与服务器一样经过readFrame()去掉长度前缀
+        loginFrame = BinaryProtocol.readFrame(
+                new ByteArrayInputStream(writer.array(), writer.offset(), writer.length()));
+
+        database = BenchDatabase.create("balanced");
+        database.manager().registerUser(new User("alice", "secret-password", "alice@example.com"));
+        processor = new RequestProcessor(database.manager());
+        processor.processRequest(FIND_REQUEST);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        database.delete();
+    }
+
+    @Benchmark
+    public Request parseJson() {
+        return Request.parse(LOGIN_REQUEST);
+    }
+
+    @Benchmark
+    public Request parseBinary() {
+        return Request.parseBinary(loginFrame);
+    }
+
+    @Benchmark
+    public String processUnknownAction() {
+        return processor.processRequest(UNKNOWN_REQUEST);
+    }
+
+    @Benchmark
+    public String processGetUserByUsername() {
+        return processor.processRequest(FIND_REQUEST);
+    }
+}
@@ -0,0 +1,86 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import server.DatabaseManager;
+import server.StorageProfile;
+import server.User;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 存储配置档基准测试
+ * 每个配置档在database/app.db的临时副本上分别测量写入（注册）和读取（按用户名查找）吞吐量，
+ * 不会修改原数据库。可以用-Dbench.db指定其他源数据库文件
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class StorageProfileBenchmark {
+
+    private static final int READ_USERS = 1000;
+
+    @Param({"durable", "balanced", "fast"})
+    public String profile;
+
+    private Path dbFile;
+    private DatabaseManager dbManager;
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dbFile = Files.createTempFile("bench-app-", ".db");
+        Path source = Paths.get(System.getProperty("bench.db", "database/app.db"));
+        if (Files.exists(source)) {
+            Files.copy(source, dbFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        dbManager = new DatabaseManager(dbFile.toString(), StorageProfile.fromName(profile));
+        for (int i = 0; i < READ_USERS; i++) {
+            dbManager.registerUser(new User("bench_read_" + i, "password", "read@example.com"));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        dbManager.closeConnection();
+        Files.deleteIfExists(dbFile);
+        Files.deleteIfExists(Paths.get(dbFile + "-wal"));
+        Files.deleteIfExists(Paths.get(dbFile + "-shm"));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean write() {
+        String username = "bench_write_" + sequence.incrementAndGet();
+        return dbManager.registerUser(new User(username, "password", "write@example.com"));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public User read() {
+        int index = ThreadLocalRandom.current().nextInt(READ_USERS);
+        return dbManager.findUserByUsername("bench_read_" + index);
+    }
+}
@@ -0,0 +1,192 @@
+package bench;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import server.MemoryUserStore;
+import server.OffHeapUserStore;
+import server.User;
+import server.UserStore;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 测量存储引擎在大量用户下的堆占用和GC停顿
+ * 向空的存储中插入指定数量的用户（密码为PBKDF2格式长度的随机串），然后：
+ *   1. 两次System.gc()之后读取已用堆，减去插入前的值即为用户数据占用的堆；
+ *   2. 记录插入期间和随机查找期间每次GC的停顿（GC通知中的耗时），以及一次System.gc()的耗时，
+ *      后者近似于存活对象全部需要标记和移动时的完整GC停顿；
+ *   3. 随机按用户名查找，统计吞吐量。
+ * 每个引擎单独运行一个JVM，用-Xmx和-XX:+UseXXXGC控制堆大小和收集器。
+ * 内存引擎不开启持久化，只测量堆上的索引和对象；堆外引擎使用临时目录，结束时删除
+ *
+ * 用法: ./bench.sh footprint memory|offheap 用户数 [查找次数]
+ */
+public final class StoreFootprint {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    private StoreFootprint() {
+    }
+
+    public static void main(String[] args) throws IOException, SQLException, InterruptedException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("用法: StoreFootprint memory|offheap 用户数 [查找次数]");
+            System.exit(1);
+        }
+        String engine = args[0];
+        int users = Integer.parseInt(args[1]);
+        int lookups = args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000;
+
+        GcPauses pauses = new GcPauses();
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) gc).addNotificationListener(pauses, null, null);
+        }
+        System.out.printf("引擎: %s, 用户数: %,d, 最大堆: %,d MB, 收集器: %s%n", engine, users,
+                MEMORY.getHeapMemoryUsage().getMax() >> 20, collectorNames());
+
+        long baseline = usedHeapAfterGc();
+        Path dir = null;
+        UserStore store;
+        if ("memory".equals(engine)) {
+            store = new MemoryUserStore();
+        } else if ("offheap".equals(engine)) {
+            dir = Files.createTempDirectory("footprint-offheap-");
+            store = OffHeapUserStore.open(dir);
+        } else {
+            throw new IllegalArgumentException("未知的存储引擎: " + engine);
+        }
+
+        try {
+            pauses.reset();
+            long start = System.nanoTime();
+            insert(store, users);
+            long loadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            System.out.printf("插入: %,d ms, %,.0f 个/秒%n", loadMillis, users * 1000.0 / Math.max(1, loadMillis));
+            System.out.println("插入期间GC: " + pauses);
+
+            long used = usedHeapAfterGc() - baseline;
+            System.out.printf("用户数据占用堆: %,d MB, 每个用户 %,d 字节%n", used >> 20, used / users);
+            if (store instanceof OffHeapUserStore) {
+                OffHeapUserStore offHeap = (OffHeapUserStore) store;
+                System.out.printf("堆外: 记录 %,d MB, 索引 %,d MB%n",
+                        offHeap.getDataBytes() >> 20, offHeap.getIndexBytes() >> 20);
+            }
+
+            start = System.nanoTime();
+            System.gc();
+            System.out.printf("System.gc()耗时: %,d ms%n", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            Thread.sleep(200);
+
+            pauses.reset();
+            Random random = new Random(42);
+            int found = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                if (store.findByUsername(username(random.nextInt(users))) != null) {
+                    found++;
+                }
+            }
+            long lookupNanos = System.nanoTime() - start;
+            System.out.printf("查找: %,d 次, 命中 %,d, %,.0f 次/秒, 平均 %.2f us%n", lookups, found,
+                    lookups * 1e9 / lookupNanos, lookupNanos / 1000.0 / lookups);
+            System.out.println("查找期间GC: " + pauses);
+        } finally {
+            store.close();
+            if (dir != null) {
+                for (String name : new String[] {"users.dat", "users.ids", "users.idx"}) {
+                    Files.deleteIfExists(dir.resolve(name));
+                }
+                Files.delete(dir);
+            }
+        }
+    }
+
+    private static void insert(UserStore store, int users) throws SQLException {
+        Random random = new Random(1);
+        byte[] salt = new byte[16];
+        byte[] hash = new byte[32];
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        List<User> batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < users; i++) {
+            random.nextBytes(salt);
+            random.nextBytes(hash);
+            String password = "pbkdf2$120000$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(hash);
+            batch.add(new User(username(i), password, username(i) + "@example.com"));
+            if (batch.size() == BATCH_SIZE || i == users - 1) {
+                store.insertAll(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private static String username(int i) {
+        return "user" + i;
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        System.gc();
+        System.gc();
+        // GC通知在单独的线程中投递，等它们处理完再读取
+        Thread.sleep(200);
+        return MEMORY.getHeapMemoryUsage().getUsed();
+    }
+
+    private static String collectorNames() {
+        List<String> names = new ArrayList<>();
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            names.add(gc.getName());
+        }
+        return String.join(", ", names);
+    }
+
+    /**
+     * 汇总GC通知中的停顿时间；并发收集器的后台周期不暂停应用线程，不计入
+     */
+    private static final class GcPauses implements NotificationListener {
+        private long count;
+        private long totalMillis;
+        private long maxMillis;
+
+        @Override
+        public synchronized void handleNotification(Notification notification, Object handback) {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                return;
+            }
+            GarbageCollectionNotificationInfo info =
+                    GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            if (info.getGcName().contains("Concurrent") || info.getGcName().contains("Cycles")) {
+                return;
+            }
+            long duration = info.getGcInfo().getDuration();
+            count++;
+            totalMillis += duration;
+            maxMillis = Math.max(maxMillis, duration);
+        }
+
+        synchronized void reset() {
+            count = 0;
+            totalMillis = 0;
+            maxMillis = 0;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%,d 次, 总停顿 %,d ms, 最长 %,d ms", count, totalMillis, maxMillis);
+        }
+    }
+}
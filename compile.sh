@@ -23,7 +23,7 @@ mkdir -p build
 
 # 编译服务器端代码
 echo "编译服务器端代码..."
-javac -cp "lib/sqlite-jdbc-3.42.0.0.jar" -d build src/server/*.java
+javac -cp "lib/sqlite-jdbc-3.42.0.0.jar" -d build src/protocol/*.java src/server/*.java
 
 if [ $? -eq 0 ]; then
     echo "✓ 服务器端编译成功"
@@ -34,7 +34,7 @@ fi
 
 # 编译客户端代码
 echo "编译客户端代码..."
-javac -d build -cp "lib/sqlite-jdbc-3.42.0.0.jar" src/client/*.java
+javac -d build -cp "lib/sqlite-jdbc-3.42.0.0.jar" src/protocol/*.java src/client/*.java
 
 if [ $? -eq 0 ]; then
     echo "✓ 客户端编译成功"
@@ -26,7 +26,7 @@ mkdir -p database
 echo "服务器配置:"
 echo "- 监听端口: 8888"
 echo "- 数据库文件: database/app.db"
-echo "- 最大连接数: 10"
+echo "- 运行模式: ${1:-blocking} (可选 blocking / nio / virtual)"
 echo ""
 echo "按 Ctrl+C 停止服务器"
 echo "=================================="
@@ -34,4 +34,4 @@ echo ""
 
 # 启动服务器
 cd build
-java -cp ".:../lib/sqlite-jdbc-3.42.0.0.jar" server.SocketServer
\ No newline at end of file
+java -cp ".:../lib/sqlite-jdbc-3.42.0.0.jar" server.SocketServer "$@"
\ No newline at end of file
@@ -12,6 +12,8 @@ public class ClientGUI extends JFrame {
 
     private static final long serialVersionUID = 1L;
 
+    private static final int USER_PAGE_SIZE = 100; // 每次从服务器获取的用户数
+
     //组件声明
     private SocketClient socketClient; // Socket客户端实例，用于与服务器通信
     private JTabbedPane tabbedPane; // 主选项卡面板，用于切换不同功能页面
@@ -37,6 +39,8 @@ public class ClientGUI extends JFrame {
     private JButton searchButton; // 搜索按钮
     private JButton clearSearchButton; // 清空搜索按钮
     private JButton refreshButton; // 刷新按钮
+    private JButton loadMoreButton; // 加载更多按钮
+    private String nextUserCursor; // 下一页用户的游标，为null表示已加载全部用户
     private JButton viewUserInfoButton; // 查看用户信息按钮
     private JButton editUserButton; // 编辑用户按钮
     private JButton deleteUserButton; // 删除用户按钮
@@ -290,11 +294,14 @@ public class ClientGUI extends JFrame {
         // 创建按钮面板
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));// 创建按钮面板，使用流式布局
         refreshButton = new JButton("刷新列表");
+        loadMoreButton = new JButton("加载更多");
+        loadMoreButton.setEnabled(false); // 还没有加载过用户列表
         viewUserInfoButton = new JButton("查看信息");
         editUserButton = new JButton("编辑用户");
         deleteUserButton = new JButton("删除用户");
 
         buttonPanel.add(refreshButton);
+        buttonPanel.add(loadMoreButton);
         buttonPanel.add(viewUserInfoButton);
         buttonPanel.add(editUserButton);
         buttonPanel.add(deleteUserButton);
@@ -345,6 +352,14 @@ public class ClientGUI extends JFrame {
             }
         });
 
+        // 加载更多按钮事件
+        loadMoreButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                loadMoreUsers();
+            }
+        });
+
         // 查看用户信息按钮事件
         viewUserInfoButton.addActionListener(new ActionListener() {
             @Override
@@ -526,7 +541,7 @@ public class ClientGUI extends JFrame {
 
     /**
      * 刷新用户列表
-     * 从服务器获取所有用户信息并更新列表显示
+     * 从服务器获取第一页用户并更新列表显示，后续页面通过"加载更多"按需获取
      */
     private void refreshUserList() { // 刷新用户列表的方法
         if (!socketClient.isConnected()) {
@@ -536,29 +551,72 @@ public class ClientGUI extends JFrame {
 
         updateStatus("正在获取用户列表...   ");
 
-        String response = socketClient.getUserList() ;
+        UserListPage page = socketClient.fetchUserPage(USER_PAGE_SIZE, null); // 二进制协议下直接从响应帧解码
 
-        if (socketClient.isResponseSuccess(response)) {
-            String[] users = socketClient.parseUserList(response);
+        if (page != null) {
 
             allUsersModel.clear(); // 清空所有用户
             userListModel.clear(); // 清空用户列表
-
-            for (String user : users) {
-                allUsersModel.addElement(user); // 添加所有用户
-                userListModel.addElement(user); // 添加用户列表
-            }
-
             searchField.setText(""); // 清空搜索框
 
-            updateStatus("用户列表已更新 (" + users.length + " 个用户)"); // 更新状态栏显示用户列表更新成功及用户数量
+            appendUserPage(page); // 添加第一页用户
         } else {// 如果获取失败
-            String message = socketClient.extractMessage(response); // 从响应中提取错误消息
+            String message = socketClient.getLastErrorMessage(); // 获取失败原因
             updateStatus("获取用户列表失败"); // 更新状态栏显示获取失败
             JOptionPane.showMessageDialog(this, "获取用户列表失败！\n" + message, "获取失败", JOptionPane.ERROR_MESSAGE); // 显示获取失败对话框
         }
     }
 
+    /**
+     * 加载下一页用户
+     * 追加到已有列表之后，搜索只在已加载的用户中进行
+     */
+    private void loadMoreUsers() { // 加载下一页用户的方法
+        if (nextUserCursor == null) {
+            return;
+        }
+        if (!socketClient.isConnected()) {
+            JOptionPane.showMessageDialog(this, "请先连接服务器！", "错误", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        updateStatus("正在加载更多用户...   ");
+
+        UserListPage page = socketClient.fetchUserPage(USER_PAGE_SIZE, nextUserCursor);
+
+        if (page != null) {
+            appendUserPage(page);
+            if (!searchField.getText().trim().isEmpty()) {
+                performSearch(); // 有搜索条件时重新筛选
+            }
+        } else {
+            String message = socketClient.getLastErrorMessage();
+            updateStatus("加载更多用户失败");
+            JOptionPane.showMessageDialog(this, "加载更多用户失败！\n" + message, "获取失败", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * 把一页用户追加到列表中，并记录下一页游标
+     *
+     * @param page 一页用户
+     */
+    private void appendUserPage(UserListPage page) { // 追加一页用户的方法
+        boolean filtering = !searchField.getText().trim().isEmpty();
+        for (String user : page.getUsers()) {
+            allUsersModel.addElement(user); // 添加所有用户
+            if (!filtering) {
+                userListModel.addElement(user); // 添加用户列表
+            }
+        }
+
+        nextUserCursor = page.getNextCursor();
+        loadMoreButton.setEnabled(page.hasMore()); // 没有下一页时禁用加载更多按钮
+
+        String more = page.hasMore() ? "，点击\"加载更多\"继续获取" : "";
+        updateStatus("用户列表已更新 (已加载 " + allUsersModel.getSize() + " 个用户" + more + ")"); // 更新状态栏显示已加载的用户数量
+    }
+
     /**
      * 删除选中的用户
      * 确认后向服务器发送删除请求
@@ -662,7 +720,7 @@ public class ClientGUI extends JFrame {
     private void showUserInfoDialog(String response) { // 显示用户详细信息对话框的方法
         try {// 尝试解析用户信息
             // 简单解析JSON响应
-            String id = extractJsonValue(response, "id"); // 提取用户ID
+            String id = socketClient.extractDataField(response, "id"); // 提取用户ID，顶层的id是请求ID
             String username = extractJsonValue(response, "username"); // 提取用户名
             String email = extractJsonValue(response, "email"); // 提取邮箱
             String createdAt = extractJsonValue(response, "createdAt"); // 提取创建时间
@@ -690,45 +748,7 @@ public class ClientGUI extends JFrame {
      * @return 字段值
      */
     private String extractJsonValue(String json, String key) { // 从JSON字符串中提取指定键值的方法
-        String searchKey = "\"" + key + "\":"; // 构建搜索的键格式（带引号和冒号）
-        int startIndex = json.indexOf(searchKey); // 查找键在JSON字符串中的位置
-        if (startIndex == -1) { // 如果没有找到键
-            return null; // 返回null
-        }
-
-        startIndex += searchKey.length(); // 移动到键值部分的开始位置
-
-        // 跳过空格
-        while (startIndex < json.length() && Character.isWhitespace(json.charAt(startIndex))) { // 跳过键值前的空白字符
-            startIndex++; // 移动索引
-        }
-
-        if (startIndex >= json.length()) { // 如果已经到达字符串末尾
-            return null; // 返回null
-        }
-
-        char firstChar = json.charAt(startIndex); // 获取值的第一个字符
-        int endIndex; // 声明结束索引变量
-
-        if (firstChar == '\"') { // 如果值是字符串类型（以引号开始）
-            // 字符串值
-            startIndex++; // 跳过开始的引号
-            endIndex = json.indexOf('\"', startIndex); // 查找结束引号的位置
-            if (endIndex == -1) { // 如果没有找到结束引号
-                return null; // 返回null
-            }
-            return json.substring(startIndex, endIndex); // 返回引号之间的字符串
-        } else { // 如果值是数字或其他类型
-            // 数字或其他值
-            endIndex = startIndex; // 初始化结束索引
-            while (endIndex < json.length() && // 查找值的结束位置
-                    json.charAt(endIndex) != ',' && // 不是逗号
-                    json.charAt(endIndex) != '}' && // 不是右大括号
-                    json.charAt(endIndex) != ']') { // 不是右方括号
-                endIndex++; // 移动结束索引
-            }
-            return json.substring(startIndex, endIndex).trim(); // 返回值并去除首尾空格
-        }
+        return socketClient.extractField(json, key); // 由SocketClient的JSON读取器解析，正确处理转义字符
     }
 
     /**
@@ -0,0 +1,510 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 端到端压力测试
+ * 建立N个连接，每个连接一个线程，通过SocketClient按配置的比例发送register、login、getUserList、
+ * getUserByUsername、updateUser和deleteUser请求，统计吞吐量、错误率和延迟分布。
+ *
+ * load.rate为0时是闭环测试：每个连接收到响应后立即发送下一个请求，测得的是服务器能承受的最大吞吐量。
+ * load.rate大于0时是开环测试：请求按固定速率均匀分布到各个连接，每个请求有预定的发送时间，
+ * 延迟从预定时间而不是实际发送时间算起。服务器变慢时后续请求虽然晚发，但等待的时间也计入延迟，
+ * 不会像闭环测试那样因为少发请求而掩盖停顿（coordinated omission）。同时单独报告从实际发送算起的服务时间。
+ *
+ * 配置（系统属性）：
+ * load.host / load.port 服务器地址（默认localhost:8888）；load.connections 连接数（默认16）；
+ * load.rate 所有连接合计的目标请求数/秒（默认0，闭环）；load.durationSeconds 测量时长（默认30）；
+ * load.warmupSeconds 预热时长，期间的请求不计入结果（默认5）；load.users 每个连接预先注册的用户数（默认10）；
+ * load.mix 各操作的权重（默认register=5,login=20,getUserList=2,getUserByUsername=55,updateUser=10,deleteUser=8）；
+ * load.protocol json或binary（默认json）
+ *
+ * 用法: java -Dload.connections=32 -Dload.rate=2000 client.LoadGenerator
+ */
+public class LoadGenerator {
+
+    private static final String DEFAULT_MIX =
+            "register=5,login=20,getUserList=2,getUserByUsername=55,updateUser=10,deleteUser=8";
+    private static final String PASSWORD = "load-test-password";
+    // 超过测量结束时间仍未返回的连接最多再等待这么久，之后放弃它们的结果
+    private static final long SHUTDOWN_GRACE_MILLIS = 30_000;
+
+    /**
+     * 压测中的操作，名称与协议中的action相同
+     */
+    enum Operation {
+        REGISTER("register"), LOGIN("login"), GET_USER_LIST("getUserList"),
+        GET_USER_BY_USERNAME("getUserByUsername"), UPDATE_USER("updateUser"), DELETE_USER("deleteUser");
+
+        private final String action;
+
+        Operation(String action) {
+            this.action = action;
+        }
+
+        static Operation fromAction(String action) {
+            for (Operation operation : values()) {
+                if (operation.action.equals(action)) {
+                    return operation;
+                }
+            }
+            throw new IllegalArgumentException("未知的操作: " + action);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = System.getProperty("load.host", "localhost");
+        int port = Integer.getInteger("load.port", 8888);
+        int connections = Integer.getInteger("load.connections", 16);
+        double rate = Double.parseDouble(System.getProperty("load.rate", "0"));
+        long durationNanos = TimeUnit.SECONDS.toNanos(Long.getLong("load.durationSeconds", 30));
+        long warmupNanos = TimeUnit.SECONDS.toNanos(Long.getLong("load.warmupSeconds", 5));
+        int users = Integer.getInteger("load.users", 10);
+        boolean binary = "binary".equalsIgnoreCase(System.getProperty("load.protocol", "json"));
+        int[] weights = parseMix(System.getProperty("load.mix", DEFAULT_MIX));
+
+        // 每次运行的用户名前缀不同，多次运行不会互相冲突
+        String prefix = "lg" + Long.toString(System.currentTimeMillis() % 100_000_000L, 36);
+
+        System.out.println("==================================");
+        System.out.println("压力测试: " + host + ":" + port + "，连接数 " + connections + "，"
+                + (rate > 0 ? String.format("开环，目标 %.0f 请求/秒", rate) : "闭环")
+                + "，协议 " + (binary ? "binary" : "json"));
+        System.out.println("预热 " + TimeUnit.NANOSECONDS.toSeconds(warmupNanos) + " 秒，测量 "
+                + TimeUnit.NANOSECONDS.toSeconds(durationNanos) + " 秒，每个连接预先注册 " + users + " 个用户");
+        System.out.println("==================================");
+
+        // 所有连接注册完用户之后由最后一个到达的线程确定统一的开始时间
+        long[] schedule = new long[2];
+        CyclicBarrier barrier = new CyclicBarrier(connections, () -> {
+            schedule[0] = System.nanoTime();
+            schedule[1] = schedule[0] + warmupNanos + durationNanos;
+            System.out.println("用户准备完成，开始发送请求...");
+        });
+
+        // 开环测试中每个连接的请求间隔，各连接错开发送，合起来均匀分布
+        long intervalNanos = rate > 0 ? (long) (connections * 1e9 / rate) : 0;
+
+        List<Worker> workers = new ArrayList<>(connections);
+        List<Thread> threads = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            Worker worker = new Worker(i, new SocketClient(host, port, binary), prefix, users, weights,
+                    barrier, schedule, warmupNanos, intervalNanos, intervalNanos * i / connections);
+            Thread thread = new Thread(worker, "load-" + i);
+            thread.setDaemon(true);
+            workers.add(worker);
+            threads.add(thread);
+            thread.start();
+        }
+
+        long deadline = System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(warmupNanos + durationNanos)
+                + SHUTDOWN_GRACE_MILLIS;
+        List<Worker> finished = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            // 注册用户的时间不计入等待上限，等所有连接开始发送请求之后才开始计算
+            while (schedule[1] == 0 && threads.get(i).isAlive() && !workers.get(i).failed) {
+                threads.get(i).join(100);
+                deadline = Math.max(deadline, System.currentTimeMillis()
+                        + TimeUnit.NANOSECONDS.toMillis(warmupNanos + durationNanos) + SHUTDOWN_GRACE_MILLIS);
+            }
+            threads.get(i).join(Math.max(1, deadline - System.currentTimeMillis()));
+            if (!threads.get(i).isAlive() && !workers.get(i).failed) {
+                finished.add(workers.get(i));
+            }
+        }
+        if (finished.size() < connections) {
+            System.out.println("警告: " + (connections - finished.size()) + " 个连接连接失败或没有按时结束，结果中不包含这些连接");
+        }
+
+        report(finished, rate, durationNanos);
+    }
+
+    /**
+     * 解析操作权重，如"login=3,getUserByUsername=7"，未列出的操作权重为0
+     */
+    static int[] parseMix(String mix) {
+        int[] weights = new int[Operation.values().length];
+        int total = 0;
+        for (String item : mix.split(",")) {
+            if (item.trim().isEmpty()) {
+                continue;
+            }
+            String[] pair = item.split("=");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("操作比例格式错误: " + item);
+            }
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("操作权重不能为负数: " + item);
+            }
+            weights[Operation.fromAction(pair[0].trim()).ordinal()] = weight;
+            total += weight;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("至少需要一个权重大于0的操作");
+        }
+        return weights;
+    }
+
+    private static void report(List<Worker> workers, double rate, long durationNanos) {
+        int operationCount = Operation.values().length;
+        Histogram allResponse = new Histogram();
+        Histogram allService = new Histogram();
+        Histogram[] byOperation = new Histogram[operationCount];
+        long[] errors = new long[operationCount];
+        for (int i = 0; i < operationCount; i++) {
+            byOperation[i] = new Histogram();
+        }
+        for (Worker worker : workers) {
+            for (int i = 0; i < operationCount; i++) {
+                byOperation[i].add(worker.responseTimes[i]);
+                allResponse.add(worker.responseTimes[i]);
+                errors[i] += worker.errors[i];
+            }
+            allService.add(worker.serviceTimes);
+        }
+
+        long totalErrors = 0;
+        for (long count : errors) {
+            totalErrors += count;
+        }
+        long unsent = 0;
+        for (Worker worker : workers) {
+            unsent += worker.unsent;
+        }
+        long total = allResponse.getCount();
+        double seconds = durationNanos / 1e9;
+        double throughput = total / seconds;
+
+        System.out.println("==================================");
+        System.out.printf("完成请求: %d，错误: %d（%.2f%%），吞吐量: %.1f 请求/秒%n",
+                total, totalErrors, total == 0 ? 0.0 : totalErrors * 100.0 / total, throughput);
+        if (unsent > 0) {
+            System.out.printf("测量结束时还有 %d 个计划内的请求没有发送，服务器或本机已经饱和%n", unsent);
+        } else if (rate > 0 && throughput < rate * 0.95) {
+            System.out.printf("注意: 实际吞吐量低于目标的95%%，服务器或本机已经饱和，延迟中包含请求排队的时间%n");
+        }
+        System.out.println();
+        System.out.printf("%-20s %9s %7s %10s %9s %9s %9s %9s %9s%n",
+                "操作", "次数", "错误", "请求/秒", "p50(ms)", "p90(ms)", "p99(ms)", "p999(ms)", "最大(ms)");
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = byOperation[operation.ordinal()];
+            if (histogram.getCount() > 0) {
+                printRow(operation.action, histogram, errors[operation.ordinal()], seconds);
+            }
+        }
+        printRow("全部", allResponse, totalErrors, seconds);
+        if (rate > 0) {
+            // 开环测试中两者的差就是请求等待发送的时间
+            printRow("全部(服务时间)", allService, totalErrors, seconds);
+        }
+
+        System.out.println();
+        System.out.println(rate > 0 ? "延迟分布（从预定发送时间算起）:" : "延迟分布:");
+        allResponse.printDistribution();
+        System.out.println("==================================");
+    }
+
+    private static void printRow(String name, Histogram histogram, long errors, double seconds) {
+        System.out.printf("%-20s %9d %7d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n", name, histogram.getCount(), errors,
+                histogram.getCount() / seconds,
+                histogram.getValueAtQuantile(0.5) / 1e6, histogram.getValueAtQuantile(0.9) / 1e6,
+                histogram.getValueAtQuantile(0.99) / 1e6, histogram.getValueAtQuantile(0.999) / 1e6,
+                histogram.getMax() / 1e6);
+    }
+
+    /**
+     * 单个连接上的请求循环，结果只由本线程写入，结束后由主线程汇总
+     */
+    private static class Worker implements Runnable {
+        private final int id;
+        private final SocketClient client;
+        private final String prefix;
+        private final int userCount;
+        private final int[] weights;
+        private final int totalWeight;
+        private final CyclicBarrier barrier;
+        private final long[] schedule;
+        private final long warmupNanos;
+        private final long intervalNanos;
+        private final long offsetNanos;
+
+        private final List<String> users = new ArrayList<>();
+        // 测试中注册的用户，deleteUser从这里取，不删除预先注册的用户
+        private final List<String> created = new ArrayList<>();
+        private final Random random = new Random();
+        private long sequence;
+
+        private final Histogram[] responseTimes = new Histogram[Operation.values().length];
+        private final Histogram serviceTimes = new Histogram();
+        private final long[] errors = new long[Operation.values().length];
+        private long unsent;
+        private volatile boolean failed;
+
+        Worker(int id, SocketClient client, String prefix, int userCount, int[] weights, CyclicBarrier barrier,
+               long[] schedule, long warmupNanos, long intervalNanos, long offsetNanos) {
+            this.id = id;
+            this.client = client;
+            this.prefix = prefix;
+            this.userCount = userCount;
+            this.weights = weights;
+            int sum = 0;
+            for (int weight : weights) {
+                sum += weight;
+            }
+            this.totalWeight = sum;
+            this.barrier = barrier;
+            this.schedule = schedule;
+            this.warmupNanos = warmupNanos;
+            this.intervalNanos = intervalNanos;
+            this.offsetNanos = offsetNanos;
+            for (int i = 0; i < responseTimes.length; i++) {
+                responseTimes[i] = new Histogram();
+            }
+        }
+
+        @Override
+        public void run() {
+            client.setTrace(false);
+            if (!client.connect()) {
+                failed = true;
+                barrier.reset();
+                return;
+            }
+            try {
+                for (int i = 0; i < userCount; i++) {
+                    String username = nextUsername();
+                    if (client.isResponseSuccess(client.register(username, PASSWORD, username + "@example.com"))) {
+                        users.add(username);
+                    }
+                }
+                if (users.isEmpty() && userCount > 0) {
+                    System.err.println("连接 " + id + " 注册测试用户失败");
+                }
+                barrier.await();
+                runLoop();
+            } catch (Exception e) {
+                // 其他连接失败时屏障被重置，本连接也随之结束
+                failed = true;
+            } finally {
+                client.disconnect();
+            }
+        }
+
+        private void runLoop() {
+            long start = schedule[0];
+            long end = schedule[1];
+            long measureFrom = start + warmupNanos;
+            long next = start + offsetNanos;
+            while (true) {
+                long intended;
+                if (intervalNanos > 0) {
+                    intended = next;
+                    next += intervalNanos;
+                    // 落后于计划时不等待也不跳过，立即发送，排队的时间计入延迟
+                    long wait;
+                    while ((wait = intended - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                } else {
+                    intended = System.nanoTime();
+                }
+                if (intended >= end) {
+                    return;
+                }
+                if (intervalNanos > 0 && System.nanoTime() >= end) {
+                    // 测量时间已到，计划内但没来得及发送的请求单独统计，不再补发
+                    long behind = (end - intended + intervalNanos - 1) / intervalNanos;
+                    if (intended >= measureFrom) {
+                        unsent += behind;
+                    } else {
+                        unsent += Math.max(0, (end - measureFrom + intervalNanos - 1) / intervalNanos);
+                    }
+                    return;
+                }
+
+                Operation operation = pick();
+                long sent = System.nanoTime();
+                boolean success = execute(operation);
+                long done = System.nanoTime();
+                if (intended >= measureFrom) {
+                    responseTimes[operation.ordinal()].record(done - intended);
+                    serviceTimes.record(done - sent);
+                    if (!success) {
+                        errors[operation.ordinal()]++;
+                    }
+                }
+            }
+        }
+
+        private Operation pick() {
+            int value = random.nextInt(totalWeight);
+            for (Operation operation : Operation.values()) {
+                value -= weights[operation.ordinal()];
+                if (value < 0) {
+                    return operation;
+                }
+            }
+            return Operation.GET_USER_BY_USERNAME;
+        }
+
+        private boolean execute(Operation operation) {
+            String response;
+            switch (operation) {
+                case REGISTER:
+                    return register();
+                case LOGIN:
+                    response = client.login(randomUser(), PASSWORD);
+                    break;
+                case GET_USER_LIST:
+                    response = client.getUserList();
+                    break;
+                case GET_USER_BY_USERNAME:
+                    response = client.getUserByUsername(randomUser());
+                    break;
+                case UPDATE_USER:
+                    // 只修改邮箱，密码不变，之后的登录仍然有效
+                    response = client.updateUser(randomUser(), null, "updated" + random.nextInt(1000) + "@example.com");
+                    break;
+                case DELETE_USER:
+                    if (created.isEmpty()) {
+                        // 还没有可删除的用户时改为注册，保证删除的都是测试中创建的用户
+                        return register();
+                    }
+                    response = client.deleteUser(created.remove(created.size() - 1));
+                    break;
+                default:
+                    throw new IllegalStateException("未知的操作: " + operation);
+            }
+            return client.isResponseSuccess(response);
+        }
+
+        private boolean register() {
+            String username = nextUsername();
+            boolean success = client.isResponseSuccess(client.register(username, PASSWORD, username + "@example.com"));
+            if (success) {
+                created.add(username);
+            }
+            return success;
+        }
+
+        private String randomUser() {
+            if (users.isEmpty()) {
+                return prefix + "_missing";
+            }
+            return users.get(random.nextInt(users.size()));
+        }
+
+        private String nextUsername() {
+            return prefix + "_" + id + "_" + (sequence++);
+        }
+    }
+
+    /**
+     * 延迟直方图，桶的划分方式与服务器的LatencyHistogram相同（每个2的幂区间32个子桶，相对误差约3%），
+     * 只由一个线程写入，结束后合并，不需要原子操作
+     */
+    static final class Histogram {
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int MAX_EXPONENT = 40;
+        private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + SUB_BUCKETS;
+
+        private final long[] buckets = new long[BUCKET_COUNT];
+        private long count;
+        private long max;
+
+        void record(long nanos) {
+            long value = Math.max(0, nanos);
+            buckets[bucketOf(value)]++;
+            count++;
+            max = Math.max(max, value);
+        }
+
+        void add(Histogram other) {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                buckets[i] += other.buckets[i];
+            }
+            count += other.count;
+            max = Math.max(max, other.max);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        long getMax() {
+            return max;
+        }
+
+        long getValueAtQuantile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(upperBoundOf(i), max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * 按毫秒的2的幂区间打印请求数和累计比例
+         */
+        void printDistribution() {
+            if (count == 0) {
+                System.out.println("  （没有请求）");
+                return;
+            }
+            long lower = 0;
+            long upper = 1_000_000 / 8;
+            long cumulative = 0;
+            while (cumulative < count) {
+                long inRange = 0;
+                for (int i = 0; i < BUCKET_COUNT; i++) {
+                    long bound = upperBoundOf(i);
+                    if (bound >= lower && bound < upper) {
+                        inRange += buckets[i];
+                    }
+                }
+                cumulative += inRange;
+                if (inRange > 0) {
+                    int bar = (int) Math.round(inRange * 40.0 / count);
+                    System.out.printf("  %9.3f - %9.3f ms %10d %7.3f%% %s%n", lower / 1e6, upper / 1e6, inRange,
+                            cumulative * 100.0 / count, "#".repeat(Math.max(bar, 1)));
+                }
+                lower = upper;
+                upper *= 2;
+            }
+        }
+
+        private static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            if (exponent > MAX_EXPONENT) {
+                return BUCKET_COUNT - 1;
+            }
+            int shift = exponent - SUB_BUCKET_BITS;
+            return (shift + 1) * SUB_BUCKETS + ((int) (value >>> shift) & (SUB_BUCKETS - 1));
+        }
+
+        private static long upperBoundOf(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            return ((SUB_BUCKETS + (long) (bucket % SUB_BUCKETS) + 1) << shift) - 1;
+        }
+    }
+}
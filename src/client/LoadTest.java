@@ -0,0 +1,147 @@
+package client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 连接数压力测试
+ * 先同时建立N个长连接，再由少量线程轮流在这些连接上发送请求，
+ * 统计实际得到服务的连接数、吞吐量和延迟分位数，用于比较不同服务器运行模式
+ *
+ * 用法: java client.LoadTest [host] [port] [连接数] [每个连接的请求数] [测试用户名]
+ */
+public class LoadTest {
+
+    private static final int TIMEOUT_MILLIS = 5000;
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8888;
+        int connectionCount = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int requestsPerConnection = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+        String username = args.length > 4 ? args[4] : "admin";
+
+        String request = "{\"action\":\"getUserByUsername\",\"data\":{\"username\":\"" + username + "\"}}";
+
+        // 建立所有连接
+        List<Connection> connections = new ArrayList<>();
+        int failedConnects = 0;
+        for (int i = 0; i < connectionCount; i++) {
+            try {
+                connections.add(new Connection(host, port));
+            } catch (IOException e) {
+                failedConnects++;
+            }
+        }
+        System.out.println("已建立连接: " + connections.size() + "，失败: " + failedConnects);
+
+        // 用固定数量的线程轮流驱动所有连接
+        int threads = Math.min(connections.size(), 64);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(threads, 1));
+        long[] latencies = new long[connections.size() * requestsPerConnection];
+        AtomicInteger latencyCount = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        AtomicInteger servedConnections = new AtomicInteger();
+
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            executor.execute(() -> {
+                for (int round = 0; round < requestsPerConnection; round++) {
+                    for (int i = offset; i < connections.size(); i += threads) {
+                        Connection connection = connections.get(i);
+                        if (connection.broken) {
+                            continue;
+                        }
+                        long begin = System.nanoTime();
+                        try {
+                            String response = connection.send(request);
+                            latencies[latencyCount.getAndIncrement()] = System.nanoTime() - begin;
+                            if (response == null) {
+                                connection.broken = true;
+                                errors.incrementAndGet();
+                            } else if (round == 0) {
+                                servedConnections.incrementAndGet();
+                            }
+                        } catch (IOException e) {
+                            // 超时说明服务器没有为这个连接分配处理线程
+                            connection.broken = true;
+                            errors.incrementAndGet();
+                        }
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        long elapsed = System.nanoTime() - start;
+
+        for (Connection connection : connections) {
+            connection.close();
+        }
+
+        int count = latencyCount.get();
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+
+        System.out.println("==================================");
+        System.out.println("得到服务的连接数: " + servedConnections.get() + " / " + connectionCount);
+        System.out.println("完成请求数: " + count + "，错误/超时: " + errors.get());
+        System.out.printf("吞吐量: %.1f 请求/秒%n", count / (elapsed / 1e9));
+        System.out.printf("延迟 p50: %.2f ms，p99: %.2f ms，max: %.2f ms%n",
+                percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 1.0));
+        System.out.println("==================================");
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+
+    /**
+     * 单个测试连接
+     */
+    private static class Connection {
+        private final Socket socket;
+        private final BufferedReader reader;
+        private final PrintWriter writer;
+        private volatile boolean broken = false;
+
+        Connection(String host, int port) throws IOException {
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(host, port), TIMEOUT_MILLIS);
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            writer = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+        }
+
+        String send(String request) throws IOException {
+            writer.println(request);
+            return reader.readLine();
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+        }
+    }
+}
@@ -1,36 +1,126 @@
 package client;
 
+import protocol.BinaryProtocol;
+import protocol.BinaryReader;
+import protocol.BinaryWriter;
+import protocol.JsonReader;
+import protocol.JsonWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * Socket客户端类
  * 负责与服务器建立连接并进行通信
+ * 默认使用JSON，-Dclient.protocol=binary 时连接后尝试协商二进制协议，服务器不支持则继续使用JSON。
+ * 二进制模式下公开方法仍然返回JSON格式的响应字符串，fetchUserList()直接从帧中解码用户列表。
+ *
+ * 第一次调用异步方法后启动响应读取线程，之后每个请求都带上请求ID，
+ * 同一连接上可以同时有多个请求在途，响应按ID交给对应的CompletableFuture，同步方法也改为等待该Future
  */
 public class SocketClient {
     private static final String SERVER_HOST = "localhost";
     private static final int SERVER_PORT = 8888;
 
+    private static final String[] DATA_FIELD = {"data"};
+    private static final String[] USER_FIELDS = {"username", "email"};
+
+    private static final long NO_REQUEST_ID = -1;
+
+    private static final boolean PREFER_BINARY =
+            "binary".equalsIgnoreCase(System.getProperty("client.protocol", "json"));
+
     private Socket socket;
     private BufferedReader reader;
     private PrintWriter writer;
     private boolean isConnected = false;
 
+    private final String host;
+    private final int port;
+    private final boolean preferBinary;
+    // 是否在控制台打印每个请求和响应，压力测试时关闭
+    private boolean trace = true;
+    private boolean binaryMode = false;
+    private InputStream frameIn;
+    private OutputStream frameOut;
+    private String lastErrorMessage;
+
+    // 帧写入器和输出流由sendLock保护；未启用异步模式时同步请求持有该锁直到读到响应
+    private final Object sendLock = new Object();
+    private final BinaryWriter frameWriter = new BinaryWriter();
+
+    private final Map<Long, CompletableFuture<String>> pendingRequests = new ConcurrentHashMap<>();
+    private final AtomicLong nextRequestId = new AtomicLong();
+    private volatile Thread responseReader;
+    private volatile boolean responsesClosed = false;
+
+    public SocketClient() {
+        this(PREFER_BINARY);
+    }
+
+    /**
+     * 构造函数
+     * @param preferBinary 连接后是否尝试协商二进制协议
+     */
+    public SocketClient(boolean preferBinary) {
+        this(SERVER_HOST, SERVER_PORT, preferBinary);
+    }
+
+    /**
+     * 构造函数
+     * @param host 服务器地址
+     * @param port 服务器端口
+     * @param preferBinary 连接后是否尝试协商二进制协议
+     */
+    public SocketClient(String host, int port, boolean preferBinary) {
+        this.host = host;
+        this.port = port;
+        this.preferBinary = preferBinary;
+    }
+
+    /**
+     * 设置是否在控制台打印每个请求和响应，默认打印
+     * @param trace 是否打印
+     */
+    public void setTrace(boolean trace) {
+        this.trace = trace;
+    }
+
     /**
      * 连接到服务器
      * @return 连接是否成功
      */
     public boolean connect() {
         try {
-            socket = new Socket(SERVER_HOST, SERVER_PORT);
+            socket = new Socket(host, port);
             reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
             writer = new PrintWriter(socket.getOutputStream(), true);
             isConnected = true;
+            responseReader = null;
+            responsesClosed = false;
 
-            System.out.println("成功连接到服务器: " + SERVER_HOST + ":" + SERVER_PORT);
+            if (trace) {
+                System.out.println("成功连接到服务器: " + host + ":" + port);
+            }
+            if (preferBinary) {
+                negotiateBinary();
+            }
             return true;
         } catch (IOException e) {
             System.err.println("连接服务器失败: " + e.getMessage());
@@ -44,13 +134,20 @@ public class SocketClient {
      */
     public void disconnect() {
         try {
-            if (reader != null) reader.close();
-            if (writer != null) writer.close();
+            // 先关闭Socket，让阻塞在读取上的响应读取线程退出并释放reader的锁
             if (socket != null && socket.isConnected()) {
                 socket.close();
             }
+            if (reader != null) reader.close();
+            if (writer != null) writer.close();
+            if (frameIn != null) frameIn.close();
+            if (frameOut != null) frameOut.close();
             isConnected = false;
-            System.out.println("已断开与服务器的连接");
+            binaryMode = false;
+            responseReader = null;
+            if (trace) {
+                System.out.println("已断开与服务器的连接");
+            }
         } catch (IOException e) {
             System.err.println("断开连接失败: " + e.getMessage());
         }
@@ -65,13 +162,26 @@ public class SocketClient {
         if(!isConnected) {
             return createErrorResponse("未连接到服务器");
         }
+        synchronized (sendLock) {
+            if (responseReader == null) {
+                return binaryMode ? sendRequestFrame(request) : sendRequestLine(request);
+            }
+        }
+        return sendRequestAsync(request).join();
+    }
+
+    private String sendRequestLine(String request) {
         try {
             writer.println(request);
             //使用 writer.write(request) 可能不会发送换行符，而服务器端使用 reader.readLine() 读取数据时需要换行符作为结束标志。应该使用 writer.println(request) 或 writer.write(request + "\n") 。
-            System.out.println("发送请求: " + request);
+            if (trace) {
+                System.out.println("发送请求: " + request);
+            }
 
             String response = reader.readLine();
-            System.out.println("接收响应: " + response);
+            if (trace) {
+                System.out.println("接收响应: " + response);
+            }
 
             return response;
         } catch (IOException e) {
@@ -80,6 +190,128 @@ public class SocketClient {
         }
     }
 
+    private String sendRequestFrame(String request) {
+        try {
+            writeRequestFrame(request, NO_REQUEST_ID);
+        } catch (IllegalArgumentException e) {
+            return createErrorResponse("请求格式错误");
+        }
+        return exchangeFrame();
+    }
+
+    /**
+     * 异步发送请求
+     * 请求会带上请求ID，不等待响应即返回，可以连续发送多个请求，服务器按完成顺序返回响应
+     * @param request JSON请求字符串
+     * @return 完成时得到JSON格式的响应字符串；发送失败或连接断开时得到错误响应
+     */
+    public CompletableFuture<String> sendRequestAsync(String request) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        if (!isConnected) {
+            future.complete(createErrorResponse("未连接到服务器"));
+            return future;
+        }
+        startResponseReader();
+
+        long id = nextRequestId.incrementAndGet();
+        pendingRequests.put(id, future);
+        try {
+            synchronized (sendLock) {
+                if (binaryMode) {
+                    writeRequestFrame(request, id);
+                    frameOut.write(frameWriter.array(), frameWriter.offset(), frameWriter.length());
+                    frameOut.flush();
+                } else {
+                    writer.println(withRequestId(request, id));
+                    if (writer.checkError()) {
+                        throw new IOException("写入请求失败");
+                    }
+                }
+            }
+        } catch (IOException e) {
+            pendingRequests.remove(id);
+            future.complete(createErrorResponse("发送请求失败: " + e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            pendingRequests.remove(id);
+            future.complete(createErrorResponse("请求格式错误"));
+        }
+
+        // 读取线程已经退出时不会再有响应，不能让Future一直等待
+        if (responsesClosed && pendingRequests.remove(id) != null) {
+            future.complete(createErrorResponse("服务器已关闭连接"));
+        }
+        return future;
+    }
+
+    /**
+     * 异步根据用户名获取用户信息
+     * @param username 用户名
+     * @return 完成时得到服务器响应
+     */
+    public CompletableFuture<String> getUserByUsernameAsync(String username) {
+        return sendRequestAsync(createGetUserByUsernameRequest(username));
+    }
+
+    /**
+     * 启动响应读取线程，此后该连接上的所有请求都带请求ID
+     */
+    private void startResponseReader() {
+        synchronized (sendLock) {
+            if (responseReader != null) {
+                return;
+            }
+            Thread thread = new Thread(this::readResponses, "SocketClient-responses");
+            thread.setDaemon(true);
+            responseReader = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * 在读取线程中循环读取响应，按请求ID完成对应的Future
+     */
+    private void readResponses() {
+        String failure = "服务器已关闭连接";
+        try {
+            while (true) {
+                String response;
+                long id;
+                if (binaryMode) {
+                    byte[] frame = BinaryProtocol.readFrame(frameIn);
+                    if (frame == null) {
+                        break;
+                    }
+                    id = frameRequestId(frame);
+                    response = frameToJson(frame);
+                } else {
+                    response = reader.readLine();
+                    if (response == null) {
+                        break;
+                    }
+                    String idValue = extractField(response, "id");
+                    id = idValue != null ? Long.parseLong(idValue) : NO_REQUEST_ID;
+                }
+
+                CompletableFuture<String> future = pendingRequests.remove(id);
+                if (future != null) {
+                    future.complete(response);
+                } else {
+                    System.err.println("收到无法匹配的响应: " + response);
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            failure = "接收响应失败: " + e.getMessage();
+        }
+
+        responsesClosed = true;
+        for (Long id : pendingRequests.keySet()) {
+            CompletableFuture<String> future = pendingRequests.remove(id);
+            if (future != null) {
+                future.complete(createErrorResponse(failure));
+            }
+        }
+    }
+
     /**
      * 用户注册请求
      * @param username 用户名
@@ -88,6 +320,9 @@ public class SocketClient {
      * @return 服务器响应
      */
     public String register(String username, String password, String email) {
+        if (useFrames()) {
+            return sendFrame(BinaryProtocol.REGISTER, username, password, email != null ? email : "");
+        }
         String request = createRegisterRequest(username, password, email);
         return sendRequest(request);
     }
@@ -99,6 +334,9 @@ public class SocketClient {
      * @return 服务器响应
      */
     public String login(String username, String password) {
+        if (useFrames()) {
+            return sendFrame(BinaryProtocol.LOGIN, username, password);
+        }
         String request = createLoginRequest(username, password);
         return sendRequest(request);
     }
@@ -108,16 +346,30 @@ public class SocketClient {
      * @return 服务器响应
      */
     public String getUserList() {
+        if (useFrames()) {
+            return sendFrame(BinaryProtocol.GET_USER_LIST);
+        }
         String request = createGetUserListRequest();
         return sendRequest(request);
     }
 
+    /**
+     * 获取服务器指标请求，响应的data中包含各操作的请求数和延迟分位数、内部步骤耗时、计数器和即时值
+     * @return 服务器响应
+     */
+    public String getServerStats() {
+        return sendRequest(createGetServerStatsRequest());
+    }
+
     /**
      * 删除用户请求
      * @param username 要删除的用户名
      * @return 服务器响应
      */
     public String deleteUser(String username) {
+        if (useFrames()) {
+            return sendFrame(BinaryProtocol.DELETE_USER, username, null);
+        }
         String request = createDeleteUserRequest(username);
         return sendRequest(request);
     }
@@ -128,6 +380,9 @@ public class SocketClient {
      * @return 服务器响应
      */
     public String getUserByUsername(String username) {
+        if (useFrames()) {
+            return sendFrame(BinaryProtocol.GET_USER_BY_USERNAME, username);
+        }
         String request = createGetUserByUsernameRequest(username);
         return sendRequest(request);
     }
@@ -140,10 +395,581 @@ public class SocketClient {
      * @return 服务器响应
      */
     public String updateUser(String username, String newPassword, String newEmail) {
+        if (useFrames()) {
+            return sendFrame(BinaryProtocol.UPDATE_USER, username, blankToNull(newPassword), blankToNull(newEmail));
+        }
         String request = createUpdateUserRequest(username, newPassword, newEmail);
         return sendRequest(request);
     }
 
+    /**
+     * 批量注册请求，服务器在一个事务中插入所有用户，密码并行哈希
+     * @param users 每一项为{用户名, 密码, 邮箱}，邮箱可为null
+     * @return 服务器响应，data中按顺序是每一项的结果
+     */
+    public String batchRegister(List<String[]> users) {
+        return sendBatch("batchRegister", BinaryProtocol.BATCH_REGISTER, users);
+    }
+
+    /**
+     * 批量根据用户名获取用户信息请求
+     * @param usernames 用户名
+     * @return 服务器响应，data中按顺序是每一项的结果，找到的项带有用户信息
+     */
+    public String batchGetUsers(List<String> usernames) {
+        return sendBatch("batchGetUsers", BinaryProtocol.BATCH_GET_USERS, toItems(usernames));
+    }
+
+    /**
+     * 批量删除用户请求，服务器在一个事务中删除
+     * @param usernames 要删除的用户名
+     * @return 服务器响应，data中按顺序是每一项的结果
+     */
+    public String batchDelete(List<String> usernames) {
+        return sendBatch("batchDelete", BinaryProtocol.BATCH_DELETE, toItems(usernames));
+    }
+
+    private String sendBatch(String action, int opcode, List<String[]> items) {
+        if (useFrames()) {
+            synchronized (sendLock) {
+                frameWriter.beginFrame(opcode);
+                writeBatchItems(opcode, items);
+                frameWriter.endFrame();
+                return exchangeFrame();
+            }
+        }
+        return sendRequest(createBatchRequest(action, BinaryProtocol.fieldsOf(opcode), items));
+    }
+
+    private static List<String[]> toItems(List<String> usernames) {
+        List<String[]> items = new ArrayList<>(usernames.size());
+        for (String username : usernames) {
+            items.add(new String[] {username});
+        }
+        return items;
+    }
+
+    /**
+     * 写出批量帧的负载：项数和每一项的字段，字段顺序与BinaryProtocol中定义的一致
+     */
+    private void writeBatchItems(int opcode, List<String[]> items) {
+        String[] fields = BinaryProtocol.fieldsOf(opcode);
+        frameWriter.writeVarint(items.size());
+        for (String[] item : items) {
+            for (int i = 0; i < fields.length; i++) {
+                frameWriter.writeNullableString(i < item.length ? item[i] : null);
+            }
+        }
+    }
+
+    /**
+     * 获取用户列表并解析为"用户名 (邮箱)"数组
+     * 二进制模式下直接从响应帧解码，不经过JSON
+     * @return 用户列表，失败时返回null，错误消息可通过getLastErrorMessage()获取
+     */
+    public String[] fetchUserList() {
+        if (!useFrames()) {
+            String response = getUserList();
+            if (!isResponseSuccess(response)) {
+                lastErrorMessage = extractMessage(response);
+                return null;
+            }
+            return parseUserList(response);
+        }
+
+        try {
+            byte[] frame;
+            synchronized (sendLock) {
+                frameWriter.beginFrame(BinaryProtocol.GET_USER_LIST).endFrame();
+                frame = exchange();
+            }
+            BinaryReader in = new BinaryReader(frame);
+            int opcode = in.readByte();
+            if (opcode != BinaryProtocol.RESPONSE_USER_LIST) {
+                lastErrorMessage = opcode == BinaryProtocol.RESPONSE_ERROR ? in.readString() : "解析响应失败";
+                return null;
+            }
+
+            return readUserEntries(in);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("获取用户列表失败: " + e.getMessage());
+            lastErrorMessage = "发送请求失败: " + e.getMessage();
+            return null;
+        }
+    }
+
+    /**
+     * 获取一页用户
+     * @param pageSize 每页用户数
+     * @param cursor 上一页返回的游标，获取第一页时为null
+     * @return 服务器响应，data为本页用户，nextCursor为下一页游标（最后一页为null）
+     */
+    public String getUserPage(int pageSize, String cursor) {
+        if (useFrames()) {
+            return sendFrame(BinaryProtocol.GET_USER_PAGE, String.valueOf(pageSize), cursor);
+        }
+        String request = createGetUserPageRequest(pageSize, cursor);
+        return sendRequest(request);
+    }
+
+    /**
+     * 获取一页用户并解析为"用户名 (邮箱)"数组
+     * 二进制模式下直接从响应帧解码，不经过JSON
+     * @param pageSize 每页用户数
+     * @param cursor 上一页返回的游标，获取第一页时为null
+     * @return 一页用户，失败时返回null，错误消息可通过getLastErrorMessage()获取
+     */
+    public UserListPage fetchUserPage(int pageSize, String cursor) {
+        if (!useFrames()) {
+            String response = getUserPage(pageSize, cursor);
+            if (!isResponseSuccess(response)) {
+                lastErrorMessage = extractMessage(response);
+                return null;
+            }
+            return new UserListPage(parseUserList(response), extractField(response, "nextCursor"));
+        }
+
+        try {
+            byte[] frame;
+            synchronized (sendLock) {
+                frameWriter.beginFrame(BinaryProtocol.GET_USER_PAGE)
+                        .writeNullableString(String.valueOf(pageSize))
+                        .writeNullableString(cursor)
+                        .endFrame();
+                frame = exchange();
+            }
+            BinaryReader in = new BinaryReader(frame);
+            int opcode = in.readByte();
+            if (opcode != BinaryProtocol.RESPONSE_USER_PAGE) {
+                lastErrorMessage = opcode == BinaryProtocol.RESPONSE_ERROR ? in.readString() : "解析响应失败";
+                return null;
+            }
+            String nextCursor = in.readNullableString();
+            return new UserListPage(readUserEntries(in), nextCursor);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("获取用户列表失败: " + e.getMessage());
+            lastErrorMessage = "发送请求失败: " + e.getMessage();
+            return null;
+        }
+    }
+
+    /**
+     * 流式获取所有用户
+     * 服务器边读数据库边分块发送，每收到一块就交给回调，客户端同样只保留当前一块；
+     * 回调执行期间不会读取下一块，处理得慢时服务器随之放慢。
+     * 异步模式下响应由读取线程分发，不支持流式获取
+     * @param chunkHandler 每块用户的回调，每项格式为"用户名 (邮箱)"
+     * @return 用户总数，失败时返回-1，错误消息可通过getLastErrorMessage()获取
+     */
+    public long streamUsers(Consumer<String[]> chunkHandler) {
+        try {
+            synchronized (sendLock) {
+                if (responseReader != null) {
+                    lastErrorMessage = "异步模式下不支持流式获取用户";
+                    return -1;
+                }
+                return binaryMode ? streamUserFrames(chunkHandler) : streamUserLines(chunkHandler);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("流式获取用户失败: " + e.getMessage());
+            lastErrorMessage = "接收响应失败: " + e.getMessage();
+            return -1;
+        }
+    }
+
+    private long streamUserLines(Consumer<String[]> chunkHandler) throws IOException {
+        writer.println(createStreamUsersRequest());
+        if (trace) {
+            System.out.println("发送请求: 流式获取用户");
+        }
+        while (true) {
+            String response = reader.readLine();
+            if (response == null) {
+                throw new IOException("服务器已关闭连接");
+            }
+            if (!isResponseSuccess(response)) {
+                lastErrorMessage = extractMessage(response);
+                return -1;
+            }
+            chunkHandler.accept(parseUserList(response));
+            if ("false".equals(extractField(response, "more"))) {
+                return Long.parseLong(extractField(response, "total"));
+            }
+        }
+    }
+
+    private long streamUserFrames(Consumer<String[]> chunkHandler) throws IOException {
+        frameWriter.beginFrame(BinaryProtocol.STREAM_USERS).endFrame();
+        frameOut.write(frameWriter.array(), frameWriter.offset(), frameWriter.length());
+        frameOut.flush();
+        if (trace) {
+            System.out.println("发送二进制请求: 流式获取用户");
+        }
+        while (true) {
+            byte[] frame = BinaryProtocol.readFrame(frameIn);
+            if (frame == null) {
+                throw new IOException("服务器已关闭连接");
+            }
+            BinaryReader in = new BinaryReader(frame);
+            int opcode = in.readByte();
+            if (opcode != BinaryProtocol.RESPONSE_USER_CHUNK) {
+                lastErrorMessage = opcode == BinaryProtocol.RESPONSE_ERROR ? in.readString() : "解析响应失败";
+                return -1;
+            }
+            long total = in.readVarlong() - 1;
+            chunkHandler.accept(readUserEntries(in));
+            if (total >= 0) {
+                return total;
+            }
+        }
+    }
+
+    /**
+     * 从帧中读取用户数组，只保留用户名和邮箱，其余字段直接跳过
+     */
+    private static String[] readUserEntries(BinaryReader in) {
+        String[] users = new String[in.readVarint()];
+        for (int i = 0; i < users.length; i++) {
+            in.readVarint();
+            String username = in.readString();
+            String email = in.readString();
+            in.skipNullableString();
+            in.readVarlong();
+            users[i] = email.isEmpty() ? username : username + " (" + email + ")";
+        }
+        return users;
+    }
+
+    /**
+     * @return 最近一次fetchUserList()、fetchUserPage()或streamUsers()失败的原因
+     */
+    public String getLastErrorMessage() {
+        return lastErrorMessage;
+    }
+
+    /**
+     * @return 是否直接按帧收发：二进制协议且未启用异步模式
+     */
+    private boolean useFrames() {
+        return binaryMode && responseReader == null;
+    }
+
+    /**
+     * @return 当前连接是否已切换到二进制协议
+     */
+    public boolean isBinaryProtocol() {
+        return binaryMode;
+    }
+
+    /**
+     * 请求服务器把连接升级为二进制协议，失败时保持JSON
+     */
+    private void negotiateBinary() {
+        JsonWriter json = beginRequest(BinaryProtocol.UPGRADE_ACTION);
+        json.name("protocol").value(BinaryProtocol.NAME);
+        String response = sendRequest(endRequest(json));
+        if (!isResponseSuccess(response)) {
+            System.out.println("服务器不支持二进制协议，继续使用JSON: " + extractMessage(response));
+            return;
+        }
+        try {
+            // 服务器发出升级响应后不会主动发送数据，reader中没有预读的字节
+            frameIn = new BufferedInputStream(socket.getInputStream());
+            frameOut = new BufferedOutputStream(socket.getOutputStream());
+            binaryMode = true;
+            if (trace) {
+                System.out.println("已切换到二进制协议: " + BinaryProtocol.NAME);
+            }
+        } catch (IOException e) {
+            System.err.println("切换二进制协议失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 按操作码的字段顺序写出请求帧并返回JSON格式的响应
+     * @param opcode 请求操作码
+     * @param values 字段值，顺序与BinaryProtocol中定义的一致
+     * @return 服务器响应
+     */
+    private String sendFrame(int opcode, String... values) {
+        synchronized (sendLock) {
+            frameWriter.beginFrame(opcode);
+            for (String value : values) {
+                frameWriter.writeNullableString(value);
+            }
+            frameWriter.endFrame();
+            return exchangeFrame();
+        }
+    }
+
+    /**
+     * 把JSON请求转换为二进制帧，有专用操作码的操作按字段顺序写入，其余操作带上字段名
+     * @param request JSON请求字符串
+     * @param id 请求ID，NO_REQUEST_ID表示不带ID
+     */
+    private void writeRequestFrame(String request, long id) {
+        Map<String, String> data = new LinkedHashMap<>();
+        List<String[]> items = new ArrayList<>();
+        String action = readRequest(request, data, items);
+
+        int opcode = BinaryProtocol.opcodeFor(action);
+        if (id == NO_REQUEST_ID) {
+            frameWriter.beginFrame(opcode);
+        } else {
+            frameWriter.beginFrame(opcode | BinaryProtocol.FLAG_REQUEST_ID).writeVarlong(id);
+        }
+        if (opcode == BinaryProtocol.ACTION) {
+            frameWriter.writeString(action).writeVarint(data.size());
+            for (Map.Entry<String, String> entry : data.entrySet()) {
+                frameWriter.writeString(entry.getKey()).writeNullableString(entry.getValue());
+            }
+        } else if (BinaryProtocol.isBatch(opcode)) {
+            writeBatchItems(opcode, items);
+        } else {
+            for (String field : BinaryProtocol.fieldsOf(opcode)) {
+                frameWriter.writeNullableString(data.get(field));
+            }
+        }
+        frameWriter.endFrame();
+    }
+
+    /**
+     * 在JSON请求中加入请求ID
+     * @param request JSON请求字符串
+     * @param id 请求ID
+     * @return 带ID的JSON请求字符串
+     */
+    private String withRequestId(String request, long id) {
+        Map<String, String> data = new LinkedHashMap<>();
+        List<String[]> items = new ArrayList<>();
+        String action = readRequest(request, data, items);
+        JsonWriter json = new JsonWriter().beginObject()
+                .name("id").value(id)
+                .name("action").value(action)
+                .name("data").beginObject();
+        for (Map.Entry<String, String> entry : data.entrySet()) {
+            json.name(entry.getKey()).value(entry.getValue());
+        }
+        int opcode = BinaryProtocol.opcodeFor(action);
+        if (BinaryProtocol.isBatch(opcode)) {
+            writeItems(json, BinaryProtocol.fieldsOf(opcode), items);
+        }
+        return json.endObject().endObject().toString();
+    }
+
+    /**
+     * 读取JSON请求的action和data字段
+     * @param request JSON请求字符串
+     * @param data 用于存放data对象中的字段
+     * @param items 用于存放批量操作的各项，字段顺序与BinaryProtocol中定义的一致
+     * @return action
+     */
+    private static String readRequest(String request, Map<String, String> data, List<String[]> items) {
+        String action = null;
+        JsonReader reader = new JsonReader(request);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("action")) {
+                action = reader.nextString();
+            } else if (name.equals("data") && reader.peek() == JsonReader.Token.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String field = reader.nextName();
+                    JsonReader.Token token = reader.peek();
+                    if (token == JsonReader.Token.BEGIN_ARRAY && field.equals("items")) {
+                        // 此时action已经读到，请求都由beginRequest()生成，action在data之前
+                        readItems(reader, BinaryProtocol.fieldsOf(BinaryProtocol.opcodeFor(action)), items);
+                    } else if (token == JsonReader.Token.BEGIN_OBJECT || token == JsonReader.Token.BEGIN_ARRAY) {
+                        reader.skipValue();
+                    } else {
+                        data.put(field, reader.nextString());
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        return action;
+    }
+
+    private static void readItems(JsonReader reader, String[] fields, List<String[]> items) {
+        if (fields == null) {
+            reader.skipValue();
+            return;
+        }
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String[] item = new String[fields.length];
+            reader.beginObject();
+            while (reader.hasNext()) {
+                int index = reader.selectName(fields);
+                if (index >= 0) {
+                    item[index] = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            items.add(item);
+        }
+        reader.endArray();
+    }
+
+    /**
+     * 发送frameWriter中的帧，把响应帧转换为JSON字符串
+     * @return 服务器响应
+     */
+    private String exchangeFrame() {
+        try {
+            return frameToJson(exchange());
+        } catch (IOException e) {
+            System.err.println("发送请求失败: " + e.getMessage());
+            return createErrorResponse("发送请求失败: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return createErrorResponse("解析响应失败");
+        }
+    }
+
+    /**
+     * 发送frameWriter中的帧并读取一个响应帧
+     * @return 响应帧内容
+     * @throws IOException 读写失败或服务器关闭连接
+     */
+    private byte[] exchange() throws IOException {
+        synchronized (sendLock) {
+            if (responseReader != null) {
+                throw new IOException("连接已切换到异步模式");
+            }
+            frameOut.write(frameWriter.array(), frameWriter.offset(), frameWriter.length());
+            frameOut.flush();
+            if (trace) {
+                System.out.println("发送二进制请求: " + frameWriter.length() + " 字节");
+            }
+
+            byte[] frame = BinaryProtocol.readFrame(frameIn);
+            if (frame == null) {
+                throw new IOException("服务器已关闭连接");
+            }
+            if (trace) {
+                System.out.println("接收二进制响应: " + frame.length + " 字节");
+            }
+            return frame;
+        }
+    }
+
+    /**
+     * @param frame 响应帧内容
+     * @return 响应帧带回的请求ID，没有时返回NO_REQUEST_ID
+     */
+    private static long frameRequestId(byte[] frame) {
+        if ((frame[0] & BinaryProtocol.FLAG_REQUEST_ID) == 0) {
+            return NO_REQUEST_ID;
+        }
+        return new BinaryReader(frame, 1, frame.length - 1).readVarlong();
+    }
+
+    /**
+     * 把二进制响应帧转换为与JSON协议相同格式的响应字符串
+     * @param frame 响应帧内容
+     * @return JSON响应字符串
+     */
+    private String frameToJson(byte[] frame) {
+        BinaryReader in = new BinaryReader(frame);
+        int opcode = in.readByte();
+        JsonWriter json = new JsonWriter().beginObject();
+        if ((opcode & BinaryProtocol.FLAG_REQUEST_ID) != 0) {
+            opcode &= ~BinaryProtocol.FLAG_REQUEST_ID;
+            json.name("id").value(in.readVarlong());
+        }
+        switch (opcode) {
+            case BinaryProtocol.RESPONSE_SUCCESS:
+            case BinaryProtocol.RESPONSE_ERROR:
+                json.name("status").value(opcode == BinaryProtocol.RESPONSE_SUCCESS ? "success" : "error")
+                        .name("message").value(in.readString());
+                break;
+            case BinaryProtocol.RESPONSE_USER:
+                json.name("status").value("success").name("data");
+                readUser(in, json, true);
+                break;
+            case BinaryProtocol.RESPONSE_LOGIN:
+                json.name("status").value("success").name("message").value(in.readString()).name("data");
+                readUser(in, json, false);
+                break;
+            case BinaryProtocol.RESPONSE_USER_LIST:
+                json.name("status").value("success").name("data").beginArray();
+                int count = in.readVarint();
+                for (int i = 0; i < count; i++) {
+                    readUser(in, json, true);
+                }
+                json.endArray();
+                break;
+            case BinaryProtocol.RESPONSE_USER_PAGE:
+                String nextCursor = in.readNullableString();
+                json.name("status").value("success").name("data").beginArray();
+                int pageCount = in.readVarint();
+                for (int i = 0; i < pageCount; i++) {
+                    readUser(in, json, true);
+                }
+                json.endArray().name("nextCursor").value(nextCursor);
+                break;
+            case BinaryProtocol.RESPONSE_USER_CHUNK:
+                long total = in.readVarlong() - 1;
+                json.name("status").value("success").name("data").beginArray();
+                int chunkCount = in.readVarint();
+                for (int i = 0; i < chunkCount; i++) {
+                    readUser(in, json, true);
+                }
+                json.endArray().name("more").value(total < 0);
+                if (total >= 0) {
+                    json.name("total").value(total);
+                }
+                break;
+            case BinaryProtocol.RESPONSE_STATS:
+                json.name("status").value("success").name("data").rawValue(in.readString());
+                break;
+            case BinaryProtocol.RESPONSE_BATCH:
+                json.name("status").value("success").name("message").value(in.readString()).name("data").beginArray();
+                int resultCount = in.readVarint();
+                for (int i = 0; i < resultCount; i++) {
+                    json.beginObject().name("username").value(in.readNullableString())
+                            .name("status").value(in.readVarint() == 1 ? "success" : "error");
+                    String message = in.readNullableString();
+                    if (message != null) {
+                        json.name("message").value(message);
+                    }
+                    if (in.readVarint() == 1) {
+                        json.name("data");
+                        readUser(in, json, true);
+                    }
+                    json.endObject();
+                }
+                json.endArray();
+                break;
+            default:
+                throw new IllegalArgumentException("未知的响应操作码: " + opcode);
+        }
+        return json.endObject().toString();
+    }
+
+    private void readUser(BinaryReader in, JsonWriter json, boolean details) {
+        json.beginObject()
+                .name("id").value(in.readVarint())
+                .name("username").value(in.readString())
+                .name("email").value(in.readString());
+        if (details) {
+            json.name("password").value(in.readNullableString());
+            long createdAt = in.readVarlong();
+            json.name("createdAt").valueOf(createdAt == 0 ? null : new Timestamp(createdAt - 1));
+        }
+        json.endObject();
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.trim().isEmpty() ? null : value;
+    }
+
     /**
      * 创建注册请求JSON字符串
      * @param username 用户名
@@ -152,11 +978,11 @@ public class SocketClient {
      * @return JSON请求字符串
      */
     private String createRegisterRequest(String username, String password, String email) {
-        return "{\"action\":\"register\",\"data\":{" +
-                "\"username\":\"" + username + "\"," +
-                "\"password\":\"" + password + "\"," +
-                "\"email\":\"" + (email != null ? email : "") + "\"" +
-                "}}";
+        JsonWriter json = beginRequest("register");
+        json.name("username").value(username)
+                .name("password").value(password)
+                .name("email").value(email != null ? email : "");
+        return endRequest(json);
     }
 
     /**
@@ -166,10 +992,10 @@ public class SocketClient {
      * @return JSON请求字符串
      */
     private String createLoginRequest(String username, String password) {
-        return "{\"action\":\"login\",\"data\":{" +
-                "\"username\":\"" + username + "\"," +
-                "\"password\":\"" + password + "\"" +
-                "}}";
+        JsonWriter json = beginRequest("login");
+        json.name("username").value(username)
+                .name("password").value(password);
+        return endRequest(json);
     }
 
     /**
@@ -180,15 +1006,46 @@ public class SocketClient {
         return "{\"action\":\"getUserList\"}";
     }
 
+    /**
+     * 创建分页获取用户列表请求JSON字符串
+     * @param pageSize 每页用户数
+     * @param cursor 上一页返回的游标，可为null
+     * @return JSON请求字符串
+     */
+    private String createGetUserPageRequest(int pageSize, String cursor) {
+        JsonWriter json = beginRequest("getUserPage");
+        json.name("pageSize").value(pageSize);
+        if (cursor != null) {
+            json.name("cursor").value(cursor);
+        }
+        return endRequest(json);
+    }
+
+    /**
+     * 创建流式获取用户请求JSON字符串
+     * @return JSON请求字符串
+     */
+    private String createStreamUsersRequest() {
+        return "{\"action\":\"streamUsers\"}";
+    }
+
+    /**
+     * 创建获取服务器指标请求JSON字符串
+     * @return JSON请求字符串
+     */
+    private String createGetServerStatsRequest() {
+        return "{\"action\":\"getServerStats\"}";
+    }
+
     /**
      * 创建删除用户请求JSON字符串
      * @param username 要删除的用户名
      * @return JSON请求字符串
      */
     private String createDeleteUserRequest(String username) {
-        return "{\"action\":\"deleteUser\",\"data\":{" +
-                "\"username\":\"" + username + "\"" +
-                "}}";
+        JsonWriter json = beginRequest("deleteUser");
+        json.name("username").value(username);
+        return endRequest(json);
     }
 
     /**
@@ -197,9 +1054,9 @@ public class SocketClient {
      * @return JSON请求字符串
      */
     private String createGetUserByUsernameRequest(String username) {
-        return "{\"action\":\"getUserByUsername\",\"data\":{" +
-                "\"username\":\"" + username + "\"" +
-                "}}";
+        JsonWriter json = beginRequest("getUserByUsername");
+        json.name("username").value(username);
+        return endRequest(json);
     }
 
     /**
@@ -210,20 +1067,66 @@ public class SocketClient {
      * @return JSON请求字符串
      */
     private String createUpdateUserRequest(String username, String newPassword, String newEmail) {
-        StringBuilder request = new StringBuilder();
-        request.append("{\"action\":\"updateUser\",\"data\":{")
-                .append("\"username\":\"").append(username).append("\"");
+        JsonWriter json = beginRequest("updateUser");
+        json.name("username").value(username);
 
         if (newPassword != null && !newPassword.trim().isEmpty()) {
-            request.append(",\"password\":\"").append(newPassword).append("\"");
+            json.name("password").value(newPassword);
         }
 
         if (newEmail != null && !newEmail.trim().isEmpty()) {
-            request.append(",\"email\":\"").append(newEmail).append("\"");
+            json.name("email").value(newEmail);
+        }
+
+        return endRequest(json);
+    }
+
+    /**
+     * 创建批量请求JSON字符串，各项放在data.items数组中
+     * @param action 操作类型
+     * @param fields 每一项的字段名
+     * @param items 每一项的字段值，顺序与fields一致
+     * @return JSON请求字符串
+     */
+    private String createBatchRequest(String action, String[] fields, List<String[]> items) {
+        JsonWriter json = beginRequest(action);
+        writeItems(json, fields, items);
+        return endRequest(json);
+    }
+
+    private static void writeItems(JsonWriter json, String[] fields, List<String[]> items) {
+        json.name("items").beginArray();
+        for (String[] item : items) {
+            json.beginObject();
+            for (int i = 0; i < fields.length && i < item.length; i++) {
+                if (item[i] != null) {
+                    json.name(fields[i]).value(item[i]);
+                }
+            }
+            json.endObject();
         }
+        json.endArray();
+    }
 
-        request.append("}}");
-        return request.toString();
+    /**
+     * 开始构造请求，写入action并打开data对象
+     * @param action 操作类型
+     * @return JSON写入器
+     */
+    private JsonWriter beginRequest(String action) {
+        return new JsonWriter()
+                .beginObject()
+                .name("action").value(action)
+                .name("data").beginObject();
+    }
+
+    /**
+     * 结束请求，关闭data对象和最外层对象
+     * @param json JSON写入器
+     * @return JSON请求字符串
+     */
+    private String endRequest(JsonWriter json) {
+        return json.endObject().endObject().toString();
     }
 
 
@@ -233,7 +1136,10 @@ public class SocketClient {
      * @return JSON错误响应字符串
      */
     private String createErrorResponse(String message) {
-        return "{\"status\":\"error\",\"message\":\"" + message + "\"}";
+        return new JsonWriter().beginObject()
+                .name("status").value("error")
+                .name("message").value(message)
+                .endObject().toString();
     }
 
     /**
@@ -261,15 +1167,8 @@ public class SocketClient {
     public String extractMessage(String response) {
         if (response == null) return "无响应";
 
-        String pattern = "\"message\":\"";
-        int startIndex = response.indexOf(pattern);
-        if (startIndex == -1) return "解析响应失败";
-
-        startIndex += pattern.length();
-        int endIndex = response.indexOf("\"", startIndex);
-        if (endIndex == -1) return "解析响应失败";
-
-        return response.substring(startIndex, endIndex);
+        String message = extractField(response, "message");
+        return message != null ? message : "解析响应失败";
     }
 
     /**
@@ -284,8 +1183,8 @@ public class SocketClient {
 
         try {
             // 简单解析用户信息
-            String username = extractValueFromResponse(response, "username");
-            String email = extractValueFromResponse(response, "email");
+            String username = extractField(response, "username");
+            String email = extractField(response, "email");
 
             StringBuilder userInfo = new StringBuilder();
             userInfo.append("用户名: ").append(username != null ? username : "未知");
@@ -301,26 +1200,80 @@ public class SocketClient {
 
     /**
      * 从响应中提取指定字段的值
+     * 先在顶层对象中查找，找不到时再查找data对象中的字段
      * @param response 响应字符串
      * @param key 字段名
-     * @return 字段值
+     * @return 字段值，数字以字符串形式返回；不存在或解析失败时返回null
      */
-    private String extractValueFromResponse(String response, String key) {
-        String pattern = "\"" + key + "\":\"";
-        int startIndex = response.indexOf(pattern);
-        if (startIndex == -1) return null;
+    public String extractField(String response, String key) {
+        try {
+            JsonReader reader = new JsonReader(response);
+            String nested = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                JsonReader.Token token = reader.peek();
+                if (name.equals("data") && token == JsonReader.Token.BEGIN_OBJECT) {
+                    nested = readObjectField(reader, key);
+                } else if (name.equals(key) && token != JsonReader.Token.BEGIN_OBJECT
+                        && token != JsonReader.Token.BEGIN_ARRAY) {
+                    return reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            return nested;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
 
-        startIndex += pattern.length();
-        int endIndex = response.indexOf("\"", startIndex);
-        if (endIndex == -1) return null;
+    /**
+     * 只在响应的data对象中提取字段，用于与顶层字段同名的情况（例如顶层的请求id和用户id）
+     * @param response 响应字符串
+     * @param key 字段名
+     * @return 字段值，不存在或解析失败时返回null
+     */
+    public String extractDataField(String response, String key) {
+        try {
+            JsonReader reader = new JsonReader(response);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.selectName(DATA_FIELD) == 0 && reader.peek() == JsonReader.Token.BEGIN_OBJECT) {
+                    return readObjectField(reader, key);
+                }
+                reader.skipValue();
+            }
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
 
-        return response.substring(startIndex, endIndex);
+    /**
+     * 读取当前对象中指定字段的值，读完整个对象
+     */
+    private String readObjectField(JsonReader reader, String key) {
+        String value = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            JsonReader.Token token = reader.peek();
+            if (value == null && name.equals(key) && token != JsonReader.Token.BEGIN_OBJECT
+                    && token != JsonReader.Token.BEGIN_ARRAY) {
+                value = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return value;
     }
 
     /**
      * 解析用户列表响应
      * @param response 服务器响应
-     * @return 用户列表字符串数组
+     * @return 用户列表字符串数组，每项格式为"用户名 (邮箱)"
      */
     public String[] parseUserList(String response) {
         if (response == null || !isResponseSuccess(response)) {
@@ -328,137 +1281,54 @@ public class SocketClient {
         }
 
         try {
-            java.util.List<String> users = new java.util.ArrayList<>();
-
-            // 查找数据数组开始位置
-            int dataStart = response.indexOf("\"data\":[")
-                    ;
-            if (dataStart == -1) return new String[0];
-
-            int arrayStart = response.indexOf("[", dataStart);
-            if (arrayStart == -1) return new String[0];
-
-            // 手动解析JSON数组
-            int pos = arrayStart + 1;
-            int braceCount = 0;
-            StringBuilder currentObject = new StringBuilder();
-            boolean inString = false;
-            boolean escapeNext = false;
-
-            while (pos < response.length()) {
-                char c = response.charAt(pos);
-
-                if (escapeNext) {
-                    currentObject.append(c);
-                    escapeNext = false;
-                } else if (c == '\\') {
-                    currentObject.append(c);
-                    escapeNext = true;
-                } else if (c == '"') {
-                    currentObject.append(c);
-                    inString = !inString;
-                } else if (!inString) {
-                    if (c == '{') {
-                        braceCount++;
-                        currentObject.append(c);
-                    } else if (c == '}') {
-                        braceCount--;
-                        currentObject.append(c);
-
-                        if (braceCount == 0) {
-                            // 完整的用户对象
-                            String userObj = currentObject.toString();
-                            String username = extractJsonValue(userObj, "username");
-                            String email = extractJsonValue(userObj, "email");
-
-                            if (username != null) {
-                                String userInfo = username;
-                                if (email != null && !email.isEmpty()) {
-                                    userInfo += " (" + email + ")";
-                                }
-                                users.add(userInfo);
-                            }
-
-                            currentObject.setLength(0);
+            List<String> users = new ArrayList<>();
+            JsonReader reader = new JsonReader(response);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.selectName(DATA_FIELD) == 0 && reader.peek() == JsonReader.Token.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        String userInfo = readUserEntry(reader);
+                        if (userInfo != null) {
+                            users.add(userInfo);
                         }
-                    } else if (c == ']') {
-                        // 数组结束
-                        break;
-                    } else if (c != ',' && c != ' ' && c != '\n' && c != '\r' && c != '\t') {
-                        currentObject.append(c);
                     }
+                    reader.endArray();
                 } else {
-                    currentObject.append(c);
+                    reader.skipValue();
                 }
-
-                pos++;
             }
-
             return users.toArray(new String[0]);
-        } catch (Exception e) {
+        } catch (IllegalArgumentException e) {
             System.err.println("解析用户列表失败: " + e.getMessage());
             return new String[0];
         }
     }
 
     /**
-     * 从JSON对象字符串中提取指定字段的值
-     * @param jsonObj JSON对象字符串
-     * @param key 字段名
-     * @return 字段值
+     * 读取用户数组中的一个对象，只取出用户名和邮箱，其余字段直接跳过
+     * @return "用户名 (邮箱)"，没有用户名时返回null
      */
-    private String extractJsonValue(String jsonObj, String key) {
-        String pattern = "\"" + key + "\":";
-        int startIndex = jsonObj.indexOf(pattern);
-        if (startIndex == -1) return null;
-
-        startIndex += pattern.length();
-
-        // 跳过空格
-        while (startIndex < jsonObj.length() && Character.isWhitespace(jsonObj.charAt(startIndex))) {
-            startIndex++;
-        }
-
-        if (startIndex >= jsonObj.length()) return null;
-
-        // 检查值的类型
-        if (jsonObj.charAt(startIndex) == '"') {
-            // 字符串值
-            startIndex++; // 跳过开始的引号
-            int endIndex = startIndex;
-            boolean escapeNext = false;
-
-            while (endIndex < jsonObj.length()) {
-                char c = jsonObj.charAt(endIndex);
-                if (escapeNext) {
-                    escapeNext = false;
-                } else if (c == '\\') {
-                    escapeNext = true;
-                } else if (c == '"') {
-                    break;
-                }
-                endIndex++;
-            }
-
-            if (endIndex < jsonObj.length()) {
-                return jsonObj.substring(startIndex, endIndex);
-            }
-        } else {
-            // 数字或其他值
-            int endIndex = startIndex;
-            while (endIndex < jsonObj.length() &&
-                    jsonObj.charAt(endIndex) != ',' &&
-                    jsonObj.charAt(endIndex) != '}' &&
-                    !Character.isWhitespace(jsonObj.charAt(endIndex))) {
-                endIndex++;
-            }
-
-            if (endIndex > startIndex) {
-                return jsonObj.substring(startIndex, endIndex);
+    private String readUserEntry(JsonReader reader) {
+        String username = null;
+        String email = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            int field = reader.selectName(USER_FIELDS);
+            if (field == 0) {
+                username = reader.nextString();
+            } else if (field == 1) {
+                email = reader.nextString();
+            } else {
+                reader.skipValue();
             }
         }
+        reader.endObject();
 
-        return null;
+        if (username == null) {
+            return null;
+        }
+        return email != null && !email.isEmpty() ? username + " (" + email + ")" : username;
     }
 
 }
@@ -0,0 +1,35 @@
+package client;
+
+/**
+ * 客户端收到的一页用户列表
+ */
+public class UserListPage {
+
+    private final String[] users;
+    private final String nextCursor;
+
+    /**
+     * 构造函数
+     * @param users 本页用户，每项格式为"用户名 (邮箱)"
+     * @param nextCursor 下一页的游标，已是最后一页时为null
+     */
+    public UserListPage(String[] users, String nextCursor) {
+        this.users = users;
+        this.nextCursor = nextCursor;
+    }
+
+    public String[] getUsers() {
+        return users;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * @return 是否还有下一页
+     */
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+}
@@ -0,0 +1,170 @@
+package protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 二进制协议定义
+ *
+ * 连接建立后默认使用按行分隔的JSON。客户端发送
+ * {"action":"upgrade","data":{"protocol":"binary/1"}}，服务器返回成功响应后，
+ * 双方从下一条消息开始改用二进制帧；服务器不支持时返回错误响应，客户端继续使用JSON。
+ *
+ * 帧格式：varint长度 + 1字节操作码 + 负载，长度包含操作码。
+ * 负载中的整数使用varint，字符串为varint字节数 + UTF-8字节，
+ * 可为null的字符串写入字节数+1，0表示null。
+ * 请求的字段按REQUEST_FIELDS中的顺序依次写为可为null的字符串，
+ * 表中没有的操作使用ACTION操作码，先写操作名，再写字段数和各个字段名、字段值。
+ *
+ * 操作码带有FLAG_REQUEST_ID位时，操作码之后紧跟varint请求ID，响应带回同一个ID。
+ * 带ID的请求可以在同一连接上并发处理、乱序响应，不带ID的请求按到达顺序响应。
+ *
+ * STREAM_USERS的响应由多个RESPONSE_USER_CHUNK帧组成，每帧先写varlong用户总数+1（0表示后面还有帧），
+ * 再写本帧用户数和各个用户；服务器中途出错时以RESPONSE_ERROR帧结束。
+ *
+ * getServerStats没有专用操作码，使用ACTION发送；响应为RESPONSE_STATS帧，负载是一个字符串，
+ * 内容与JSON协议中data字段的JSON文本相同。
+ *
+ * 批量操作（isBatch()为true的操作码）的负载是varint项数，之后每一项按REQUEST_FIELDS中的顺序写各个字段，
+ * 对应JSON协议中data.items数组里的各个对象。响应为RESPONSE_BATCH帧：先写汇总消息和项数，
+ * 每项再写可为null的用户名、varint状态（1成功，0失败）、可为null的消息、varint是否带用户（1带）和用户。
+ */
+public final class BinaryProtocol {
+
+    public static final String NAME = "binary/1";
+    public static final String UPGRADE_ACTION = "upgrade";
+
+    // 单帧最大字节数，超过时认为数据流已损坏
+    public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    // 请求ID标志位，请求和响应操作码都可以带
+    public static final int FLAG_REQUEST_ID = 0x40;
+
+    // 请求操作码
+    public static final int ACTION = 0x00;
+    public static final int REGISTER = 0x01;
+    public static final int LOGIN = 0x02;
+    public static final int GET_USER_LIST = 0x03;
+    public static final int DELETE_USER = 0x04;
+    public static final int GET_USER_BY_USERNAME = 0x05;
+    public static final int UPDATE_USER = 0x06;
+    public static final int GET_USER_PAGE = 0x07;
+    public static final int STREAM_USERS = 0x08;
+    public static final int BATCH_REGISTER = 0x09;
+    public static final int BATCH_GET_USERS = 0x0A;
+    public static final int BATCH_DELETE = 0x0B;
+
+    // 响应操作码
+    public static final int RESPONSE_SUCCESS = 0x80;
+    public static final int RESPONSE_ERROR = 0x81;
+    public static final int RESPONSE_USER = 0x82;
+    public static final int RESPONSE_LOGIN = 0x83;
+    public static final int RESPONSE_USER_LIST = 0x84;
+    public static final int RESPONSE_USER_PAGE = 0x85;
+    public static final int RESPONSE_USER_CHUNK = 0x86;
+    public static final int RESPONSE_STATS = 0x87;
+    public static final int RESPONSE_BATCH = 0x88;
+
+    private static final String[] REQUEST_ACTIONS = {
+            null, "register", "login", "getUserList", "deleteUser", "getUserByUsername", "updateUser", "getUserPage",
+            "streamUsers", "batchRegister", "batchGetUsers", "batchDelete"
+    };
+
+    private static final String[][] REQUEST_FIELDS = {
+            null,
+            {"username", "password", "email"},
+            {"username", "password"},
+            {},
+            {"username", "userIdStr"},
+            {"username"},
+            {"username", "password", "email"},
+            {"pageSize", "cursor"},
+            {},
+            // 以下为批量操作中每一项的字段
+            {"username", "password", "email"},
+            {"username"},
+            {"username"}
+    };
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * 查找操作对应的请求操作码
+     * @param action 操作名
+     * @return 操作码，没有专用操作码时返回ACTION
+     */
+    public static int opcodeFor(String action) {
+        for (int i = 1; i < REQUEST_ACTIONS.length; i++) {
+            if (REQUEST_ACTIONS[i].equals(action)) {
+                return i;
+            }
+        }
+        return ACTION;
+    }
+
+    /**
+     * @param opcode 请求操作码
+     * @return 操作名，未知操作码返回null
+     */
+    public static String actionOf(int opcode) {
+        return opcode > 0 && opcode < REQUEST_ACTIONS.length ? REQUEST_ACTIONS[opcode] : null;
+    }
+
+    /**
+     * @param opcode 请求操作码
+     * @return 按写入顺序排列的字段名，批量操作为每一项的字段，未知操作码返回null
+     */
+    public static String[] fieldsOf(int opcode) {
+        return opcode > 0 && opcode < REQUEST_FIELDS.length ? REQUEST_FIELDS[opcode] : null;
+    }
+
+    /**
+     * @param opcode 请求操作码（不含标志位）
+     * @return 是否为批量操作，负载是项数加各项字段
+     */
+    public static boolean isBatch(int opcode) {
+        return opcode >= BATCH_REGISTER && opcode <= BATCH_DELETE;
+    }
+
+    /**
+     * 从输入流读取一帧
+     * @param in 输入流，建议带缓冲
+     * @return 帧内容（操作码 + 负载），连接在帧边界处关闭时返回null
+     * @throws IOException 读取失败、帧不完整或长度非法
+     */
+    public static byte[] readFrame(InputStream in) throws IOException {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                if (shift == 0) {
+                    return null;
+                }
+                throw new EOFException("帧长度不完整");
+            }
+            if (shift > 28) {
+                throw new IOException("帧长度格式错误");
+            }
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (length <= 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("帧长度非法: " + length);
+        }
+
+        byte[] frame = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int count = in.read(frame, read, length - read);
+            if (count < 0) {
+                throw new EOFException("帧内容不完整");
+            }
+            read += count;
+        }
+        return frame;
+    }
+}
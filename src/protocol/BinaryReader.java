@@ -0,0 +1,116 @@
+package protocol;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 二进制帧读取器
+ * 在一帧的字节数组上顺序读取操作码、varint和字符串，格式见BinaryProtocol
+ */
+public final class BinaryReader {
+
+    private final byte[] buf;
+    private final int limit;
+    private int pos;
+
+    /**
+     * 构造函数
+     * @param frame 帧内容（操作码 + 负载，不含长度前缀）
+     */
+    public BinaryReader(byte[] frame) {
+        this(frame, 0, frame.length);
+    }
+
+    public BinaryReader(byte[] buf, int offset, int length) {
+        this.buf = buf;
+        this.pos = offset;
+        this.limit = offset + length;
+    }
+
+    public int readByte() {
+        if (pos >= limit) {
+            throw error("帧已结束");
+        }
+        return buf[pos++] & 0xFF;
+    }
+
+    public int readVarint() {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw error("varint过长");
+    }
+
+    public long readVarlong() {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw error("varlong过长");
+    }
+
+    public String readString() {
+        return readUtf8(readVarint());
+    }
+
+    /**
+     * 读取可为null的字符串
+     * @return 字符串，写入时为null则返回null
+     */
+    public String readNullableString() {
+        int length = readVarint();
+        return length == 0 ? null : readUtf8(length - 1);
+    }
+
+    /**
+     * 跳过一个字符串，不创建String对象
+     */
+    public void skipString() {
+        skip(readVarint());
+    }
+
+    /**
+     * 跳过一个可为null的字符串，不创建String对象
+     */
+    public void skipNullableString() {
+        int length = readVarint();
+        if (length > 0) {
+            skip(length - 1);
+        }
+    }
+
+    /**
+     * @return 是否还有未读的字节
+     */
+    public boolean hasRemaining() {
+        return pos < limit;
+    }
+
+    private void skip(int length) {
+        if (length < 0 || length > limit - pos) {
+            throw error("字符串长度越界");
+        }
+        pos += length;
+    }
+
+    private String readUtf8(int length) {
+        if (length < 0 || length > limit - pos) {
+            throw error("字符串长度越界");
+        }
+        String value = new String(buf, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+        return value;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("二进制帧格式错误: " + message + " (位置 " + pos + ")");
+    }
+}
@@ -0,0 +1,213 @@
+package protocol;
+
+/**
+ * 二进制帧写入器
+ * 帧写入内部可复用的字节数组。beginFrame()先为长度前缀预留最大宽度，
+ * endFrame()得知负载长度后把varint长度紧贴在操作码之前写入，整个过程不产生额外拷贝
+ */
+public final class BinaryWriter {
+
+    // varint编码的int最多5个字节
+    private static final int LENGTH_RESERVE = 5;
+
+    // 缓冲区超过该大小时reset()会丢弃它，与JsonWriter一致
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+    private byte[] buf;
+    private int count;
+    private int frameStart;
+
+    public BinaryWriter() {
+        this(256);
+    }
+
+    /**
+     * 构造函数
+     * @param initialCapacity 缓冲区初始容量
+     */
+    public BinaryWriter(int initialCapacity) {
+        buf = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    /**
+     * 清空缓冲区并开始写一帧
+     * @param opcode 操作码
+     * @return this
+     */
+    public BinaryWriter beginFrame(int opcode) {
+        if (buf.length > MAX_RETAINED_CAPACITY) {
+            buf = new byte[256];
+        }
+        count = LENGTH_RESERVE;
+        frameStart = LENGTH_RESERVE;
+        return writeByte(opcode);
+    }
+
+    /**
+     * 写入长度前缀，结束当前帧
+     * 之后可以通过offset()、length()和array()取出完整的帧
+     * @return this
+     */
+    public BinaryWriter endFrame() {
+        int length = count - LENGTH_RESERVE;
+        int start = LENGTH_RESERVE - varintSize(length);
+        int pos = start;
+        while ((length & ~0x7F) != 0) {
+            buf[pos++] = (byte) ((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        buf[pos] = (byte) length;
+        frameStart = start;
+        return this;
+    }
+
+    public BinaryWriter writeByte(int value) {
+        ensureCapacity(1);
+        buf[count++] = (byte) value;
+        return this;
+    }
+
+    /**
+     * 写入无符号varint，每字节7位，高位表示后面还有字节
+     * @param value 整数值
+     * @return this
+     */
+    public BinaryWriter writeVarint(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            buf[count++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[count++] = (byte) value;
+        return this;
+    }
+
+    public BinaryWriter writeVarlong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buf[count++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[count++] = (byte) value;
+        return this;
+    }
+
+    /**
+     * 写入字符串，null按空字符串写入
+     * @param value 字符串
+     * @return this
+     */
+    public BinaryWriter writeString(CharSequence value) {
+        if (value == null) {
+            return writeVarint(0);
+        }
+        writeVarint(utf8Length(value));
+        writeUtf8(value);
+        return this;
+    }
+
+    /**
+     * 写入可为null的字符串，长度加1写入，0表示null
+     * @param value 字符串
+     * @return this
+     */
+    public BinaryWriter writeNullableString(CharSequence value) {
+        if (value == null) {
+            return writeVarint(0);
+        }
+        writeVarint(utf8Length(value) + 1);
+        writeUtf8(value);
+        return this;
+    }
+
+    /**
+     * @return 底层字节数组，帧从offset()开始
+     */
+    public byte[] array() {
+        return buf;
+    }
+
+    /**
+     * @return 帧（含长度前缀）在数组中的起始位置
+     */
+    public int offset() {
+        return frameStart;
+    }
+
+    /**
+     * @return 帧（含长度前缀）的总字节数
+     */
+    public int length() {
+        return count - frameStart;
+    }
+
+    private void writeUtf8(CharSequence value) {
+        int length = value.length();
+        ensureCapacity(length * 3);
+        byte[] b = buf;
+        int pos = count;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                b[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                b[pos++] = (byte) (0xC0 | (c >> 6));
+                b[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                b[pos++] = (byte) (0xF0 | (codePoint >> 18));
+                b[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                b[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                b[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // 不成对的代理字符按'?'写入，与String.getBytes(UTF_8)一致
+                b[pos++] = '?';
+            } else {
+                b[pos++] = (byte) (0xE0 | (c >> 12));
+                b[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                b[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        count = pos;
+    }
+
+    private static int utf8Length(CharSequence value) {
+        int length = value.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                bytes += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                // 代理对共4字节，两个char已计2字节
+                bytes += 2;
+                i++;
+            } else if (!Character.isSurrogate(c)) {
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (count + extra > buf.length) {
+            byte[] larger = new byte[Math.max(buf.length * 2, count + extra)];
+            System.arraycopy(buf, 0, larger, 0, count);
+            buf = larger;
+        }
+    }
+}
@@ -0,0 +1,565 @@
+package protocol;
+
+/**
+ * 流式JSON读取器
+ * 在CharSequence上单次扫描，按需逐个取出记号，不构建中间的树结构。
+ * String、StringBuilder以及从ByteBuffer解码得到的CharBuffer都可以直接作为输入。
+ * 只有调用nextString()/nextName()时才会创建字符串，selectName()和skipValue()不分配内存
+ */
+public final class JsonReader {
+
+    /**
+     * 记号类型
+     */
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int DANGLING_NAME = 3;
+    private static final int NONEMPTY_OBJECT = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private final CharSequence in;
+    private final int limit;
+    private int pos;
+
+    private int[] stack = new int[16];
+    private int stackSize = 1;
+
+    private Token peeked;
+    private StringBuilder scratch;
+
+    /**
+     * 构造函数
+     * @param in JSON文本
+     */
+    public JsonReader(CharSequence in) {
+        this.in = in;
+        this.limit = in.length();
+        stack[0] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * 查看下一个记号但不消费
+     * @return 记号类型
+     */
+    public Token peek() {
+        if (peeked == null) {
+            peeked = doPeek();
+        }
+        return peeked;
+    }
+
+    public void beginObject() {
+        expect(Token.BEGIN_OBJECT);
+        pos++;
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() {
+        expect(Token.END_OBJECT);
+        pos++;
+        stackSize--;
+    }
+
+    public void beginArray() {
+        expect(Token.BEGIN_ARRAY);
+        pos++;
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() {
+        expect(Token.END_ARRAY);
+        pos++;
+        stackSize--;
+    }
+
+    /**
+     * @return 当前对象或数组中是否还有元素
+     */
+    public boolean hasNext() {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    /**
+     * 读取字段名
+     * @return 字段名
+     */
+    public String nextName() {
+        expect(Token.NAME);
+        return readString();
+    }
+
+    /**
+     * 读取字段名并在候选名称中查找，不创建字符串
+     * @param names 候选字段名（不含转义字符）
+     * @return 匹配的下标，都不匹配时返回-1
+     */
+    public int selectName(String[] names) {
+        expect(Token.NAME);
+        int start = pos + 1;
+        int end = findStringEnd(start);
+        if (end < 0) {
+            // 含有转义字符，退回到解码后比较
+            String name = readString();
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        pos = end + 1;
+        peeked = null;
+        int length = end - start;
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i];
+            if (name.length() != length) {
+                continue;
+            }
+            int j = 0;
+            while (j < length && in.charAt(start + j) == name.charAt(j)) {
+                j++;
+            }
+            if (j == length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 读取字符串值，数字和布尔值以原文返回，null返回null
+     * @return 字符串值
+     */
+    public String nextString() {
+        Token token = peek();
+        switch (token) {
+            case STRING:
+                return readString();
+            case NUMBER:
+                int start = pos;
+                pos = scanLiteralEnd(pos);
+                peeked = null;
+                return in.subSequence(start, pos).toString();
+            case BOOLEAN:
+                return String.valueOf(nextBoolean());
+            case NULL:
+                nextNull();
+                return null;
+            default:
+                throw error("期望字符串，实际为" + token);
+        }
+    }
+
+    /**
+     * 读取整数值，带引号的数字字符串也可以读取
+     * @return 整数值
+     */
+    public long nextLong() {
+        Token token = peek();
+        int start;
+        int end;
+        if (token == Token.NUMBER) {
+            start = pos;
+            end = scanLiteralEnd(pos);
+            pos = end;
+        } else if (token == Token.STRING) {
+            start = pos + 1;
+            end = findStringEnd(start);
+            if (end < 0) {
+                throw error("数字字符串中不能包含转义字符");
+            }
+            pos = end + 1;
+        } else {
+            throw error("期望数字，实际为" + token);
+        }
+        peeked = null;
+
+        boolean negative = start < end && in.charAt(start) == '-';
+        int i = negative ? start + 1 : start;
+        if (i == end) {
+            throw error("数字格式错误");
+        }
+        // 按负数累加，Long.MIN_VALUE也能表示
+        long value = 0;
+        for (; i < end; i++) {
+            char c = in.charAt(i);
+            if (c < '0' || c > '9') {
+                throw error("不是整数");
+            }
+            if (value < Long.MIN_VALUE / 10 || value * 10 < Long.MIN_VALUE + (c - '0')) {
+                throw error("数字超出范围");
+            }
+            value = value * 10 - (c - '0');
+        }
+        if (!negative && value == Long.MIN_VALUE) {
+            throw error("数字超出范围");
+        }
+        return negative ? value : -value;
+    }
+
+    public boolean nextBoolean() {
+        expect(Token.BOOLEAN);
+        boolean value = in.charAt(pos) == 't';
+        consumeLiteral(value ? "true" : "false");
+        return value;
+    }
+
+    public void nextNull() {
+        expect(Token.NULL);
+        consumeLiteral("null");
+    }
+
+    /**
+     * 跳过下一个值（包括整个对象或数组），不创建字符串
+     */
+    public void skipValue() {
+        int depth = 0;
+        do {
+            Token token = peek();
+            switch (token) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    depth++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    depth++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    depth--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    depth--;
+                    break;
+                case NAME:
+                case STRING:
+                    int end = skipString(pos + 1);
+                    pos = end + 1;
+                    peeked = null;
+                    break;
+                case NUMBER:
+                    pos = scanLiteralEnd(pos);
+                    peeked = null;
+                    break;
+                case BOOLEAN:
+                    nextBoolean();
+                    break;
+                case NULL:
+                    nextNull();
+                    break;
+                default:
+                    throw error("意外的文档结尾");
+            }
+        } while (depth > 0);
+    }
+
+    private Token doPeek() {
+        int scope = stack[stackSize - 1];
+        switch (scope) {
+            case EMPTY_ARRAY:
+                stack[stackSize - 1] = NONEMPTY_ARRAY;
+                if (nextNonWhitespace() == ']') {
+                    return Token.END_ARRAY;
+                }
+                return peekValue();
+            case NONEMPTY_ARRAY: {
+                char c = nextNonWhitespace();
+                if (c == ']') {
+                    return Token.END_ARRAY;
+                }
+                if (c != ',') {
+                    throw error("数组元素之间缺少逗号");
+                }
+                pos++;
+                nextNonWhitespace();
+                return peekValue();
+            }
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT: {
+                char c = nextNonWhitespace();
+                if (c == '}') {
+                    return Token.END_OBJECT;
+                }
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw error("字段之间缺少逗号");
+                    }
+                    pos++;
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw error("期望字段名");
+                }
+                stack[stackSize - 1] = DANGLING_NAME;
+                return Token.NAME;
+            }
+            case DANGLING_NAME:
+                if (nextNonWhitespace() != ':') {
+                    throw error("字段名后缺少冒号");
+                }
+                pos++;
+                stack[stackSize - 1] = NONEMPTY_OBJECT;
+                nextNonWhitespace();
+                return peekValue();
+            case EMPTY_DOCUMENT:
+                stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+                nextNonWhitespace();
+                return peekValue();
+            default:
+                nextNonWhitespace();
+                if (pos < limit) {
+                    throw error("文档结尾有多余内容");
+                }
+                return Token.END_DOCUMENT;
+        }
+    }
+
+    private Token peekValue() {
+        if (pos >= limit) {
+            throw error("意外的文档结尾");
+        }
+        char c = in.charAt(pos);
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                return Token.STRING;
+            case 't':
+            case 'f':
+                return Token.BOOLEAN;
+            case 'n':
+                return Token.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return Token.NUMBER;
+                }
+                throw error("无法识别的字符 '" + c + "'");
+        }
+    }
+
+    /**
+     * 跳过空白字符，返回当前位置的字符，到达结尾时返回0
+     */
+    private char nextNonWhitespace() {
+        while (pos < limit) {
+            char c = in.charAt(pos);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+            pos++;
+        }
+        return 0;
+    }
+
+    /**
+     * 读取当前位置的字符串（NAME或STRING），处理转义字符
+     */
+    private String readString() {
+        int start = pos + 1;
+        int end = findStringEnd(start);
+        String value;
+        if (end >= 0) {
+            // 没有转义字符，直接截取
+            value = in.subSequence(start, end).toString();
+            pos = end + 1;
+        } else {
+            value = decodeEscaped(start);
+        }
+        peeked = null;
+        return value;
+    }
+
+    /**
+     * 查找不含转义字符的字符串的结束引号
+     * @return 结束引号位置；遇到转义字符时返回-1
+     */
+    private int findStringEnd(int start) {
+        for (int i = start; i < limit; i++) {
+            char c = in.charAt(i);
+            if (c == '"') {
+                return i;
+            }
+            if (c == '\\') {
+                return -1;
+            }
+            if (c < 0x20) {
+                throw controlCharacter(c);
+            }
+        }
+        throw error("字符串没有结束引号");
+    }
+
+    /**
+     * 跳过字符串，返回结束引号位置
+     */
+    private int skipString(int start) {
+        for (int i = start; i < limit; i++) {
+            char c = in.charAt(i);
+            if (c == '\\') {
+                i = skipEscape(i + 1) - 1;
+            } else if (c == '"') {
+                return i;
+            } else if (c < 0x20) {
+                throw controlCharacter(c);
+            }
+        }
+        throw error("字符串没有结束引号");
+    }
+
+    /**
+     * 校验反斜杠之后的转义序列，只允许JSON规定的\" \\ \/ \b \f \n \r \t和\\uXXXX
+     * @param i 反斜杠之后的位置
+     * @return 转义序列之后的位置
+     */
+    private int skipEscape(int i) {
+        if (i >= limit) {
+            throw error("字符串没有结束引号");
+        }
+        switch (in.charAt(i)) {
+            case '"': case '\\': case '/': case 'b': case 'f': case 'n': case 'r': case 't':
+                return i + 1;
+            case 'u':
+                if (i + 5 > limit) {
+                    throw error("\\u转义不完整");
+                }
+                for (int j = i + 1; j < i + 5; j++) {
+                    hexDigit(in.charAt(j));
+                }
+                return i + 5;
+            default:
+                throw error("非法的转义字符: \\" + in.charAt(i));
+        }
+    }
+
+    private int hexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        throw error("\\u转义格式错误");
+    }
+
+    private IllegalArgumentException controlCharacter(char c) {
+        return error("字符串中不能包含未转义的控制字符: 0x" + Integer.toHexString(c));
+    }
+
+    private String decodeEscaped(int start) {
+        if (scratch == null) {
+            scratch = new StringBuilder();
+        }
+        scratch.setLength(0);
+        int i = start;
+        while (i < limit) {
+            char c = in.charAt(i++);
+            if (c == '"') {
+                pos = i;
+                return scratch.toString();
+            }
+            if (c != '\\') {
+                if (c < 0x20) {
+                    throw controlCharacter(c);
+                }
+                scratch.append(c);
+                continue;
+            }
+            if (i >= limit) {
+                break;
+            }
+            char escaped = in.charAt(i++);
+            switch (escaped) {
+                case 'n': scratch.append('\n'); break;
+                case 'r': scratch.append('\r'); break;
+                case 't': scratch.append('\t'); break;
+                case 'b': scratch.append('\b'); break;
+                case 'f': scratch.append('\f'); break;
+                case 'u':
+                    if (i + 4 > limit) {
+                        throw error("\\u转义不完整");
+                    }
+                    int code = 0;
+                    for (int j = 0; j < 4; j++) {
+                        code = (code << 4) | hexDigit(in.charAt(i++));
+                    }
+                    scratch.append((char) code);
+                    break;
+                case '"':
+                case '\\':
+                case '/':
+                    scratch.append(escaped);
+                    break;
+                default:
+                    throw error("非法的转义字符: \\" + escaped);
+            }
+        }
+        throw error("字符串没有结束引号");
+    }
+
+    /**
+     * 读取true、false或null，字面量必须完整且后面紧跟分隔符或结尾
+     */
+    private void consumeLiteral(String literal) {
+        int end = pos + literal.length();
+        if (end > limit || scanLiteralEnd(pos) != end) {
+            throw error("期望" + literal);
+        }
+        for (int i = 0; i < literal.length(); i++) {
+            if (in.charAt(pos + i) != literal.charAt(i)) {
+                throw error("期望" + literal);
+            }
+        }
+        pos = end;
+        peeked = null;
+    }
+
+    private int scanLiteralEnd(int start) {
+        int i = start;
+        while (i < limit) {
+            char c = in.charAt(i);
+            if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private void expect(Token expected) {
+        Token token = peek();
+        if (token != expected) {
+            throw error("期望" + expected + "，实际为" + token);
+        }
+        if (expected != Token.NAME && expected != Token.STRING) {
+            peeked = null;
+        }
+    }
+
+    private void push(int scope) {
+        if (stackSize == stack.length) {
+            int[] larger = new int[stackSize * 2];
+            System.arraycopy(stack, 0, larger, 0, stackSize);
+            stack = larger;
+        }
+        stack[stackSize++] = scope;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("JSON格式错误: " + message + " (位置 " + pos + ")");
+    }
+}
@@ -0,0 +1,202 @@
+package protocol;
+
+/**
+ * 流式JSON写入器
+ * 直接把记号写入内部可复用的StringBuilder，自动处理逗号和字符串转义，
+ * 调用reset()后可以继续写下一条消息而不重新分配缓冲区
+ */
+public final class JsonWriter {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // 缓冲区超过该大小时reset()会丢弃它，避免一次超大响应让缓冲区一直占用内存
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+    private StringBuilder out;
+    private boolean[] needsComma = new boolean[16];
+    private int depth = 0;
+    private boolean afterName = false;
+
+    public JsonWriter() {
+        this(256);
+    }
+
+    /**
+     * 构造函数
+     * @param initialCapacity 缓冲区初始容量
+     */
+    public JsonWriter(int initialCapacity) {
+        out = new StringBuilder(initialCapacity);
+    }
+
+    /**
+     * 清空缓冲区，准备写下一条消息
+     * @return this
+     */
+    public JsonWriter reset() {
+        if (out.capacity() > MAX_RETAINED_CAPACITY) {
+            out = new StringBuilder(256);
+        } else {
+            out.setLength(0);
+        }
+        depth = 0;
+        afterName = false;
+        needsComma[0] = false;
+        return this;
+    }
+
+    public JsonWriter beginObject() {
+        beforeValue();
+        out.append('{');
+        push();
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        depth--;
+        out.append('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() {
+        beforeValue();
+        out.append('[');
+        push();
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        depth--;
+        out.append(']');
+        return this;
+    }
+
+    /**
+     * 写入字段名
+     * @param name 字段名
+     * @return this
+     */
+    public JsonWriter name(String name) {
+        if (needsComma[depth]) {
+            out.append(',');
+        }
+        needsComma[depth] = true;
+        writeString(name);
+        out.append(':');
+        afterName = true;
+        return this;
+    }
+
+    /**
+     * 写入字符串值，null写为JSON null
+     * @param value 字符串值
+     * @return this
+     */
+    public JsonWriter value(CharSequence value) {
+        beforeValue();
+        if (value == null) {
+            out.append("null");
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        beforeValue();
+        out.append(value);
+        return this;
+    }
+
+    public JsonWriter value(boolean value) {
+        beforeValue();
+        out.append(value);
+        return this;
+    }
+
+    /**
+     * 写入已经序列化好的JSON值，内容原样写入，调用方负责保证它是合法的JSON
+     * @param json JSON文本
+     * @return this
+     */
+    public JsonWriter rawValue(CharSequence json) {
+        beforeValue();
+        out.append(json);
+        return this;
+    }
+
+    /**
+     * 写入对象的字符串值，按String.valueOf转换，null写为JSON null
+     * @param value 值
+     * @return this
+     */
+    public JsonWriter valueOf(Object value) {
+        return value == null ? value((CharSequence) null) : value(String.valueOf(value));
+    }
+
+    /**
+     * @return 已写入的内容，可直接作为CharSequence使用而不复制
+     */
+    public StringBuilder buffer() {
+        return out;
+    }
+
+    /**
+     * @return 已写入内容的字符串副本
+     */
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+
+    private void beforeValue() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (needsComma[depth]) {
+            out.append(',');
+        }
+        needsComma[depth] = true;
+    }
+
+    private void push() {
+        depth++;
+        if (depth == needsComma.length) {
+            boolean[] larger = new boolean[depth * 2];
+            System.arraycopy(needsComma, 0, larger, 0, depth);
+            needsComma = larger;
+        }
+        needsComma[depth] = false;
+    }
+
+    /**
+     * 写入带引号的字符串，只对必须转义的字符做转义，其余字符按段整体追加
+     */
+    private void writeString(CharSequence value) {
+        out.append('"');
+        int length = value.length();
+        int last = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            out.append(value, last, i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                case '\b': out.append("\\b"); break;
+                case '\f': out.append("\\f"); break;
+                default:
+                    out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+            }
+            last = i + 1;
+        }
+        out.append(value, last, length);
+        out.append('"');
+    }
+}
@@ -0,0 +1,65 @@
+package server;
+
+/**
+ * 批量操作中一项的结果
+ * 批量注册、查找和删除按请求中的顺序为每一项返回一个结果，某一项失败不影响其他项
+ */
+public class BatchResult {
+
+    private final String username;
+    private final boolean success;
+    private final String message;
+    private final User user;
+
+    private BatchResult(String username, boolean success, String message, User user) {
+        this.username = username;
+        this.success = success;
+        this.message = message;
+        this.user = user;
+    }
+
+    /**
+     * @param username 用户名
+     * @param message 成功消息
+     * @return 成功结果
+     */
+    public static BatchResult success(String username, String message) {
+        return new BatchResult(username, true, message, null);
+    }
+
+    /**
+     * @param username 用户名，请求中缺失时为null
+     * @param message 失败原因
+     * @return 失败结果
+     */
+    public static BatchResult error(String username, String message) {
+        return new BatchResult(username, false, message, null);
+    }
+
+    /**
+     * @param user 查找到的用户
+     * @return 带用户信息的成功结果
+     */
+    public static BatchResult user(User user) {
+        return new BatchResult(user.getUsername(), true, null, user);
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return 查找到的用户，不是查找结果时为null
+     */
+    public User getUser() {
+        return user;
+    }
+}
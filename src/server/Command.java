@@ -0,0 +1,16 @@
+package server;
+
+/**
+ * 协议命令接口
+ * 每个action对应一个Command，由CommandRouter按action名称分发
+ */
+@FunctionalInterface
+public interface Command {
+
+    /**
+     * 执行命令
+     * @param request 已解析的请求
+     * @return 响应，由连接所用的协议负责序列化
+     */
+    Response execute(Request request);
+}
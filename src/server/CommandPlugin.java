@@ -0,0 +1,16 @@
+package server;
+
+/**
+ * 命令插件接口
+ * 实现类在META-INF/services/server.CommandPlugin中声明后，RequestProcessor启动时通过ServiceLoader加载，
+ * 可以在不修改服务器代码的情况下增加新的action
+ */
+public interface CommandPlugin {
+
+    /**
+     * 注册插件提供的命令
+     * @param router 命令路由
+     * @param dbManager 数据库管理器
+     */
+    void registerCommands(CommandRouter router, DatabaseManager dbManager);
+}
@@ -0,0 +1,44 @@
+package server;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 命令路由
+ * 以action名称为键保存命令，分发时只做一次哈希查找。
+ * 所有命令在服务器启动时注册完毕，之后只读，可以被多个线程同时使用
+ */
+public class CommandRouter {
+
+    private final Map<String, Command> commands = new HashMap<>();
+
+    /**
+     * 注册命令
+     * @param action action名称
+     * @param command 命令
+     * @throws IllegalArgumentException action已被注册
+     */
+    public void register(String action, Command command) {
+        if (commands.putIfAbsent(action, command) != null) {
+            throw new IllegalArgumentException("重复注册的操作类型: " + action);
+        }
+    }
+
+    /**
+     * 查找action对应的命令
+     * @param action action名称，可为null
+     * @return 命令，未注册时返回null
+     */
+    public Command find(String action) {
+        return action == null ? null : commands.get(action);
+    }
+
+    /**
+     * @return 所有已注册的action名称
+     */
+    public Set<String> actions() {
+        return Collections.unmodifiableSet(commands.keySet());
+    }
+}
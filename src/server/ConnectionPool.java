@@ -0,0 +1,322 @@
+package server;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SQLite连接池
+ * SQLite允许多个读者但同一时间只能有一个写者，所以连接池分成两部分：
+ * 若干只读连接供查询并发使用，一个写连接供所有修改操作串行使用。
+ * 借出连接有超时限制，借出时校验连接可用性，长时间未归还的连接会被报告为泄漏
+ */
+public class ConnectionPool {
+
+    // sqlite-jdbc的open_mode标志：1为只读，6为读写并在不存在时创建
+    private static final String OPEN_MODE_READONLY = "1";
+    private static final String OPEN_MODE_READWRITE_CREATE = "6";
+    private static final int VALIDATION_TIMEOUT_SECONDS = 1;
+    // 空闲超过该时间的连接在借出时才执行完整校验，避免每次借出都多一次查询
+    private static final long VALIDATE_AFTER_IDLE_MILLIS = 30_000;
+    private static final int STATEMENT_CACHE_SIZE = Integer.getInteger("db.statementCache.size", 32);
+
+    private final String url;
+    private final StorageProfile profile;
+    private final int maxReaders;
+    private final long borrowTimeoutMillis;
+    private final long leakThresholdMillis;
+    // 记录借出位置的调用栈开销较大，默认只记录线程名，排查泄漏时用-Ddb.pool.leakTrace=true打开
+    private final boolean traceBorrowSite = Boolean.getBoolean("db.pool.leakTrace");
+
+    private final BlockingQueue<PooledConnection> idleReaders;
+    private final BlockingQueue<PooledConnection> idleWriter = new ArrayBlockingQueue<>(1);
+    private final AtomicInteger createdReaders = new AtomicInteger();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService leakDetector;
+    private volatile boolean closed = false;
+    private final ServerMetrics metrics = ServerMetrics.global();
+
+    /**
+     * 构造函数，立即打开写连接，读连接按需创建
+     * @param url JDBC连接地址
+     * @param profile 存储配置档，每个新连接打开后执行其中的PRAGMA
+     * @param maxReaders 最大只读连接数
+     * @param borrowTimeoutMillis 借出连接的最长等待时间
+     * @param leakThresholdMillis 借出超过该时间未归还即报告泄漏
+     * @throws SQLException 打开写连接失败
+     */
+    public ConnectionPool(String url, StorageProfile profile, int maxReaders, long borrowTimeoutMillis,
+                          long leakThresholdMillis) throws SQLException {
+        this.url = url;
+        this.profile = profile;
+        this.maxReaders = maxReaders;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.idleReaders = new ArrayBlockingQueue<>(maxReaders);
+
+        idleWriter.add(new PooledConnection(openConnection(false), false));
+
+        leakDetector = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "connection-leak-detector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(leakThresholdMillis / 2, 1000);
+        leakDetector.scheduleAtFixedRate(this::detectLeaks, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 借出一个只读连接
+     * @return 连接，使用完毕后调用close()归还
+     * @throws SQLException 等待超时或创建连接失败
+     */
+    public PooledConnection borrowRead() throws SQLException {
+        long start = System.nanoTime();
+        PooledConnection pooled = idleReaders.poll();
+        if (pooled == null) {
+            pooled = tryCreateReader();
+        }
+        if (pooled == null) {
+            pooled = poll(idleReaders);
+        }
+        metrics.recordTiming("db.pool.borrowRead", start);
+        return checkOut(validate(pooled));
+    }
+
+    /**
+     * 借出唯一的写连接，其他写操作会在此等待
+     * @return 连接，使用完毕后调用close()归还
+     * @throws SQLException 等待超时
+     */
+    public PooledConnection borrowWrite() throws SQLException {
+        long start = System.nanoTime();
+        PooledConnection pooled = poll(idleWriter);
+        // 写连接只有一个，等待时间反映写操作的排队情况
+        metrics.recordTiming("db.pool.borrowWrite", start);
+        return checkOut(validate(pooled));
+    }
+
+    /**
+     * @return 已借出未归还的连接数
+     */
+    public int getBorrowedCount() {
+        return borrowed.size();
+    }
+
+    /**
+     * @return 空闲的只读连接数，不含尚未创建的连接
+     */
+    public int getIdleReaderCount() {
+        return idleReaders.size();
+    }
+
+    /**
+     * 检查连接池是否可用
+     * @return 能借出可用的读连接时返回true
+     */
+    public boolean isValid() {
+        if (closed) {
+            return false;
+        }
+        try (PooledConnection reader = borrowRead()) {
+            return reader.getConnection().isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 关闭连接池和所有空闲连接，借出中的连接在归还时关闭
+     */
+    public void close() {
+        closed = true;
+        leakDetector.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idleReaders.poll()) != null) {
+            pooled.closeQuietly();
+        }
+        while ((pooled = idleWriter.poll()) != null) {
+            pooled.closeQuietly();
+        }
+    }
+
+    private PooledConnection tryCreateReader() throws SQLException {
+        while (true) {
+            int created = createdReaders.get();
+            if (created >= maxReaders) {
+                return null;
+            }
+            if (createdReaders.compareAndSet(created, created + 1)) {
+                try {
+                    return new PooledConnection(openConnection(true), true);
+                } catch (SQLException e) {
+                    createdReaders.decrementAndGet();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private PooledConnection poll(BlockingQueue<PooledConnection> queue) throws SQLException {
+        try {
+            PooledConnection pooled = queue.poll(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+            if (pooled == null) {
+                throw new SQLException("获取数据库连接超时(" + borrowTimeoutMillis + "ms)");
+            }
+            return pooled;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("等待数据库连接时被中断", e);
+        }
+    }
+
+    /**
+     * 校验借出的连接，失效的连接会被关闭并替换为新连接
+     */
+    private PooledConnection validate(PooledConnection pooled) throws SQLException {
+        boolean valid;
+        try {
+            boolean recentlyUsed = System.currentTimeMillis() - pooled.releasedAt < VALIDATE_AFTER_IDLE_MILLIS;
+            valid = !pooled.connection.isClosed()
+                    && (recentlyUsed || pooled.connection.isValid(VALIDATION_TIMEOUT_SECONDS));
+        } catch (SQLException e) {
+            valid = false;
+        }
+        if (valid) {
+            return pooled;
+        }
+
+        Log.warn("数据库连接已失效，重新创建连接");
+        pooled.closeQuietly();
+        try {
+            return new PooledConnection(openConnection(pooled.readOnly), pooled.readOnly);
+        } catch (SQLException e) {
+            // 保持连接池容量不变，下一个借出者会再次尝试重建
+            release(pooled);
+            throw e;
+        }
+    }
+
+    private PooledConnection checkOut(PooledConnection pooled) {
+        pooled.borrowedAt = System.currentTimeMillis();
+        pooled.borrowThread = Thread.currentThread().getName();
+        pooled.borrowSite = traceBorrowSite ? new Throwable("连接借出位置") : null;
+        pooled.leakReported = false;
+        pooled.released.set(false);
+        borrowed.add(pooled);
+        return pooled;
+    }
+
+    private void release(PooledConnection pooled) {
+        borrowed.remove(pooled);
+        pooled.releasedAt = System.currentTimeMillis();
+        if (closed) {
+            pooled.closeQuietly();
+            return;
+        }
+        if (pooled.readOnly) {
+            idleReaders.offer(pooled);
+        } else {
+            idleWriter.offer(pooled);
+        }
+    }
+
+    private Connection openConnection(boolean readOnly) throws SQLException {
+        Properties properties = new Properties();
+        properties.setProperty("open_mode", readOnly ? OPEN_MODE_READONLY : OPEN_MODE_READWRITE_CREATE);
+        Connection connection = DriverManager.getConnection(url, properties);
+        try (Statement statement = connection.createStatement()) {
+            for (Map.Entry<String, String> pragma : profile.pragmas(!readOnly).entrySet()) {
+                statement.execute("PRAGMA " + pragma.getKey() + " = " + pragma.getValue());
+            }
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    /**
+     * 报告借出时间超过阈值的连接及其借出位置
+     */
+    private void detectLeaks() {
+        long now = System.currentTimeMillis();
+        for (PooledConnection pooled : borrowed) {
+            if (!pooled.leakReported && now - pooled.borrowedAt > leakThresholdMillis) {
+                pooled.leakReported = true;
+                // 借出位置作为异常附带，日志中会打印借出时的调用栈
+                Log.log(Log.Level.WARN, "疑似数据库连接泄漏: " + (pooled.readOnly ? "读" : "写") + "连接已被线程 "
+                        + pooled.borrowThread + " 借出 " + (now - pooled.borrowedAt) + "ms", pooled.borrowSite);
+            }
+        }
+    }
+
+    /**
+     * 借出的连接，close()时归还到连接池而不是真正关闭
+     */
+    public class PooledConnection implements AutoCloseable {
+        private final Connection connection;
+        private final boolean readOnly;
+        private final StatementCache statementCache;
+        private volatile long borrowedAt;
+        private volatile long releasedAt;
+        private volatile String borrowThread;
+        private volatile Throwable borrowSite;
+        private volatile boolean leakReported;
+        // 本次借出是否已归还，借出时重置；重复调用close()只有第一次归还，避免同一连接进入空闲队列两次
+        private final AtomicBoolean released = new AtomicBoolean(true);
+
+        private PooledConnection(Connection connection, boolean readOnly) {
+            this.connection = connection;
+            this.readOnly = readOnly;
+            this.statementCache = new StatementCache(connection, STATEMENT_CACHE_SIZE);
+        }
+
+        public Connection getConnection() {
+            return connection;
+        }
+
+        /**
+         * 获取缓存的预编译语句，语句随连接一起复用，调用方不能关闭它
+         * @param sql SQL文本
+         * @return 预编译语句
+         * @throws SQLException 预编译失败
+         */
+        public PreparedStatement prepareStatement(String sql) throws SQLException {
+            return statementCache.prepare(sql);
+        }
+
+        public Statement createStatement() throws SQLException {
+            return connection.createStatement();
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(this);
+            }
+        }
+
+        private void closeQuietly() {
+            statementCache.clear();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                Log.warn("关闭数据库连接失败: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -1,82 +1,157 @@
 package server;
 
-import java.io.File;
-import java.security.MessageDigest;
-import java.security.SecureRandom;
-import java.sql.*;
+import java.io.IOException;
+import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Base64;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 
 public class DatabaseManager {
 
-    private static final String DB_URL = "jdbc:sqlite:database/app.db";
-    private Connection connection;
+    private static final String DB_PATH = "database/app.db";
 
-    //构造函数，初始化数据库连接
+    // 用户名布隆过滤器配置：预期用户数不足实际用户数的两倍时按实际用户数的两倍建立
+    private static final boolean USERNAME_FILTER_ENABLED =
+            Boolean.parseBoolean(System.getProperty("filter.usernames.enabled", "true"));
+    private static final long USERNAME_FILTER_EXPECTED = Long.getLong("filter.usernames.expected", 1_000_000);
+    private static final double USERNAME_FILTER_FPP =
+            Double.parseDouble(System.getProperty("filter.usernames.fpp", "0.01"));
+
+    // 存储引擎，打开失败时为null，此时所有操作都返回失败
+    private final UserStore store;
+
+    // 按用户名/ID查找的读缓存，修改和删除用户后失效；内存引擎本身就是内存索引，不再缓存
+    private final UserCache userCache;
+
+    // 密码哈希在独立的有界线程池中计算，期间不持有数据库连接
+    private final PasswordHashExecutor hashExecutor = PasswordHashExecutor.fromSystemProperties();
+    private final PasswordHashers passwordHashers = PasswordHashers.fromSystemProperties();
+
+    // 加载成功之前为null，此时所有判断都查询数据库；重建期间新注册的用户名同时写入正在构建的过滤器
+    private volatile UsernameFilter usernameFilter;
+    private volatile UsernameFilter rebuildingFilter;
+    private final AtomicBoolean filterRebuilding = new AtomicBoolean();
+    private final LongAdder deletedSinceRebuild = new LongAdder();
+
+    // 每次调用记录存储部分的耗时，不含缓存命中和密码哈希
+    private final ServerMetrics metrics = ServerMetrics.global();
+    private final LongAdder filterRejections = metrics.counter("usernameFilter.rejected");
+
+    /**
+     * 构造函数，存储引擎由-Ddb.engine指定（sqlite/memory/offheap），默认sqlite；
+     * SQLite的存储配置档由-Ddb.profile指定（durable/balanced/fast），默认balanced
+     */
     public DatabaseManager() {
-        try {
-            //确保数据库目录存在
-            File dbDir = new File("database");
-            if (!dbDir.exists()) {
-                dbDir.mkdirs();
-            }
+        this(openStore(System.getProperty("db.engine", "sqlite")));
+    }
+
+    /**
+     * 构造函数，使用指定的SQLite数据库文件和存储配置档
+     * @param dbPath 数据库文件路径
+     * @param profile 存储配置档
+     */
+    public DatabaseManager(String dbPath, StorageProfile profile) {
+        this(openSqlite(dbPath, profile));
+    }
 
-            //加载SQLite驱动
-            Class.forName("org.sqlite.JDBC");
-            connection = DriverManager.getConnection(DB_URL);
+    /**
+     * 构造函数，使用已经打开的存储引擎
+     * @param store 存储引擎，为null时表示存储不可用
+     */
+    public DatabaseManager(UserStore store) {
+        this.store = store;
+        this.userCache = store instanceof MemoryUserStore ? new UserCache(0, 0) : UserCache.fromSystemProperties();
+        if (store != null) {
+            rebuildUsernameFilter();
+            registerGauges();
+        }
+    }
 
-            //初始化数据库
-            initializeDatabase();
-        } catch (ClassNotFoundException e) {
-            System.err.println("SQLite JDBC驱动未找到: " + e.getMessage());
-        } catch (SQLException e) {
-            System.err.println("数据库连接失败: " + e.getMessage());
+    /**
+     * 按名称打开存储引擎
+     * @param engine sqlite、memory或offheap
+     * @return 存储引擎，打开失败时返回null
+     * @throws IllegalArgumentException 未知的引擎名称
+     */
+    private static UserStore openStore(String engine) {
+        switch (engine) {
+            case "sqlite":
+                return openSqlite(DB_PATH, StorageProfile.fromName(System.getProperty("db.profile", "balanced")));
+            case "memory":
+                try {
+                    return MemoryUserStore.fromSystemProperties();
+                } catch (IOException e) {
+                    Log.error("内存存储恢复数据失败: " + e.getMessage());
+                    return null;
+                }
+            case "offheap":
+                try {
+                    return OffHeapUserStore.fromSystemProperties();
+                } catch (IOException e) {
+                    Log.error("堆外存储打开失败: " + e.getMessage());
+                    return null;
+                }
+            default:
+                throw new IllegalArgumentException("未知的存储引擎: " + engine);
         }
     }
 
-    //初始化数据库表结构
-    public void initializeDatabase() {
+    private static UserStore openSqlite(String dbPath, StorageProfile profile) {
         try {
-            Statement statement = connection.createStatement();
-            String sql = """
-                CREATE TABLE IF NOT EXISTS users (
-                    id INTEGER PRIMARY KEY AUTOINCREMENT,
-                    username TEXT UNIQUE NOT NULL,
-                    password TEXT NOT NULL,
-                    email TEXT,
-                    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
-                )
-                """;
-            statement.executeUpdate(sql);
+            return new SqliteUserStore(dbPath, profile);
+        } catch (ClassNotFoundException e) {
+            Log.error("SQLite JDBC驱动未找到: " + e.getMessage());
         } catch (SQLException e) {
-            System.err.println("SQL初始化表错误: " + e.getMessage());
+            Log.error("数据库连接失败: " + e.getMessage());
         }
+        return null;
     }
 
     /**
      * 用户注册
      * @param user 用户对象
      * @return 注册是否成功
+     * @throws java.util.concurrent.RejectedExecutionException 密码哈希线程池繁忙
      */
     public boolean registerUser(User user) {
-        String sql = "INSERT INTO users (username, password, email) VALUES (?, ?, ?)";
-        try(PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setString(1, user.getUsername());
-            statement.setString(2, encryptPassword(user.getPassword() )); //使用SHA256对密码进行加密
-            statement.setString(3, user.getEmail());
-            int rowsAffected = statement.executeUpdate();
-            if (rowsAffected > 0) {
-                System.out.println("用户注册成功: " + user.getUsername());
+        if (store == null) {
+            return false;
+        }
+
+        // 过滤器认为用户名可能存在时先在读连接上确认，重复注册不再计算哈希、占用写连接
+        UsernameFilter filter = usernameFilter;
+        if (filter != null && filter.mightContain(user.getUsername())) {
+            try {
+                if (lookupUser(user.getUsername()) != null) {
+                    Log.debug("用户名已存在: " + user.getUsername());
+                    return false;
+                }
+            } catch (SQLException e) {
+                Log.error("注册前查询用户名失败: " + e.getMessage());
+            }
+        }
+
+        //按当前算法对密码进行加密，在哈希线程池中计算，完成后才借出写连接
+        String encryptedPassword = hashExecutor.call(() -> encryptPassword(user.getPassword()));
+        long start = System.nanoTime();
+        try {
+            if (store.insert(user.getUsername(), encryptedPassword, user.getEmail())) {
+                Log.debug("用户注册成功: " + user.getUsername());
+                addToUsernameFilter(user.getUsername());
                 return true;
             }
+            Log.debug("用户名已存在: " + user.getUsername());
         } catch (SQLException e) {
-            if(e.getMessage().contains("UNIQUE constraint failed")) {
-                System.out.println("用户名已存在: " + user.getUsername());
-            } else {
-                System.err.println("SQL用户注册错误: " + e.getMessage());
-            }
+            Log.error("SQL用户注册错误: " + e.getMessage());
+        } finally {
+            metrics.recordTiming("db.insertUser", start);
         }
         return false;
     }
@@ -86,41 +161,65 @@ public class DatabaseManager {
      * @param username 用户名
      * @param password 密码
      * @return 登录成功返回用户对象，失败返回null
+     * @throws java.util.concurrent.RejectedExecutionException 密码哈希线程池繁忙
      */
     public User loginUser(String username, String password) {
-        String sql = "SELECT * FROM users WHERE username = ? ";
-
-        try(PreparedStatement statement = connection.prepareStatement(sql)) { // 预编译 然后执行
-            statement.setString(1, username);
-
-            ResultSet rs = statement.executeQuery();
-
-            if (rs.next()) {
-                String storedPassword = rs.getString("password");
-
-                //验证密码SHA2
-                if(verifyPassword(password, storedPassword)) {
-                    User user = new User(
-                            rs.getInt("id"),
-                            rs.getString("username"),
-                            rs.getString("password"),
-                            rs.getString("email"),
-                            rs.getTimestamp("created_at")
-                    );
-                    System.out.println("用户登陆成功: " + username);
-                    return user;
-                } else {
-                    System.out.println("用户登录失败: 密码错误: " + username);
+        try {
+            User user = lookupUser(username);
+            if (user == null) {
+                Log.debug("用户登录失败: 用户不存在: " + username);
+                return null;
+            }
+
+            //验证密码，查询用的连接已经归还，哈希交给哈希线程池
+            if (hashExecutor.call(() -> verifyPassword(password, user.getPassword()))) {
+                Log.debug("用户登陆成功: " + username);
+                if (passwordHashers.needsRehash(user.getPassword())) {
+                    scheduleRehash(username, user.getPassword(), password);
                 }
-            } else {
-                System.out.println("用户登录失败: 用户不存在: " + username);
+                return user;
             }
+            Log.debug("用户登录失败: 密码错误: " + username);
         } catch (SQLException e) {
-            System.err.println("登陆查询错失败: " + e.getMessage());
+            Log.error("登陆查询错失败: " + e.getMessage());
         }
         return null;
     }
 
+    /**
+     * 先查缓存，未命中时从数据库读取并放入缓存
+     * @param username 用户名
+     * @return 用户对象，不存在时返回null
+     * @throws SQLException 查询失败
+     */
+    private User lookupUser(String username) throws SQLException {
+        if (store == null) {
+            throw new SQLException("数据库不可用");
+        }
+        UsernameFilter filter = usernameFilter;
+        if (filter != null && username != null && !filter.mightContain(username)) {
+            filterRejections.increment();
+            return null;
+        }
+
+        User cached = userCache.getByUsername(username);
+        if (cached != null) {
+            return cached;
+        }
+
+        long stamp = userCache.stamp();
+        long start = System.nanoTime();
+        try {
+            User user = store.findByUsername(username);
+            if (user != null) {
+                userCache.put(user, stamp);
+            }
+            return user;
+        } finally {
+            metrics.recordTiming("db.selectUserByUsername", start);
+        }
+    }
+
 
     /**
      * 修改用户信息
@@ -128,45 +227,32 @@ public class DatabaseManager {
      * @param newPassword 新密码（可为null表示不修改）
      * @param newEmail 新邮箱（可为null表示不修改）
      * @return 修改是否成功
+     * @throws java.util.concurrent.RejectedExecutionException 密码哈希线程池繁忙
      */
     public boolean updateUserInfo(String username, String newPassword, String newEmail) {
-        StringBuilder sqlBuilder = new StringBuilder("UPDATE users SET ");
-        List<String> updates = new ArrayList<>();
-        List<Object> parameters = new ArrayList<>();
-
-        if(newPassword != null && !newPassword.isEmpty()) {
-            String encryptedPassword = encryptPassword(newPassword);
-            updates.add("password = ?");
-            parameters.add(encryptedPassword);
-        }
+        boolean updatePassword = newPassword != null && !newPassword.isEmpty();
+        boolean updateEmail = newEmail != null && !newEmail.isEmpty();
 
-        if(newEmail != null && !newEmail.isEmpty()) {
-            updates.add("email = ?");
-            parameters.add(newEmail);
-        }
-
-        if(updates.isEmpty()) {
+        if (store == null || (!updatePassword && !updateEmail)) {
             return false; // 没有更新
         }
 
-        sqlBuilder.append(String.join( ", ", updates));
-        sqlBuilder.append(" WHERE username = ?");
-        parameters.add(username);
-
-        try (PreparedStatement statement = connection.prepareStatement(sqlBuilder.toString())) {
-            for (int i = 0; i < parameters.size(); i++) {
-                statement.setObject(i + 1, parameters.get(i));
-            }
+        String passwordHash = updatePassword ? hashExecutor.call(() -> encryptPassword(newPassword)) : null;
 
-            int rowsUpdated = statement.executeUpdate();
-            if (rowsUpdated > 0) {
-                System.out.println("用户信息修改成功: " + username);
+        long start = System.nanoTime();
+        try {
+            if (store.update(username, passwordHash, updateEmail ? newEmail : null)) {
+                Log.debug("用户信息修改成功: " + username);
                 return true;
             } else {
-                System.out.println("未找到要修改的用户: " + username);
+                Log.debug("未找到要修改的用户: " + username);
             }
         } catch (SQLException e) {
-            System.err.println("修改用户信息失败: " + e.getMessage());
+            Log.error("修改用户信息失败: " + e.getMessage());
+        } finally {
+            // 写入提交之后再失效，之前开始的读取不会把旧记录放回缓存
+            userCache.invalidate(username);
+            metrics.recordTiming("db.updateUser", start);
         }
         return false;
     }
@@ -179,54 +265,90 @@ public class DatabaseManager {
      */
     public List<User> getAllUsers() {
         List<User> users = new ArrayList<>();
-        String sql = "SELECT * FROM users ORDER BY created_at DESC";
-
-        try(Statement statement = connection.createStatement();
-            ResultSet rs = statement.executeQuery(sql)) {
-
-            while (rs.next()) {
-               User user = new User (
-                       rs.getInt("id"),
-                       rs.getString("username"),
-                       rs.getString("password"),
-                       rs.getString("email"),
-                       rs.getTimestamp("created_at")
-               );
-               users.add(user);
-            }
-            System.out.println("获取所有用户成功，共 " + users.size() + " 个用户");
+        if (store == null) {
+            return users;
+        }
+
+        long start = System.nanoTime();
+        try {
+            users = store.findAll();
+            Log.debug("获取所有用户成功，共 " + users.size() + " 个用户");
         } catch (SQLException e){
-            System.err.println("获取所有用户错误: " + e.getMessage());
+            Log.error("获取所有用户错误: " + e.getMessage());
+        } finally {
+            metrics.recordTiming("db.selectAllUsers", start);
         }
         return users;
     }
 
+    /**
+     * 逐行读取所有用户，顺序与getAllUsers()相同
+     * 每读到一行就交给访问器，不保存已读过的行；访问器写出失败时停止读取并关闭结果集
+     * @param visitor 用户访问器
+     * @return 是否完整读取
+     * @throws IOException 访问器写出失败
+     */
+    public boolean streamAllUsers(UserSource.UserVisitor visitor) throws IOException {
+        if (store == null) {
+            return false;
+        }
+        long[] count = new long[1];
+
+        // 包含等待客户端接收的时间
+        long start = System.nanoTime();
+        try {
+            store.forEach(user -> {
+                visitor.visit(user);
+                count[0]++;
+            });
+            Log.debug("流式获取所有用户成功，共 " + count[0] + " 个用户");
+            return true;
+        } catch (SQLException e) {
+            Log.error("流式获取所有用户错误: " + e.getMessage());
+            return false;
+        } finally {
+            metrics.recordTiming("db.streamAllUsers", start);
+        }
+    }
+
+    /**
+     * 按键集分页获取用户，顺序与getAllUsers()相同
+     * @param cursor 上一页返回的游标，为null时获取第一页
+     * @param pageSize 每页用户数
+     * @return 一页用户和下一页的游标
+     * @throws IllegalArgumentException 游标格式错误
+     */
+    public UserPage getUserPage(String cursor, int pageSize) {
+        UserPage.Cursor position = cursor != null ? UserPage.Cursor.decode(cursor) : null;
+        if (store == null) {
+            return new UserPage(new ArrayList<>(), null);
+        }
+
+        long start = System.nanoTime();
+        try {
+            return store.findPage(position, pageSize);
+        } catch (SQLException e) {
+            Log.error("分页获取用户错误: " + e.getMessage());
+            return new UserPage(new ArrayList<>(), null);
+        } finally {
+            metrics.recordTiming("db.selectUserPage", start);
+        }
+    }
+
     /**
      * 根据用户名查找用户 暂时用不到
      * @param username 用户名
      * @return 用户对象，未找到返回null
      */
     public User findUserByUsername(String username) {
-        String sql = "SELECT * FROM users WHERE username = ?";
-
-        try(PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setString(1, username);
-
-            ResultSet rs = statement.executeQuery();
-
-            if (rs.next()) {
-                User user = new User(
-                        rs.getInt("id"),
-                        rs.getString("username"),
-                        rs.getString("password"),
-                        rs.getString("email"),
-                        rs.getTimestamp("created_at")
-                );
-                System.out.println("用户查找成功: " + username);
-                return user;
+        try {
+            User user = lookupUser(username);
+            if (user != null) {
+                Log.debug("用户查找成功: " + username);
             }
+            return user;
         } catch (SQLException e) {
-            System.err.println("查找用户错误: " + e.getMessage());
+            Log.error("查找用户错误: " + e.getMessage());
         }
         return null;
     }
@@ -237,21 +359,24 @@ public class DatabaseManager {
      * @return 删除是否成功
      */
     public boolean deleteUserById(int userId) {
-        String sql = "DELETE FROM users WHERE id = ?";
-
-        try(PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setInt(1, userId);
-
-            int rowsAffected = statement.executeUpdate();
+        if (store == null) {
+            return false;
+        }
 
-            if (rowsAffected > 0) {
-                System.out.println("用户删除成功: " + userId);
+        long start = System.nanoTime();
+        try {
+            if (store.deleteById(userId)) {
+                Log.debug("用户删除成功: " + userId);
+                usernameRemoved();
                 return true;
             } else {
-                System.out.println("需要删除的用户未找到: " + userId);
+                Log.debug("需要删除的用户未找到: " + userId);
             }
         } catch (SQLException e) {
-            System.err.println("用户删除错误: " + e.getMessage());
+            Log.error("用户删除错误: " + e.getMessage());
+        } finally {
+            userCache.invalidateById(userId);
+            metrics.recordTiming("db.deleteUser", start);
         }
         return false;
     }
@@ -262,119 +387,378 @@ public class DatabaseManager {
      * @return 删除是否成功
      */
     public boolean deleteUserByUsername(String username) {
-        String sql = "DELETE FROM users WHERE username = ?";
-
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setString(1, username);
-
-            int rowsDeleted = statement.executeUpdate();
+        if (store == null) {
+            return false;
+        }
 
-            if (rowsDeleted > 0) {
-                System.out.println("用户已删除: " + username);
+        long start = System.nanoTime();
+        try {
+            if (store.deleteByUsername(username)) {
+                Log.debug("用户已删除: " + username);
+                usernameRemoved();
                 return true;
             } else {
-                System.out.println("未找到该用户: " + username);
+                Log.debug("未找到该用户: " + username);
             }
         } catch (SQLException e) {
-            System.err.println("删除用户时出错: " + e.getMessage());
+            Log.error("删除用户时出错: " + e.getMessage());
+        } finally {
+            userCache.invalidate(username);
+            metrics.recordTiming("db.deleteUser", start);
         }
         return false;
     }
 
 
     /**
-     * 生成随机盐值
-     * @return Base64编码的盐值
+     * 批量注册用户
+     * 密码在哈希线程池中并行计算，全部插入在一个事务中完成，整批只提交（fsync）一次。
+     * 用户名已存在或在本批中重复的项失败，不影响其他项；数据库出错时整个事务回滚，所有待插入的项都失败
+     * @param users 要注册的用户
+     * @return 与users顺序相同的每一项结果
+     * @throws java.util.concurrent.RejectedExecutionException 密码哈希线程池繁忙
      */
-    private String generateSalt() {
-        SecureRandom random = new SecureRandom();
-        byte[] salt = new byte[16];
-        random.nextBytes(salt);
-        return Base64.getEncoder().encodeToString(salt);
+    public List<BatchResult> registerUsers(List<User> users) {
+        BatchResult[] results = new BatchResult[users.size()];
+        List<Integer> pending = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        UsernameFilter filter = usernameFilter;
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            String username = user.getUsername();
+            if (username == null || username.trim().isEmpty() || user.getPassword() == null) {
+                results[i] = BatchResult.error(username, "用户名和密码不能为空");
+            } else if (store == null) {
+                results[i] = BatchResult.error(username, "数据库错误");
+            } else if (!seen.add(username)) {
+                results[i] = BatchResult.error(username, "用户名在本批中重复");
+            } else if (filter != null && filter.mightContain(username) && existsQuietly(username)) {
+                // 与registerUser相同，确认已存在的用户名不再计算哈希
+                results[i] = BatchResult.error(username, "用户名已存在");
+            } else {
+                pending.add(i);
+            }
+        }
+        if (pending.isEmpty()) {
+            return Arrays.asList(results);
+        }
+
+        List<Callable<String>> hashTasks = new ArrayList<>(pending.size());
+        for (int index : pending) {
+            String password = users.get(index).getPassword();
+            hashTasks.add(() -> encryptPassword(password));
+        }
+        List<String> hashes = hashExecutor.callAll(hashTasks);
+
+        long start = System.nanoTime();
+        try {
+            List<User> hashed = new ArrayList<>(pending.size());
+            for (int k = 0; k < pending.size(); k++) {
+                User user = users.get(pending.get(k));
+                hashed.add(new User(user.getUsername(), hashes.get(k), user.getEmail()));
+            }
+            int[] counts = store.insertAll(hashed);
+
+            for (int k = 0; k < pending.size(); k++) {
+                int index = pending.get(k);
+                String username = users.get(index).getUsername();
+                if (counts[k] > 0) {
+                    results[index] = BatchResult.success(username, "注册成功");
+                    addToUsernameFilter(username);
+                } else {
+                    results[index] = BatchResult.error(username, "用户名已存在");
+                }
+            }
+            Log.debug("批量注册完成，共 " + pending.size() + " 项");
+        } catch (SQLException e) {
+            Log.error("SQL批量注册错误: " + e.getMessage());
+            fillErrors(results, users.stream().map(User::getUsername).toList(), "数据库错误");
+        } finally {
+            metrics.recordTiming("db.batchInsertUsers", start);
+        }
+        return Arrays.asList(results);
     }
 
     /**
-     * 使用SHA-256和盐值加密密码
-     * @param password 原始密码
-     * @param salt 盐值
-     * @return 加密后的密码
+     * 批量查找用户
+     * 先查缓存和用户名过滤器，剩下的用户名一次交给存储引擎查找，查到的用户放入缓存
+     * @param usernames 用户名
+     * @return 与usernames顺序相同的每一项结果，找到时带有用户
      */
-    private String hashPasswordWithSalt(String password, String salt) {
+    public List<BatchResult> findUsers(List<String> usernames) {
+        BatchResult[] results = new BatchResult[usernames.size()];
+        List<String> misses = new ArrayList<>();
+        UsernameFilter filter = usernameFilter;
+        for (int i = 0; i < usernames.size(); i++) {
+            String username = usernames.get(i);
+            if (username == null || username.trim().isEmpty()) {
+                results[i] = BatchResult.error(username, "用户名不能为空");
+                continue;
+            }
+            if (store == null) {
+                results[i] = BatchResult.error(username, "数据库错误");
+                continue;
+            }
+            if (filter != null && !filter.mightContain(username)) {
+                filterRejections.increment();
+                results[i] = BatchResult.error(username, "用户不存在");
+                continue;
+            }
+            User cached = userCache.getByUsername(username);
+            if (cached != null) {
+                results[i] = BatchResult.user(cached);
+            } else {
+                misses.add(username);
+            }
+        }
+        if (misses.isEmpty()) {
+            return Arrays.asList(results);
+        }
+
+        Map<String, User> found;
+        long stamp = userCache.stamp();
+        long start = System.nanoTime();
         try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            found = store.findByUsernames(new HashSet<>(misses));
+            for (User user : found.values()) {
+                userCache.put(user, stamp);
+            }
+        } catch (SQLException e) {
+            Log.error("批量查找用户错误: " + e.getMessage());
+            fillErrors(results, usernames, "数据库错误");
+            return Arrays.asList(results);
+        } finally {
+            metrics.recordTiming("db.batchSelectUsers", start);
+        }
 
-            // 将盐值和密码组合
-            String saltedPassword = salt + password;
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                User user = found.get(usernames.get(i));
+                results[i] = user != null ? BatchResult.user(user) : BatchResult.error(usernames.get(i), "用户不存在");
+            }
+        }
+        return Arrays.asList(results);
+    }
 
-            // 计算哈希值
-            byte[] hashedBytes = md.digest(saltedPassword.getBytes("UTF-8"));
+    /**
+     * 批量按用户名删除用户，全部删除在一个事务中完成
+     * @param usernames 用户名
+     * @return 与usernames顺序相同的每一项结果
+     */
+    public List<BatchResult> deleteUsers(List<String> usernames) {
+        BatchResult[] results = new BatchResult[usernames.size()];
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < usernames.size(); i++) {
+            String username = usernames.get(i);
+            if (username == null || username.trim().isEmpty()) {
+                results[i] = BatchResult.error(username, "用户名不能为空");
+            } else if (store == null) {
+                results[i] = BatchResult.error(username, "数据库错误");
+            } else {
+                pending.add(i);
+            }
+        }
+        if (pending.isEmpty()) {
+            return Arrays.asList(results);
+        }
 
-            // 转换为十六进制字符串
-            StringBuilder sb = new StringBuilder();
-            for (byte b : hashedBytes) {
-                sb.append(String.format("%02x", b));
+        long start = System.nanoTime();
+        try {
+            List<String> targets = new ArrayList<>(pending.size());
+            for (int index : pending) {
+                targets.add(usernames.get(index));
             }
+            int[] counts = store.deleteAll(targets);
 
-            return sb.toString();
-        } catch (Exception e) {
-            System.err.println("密码加密失败: " + e.getMessage());
-            // 如果加密失败，使用简单的备用方法
-            return "fallback_" + password.hashCode();
+            for (int k = 0; k < pending.size(); k++) {
+                int index = pending.get(k);
+                if (counts[k] > 0) {
+                    results[index] = BatchResult.success(usernames.get(index), "用户删除成功");
+                    usernameRemoved();
+                } else {
+                    results[index] = BatchResult.error(usernames.get(index), "用户不存在");
+                }
+            }
+            Log.debug("批量删除完成，共 " + pending.size() + " 项");
+        } catch (SQLException e) {
+            Log.error("批量删除用户错误: " + e.getMessage());
+            fillErrors(results, usernames, "数据库错误");
+        } finally {
+            // 提交之后再失效，与deleteUserByUsername相同
+            for (int index : pending) {
+                userCache.invalidate(usernames.get(index));
+            }
+            metrics.recordTiming("db.batchDeleteUsers", start);
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * 把还没有结果的项都标记为失败
+     */
+    private static void fillErrors(BatchResult[] results, List<String> usernames, String message) {
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                results[i] = BatchResult.error(usernames.get(i), message);
+            }
+        }
+    }
+
+    /**
+     * 查询用户名是否存在，查询失败时当作不存在，由后面的插入判断
+     */
+    private boolean existsQuietly(String username) {
+        try {
+            return lookupUser(username) != null;
+        } catch (SQLException e) {
+            Log.error("注册前查询用户名失败: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 从数据库重新建立用户名过滤器，启动时调用一次，之后在删除较多或用户数超过容量时在后台调用
+     * 建立期间旧过滤器继续使用，建好后整体替换
+     * @return 是否重建成功；过滤器被禁用、数据库不可用或已有重建在进行时返回false
+     */
+    public boolean rebuildUsernameFilter() {
+        if (!USERNAME_FILTER_ENABLED || store == null || !filterRebuilding.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            long count = store.count();
+
+            UsernameFilter filter = new UsernameFilter(Math.max(USERNAME_FILTER_EXPECTED, count * 2), USERNAME_FILTER_FPP);
+            // 先公开正在构建的过滤器再扫描，扫描开始之后提交的注册由addToUsernameFilter补上
+            rebuildingFilter = filter;
+            long removedBefore = deletedSinceRebuild.sum();
+            store.forEachUsername(filter::add);
+            usernameFilter = filter;
+            deletedSinceRebuild.add(-removedBefore);
+            Log.info("用户名过滤器已重建: " + filter);
+            return true;
+        } catch (SQLException e) {
+            Log.error("重建用户名过滤器失败: " + e.getMessage());
+            return false;
+        } finally {
+            rebuildingFilter = null;
+            filterRebuilding.set(false);
         }
     }
 
     /**
-     * 加密密码（包含盐值）
+     * @return 当前使用的用户名过滤器，未加载时返回null
+     */
+    public UsernameFilter getUsernameFilter() {
+        return usernameFilter;
+    }
+
+    /**
+     * 注册提交之后把用户名加入过滤器
+     */
+    private void addToUsernameFilter(String username) {
+        // 先读正在构建的过滤器：重建先公开usernameFilter再清空rebuildingFilter，
+        // 这里读到null时要么没有重建（之后开始的扫描能看到已提交的用户名），要么新过滤器已经公开
+        UsernameFilter building = rebuildingFilter;
+        if (building != null) {
+            building.add(username);
+        }
+        UsernameFilter filter = usernameFilter;
+        if (filter == null) {
+            return;
+        }
+        filter.add(username);
+        if (filter.size() > filter.capacity()) {
+            scheduleFilterRebuild();
+        }
+    }
+
+    /**
+     * 删除用户后过滤器中的位无法清除，删除数超过已有用户名的四分之一时重建
+     */
+    private void usernameRemoved() {
+        UsernameFilter filter = usernameFilter;
+        if (filter == null) {
+            return;
+        }
+        deletedSinceRebuild.increment();
+        if (deletedSinceRebuild.sum() > Math.max(1024, filter.size() / 4)) {
+            scheduleFilterRebuild();
+        }
+    }
+
+    private void scheduleFilterRebuild() {
+        if (filterRebuilding.get()) {
+            return;
+        }
+        Thread thread = new Thread(this::rebuildUsernameFilter, "username-filter-rebuild");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 按当前配置的算法加密密码（包含盐值和参数）
      * @param password 原始密码
-     * @return 格式为"盐值:哈希值"的加密密码
+     * @return 带算法前缀的存储格式，例如"$pbkdf2$迭代次数$盐值$哈希值"
      */
     private String encryptPassword(String password) {
-        String salt = generateSalt();
-        String hashedPassword = hashPasswordWithSalt(password, salt);
-        return salt + ":" + hashedPassword;
+        return passwordHashers.current().hash(password);
     }
 
     /**
      * 验证密码
      * @param inputPassword 输入的密码
-     * @param storedPassword 存储的加密密码（格式：盐值:哈希值）
+     * @param storedPassword 存储的加密密码，按前缀选择算法，旧版"盐值:哈希值"按SHA-256校验
      * @return 密码是否匹配
      */
     private boolean verifyPassword(String inputPassword, String storedPassword) {
-        try {
-            // 分离盐值和哈希值
-            String[] parts = storedPassword.split(":", 2);
-            if (parts.length != 2) {
-                // 密码格式不正确，拒绝登录
-                System.err.println("密码格式不正确，请重新注册账户");
-                return false;
-            }
-
-            String salt = parts[0];
-            String storedHash = parts[1];
-
-            // 使用相同的盐值加密输入密码
-            String inputHash = hashPasswordWithSalt(inputPassword, salt);
-
-            // 比较哈希值
-            return storedHash.equals(inputHash);
-        } catch (Exception e) {
-            System.err.println("密码验证失败: " + e.getMessage());
+        PasswordHasher hasher = passwordHashers.forEncoded(storedPassword);
+        if (hasher == null) {
+            // 密码格式不正确，拒绝登录
+            Log.warn("密码格式不正确，请重新注册账户");
             return false;
         }
+        return hasher.verify(inputPassword, storedPassword);
+    }
+
+    /**
+     * 登录成功后发现存储的密码使用旧算法或旧参数时，在哈希线程池中按当前配置重新哈希并写回，不影响本次登录的延迟
+     * 线程池繁忙时放弃，下次登录再试；只在密码未被修改过时写回
+     * @param username 用户名
+     * @param storedPassword 校验通过的存储密码
+     * @param password 本次登录输入的原始密码
+     */
+    private void scheduleRehash(String username, String storedPassword, String password) {
+        hashExecutor.tryExecute(() -> {
+            String rehashed = encryptPassword(password);
+            long start = System.nanoTime();
+            try {
+                if (store.replacePassword(username, storedPassword, rehashed)) {
+                    Log.debug("已按当前算法重新哈希用户密码: " + username);
+                }
+            } catch (SQLException e) {
+                Log.error("重新哈希用户密码失败: " + e.getMessage());
+            } finally {
+                userCache.invalidate(username);
+                metrics.recordTiming("db.rehashPassword", start);
+            }
+        });
     }
 
     /**
      * 关闭数据库连接
      */
     public void closeConnection() {
-        try {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
-                System.out.println("数据库连接已关闭");
-            }
-        } catch (SQLException e) {
-            System.err.println("关闭数据库连接失败: " + e.getMessage());
+        if (userCache.isEnabled()) {
+            Log.info(userCache.toString());
+        }
+        if (usernameFilter != null) {
+            Log.info(usernameFilter.toString());
+        }
+        hashExecutor.shutdown();
+        if (store != null) {
+            store.close();
+            Log.info("数据库连接已关闭");
         }
         /*
         try {
@@ -383,27 +767,49 @@ public class DatabaseManager {
                 Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                     try {
                         connection.close();
-                        System.out.println("数据库连接已关闭");
+                        Log.info("数据库连接已关闭");
                     } catch (SQLException e) {
-                        System.err.println("数据库连接关闭失败");
+                        Log.error("数据库连接关闭失败");
                     }
                 }));
             }
         } catch (SQLException e) {
-            System.err.println("数据库连接关闭失败");
+            Log.error("数据库连接关闭失败");
         }
         */
     }
 
+    /**
+     * 把缓存、过滤器、哈希线程池和存储引擎的状态注册为指标中的即时值
+     */
+    private void registerGauges() {
+        metrics.registerGauge("userCache.size", userCache::size);
+        metrics.registerGauge("userCache.hits", userCache::getHits);
+        metrics.registerGauge("userCache.misses", userCache::getMisses);
+        metrics.registerGauge("hash.queueDepth", hashExecutor::getQueueDepth);
+        metrics.registerGauge("hash.active", hashExecutor::getActiveCount);
+        store.registerGauges(metrics);
+    }
+
+    /**
+     * @return 密码哈希线程池
+     */
+    public PasswordHashExecutor getHashExecutor() {
+        return hashExecutor;
+    }
+
+    /**
+     * @return 用户读缓存，可读取命中、未命中和淘汰计数
+     */
+    public UserCache getUserCache() {
+        return userCache;
+    }
+
     /**
      * 检查数据库连接是否有效
      * @return 连接是否有效
      */
     public boolean isConnectionValid() {
-        try {
-            return connection != null && !connection.isClosed();
-        } catch (SQLException e) {
-            return false;
-        }
+        return store != null && store.isValid();
     }
 }
@@ -0,0 +1,271 @@
+package server;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 组提交写入器
+ * 各个请求线程的单行修改（注册、修改、删除）放入队列，由一个写线程取出一组，
+ * 在同一个事务中依次执行后只提交一次，提交完成后才通知各个调用方。
+ * 并发写入时多个修改共用一次提交（durable配置档下即共用一次fsync），代价是每个修改最多多等待一个收集窗口。
+ *
+ * 写线程取到第一个修改后最多再等待maxDelayNanos或凑满maxBatch个修改；
+ * maxDelayNanos为0时不额外等待，只合并上一次提交期间排队的修改。
+ * 单个修改违反约束（如用户名重复）时SQLite只回滚该条语句，不影响同组的其他修改；
+ * 其他错误（SQLITE_BUSY、SQLITE_FULL、SQLITE_IOERR、SQLITE_NOMEM等）SQLite可能已经回滚整个事务，
+ * 这时整组放弃，与提交失败一样所有修改都失败
+ */
+public class GroupCommitWriter {
+
+    // 只回滚出错语句、不影响事务的SQLite主错误码：SQLITE_TOOBIG、SQLITE_CONSTRAINT、SQLITE_MISMATCH、SQLITE_RANGE
+    private static final int SQLITE_TOOBIG = 18;
+    private static final int SQLITE_CONSTRAINT = 19;
+    private static final int SQLITE_MISMATCH = 20;
+    private static final int SQLITE_RANGE = 25;
+
+    private final ConnectionPool pool;
+    private final long maxDelayNanos;
+    private final int maxBatch;
+    private final long offerTimeoutMillis;
+    private final long resultTimeoutMillis;
+    private final BlockingQueue<Mutation> queue;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private final ServerMetrics metrics = ServerMetrics.global();
+    private final LongAdder groups = metrics.counter("db.groupCommit.groups");
+    private final LongAdder mutations = metrics.counter("db.groupCommit.mutations");
+
+    /**
+     * 构造函数，立即启动写线程
+     * @param pool 连接池，每组借出一次写连接
+     * @param maxDelayNanos 收到第一个修改后最多再等待的时间
+     * @param maxBatch 每组最多的修改数
+     * @param queueLimit 最多排队的修改数
+     * @param offerTimeoutMillis 队列已满时调用方最多等待的时间
+     * @param resultTimeoutMillis 入队之后调用方最多等待提交结果的时间
+     */
+    public GroupCommitWriter(ConnectionPool pool, long maxDelayNanos, int maxBatch, int queueLimit,
+                             long offerTimeoutMillis, long resultTimeoutMillis) {
+        this.pool = pool;
+        this.maxDelayNanos = maxDelayNanos;
+        this.maxBatch = maxBatch;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.resultTimeoutMillis = resultTimeoutMillis;
+        this.queue = new ArrayBlockingQueue<>(queueLimit);
+        this.writer = new Thread(this::run, "group-commit-writer");
+        writer.setDaemon(true);
+        writer.start();
+        metrics.registerGauge("db.groupCommit.queueDepth", queue::size);
+    }
+
+    /**
+     * 按系统属性创建：-Ddb.groupCommit.enabled=true时启用，
+     * -Ddb.groupCommit.maxDelayMicros收集窗口（默认1000），-Ddb.groupCommit.maxBatch每组最多修改数（默认256），
+     * -Ddb.groupCommit.queueLimit排队上限（默认4096），-Ddb.groupCommit.resultTimeoutMillis等待提交结果的上限（默认30000）
+     * @param pool 连接池
+     * @param offerTimeoutMillis 队列已满时调用方最多等待的时间
+     * @return 组提交写入器，未启用时返回null
+     */
+    public static GroupCommitWriter fromSystemProperties(ConnectionPool pool, long offerTimeoutMillis) {
+        if (!Boolean.getBoolean("db.groupCommit.enabled")) {
+            return null;
+        }
+        GroupCommitWriter writer = new GroupCommitWriter(pool,
+                TimeUnit.MICROSECONDS.toNanos(Long.getLong("db.groupCommit.maxDelayMicros", 1000)),
+                Integer.getInteger("db.groupCommit.maxBatch", 256),
+                Integer.getInteger("db.groupCommit.queueLimit", 4096),
+                offerTimeoutMillis,
+                Long.getLong("db.groupCommit.resultTimeoutMillis", 30000));
+        Log.info("已启用组提交: 收集窗口 " + writer.maxDelayNanos / 1000 + "us，每组最多 " + writer.maxBatch + " 个修改");
+        return writer;
+    }
+
+    /**
+     * 把一条修改语句交给写线程，等待所在的组提交后返回
+     * @param sql SQL文本
+     * @param parameters 语句参数
+     * @return 影响的行数
+     * @throws SQLException 语句执行失败、提交失败、队列已满、等待超时或写入器已关闭
+     */
+    public int execute(String sql, Object... parameters) throws SQLException {
+        Mutation mutation = new Mutation(sql, parameters);
+        try {
+            if (!running || !queue.offer(mutation, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException(running ? "写入队列已满" : "写入器已关闭");
+            }
+            // 检查running和入队之间close可能已经结束：写线程已退出、队列已清空，这条修改不会再有人处理。
+            // 能从队列中移除说明还没有被取走，直接失败；移除不了说明写线程或close已经取走，会完成结果
+            if (!running && queue.remove(mutation)) {
+                throw new SQLException("写入器已关闭");
+            }
+            return mutation.result.get(resultTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            if (queue.remove(mutation)) {
+                throw new SQLException("等待写入超时");
+            }
+            throw new SQLException("等待提交超时，修改可能已经生效", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("等待提交时被中断", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            throw new SQLException("组提交失败", cause);
+        }
+    }
+
+    /**
+     * 停止接收新的修改，等待已排队的修改提交完成
+     */
+    public void close() {
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 写线程没能按时结束时不再等待，剩下的调用方收到错误
+        Mutation mutation;
+        while ((mutation = queue.poll()) != null) {
+            mutation.result.completeExceptionally(new SQLException("写入器已关闭"));
+        }
+    }
+
+    private void run() {
+        List<Mutation> group = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                Mutation first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                queue.drainTo(group, maxBatch - group.size());
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (group.size() < maxBatch) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    Mutation next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                    queue.drainTo(group, maxBatch - group.size());
+                }
+                commit(group);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (Mutation mutation : group) {
+                    mutation.result.completeExceptionally(new SQLException("写入器已停止"));
+                }
+                return;
+            } catch (RuntimeException e) {
+                Log.error("组提交线程发生错误: " + e.getMessage(), e);
+                for (Mutation mutation : group) {
+                    mutation.result.completeExceptionally(e);
+                }
+            } finally {
+                group.clear();
+            }
+        }
+    }
+
+    /**
+     * 在一个事务中执行一组修改并提交，提交之后才完成各个调用方的结果
+     */
+    private void commit(List<Mutation> group) {
+        long start = System.nanoTime();
+        int[] counts = new int[group.size()];
+        SQLException[] failures = new SQLException[group.size()];
+        try (ConnectionPool.PooledConnection pooled = pool.borrowWrite()) {
+            Connection connection = pooled.getConnection();
+            connection.setAutoCommit(false);
+            try {
+                for (int i = 0; i < group.size(); i++) {
+                    Mutation mutation = group.get(i);
+                    try {
+                        PreparedStatement statement = pooled.prepareStatement(mutation.sql);
+                        for (int j = 0; j < mutation.parameters.length; j++) {
+                            statement.setObject(j + 1, mutation.parameters[j]);
+                        }
+                        counts[i] = statement.executeUpdate();
+                    } catch (SQLException e) {
+                        if (!isStatementError(e)) {
+                            // 事务可能已被SQLite整体回滚，后面的语句会以自动提交执行，不能再继续
+                            throw e;
+                        }
+                        // 约束错误只回滚这条语句，事务中的其他修改仍然有效
+                        failures[i] = e;
+                    }
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                try {
+                    connection.rollback();
+                } catch (SQLException rollbackError) {
+                    // 事务已被SQLite回滚时再回滚会报没有活动的事务
+                    e.addSuppressed(rollbackError);
+                }
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            Log.error("组提交失败: " + e.getMessage());
+            for (Mutation mutation : group) {
+                mutation.result.completeExceptionally(e);
+            }
+            return;
+        } finally {
+            metrics.recordTiming("db.groupCommit.commit", start);
+        }
+
+        groups.increment();
+        mutations.add(group.size());
+        for (int i = 0; i < group.size(); i++) {
+            if (failures[i] != null) {
+                group.get(i).result.completeExceptionally(failures[i]);
+            } else {
+                group.get(i).result.complete(counts[i]);
+            }
+        }
+    }
+
+    /**
+     * @return 错误是否只回滚出错的语句，事务仍然有效
+     */
+    private static boolean isStatementError(SQLException e) {
+        // 扩展错误码的低8位是主错误码
+        int code = e.getErrorCode() & 0xFF;
+        return code == SQLITE_CONSTRAINT || code == SQLITE_TOOBIG || code == SQLITE_MISMATCH || code == SQLITE_RANGE;
+    }
+
+    /**
+     * 一条等待提交的修改语句
+     */
+    private static final class Mutation {
+        private final String sql;
+        private final Object[] parameters;
+        private final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+        private Mutation(String sql, Object[] parameters) {
+            this.sql = sql;
+            this.parameters = parameters;
+        }
+    }
+}
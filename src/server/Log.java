@@ -0,0 +1,424 @@
+package server;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 服务端日志
+ * 调用方只把日志条目放进无锁环形缓冲区就返回，格式化和写文件都由一个后台线程批量完成，
+ * 处理请求的线程不再争用System.out的锁，也不等待控制台或磁盘I/O。缓冲区满时丢弃新条目并计数，不阻塞调用方。
+ *
+ * 配置（系统属性）：
+ * log.level 最低级别（DEBUG/INFO/WARN/ERROR，默认INFO）；
+ * log.file 日志文件（默认logs/server.log，设为空字符串时不写文件）；
+ * log.maxFileBytes 单个文件上限（默认10MB），超过后轮转为.1、.2……；log.maxFiles 保留的文件数（默认5）；
+ * log.console 是否同时输出到控制台（默认true）；log.bufferSize 环形缓冲区条目数（默认8192，取2的幂）；
+ * log.maxPayload 请求/响应内容最多记录的字符数（默认200）；log.sampleRate 每N个请求记录一个（默认1）
+ */
+public final class Log {
+
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    private static final Level LEVEL = parseLevel(System.getProperty("log.level", "INFO"));
+    private static final int MAX_PAYLOAD = Integer.getInteger("log.maxPayload", 200);
+    private static final int SAMPLE_RATE = Math.max(1, Integer.getInteger("log.sampleRate", 1));
+
+    private static final Ring RING = new Ring(Integer.getInteger("log.bufferSize", 8192));
+    private static final LongAdder DROPPED = new LongAdder();
+    private static final Writer WRITER = new Writer(
+            System.getProperty("log.file", "logs/server.log"),
+            Long.getLong("log.maxFileBytes", 10L * 1024 * 1024),
+            Integer.getInteger("log.maxFiles", 5),
+            Boolean.parseBoolean(System.getProperty("log.console", "true")));
+
+    static {
+        Thread thread = new Thread(WRITER, "log-writer");
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "log-flush"));
+    }
+
+    private Log() {
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(LEVEL) >= 0;
+    }
+
+    public static boolean isDebugEnabled() {
+        return isEnabled(Level.DEBUG);
+    }
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message, null);
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message, null);
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message, null);
+    }
+
+    public static void error(String message) {
+        log(Level.ERROR, message, null);
+    }
+
+    public static void error(String message, Throwable error) {
+        log(Level.ERROR, message, error);
+    }
+
+    /**
+     * 记录一条日志，级别低于配置时直接返回
+     * @param level 级别
+     * @param message 消息
+     * @param error 异常，可为null
+     */
+    public static void log(Level level, String message, Throwable error) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        Entry entry = new Entry(System.currentTimeMillis(), level, Thread.currentThread().getName(), message, error);
+        if (!RING.offer(entry)) {
+            DROPPED.increment();
+        }
+    }
+
+    /**
+     * 判断本次请求的DEBUG日志是否需要记录，按log.sampleRate随机采样
+     * 调用方应在拼接请求/响应内容之前判断，未采样时不产生任何开销
+     * @return 是否记录
+     */
+    public static boolean sampleRequest() {
+        return isDebugEnabled() && (SAMPLE_RATE == 1 || ThreadLocalRandom.current().nextInt(SAMPLE_RATE) == 0);
+    }
+
+    /**
+     * 截断请求/响应内容并隐藏password字段的值，日志开销不随响应大小增长，也不会记录密码和密码哈希
+     * @param payload 请求或响应内容
+     * @return 可以写入日志的文本
+     */
+    public static String payload(CharSequence payload) {
+        if (payload == null) {
+            return "null";
+        }
+        int length = payload.length();
+        int end = Math.min(length, MAX_PAYLOAD);
+        StringBuilder sb = new StringBuilder(end + 32);
+        String marker = "\"password\":\"";
+        int i = 0;
+        while (i < end) {
+            char c = payload.charAt(i);
+            sb.append(c);
+            i++;
+            if (c == '"' && endsWith(sb, marker)) {
+                sb.append("***");
+                // 跳过原值，遇到未转义的引号为止
+                while (i < length && payload.charAt(i) != '"') {
+                    i += payload.charAt(i) == '\\' ? 2 : 1;
+                }
+            }
+        }
+        if (length > end) {
+            sb.append("...(共").append(length).append("字符)");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 等待调用之前放入缓冲区的日志写出并刷新，最多等待1秒，用于服务器停止和JVM退出
+     */
+    public static void flush() {
+        long deadline = System.nanoTime() + 1_000_000_000L;
+        WRITER.awaitWritten(RING.reserved(), deadline);
+    }
+
+    /**
+     * @return 因缓冲区已满而丢弃的日志条数
+     */
+    public static long getDropped() {
+        return DROPPED.sum();
+    }
+
+    private static boolean endsWith(StringBuilder sb, String suffix) {
+        int offset = sb.length() - suffix.length();
+        if (offset < 0) {
+            return false;
+        }
+        for (int i = 0; i < suffix.length(); i++) {
+            if (sb.charAt(offset + i) != suffix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Level parseLevel(String name) {
+        try {
+            return Level.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Level.INFO;
+        }
+    }
+
+    private static final class Entry {
+        private final long time;
+        private final Level level;
+        private final String thread;
+        private final String message;
+        private final Throwable error;
+
+        Entry(long time, Level level, String thread, String message, Throwable error) {
+            this.time = time;
+            this.level = level;
+            this.thread = thread;
+            this.message = message;
+            this.error = error;
+        }
+    }
+
+    /**
+     * 多生产者单消费者的有界环形缓冲区
+     * 每个槽位带一个序号：序号等于写入位置时槽位空闲，等于写入位置+1时已写好可读。
+     * 生产者用CAS抢占写入位置，消费者只有后台写线程一个，读取位置不需要原子操作
+     */
+    private static final class Ring {
+        private final Entry[] slots;
+        private final AtomicLongArray sequences;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong();
+        private volatile long head;
+
+        Ring(int requested) {
+            int capacity = Integer.highestOneBit(Math.max(2, requested - 1)) << 1;
+            slots = new Entry[capacity];
+            sequences = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                sequences.set(i, i);
+            }
+            mask = capacity - 1;
+        }
+
+        boolean offer(Entry entry) {
+            long pos = tail.get();
+            while (true) {
+                int index = (int) (pos & mask);
+                long diff = sequences.get(index) - pos;
+                if (diff == 0) {
+                    if (tail.compareAndSet(pos, pos + 1)) {
+                        slots[index] = entry;
+                        sequences.set(index, pos + 1);
+                        return true;
+                    }
+                    pos = tail.get();
+                } else if (diff < 0) {
+                    return false;
+                } else {
+                    pos = tail.get();
+                }
+            }
+        }
+
+        Entry poll() {
+            long pos = head;
+            int index = (int) (pos & mask);
+            if (sequences.get(index) != pos + 1) {
+                return null;
+            }
+            Entry entry = slots[index];
+            slots[index] = null;
+            sequences.set(index, pos + mask + 1);
+            head = pos + 1;
+            return entry;
+        }
+
+        /**
+         * @return 已被生产者占用的位置数，即到目前为止放入（或正在放入）的条目数
+         */
+        long reserved() {
+            return tail.get();
+        }
+
+        /**
+         * @return 已被消费者取出的条目数，只由消费者调用
+         */
+        long consumed() {
+            return head;
+        }
+    }
+
+    /**
+     * 后台写线程：一次取出缓冲区中的所有条目，格式化后批量写入文件并刷新，文件超过上限时轮转
+     */
+    private static final class Writer implements Runnable {
+        private static final DateTimeFormatter TIME_FORMAT =
+                DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+        private final File file;
+        private final long maxFileBytes;
+        private final int maxFiles;
+        private final PrintStream console;
+        private final StringBuilder line = new StringBuilder(256);
+        private OutputStream out;
+        private long fileBytes;
+        private long reportedDropped;
+        // 已经写出并刷新的条目数：只在缓冲区取空、输出刷新之后才推进，
+        // 取出条目和写出之间的窗口里flush()不会提前返回
+        private volatile long written;
+
+        Writer(String path, long maxFileBytes, int maxFiles, boolean console) {
+            this.file = path == null || path.isEmpty() ? null : new File(path);
+            this.maxFileBytes = maxFileBytes;
+            this.maxFiles = Math.max(1, maxFiles);
+            // 在重定向之前保存控制台，写线程是唯一的使用者
+            this.console = console ? System.out : null;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Entry entry = RING.poll();
+                if (entry == null) {
+                    flushOutputs();
+                    written = RING.consumed();
+                    LockSupport.parkNanos(5_000_000);
+                    continue;
+                }
+                reportDropped();
+                write(entry);
+            }
+        }
+
+        void awaitWritten(long target, long deadline) {
+            while (written < target && System.nanoTime() < deadline) {
+                LockSupport.parkNanos(1_000_000);
+            }
+        }
+
+        private void reportDropped() {
+            long dropped = DROPPED.sum();
+            if (dropped != reportedDropped) {
+                Entry notice = new Entry(System.currentTimeMillis(), Level.WARN, "log-writer",
+                        "日志缓冲区已满，丢弃了 " + (dropped - reportedDropped) + " 条日志", null);
+                reportedDropped = dropped;
+                write(notice);
+            }
+        }
+
+        private void write(Entry entry) {
+            line.setLength(0);
+            line.append(TIME_FORMAT.format(Instant.ofEpochMilli(entry.time)))
+                    .append(' ').append(entry.level.name());
+            for (int i = entry.level.name().length(); i < 5; i++) {
+                line.append(' ');
+            }
+            line.append(" [").append(entry.thread).append("] ").append(entry.message).append('\n');
+            if (entry.error != null) {
+                StringWriter trace = new StringWriter();
+                entry.error.printStackTrace(new PrintWriter(trace));
+                line.append(trace);
+            }
+
+            byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+            if (console != null) {
+                console.write(bytes, 0, bytes.length);
+            }
+            if (file != null) {
+                writeFile(bytes);
+            }
+        }
+
+        private void writeFile(byte[] bytes) {
+            try {
+                if (out == null) {
+                    open();
+                }
+                if (fileBytes > 0 && fileBytes + bytes.length > maxFileBytes) {
+                    rotate();
+                }
+                out.write(bytes);
+                fileBytes += bytes.length;
+            } catch (IOException e) {
+                // 文件不可写时只保留控制台输出，下次写入时重试打开
+                closeQuietly();
+                if (console != null) {
+                    console.println("写日志文件失败: " + e.getMessage());
+                }
+            }
+        }
+
+        private void open() throws IOException {
+            File dir = file.getAbsoluteFile().getParentFile();
+            if (dir != null && !dir.exists()) {
+                dir.mkdirs();
+            }
+            out = new BufferedOutputStream(new FileOutputStream(file, true), 64 * 1024);
+            fileBytes = file.length();
+        }
+
+        /**
+         * server.log -> server.log.1 -> server.log.2 ...，超出保留数的最旧文件被删除
+         */
+        private void rotate() throws IOException {
+            closeQuietly();
+            File oldest = new File(file.getPath() + "." + (maxFiles - 1));
+            if (oldest.exists() && !oldest.delete()) {
+                throw new IOException("无法删除旧日志文件: " + oldest);
+            }
+            for (int i = maxFiles - 2; i >= 1; i--) {
+                File source = new File(file.getPath() + "." + i);
+                if (source.exists()) {
+                    source.renameTo(new File(file.getPath() + "." + (i + 1)));
+                }
+            }
+            if (maxFiles > 1) {
+                file.renameTo(new File(file.getPath() + ".1"));
+            } else {
+                file.delete();
+            }
+            open();
+        }
+
+        private void flushOutputs() {
+            if (console != null) {
+                console.flush();
+            }
+            if (out != null) {
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    closeQuietly();
+                }
+            }
+        }
+
+        private void closeQuietly() {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                    // 已经在处理写入失败
+                }
+                out = null;
+            }
+        }
+    }
+}
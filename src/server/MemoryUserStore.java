@@ -0,0 +1,727 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * 内存用户存储
+ * 用户名和ID各有一个ConcurrentHashMap索引，另有一个按(创建时间, ID)倒序排列的跳表，
+ * 列表、流式读取和分页直接按跳表顺序遍历，不需要排序。
+ * 读取不加锁；修改在一把锁下同时更新三个索引，与SQLite一样同一时间只有一个写者。
+ * 存储的User对象一旦放入就不再修改，修改时整体替换，读取方拿到的对象不会变化。
+ *
+ * 不指定目录时数据只在内存中，进程退出即丢失，适合测试和基准测试。
+ * 指定目录时每次修改在写锁下先追加到WriteAheadLog，按同步方式落盘之后才放入读取用的三个索引并返回，
+ * 读取方不会看到崩溃后可能丢失的修改（interval/none方式本身不等待落盘，仍可能丢失最后一段修改）。
+ * 尚未落盘的修改记在写锁保护的待发布队列中，后来的写者按包含待发布修改的最新状态判断重名、读取旧值。
+ * 落盘失败时待发布的修改全部丢弃、不再发布，调用方收到错误，之后拒绝所有修改直到重启；
+ * 已写入日志的记录重启后仍可能被重放；
+ * 后台定期（或日志段超过阈值时）写出UserSnapshot并删除快照覆盖的日志段。
+ * 启动时读取最新快照再重放之后的日志，重放的记录数只与上次快照之后的修改数有关
+ */
+public class MemoryUserStore implements UserStore {
+
+    private final ConcurrentHashMap<String, User> byUsername = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, User> byId = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Key, User> byCreatedAt = new ConcurrentSkipListMap<>();
+    // 用ReentrantLock而不是synchronized，虚拟线程等待时不会被固定(pin)
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private int lastId;
+
+    // 已写入日志、等待落盘后发布的修改，按日志序号排列；以下三个字段都只在写锁下访问
+    private final ArrayDeque<Pending> unpublished = new ArrayDeque<>();
+    private final Map<String, Latest> pendingByUsername = new HashMap<>();
+    private final Map<Integer, Latest> pendingById = new HashMap<>();
+    // 日志落盘失败的原因，不为null时拒绝修改
+    private volatile IOException walFailure;
+
+    // 持久化，不指定目录时都为null；只在open中赋值，之后不再改变
+    private Path dir;
+    private WriteAheadLog wal;
+    private ScheduledExecutorService persistence;
+    private long snapshotIntervalNanos;
+    private long snapshotWalBytes;
+    private final AtomicBoolean snapshotting = new AtomicBoolean();
+    private volatile long snapshotLsn;
+    private volatile long lastSnapshotNanos;
+
+    private final ServerMetrics metrics = ServerMetrics.global();
+
+    /**
+     * 创建不持久化的内存存储
+     */
+    public MemoryUserStore() {
+    }
+
+    /**
+     * 按系统属性创建：-Ddb.memory.dir指定持久化目录，不指定时不持久化；
+     * -Ddb.wal.sync日志落盘方式（always/interval/none，默认always），-Ddb.wal.syncIntervalMillis（默认100），
+     * -Ddb.snapshot.intervalSeconds快照间隔（默认300），-Ddb.snapshot.walMegabytes日志段达到该大小时提前写快照（默认64）
+     * @return 内存存储
+     * @throws IOException 恢复数据失败
+     */
+    public static MemoryUserStore fromSystemProperties() throws IOException {
+        String dir = System.getProperty("db.memory.dir", "");
+        if (dir.isEmpty()) {
+            Log.info("未指定db.memory.dir，内存存储的数据不会写入磁盘");
+            return new MemoryUserStore();
+        }
+        return open(Paths.get(dir),
+                WriteAheadLog.SyncMode.fromName(System.getProperty("db.wal.sync", "always")),
+                Long.getLong("db.wal.syncIntervalMillis", 100),
+                TimeUnit.SECONDS.toMillis(Long.getLong("db.snapshot.intervalSeconds", 300)),
+                Long.getLong("db.snapshot.walMegabytes", 64) * 1024 * 1024);
+    }
+
+    /**
+     * 打开持久化的内存存储：读取最新快照，重放之后的日志，新建日志段并启动后台落盘和快照
+     * @param dir 持久化目录，不存在时创建
+     * @param syncMode 日志落盘方式
+     * @param syncIntervalMillis SyncMode.INTERVAL时的落盘间隔
+     * @param snapshotIntervalMillis 快照间隔
+     * @param snapshotWalBytes 当前日志段达到该大小时提前写快照
+     * @return 内存存储
+     * @throws IOException 读取快照或日志失败、数据损坏
+     */
+    public static MemoryUserStore open(Path dir, WriteAheadLog.SyncMode syncMode, long syncIntervalMillis,
+                                       long snapshotIntervalMillis, long snapshotWalBytes) throws IOException {
+        MemoryUserStore store = new MemoryUserStore();
+        store.recover(dir, syncMode);
+        store.snapshotIntervalNanos = TimeUnit.MILLISECONDS.toNanos(snapshotIntervalMillis);
+        store.snapshotWalBytes = snapshotWalBytes;
+        store.lastSnapshotNanos = System.nanoTime();
+
+        store.persistence = Executors.newScheduledThreadPool(2, r -> {
+            Thread thread = new Thread(r, "memory-store-persistence");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (syncMode == WriteAheadLog.SyncMode.INTERVAL) {
+            store.persistence.scheduleAtFixedRate(store::syncQuietly,
+                    syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        store.persistence.scheduleWithFixedDelay(store::snapshotIfDue, 1, 1, TimeUnit.SECONDS);
+        return store;
+    }
+
+    private void recover(Path dir, WriteAheadLog.SyncMode syncMode) throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(dir);
+        UserSnapshot snapshot = UserSnapshot.load(dir, this::restore);
+        long afterLsn = 0;
+        if (snapshot != null) {
+            afterLsn = snapshot.getLsn();
+            lastId = Math.max(lastId, snapshot.getLastId());
+        }
+
+        long lastLsn = WriteAheadLog.replay(dir, afterLsn, new WriteAheadLog.Replayer() {
+            @Override
+            public void put(User user) {
+                restore(user);
+            }
+
+            @Override
+            public void delete(int id) {
+                User user = byId.get(id);
+                if (user != null) {
+                    remove(user);
+                }
+            }
+        });
+
+        this.dir = dir;
+        this.wal = new WriteAheadLog(dir, lastLsn, syncMode);
+        this.snapshotLsn = afterLsn;
+        Log.info("内存存储已恢复: " + byId.size() + " 个用户，快照中 " + (snapshot != null ? snapshot.getCount() : 0)
+                + " 个，重放日志 " + (lastLsn - afterLsn) + " 条记录，耗时 "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms，日志落盘方式 " + syncMode);
+    }
+
+    /**
+     * 恢复时放入快照或日志中的用户，替换同一ID的旧记录
+     */
+    private void restore(User user) {
+        User old = byId.get(user.getId());
+        if (old != null) {
+            remove(old);
+        }
+        put(user);
+        lastId = Math.max(lastId, user.getId());
+    }
+
+    @Override
+    public boolean insert(String username, String passwordHash, String email) throws SQLException {
+        long lsn;
+        writeLock.lock();
+        try {
+            if (latestByUsername(username) != null) {
+                return false;
+            }
+            // 与SQLite的AUTOINCREMENT一样，删除后的ID不再复用
+            User user = new User(lastId + 1, username, passwordHash, email, new Timestamp(System.currentTimeMillis()));
+            lsn = wal != null ? logPuts(List.of(user)) : 0;
+            lastId = user.getId();
+            stage(lsn, List.of(user), List.of());
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(lsn);
+        return true;
+    }
+
+    @Override
+    public int[] insertAll(List<User> users) throws SQLException {
+        int[] counts = new int[users.size()];
+        long lsn;
+        writeLock.lock();
+        try {
+            List<User> created = new ArrayList<>(users.size());
+            Set<String> batch = new HashSet<>();
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < users.size(); i++) {
+                User user = users.get(i);
+                if (latestByUsername(user.getUsername()) == null && batch.add(user.getUsername())) {
+                    created.add(new User(lastId + created.size() + 1, user.getUsername(), user.getPassword(),
+                            user.getEmail(), new Timestamp(now)));
+                    counts[i] = 1;
+                }
+            }
+            // 整批写在一条日志记录里，重放时要么全部生效要么全部丢弃
+            lsn = wal != null ? logPuts(created) : 0;
+            lastId += created.size();
+            stage(lsn, created, List.of());
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(lsn);
+        return counts;
+    }
+
+    @Override
+    public User findByUsername(String username) {
+        return username != null ? byUsername.get(username) : null;
+    }
+
+    @Override
+    public Map<String, User> findByUsernames(Collection<String> usernames) {
+        Map<String, User> found = new HashMap<>();
+        for (String username : usernames) {
+            User user = findByUsername(username);
+            if (user != null) {
+                found.put(username, user);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public boolean update(String username, String passwordHash, String email) throws SQLException {
+        if (passwordHash == null && email == null) {
+            return false;
+        }
+        long lsn;
+        writeLock.lock();
+        try {
+            User old = latestByUsername(username);
+            if (old == null) {
+                return false;
+            }
+            User user = new User(old.getId(), username, passwordHash != null ? passwordHash : old.getPassword(),
+                    email != null ? email : old.getEmail(), old.getCreatedAt());
+            lsn = wal != null ? logPuts(List.of(user)) : 0;
+            stage(lsn, List.of(user), List.of());
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(lsn);
+        return true;
+    }
+
+    @Override
+    public boolean replacePassword(String username, String expectedHash, String newHash) throws SQLException {
+        long lsn;
+        writeLock.lock();
+        try {
+            User old = latestByUsername(username);
+            if (old == null || !old.getPassword().equals(expectedHash)) {
+                return false;
+            }
+            User user = new User(old.getId(), username, newHash, old.getEmail(), old.getCreatedAt());
+            lsn = wal != null ? logPuts(List.of(user)) : 0;
+            stage(lsn, List.of(user), List.of());
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(lsn);
+        return true;
+    }
+
+    @Override
+    public List<User> findAll() {
+        return new ArrayList<>(byCreatedAt.values());
+    }
+
+    @Override
+    public void forEach(UserSource.UserVisitor visitor) throws IOException {
+        for (User user : byCreatedAt.values()) {
+            visitor.visit(user);
+        }
+    }
+
+    @Override
+    public UserPage findPage(UserPage.Cursor after, int pageSize) {
+        ConcurrentNavigableMap<Key, User> rest = byCreatedAt;
+        if (after != null) {
+            if (!(after.getCreatedAt() instanceof Long)) {
+                throw new IllegalArgumentException("游标格式错误");
+            }
+            rest = byCreatedAt.tailMap(new Key((Long) after.getCreatedAt(), after.getId()), false);
+        }
+
+        List<User> users = new ArrayList<>(pageSize);
+        boolean hasMore = false;
+        for (User user : rest.values()) {
+            if (users.size() == pageSize) {
+                hasMore = true;
+                break;
+            }
+            users.add(user);
+        }
+
+        String nextCursor = null;
+        if (hasMore) {
+            User last = users.get(users.size() - 1);
+            nextCursor = new UserPage.Cursor(last.getCreatedAt().getTime(), last.getId()).encode();
+        }
+        return new UserPage(users, nextCursor);
+    }
+
+    @Override
+    public boolean deleteById(int id) throws SQLException {
+        long lsn;
+        writeLock.lock();
+        try {
+            User user = latestById(id);
+            if (user == null) {
+                return false;
+            }
+            lsn = wal != null ? logDeletes(List.of(user)) : 0;
+            stage(lsn, List.of(), List.of(user));
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(lsn);
+        return true;
+    }
+
+    @Override
+    public boolean deleteByUsername(String username) throws SQLException {
+        return username != null && deleteAll(List.of(username))[0] > 0;
+    }
+
+    @Override
+    public int[] deleteAll(List<String> usernames) throws SQLException {
+        int[] counts = new int[usernames.size()];
+        long lsn;
+        writeLock.lock();
+        try {
+            List<User> removed = new ArrayList<>();
+            Set<Integer> ids = new HashSet<>();
+            for (int i = 0; i < usernames.size(); i++) {
+                User user = latestByUsername(usernames.get(i));
+                if (user != null && ids.add(user.getId())) {
+                    removed.add(user);
+                    counts[i] = 1;
+                }
+            }
+            lsn = wal != null ? logDeletes(removed) : 0;
+            stage(lsn, List.of(), removed);
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(lsn);
+        return counts;
+    }
+
+    @Override
+    public long count() {
+        return byUsername.size();
+    }
+
+    @Override
+    public void forEachUsername(Consumer<String> consumer) {
+        byUsername.keySet().forEach(consumer);
+    }
+
+    @Override
+    public void registerGauges(ServerMetrics metrics) {
+        metrics.registerGauge("memory.users", byUsername::size);
+        if (wal != null) {
+            metrics.registerGauge("db.wal.segmentBytes", wal::getSegmentBytes);
+            metrics.registerGauge("db.wal.unsynced", wal::getUnsyncedCount);
+        }
+    }
+
+    @Override
+    public boolean isValid() {
+        return walFailure == null;
+    }
+
+    /**
+     * 停止后台快照，等待正在写出的快照完成，把日志落盘后关闭
+     */
+    @Override
+    public void close() {
+        if (wal == null) {
+            return;
+        }
+        persistence.shutdown();
+        try {
+            if (!persistence.awaitTermination(60, TimeUnit.SECONDS)) {
+                Log.warn("等待快照写出超时");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeLock.lock();
+        try {
+            wal.close();
+        } catch (IOException e) {
+            Log.error("关闭日志失败: " + e.getMessage());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 写出快照并删除快照覆盖的日志段；上次快照之后没有修改或已有快照在写出时直接返回
+     * 只在复制用户列表和切换日志段期间持有写锁，写出文件时不阻塞读写
+     * @return 是否写出了快照
+     * @throws IOException 写出失败，已有的快照和日志不受影响
+     */
+    public boolean snapshot() throws IOException {
+        if (wal == null || walFailure != null || !snapshotting.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            long start = System.nanoTime();
+            List<User> users;
+            int maxId;
+            long lsn;
+            writeLock.lock();
+            try {
+                if (wal.getAppendedLsn() == snapshotLsn) {
+                    return false;
+                }
+                users = snapshotUsers();
+                maxId = lastId;
+                lsn = wal.roll();
+            } finally {
+                writeLock.unlock();
+            }
+
+            UserSnapshot snapshot = UserSnapshot.write(dir, lsn, maxId, users);
+            snapshotLsn = lsn;
+            lastSnapshotNanos = System.nanoTime();
+            UserSnapshot.deleteBefore(dir, lsn);
+            wal.deleteSegmentsThrough(lsn);
+            metrics.recordTiming("db.snapshot.write", start);
+            Log.info("已写出快照: " + snapshot.getFile().getFileName() + "，" + users.size() + " 个用户，耗时 "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+            return true;
+        } finally {
+            snapshotting.set(false);
+        }
+    }
+
+    /**
+     * 后台检查：距上次快照超过间隔或当前日志段超过阈值时写出快照
+     */
+    private void snapshotIfDue() {
+        if (wal.getAppendedLsn() == snapshotLsn) {
+            return;
+        }
+        if (wal.getSegmentBytes() < snapshotWalBytes && System.nanoTime() - lastSnapshotNanos < snapshotIntervalNanos) {
+            return;
+        }
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            Log.error("写出快照失败: " + e.getMessage(), e);
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            wal.sync();
+        } catch (IOException e) {
+            Log.error("日志落盘失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 把插入或修改后的完整记录追加到日志，调用方持有写锁；写入失败时内存中的数据不变
+     */
+    private long logPuts(List<User> users) throws SQLException {
+        checkWritable();
+        try {
+            return users.size() == 1 ? wal.appendPut(users.get(0)) : wal.appendPuts(users);
+        } catch (IOException e) {
+            throw new SQLException("写入日志失败: " + e.getMessage(), e);
+        }
+    }
+
+    private long logDeletes(List<User> users) throws SQLException {
+        checkWritable();
+        int[] ids = new int[users.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = users.get(i).getId();
+        }
+        try {
+            return wal.appendDeletes(ids);
+        } catch (IOException e) {
+            throw new SQLException("写入日志失败: " + e.getMessage(), e);
+        }
+    }
+
+    private void checkWritable() throws SQLException {
+        IOException failure = walFailure;
+        if (failure != null) {
+            throw new SQLException("日志落盘失败，重启前不再接受修改: " + failure.getMessage(), failure);
+        }
+    }
+
+    /**
+     * 释放写锁之后按日志落盘方式等待，同时等待的修改共用一次fsync，落盘之后发布到读取用的索引
+     * 落盘失败时不发布：丢弃所有待发布的修改，之后拒绝修改直到重启，读取方始终看不到这次修改；
+     * 记录可能已经部分写入日志，重启后是否生效取决于磁盘上的内容
+     * @throws SQLException 落盘失败，或等待期间其他修改落盘失败
+     */
+    private void awaitDurable(long lsn) throws SQLException {
+        if (wal == null) {
+            return;
+        }
+        try {
+            wal.awaitDurable(lsn);
+        } catch (IOException e) {
+            failWal(e);
+            throw new SQLException("日志落盘失败: " + e.getMessage(), e);
+        }
+        if (!publish(lsn)) {
+            // 等待期间另一个修改落盘失败，fsync失败之后再成功也不能说明之前的数据已经落盘
+            checkWritable();
+        }
+    }
+
+    /**
+     * 落盘失败后丢弃待发布的修改并停止接受修改
+     */
+    private void failWal(IOException e) {
+        writeLock.lock();
+        try {
+            if (walFailure == null) {
+                walFailure = e;
+                Log.error("内存存储日志落盘失败，丢弃 " + unpublished.size() + " 个未发布的修改，重启前不再接受修改: "
+                        + e.getMessage());
+            }
+            unpublished.clear();
+            pendingByUsername.clear();
+            pendingById.clear();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 记录一次已写入日志的修改，调用方持有写锁；不持久化时直接生效
+     */
+    private void stage(long lsn, List<User> puts, List<User> removes) {
+        if (wal == null) {
+            removes.forEach(this::remove);
+            puts.forEach(this::put);
+            return;
+        }
+        unpublished.addLast(new Pending(lsn, puts, removes));
+        for (User user : removes) {
+            Latest latest = new Latest(lsn, null);
+            pendingByUsername.put(user.getUsername(), latest);
+            pendingById.put(user.getId(), latest);
+        }
+        for (User user : puts) {
+            Latest latest = new Latest(lsn, user);
+            pendingByUsername.put(user.getUsername(), latest);
+            pendingById.put(user.getId(), latest);
+        }
+    }
+
+    /**
+     * 按日志顺序发布序号不超过lsn的修改；日志顺序落盘，lsn已落盘时之前的修改也已落盘
+     * @return 是否发布；落盘已经失败时返回false
+     */
+    private boolean publish(long lsn) {
+        writeLock.lock();
+        try {
+            if (walFailure != null) {
+                return false;
+            }
+            while (!unpublished.isEmpty() && unpublished.peekFirst().lsn <= lsn) {
+                Pending pending = unpublished.pollFirst();
+                for (User user : pending.removes) {
+                    remove(user);
+                    forgetPending(user, pending.lsn);
+                }
+                for (User user : pending.puts) {
+                    put(user);
+                    forgetPending(user, pending.lsn);
+                }
+            }
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 用户最新的待发布状态已经发布时从待发布索引中去掉
+     */
+    private void forgetPending(User user, long lsn) {
+        Latest latest = pendingByUsername.get(user.getUsername());
+        if (latest != null && latest.lsn <= lsn) {
+            pendingByUsername.remove(user.getUsername());
+        }
+        latest = pendingById.get(user.getId());
+        if (latest != null && latest.lsn <= lsn) {
+            pendingById.remove(user.getId());
+        }
+    }
+
+    /**
+     * @return 包含待发布修改的最新状态，调用方持有写锁
+     */
+    private User latestByUsername(String username) {
+        Latest latest = pendingByUsername.get(username);
+        return latest != null ? latest.user : byUsername.get(username);
+    }
+
+    private User latestById(int id) {
+        Latest latest = pendingById.get(id);
+        return latest != null ? latest.user : byId.get(id);
+    }
+
+    /**
+     * @return 快照要写出的用户，包含已写入日志、还没有发布的修改，调用方持有写锁
+     */
+    private List<User> snapshotUsers() {
+        if (pendingById.isEmpty()) {
+            return new ArrayList<>(byId.values());
+        }
+        List<User> users = new ArrayList<>(byId.size() + pendingById.size());
+        for (User user : byId.values()) {
+            if (!pendingById.containsKey(user.getId())) {
+                users.add(user);
+            }
+        }
+        for (Latest latest : pendingById.values()) {
+            if (latest.user != null) {
+                users.add(latest.user);
+            }
+        }
+        return users;
+    }
+
+    /**
+     * 按用户名、ID和创建时间放入三个索引，调用方持有写锁
+     */
+    private void put(User user) {
+        byUsername.put(user.getUsername(), user);
+        byId.put(user.getId(), user);
+        byCreatedAt.put(new Key(user.getCreatedAt().getTime(), user.getId()), user);
+    }
+
+    /**
+     * 从三个索引中删除，调用方持有写锁
+     */
+    private void remove(User user) {
+        byUsername.remove(user.getUsername());
+        byId.remove(user.getId());
+        byCreatedAt.remove(new Key(user.getCreatedAt().getTime(), user.getId()));
+    }
+
+    /**
+     * 创建时间索引的键，按创建时间倒序、ID倒序排列，与SQLite中的ORDER BY created_at DESC, id DESC一致
+     */
+    private static final class Key implements Comparable<Key> {
+        private final long createdAt;
+        private final int id;
+
+        private Key(long createdAt, int id) {
+            this.createdAt = createdAt;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int result = Long.compare(other.createdAt, createdAt);
+            return result != 0 ? result : Integer.compare(other.id, id);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && compareTo((Key) obj) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(createdAt) * 31 + id;
+        }
+    }
+
+    /**
+     * 一次已写入日志、等待发布的修改
+     */
+    private static final class Pending {
+        private final long lsn;
+        private final List<User> puts;
+        private final List<User> removes;
+
+        private Pending(long lsn, List<User> puts, List<User> removes) {
+            this.lsn = lsn;
+            this.puts = puts;
+            this.removes = removes;
+        }
+    }
+
+    /**
+     * 用户名或ID最新的待发布状态，user为null表示已删除
+     */
+    private static final class Latest {
+        private final long lsn;
+        private final User user;
+
+        private Latest(long lsn, User user) {
+            this.lsn = lsn;
+            this.user = user;
+        }
+    }
+}
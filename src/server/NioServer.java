@@ -0,0 +1,552 @@
+package server;
+
+import protocol.BinaryProtocol;
+import protocol.BinaryWriter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 基于Selector的非阻塞服务器
+ * 一个事件循环线程负责所有连接的接入和读写，请求按换行符（协议升级后按长度前缀）分帧后交给工作线程池处理，
+ * 空闲连接只占用一个SelectionKey和一块读缓冲区，不再占用线程
+ */
+public class NioServer {
+
+    private static final int READ_BUFFER_SIZE = 4 * 1024;
+    private static final int MAX_LINE_LENGTH = 1024 * 1024;
+    private static final byte[] UPGRADE_BYTES = BinaryProtocol.UPGRADE_ACTION.getBytes(StandardCharsets.UTF_8);
+    // 流式响应在写队列积压超过该字节数时暂停读取数据库，等事件循环写出后再继续
+    private static final int STREAM_HIGH_WATER = 256 * 1024;
+
+    private final int port;
+    private final RequestProcessor processor;
+    private final ExecutorService workerPool;
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final Queue<Connection> pendingResumes = new ConcurrentLinkedQueue<>();
+    private final LongAdder acceptedConnections = ServerMetrics.global().counter("connections.accepted");
+    private final LongAdder closedConnections = ServerMetrics.global().counter("connections.closed");
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean isRunning = false;
+
+    /**
+     * 构造函数
+     * @param port 监听端口
+     * @param processor 请求处理器
+     * @param workerThreads 工作线程数
+     */
+    public NioServer(int port, RequestProcessor processor, int workerThreads) {
+        this.port = port;
+        this.processor = processor;
+        this.workerPool = Executors.newFixedThreadPool(workerThreads);
+        ServerMetrics metrics = ServerMetrics.global();
+        metrics.registerGauge("connections.open", () -> acceptedConnections.sum() - closedConnections.sum());
+        // newFixedThreadPool返回的是ThreadPoolExecutor，队列中是已读完、等待处理的请求
+        metrics.registerGauge("nio.workerQueue", () -> ((ThreadPoolExecutor) workerPool).getQueue().size());
+    }
+
+    /**
+     * 启动服务器，在当前线程中运行事件循环直到stop()被调用
+     * @throws IOException 绑定端口失败
+     */
+    public void start() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        isRunning = true;
+
+        while (isRunning) {
+            selector.select();
+            processPendingWrites();
+            processPendingResumes();
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+
+                try {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                    }
+                } catch (IOException e) {
+                    if (key.attachment() instanceof Connection) {
+                        ((Connection) key.attachment()).close();
+                    } else {
+                        Log.warn("接受客户端连接失败: " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 停止服务器
+     */
+    public void stop() {
+        isRunning = false;
+        workerPool.shutdown();
+        try {
+            if (selector != null) {
+                selector.wakeup();
+                for (SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+                selector.close();
+            }
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            Log.error("停止NIO服务器失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 接受新的客户端连接
+     */
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            acceptedConnections.increment();
+            Log.debug("新客户端连接: " + connection.address);
+        }
+    }
+
+    /**
+     * 为有待发送响应的连接注册写事件，只在事件循环线程中调用
+     */
+    private void processPendingWrites() {
+        Connection connection;
+        while ((connection = pendingWrites.poll()) != null) {
+            SelectionKey key = connection.key;
+            if (key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    /**
+     * 恢复因协议升级请求而暂停读取的连接，只在事件循环线程中调用
+     */
+    private void processPendingResumes() {
+        Connection connection;
+        while ((connection = pendingResumes.poll()) != null) {
+            if (connection.key.isValid()) {
+                connection.resumeRead();
+            }
+        }
+    }
+
+    /**
+     * 切分出的请求及其所用的协议
+     */
+    private static final class PendingRequest {
+        final byte[] bytes;
+        final boolean binary;
+        // 切分这一行后暂停了读取，处理完需要恢复
+        final boolean upgrade;
+
+        PendingRequest(byte[] bytes, boolean binary, boolean upgrade) {
+            this.bytes = bytes;
+            this.binary = binary;
+            this.upgrade = upgrade;
+        }
+    }
+
+    /**
+     * 单个客户端连接的状态
+     * 读缓冲区只由事件循环线程访问；同一连接的请求按到达顺序逐个交给工作线程解析，
+     * 不带ID的请求就地执行以保证响应顺序，带ID的请求另外提交给工作线程并发执行，完成后立即响应
+     */
+    private class Connection {
+        private final SocketChannel channel;
+        private final String address;
+        private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+        private final AtomicLong queuedBytes = new AtomicLong();
+        private final Object drainLock = new Object();
+        private volatile boolean drainWaiting = false;
+        private final ArrayDeque<PendingRequest> requests = new ArrayDeque<>();
+        private SelectionKey key;
+        private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private boolean processing = false;
+        private final Semaphore inFlight = new Semaphore(SocketServer.MAX_IN_FLIGHT);
+
+        // 由工作线程在发出升级响应之前设置，之后切分出的请求按二进制帧解析
+        private volatile boolean binary = false;
+        // 切分出可能是升级请求的行后暂停切分，等它处理完再按处理后的协议继续，只由事件循环线程访问
+        private boolean readPaused = false;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.address = channel.socket().getInetAddress().getHostAddress();
+        }
+
+        /**
+         * 读取数据并切分出完整的请求
+         */
+        void read() throws IOException {
+            int count = channel.read(readBuffer);
+            if (count == -1) {
+                close();
+                return;
+            }
+
+            splitBuffered();
+        }
+
+        /**
+         * 升级请求处理完毕后恢复读取，并按升级后的协议切分已经缓冲的数据
+         */
+        void resumeRead() {
+            readPaused = false;
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            splitBuffered();
+        }
+
+        private void splitBuffered() {
+            readBuffer.flip();
+            int consumed = binary ? splitFrames() : splitLines();
+            if (consumed < 0) {
+                close();
+                return;
+            }
+            readBuffer.position(consumed);
+            readBuffer.compact();
+
+            // 缓冲区已满但还没有完整的请求，扩容以容纳更长的请求；暂停期间不再读取，无需扩容
+            if (!readPaused && !readBuffer.hasRemaining()) {
+                int maxSize = binary ? BinaryProtocol.MAX_FRAME_SIZE + 5 : MAX_LINE_LENGTH;
+                if (readBuffer.capacity() >= maxSize) {
+                    Log.warn("请求过长，关闭连接: " + address);
+                    close();
+                    return;
+                }
+                ByteBuffer larger = ByteBuffer.allocate(Math.min(readBuffer.capacity() * 2, maxSize));
+                readBuffer.flip();
+                larger.put(readBuffer);
+                readBuffer = larger;
+            }
+        }
+
+        /**
+         * 按换行符切分请求，切分出可能是升级请求的行后暂停，其后的数据留在缓冲区中
+         * @return 已消费到的位置
+         */
+        private int splitLines() {
+            int lineStart = readBuffer.position();
+            for (int i = lineStart; i < readBuffer.limit() && !readPaused; i++) {
+                if (readBuffer.get(i) == '\n') {
+                    int lineEnd = i;
+                    if (lineEnd > lineStart && readBuffer.get(lineEnd - 1) == '\r') {
+                        lineEnd--;
+                    }
+                    byte[] line = new byte[lineEnd - lineStart];
+                    readBuffer.get(lineStart, line);
+                    boolean upgrade = mayUpgrade(line);
+                    if (upgrade) {
+                        // 停止读取，直到工作线程处理完这个请求后通过pendingResumes恢复
+                        readPaused = true;
+                        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                    }
+                    submitRequest(new PendingRequest(line, false, upgrade));
+                    lineStart = i + 1;
+                }
+            }
+            return lineStart;
+        }
+
+        /**
+         * 在事件循环线程中不解析JSON，只要行中出现升级动作名就按升级请求对待；
+         * 误判只会让后续请求稍晚切分，不影响结果
+         */
+        private boolean mayUpgrade(byte[] line) {
+            int n = UPGRADE_BYTES.length;
+            outer:
+            for (int i = 0; i + n <= line.length; i++) {
+                for (int j = 0; j < n; j++) {
+                    if (line[i + j] != UPGRADE_BYTES[j]) {
+                        continue outer;
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 按varint长度前缀切分二进制帧
+         * @return 已消费到的位置，帧长度非法时返回-1
+         */
+        private int splitFrames() {
+            int frameStart = readBuffer.position();
+            int limit = readBuffer.limit();
+            while (frameStart < limit) {
+                int length = 0;
+                int pos = frameStart;
+                int shift = 0;
+                boolean complete = false;
+                while (pos < limit && shift <= 28) {
+                    int b = readBuffer.get(pos++);
+                    length |= (b & 0x7F) << shift;
+                    if ((b & 0x80) == 0) {
+                        complete = true;
+                        break;
+                    }
+                    shift += 7;
+                }
+                if (!complete) {
+                    if (shift > 28) {
+                        Log.warn("帧长度格式错误，关闭连接: " + address);
+                        return -1;
+                    }
+                    break;
+                }
+                if (length <= 0 || length > BinaryProtocol.MAX_FRAME_SIZE) {
+                    Log.warn("帧长度非法，关闭连接: " + address);
+                    return -1;
+                }
+                if (limit - pos < length) {
+                    break;
+                }
+                byte[] frame = new byte[length];
+                readBuffer.get(pos, frame);
+                submitRequest(new PendingRequest(frame, true, false));
+                frameStart = pos + length;
+            }
+            return frameStart;
+        }
+
+        /**
+         * 把请求放入连接的请求队列，当前没有正在处理的请求时才提交给工作线程
+         */
+        private void submitRequest(PendingRequest request) {
+            synchronized (this) {
+                requests.add(request);
+                if (processing) {
+                    return;
+                }
+                processing = true;
+            }
+            dispatch();
+        }
+
+        private void dispatch() {
+            try {
+                workerPool.execute(this::processNext);
+            } catch (RejectedExecutionException e) {
+                // 服务器正在关闭
+            }
+        }
+
+        /**
+         * 在工作线程中处理队首请求，处理完后如果还有排队的请求则继续提交
+         */
+        private void processNext() {
+            PendingRequest pending;
+            synchronized (this) {
+                pending = requests.poll();
+            }
+
+            // 帧的格式在切分时就已确定，升级之后仍在执行的请求按原协议响应
+            boolean binaryFrame = pending.binary;
+            byte[] request = pending.bytes;
+            Request parsed = null;
+            try {
+                if (binaryFrame) {
+                    Log.debug("收到二进制请求: " + request.length + " 字节");
+                    parsed = Request.parseBinary(request);
+                } else {
+                    String line = new String(request, StandardCharsets.UTF_8);
+                    if (Log.sampleRequest()) {
+                        Log.debug("收到请求: " + Log.payload(line));
+                    }
+                    parsed = Request.parse(line);
+                }
+            } catch (IllegalArgumentException e) {
+                respond(Response.malformedRequest(), binaryFrame);
+            }
+
+            if (parsed != null) {
+                // 并发请求数达到上限时就地执行，读取队列随之停下来，形成背压
+                if (processor.isConcurrent(parsed) && inFlight.tryAcquire()) {
+                    executeConcurrently(parsed, binaryFrame);
+                } else {
+                    execute(parsed, binaryFrame);
+                }
+            }
+            if (pending.upgrade) {
+                // 升级请求已经执行完，binary已是它处理后的协议，交回事件循环继续切分
+                pendingResumes.add(this);
+                selector.wakeup();
+            }
+
+            synchronized (this) {
+                if (requests.isEmpty()) {
+                    processing = false;
+                    return;
+                }
+            }
+            dispatch();
+        }
+
+        private void executeConcurrently(Request request, boolean binaryFrame) {
+            try {
+                workerPool.execute(() -> {
+                    try {
+                        execute(request, binaryFrame);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                inFlight.release();
+            }
+        }
+
+        private void execute(Request request, boolean binaryFrame) {
+            Response response = processor.execute(request);
+            if (!binaryFrame && response.getKind() == Response.Kind.UPGRADE) {
+                binary = true;
+            }
+            respond(response, binaryFrame);
+        }
+
+        /**
+         * 按请求所用的协议序列化响应并放入写队列
+         */
+        private void respond(Response response, boolean binaryFrame) {
+            if (response.isStream()) {
+                try {
+                    response.streamTo(chunk -> {
+                        awaitDrain();
+                        respond(chunk, binaryFrame);
+                    });
+                } catch (IOException e) {
+                    Log.warn("流式响应中断: " + address + " - " + e.getMessage());
+                }
+                return;
+            }
+            if (binaryFrame) {
+                BinaryWriter frame = response.toBinary();
+                queueResponse(Arrays.copyOfRange(frame.array(), frame.offset(), frame.offset() + frame.length()));
+                Log.debug("发送二进制响应: " + frame.length() + " 字节");
+            } else {
+                String json = response.toJson();
+                if (Log.sampleRequest()) {
+                    Log.debug("发送响应: " + Log.payload(json));
+                }
+                queueResponse((json + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        /**
+         * 把响应放入写队列并通知事件循环注册写事件
+         */
+        private void queueResponse(byte[] response) {
+            queuedBytes.addAndGet(response.length);
+            writeQueue.add(ByteBuffer.wrap(response));
+            pendingWrites.add(this);
+            selector.wakeup();
+        }
+
+        /**
+         * 尽可能多地写出待发送的响应，写完后取消写事件
+         */
+        void write() throws IOException {
+            ByteBuffer buffer;
+            while ((buffer = writeQueue.peek()) != null) {
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    break;
+                }
+                writeQueue.poll();
+                queuedBytes.addAndGet(-buffer.capacity());
+            }
+            if (drainWaiting && queuedBytes.get() <= STREAM_HIGH_WATER) {
+                synchronized (drainLock) {
+                    drainWaiting = false;
+                    drainLock.notifyAll();
+                }
+            }
+            if (buffer == null) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        }
+
+        /**
+         * 在工作线程中等待写队列积压降到STREAM_HIGH_WATER以下，
+         * 使流式响应的内存占用与表大小无关
+         * @throws IOException 等待期间连接已关闭
+         */
+        private void awaitDrain() throws IOException {
+            synchronized (drainLock) {
+                while (queuedBytes.get() > STREAM_HIGH_WATER) {
+                    if (!channel.isOpen()) {
+                        throw new IOException("连接已关闭");
+                    }
+                    drainWaiting = true;
+                    try {
+                        // 带超时等待，连接关闭时不依赖事件循环唤醒
+                        drainLock.wait(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("等待写出时被中断");
+                    }
+                }
+            }
+        }
+
+        void close() {
+            if (channel.isOpen()) {
+                closedConnections.increment();
+            }
+            try {
+                key.cancel();
+                channel.close();
+                Log.debug("客户端连接已关闭: " + address);
+            } catch (IOException e) {
+                Log.warn("关闭客户端连接失败: " + e.getMessage());
+            }
+        }
+    }
+}
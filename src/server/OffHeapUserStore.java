@@ -0,0 +1,819 @@
+package server;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * 堆外用户存储
+ * 用户记录和用户名索引都放在内存映射文件中，堆上不保存任何用户对象，只在查询时创建返回的User，
+ * 用户数达到千万级时堆占用和GC停顿不随用户数增长。三个文件：
+ *
+ * users.dat：追加写的记录文件，按CHUNK_SIZE分块映射，开头HEADER_SIZE字节为文件头。
+ *   记录：int 长度 | int CRC32 | byte 类型 | 内容，长度和CRC覆盖类型和内容；
+ *   PUT的内容与WriteAheadLog中的用户记录相同，DELETE的内容为int ID。
+ *   长度为0表示记录结束，为-1表示本块剩余空间放不下下一条记录，跳到下一块。
+ *   修改和删除都追加新记录，旧记录成为废弃空间，不回收。
+ * users.ids：按用户ID下标的long数组，保存最新PUT记录的位置 + 1，0表示不存在或已删除。
+ * users.idx：用户名的开放寻址哈希表（线性探测），每个槽8字节：int 用户名哈希 | int 用户ID，
+ *   ID为0表示空槽，-1表示已删除；已用槽（含删除标记）超过容量的0.7时重建。
+ *
+ * ID按分配顺序递增，创建时间不早于上一个用户，按(created_at, id)倒序就是按ID倒序，
+ * 列表、流式读取和分页直接倒序遍历users.ids。
+ * 读取不加锁，修改在写锁下串行执行。修改只写入页缓存，进程崩溃不丢数据；正常关闭时落盘并在文件头记录，
+ * 启动时发现上次没有正常关闭就扫描users.dat重建两个索引，末尾校验失败的记录丢弃。
+ * 批量操作逐条写入，崩溃时可能只生效一部分
+ */
+public class OffHeapUserStore implements UserStore {
+
+    private static final int MAGIC = 0x55534F48; // "USOH"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int CHUNK_BITS = 28;
+    private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+    private static final int RECORD_HEADER = 9;
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+    private static final byte PUT = WriteAheadLog.PUT;
+    private static final byte DELETE = WriteAheadLog.DELETE;
+    private static final int INITIAL_SLOTS = 1024;
+    private static final int EMPTY = 0;
+    private static final int DELETED = -1;
+    // 按long读写映射缓冲区，用于发布槽和users.ids条目；MappedByteBuffer默认大端，与getLong/putLong一致
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    // 文件头中的字段位置
+    private static final int CLEAN_OFFSET = 8;
+    private static final int END_OFFSET = 16;
+    private static final int LAST_ID_OFFSET = 24;
+    private static final int COUNT_OFFSET = 28;
+    private static final int LAST_CREATED_AT_OFFSET = 36;
+
+    private final Path dir;
+    private final FileChannel dataChannel;
+    private final FileChannel idsChannel;
+
+    // 只在写锁下替换，读取方拿到的旧映射与新映射共享同一文件页，仍然可以读到最新内容
+    private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+    private volatile MappedByteBuffer ids;
+    // 槽数由映射大小得出，表和容量总是一起替换
+    private volatile MappedByteBuffer slots;
+
+    // 写锁下修改。发布顺序：先写完记录，再用release写入users.ids条目，最后用release写入哈希槽；
+    // 读取方用acquire读取槽和users.ids条目，读到的位置指向的记录一定已经写完。
+    // lastId在ids扩容和写入条目之后才增加，读取方先读lastId再读ids，不会越界
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private long end;
+    private volatile int lastId;
+    private volatile long count;
+    private long lastCreatedAt;
+    private int usedSlots;
+    private ByteBuffer scratch = ByteBuffer.allocate(1024);
+    private final CRC32 crc = new CRC32();
+
+    private OffHeapUserStore(Path dir, FileChannel dataChannel, FileChannel idsChannel) {
+        this.dir = dir;
+        this.dataChannel = dataChannel;
+        this.idsChannel = idsChannel;
+    }
+
+    /**
+     * 按系统属性打开：-Ddb.offheap.dir指定目录，默认database/offheap
+     * @return 堆外存储
+     * @throws IOException 打开或重建索引失败
+     */
+    public static OffHeapUserStore fromSystemProperties() throws IOException {
+        return open(Paths.get(System.getProperty("db.offheap.dir", "database/offheap")));
+    }
+
+    /**
+     * 打开目录中的存储，不存在时新建；上次没有正常关闭时扫描记录文件重建索引
+     * @param dir 目录
+     * @return 堆外存储
+     * @throws IOException 打开失败或文件不是本存储的格式
+     */
+    public static OffHeapUserStore open(Path dir) throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(dir);
+        FileChannel data = FileChannel.open(dir.resolve("users.dat"), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel idsFile = FileChannel.open(dir.resolve("users.ids"), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        OffHeapUserStore store = new OffHeapUserStore(dir, data, idsFile);
+        try {
+            boolean created = data.size() == 0;
+            store.mapChunk(0);
+            ByteBuffer header = store.chunks[0];
+            if (created) {
+                header.putInt(0, MAGIC);
+                header.putInt(4, VERSION);
+                header.putInt(CLEAN_OFFSET, 1);
+                header.putLong(END_OFFSET, HEADER_SIZE);
+            } else if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("不是堆外用户存储文件或版本不支持: " + dir.resolve("users.dat"));
+            }
+
+            if (created) {
+                store.rebuild();
+                Log.info("已新建堆外存储: " + dir);
+            } else if (header.getInt(CLEAN_OFFSET) == 1 && store.loadIndexes()) {
+                Log.info("堆外存储已打开: " + store.count + " 个用户，耗时 "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+            } else {
+                long records = store.rebuild();
+                Log.warn("堆外存储上次没有正常关闭，已扫描 " + records + " 条记录重建索引: " + store.count
+                        + " 个用户，耗时 " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+            }
+            // 打开期间标记为未正常关闭，崩溃后下次启动会重建索引
+            header.putInt(CLEAN_OFFSET, 0);
+            store.chunks[0].force();
+            return store;
+        } catch (IOException | RuntimeException e) {
+            data.close();
+            idsFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 上次正常关闭时直接使用文件头中的状态和已有的索引文件
+     * @return 索引文件是否可用
+     */
+    private boolean loadIndexes() throws IOException {
+        ByteBuffer header = chunks[0];
+        end = header.getLong(END_OFFSET);
+        lastId = header.getInt(LAST_ID_OFFSET);
+        count = header.getLong(COUNT_OFFSET);
+        lastCreatedAt = header.getLong(LAST_CREATED_AT_OFFSET);
+        for (int i = 1; i <= (int) ((end - 1) >>> CHUNK_BITS); i++) {
+            mapChunk(i);
+        }
+
+        Path index = dir.resolve("users.idx");
+        long indexSize = Files.exists(index) ? Files.size(index) : 0;
+        long slotCount = indexSize / 8;
+        if (slotCount < INITIAL_SLOTS || Long.bitCount(slotCount) != 1 || idsChannel.size() < (lastId + 1L) * 8) {
+            return false;
+        }
+        ids = idsChannel.map(FileChannel.MapMode.READ_WRITE, 0, idsChannel.size());
+        try (FileChannel channel = FileChannel.open(index, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            slots = channel.map(FileChannel.MapMode.READ_WRITE, 0, indexSize);
+        }
+        for (int i = 0; i < slotCount; i++) {
+            if ((int) slots.getLong(i * 8) != EMPTY) {
+                usedSlots++;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 扫描记录文件重建users.ids和users.idx
+     * @return 扫描的有效记录数
+     */
+    private long rebuild() throws IOException {
+        idsChannel.truncate(0);
+        ids = idsChannel.map(FileChannel.MapMode.READ_WRITE, 0, INITIAL_SLOTS * 8L);
+        lastId = 0;
+        count = 0;
+        lastCreatedAt = 0;
+
+        long records = 0;
+        long position = HEADER_SIZE;
+        while (true) {
+            int offsetInChunk = (int) (position & (CHUNK_SIZE - 1));
+            if (offsetInChunk + RECORD_HEADER > CHUNK_SIZE) {
+                position = nextChunk(position);
+                continue;
+            }
+            int chunkIndex = (int) (position >>> CHUNK_BITS);
+            if (chunkIndex >= chunks.length && (long) chunkIndex * CHUNK_SIZE >= dataChannel.size()) {
+                break;
+            }
+            ByteBuffer chunk = mapChunk(chunkIndex);
+            int length = chunk.getInt(offsetInChunk);
+            if (length == -1) {
+                position = nextChunk(position);
+                continue;
+            }
+            if (length <= 0 || length > MAX_RECORD_SIZE || offsetInChunk + 8L + length > CHUNK_SIZE) {
+                break;
+            }
+            crc.reset();
+            crc.update(chunk.slice(offsetInChunk + 8, length));
+            if ((int) crc.getValue() != chunk.getInt(offsetInChunk + 4)) {
+                Log.warn("堆外存储记录校验失败，丢弃位置 " + position + " 之后的内容");
+                break;
+            }
+
+            int id = chunk.getInt(offsetInChunk + RECORD_HEADER);
+            ensureIdCapacity(id);
+            long previous = ids.getLong(id * 8);
+            if (chunk.get(offsetInChunk + 8) == PUT) {
+                ids.putLong(id * 8, position + 1);
+                if (previous == 0) {
+                    count++;
+                }
+                lastId = Math.max(lastId, id);
+                lastCreatedAt = Math.max(lastCreatedAt, chunk.getLong(offsetInChunk + RECORD_HEADER + 4));
+            } else if (previous != 0) {
+                ids.putLong(id * 8, 0);
+                count--;
+            }
+            records++;
+            position += 8 + length;
+        }
+        end = position;
+        // 丢弃的内容清零，之后追加的记录不会与残留的数据混在一起
+        int offsetInChunk = (int) (end & (CHUNK_SIZE - 1));
+        if (offsetInChunk + 4 <= CHUNK_SIZE && (end >>> CHUNK_BITS) < chunks.length) {
+            chunks[(int) (end >>> CHUNK_BITS)].putInt(offsetInChunk, 0);
+        }
+
+        int capacity = INITIAL_SLOTS;
+        while (count > capacity * 0.35) {
+            capacity <<= 1;
+        }
+        MappedByteBuffer table = createTable(capacity);
+        for (int id = 1; id <= lastId; id++) {
+            long offset = ids.getLong(id * 8);
+            if (offset != 0) {
+                insertSlot(table, capacity - 1, hash(readUsername(offset - 1)), id);
+            }
+        }
+        publishTable(table);
+        usedSlots = (int) count;
+        return records;
+    }
+
+    @Override
+    public boolean insert(String username, String passwordHash, String email) throws SQLException {
+        writeLock.lock();
+        try {
+            return insertLocked(username, passwordHash, email, System.currentTimeMillis());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public int[] insertAll(List<User> users) throws SQLException {
+        int[] counts = new int[users.size()];
+        writeLock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < users.size(); i++) {
+                User user = users.get(i);
+                counts[i] = insertLocked(user.getUsername(), user.getPassword(), user.getEmail(), now) ? 1 : 0;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        return counts;
+    }
+
+    private boolean insertLocked(String username, String passwordHash, String email, long now)
+            throws SQLException {
+        byte[] key = username.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(key);
+        if (findSlot(key, hash) >= 0) {
+            return false;
+        }
+        // 创建时间不早于上一个用户，按ID倒序即按(created_at, id)倒序
+        lastCreatedAt = Math.max(lastCreatedAt, now);
+        User user = new User(lastId + 1, username, passwordHash, email, new Timestamp(lastCreatedAt));
+        try {
+            ensureIdCapacity(user.getId());
+            long position = append(PUT, user, 0);
+            publishLong(ids, user.getId() * 8, position + 1);
+            lastId = user.getId();
+            addSlot(hash, user.getId());
+            count++;
+        } catch (IOException e) {
+            throw new SQLException("写入堆外存储失败: " + e.getMessage(), e);
+        }
+        return true;
+    }
+
+    @Override
+    public User findByUsername(String username) {
+        if (username == null) {
+            return null;
+        }
+        byte[] key = username.getBytes(StandardCharsets.UTF_8);
+        long slot = findRecord(slots, key, hash(key));
+        if (slot < 0) {
+            return null;
+        }
+        return readUser(slot);
+    }
+
+    @Override
+    public Map<String, User> findByUsernames(Collection<String> usernames) {
+        Map<String, User> found = new HashMap<>();
+        for (String username : usernames) {
+            User user = findByUsername(username);
+            if (user != null) {
+                found.put(username, user);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public boolean update(String username, String passwordHash, String email) throws SQLException {
+        if (passwordHash == null && email == null) {
+            return false;
+        }
+        writeLock.lock();
+        try {
+            User old = findByUsername(username);
+            if (old == null) {
+                return false;
+            }
+            replace(new User(old.getId(), username, passwordHash != null ? passwordHash : old.getPassword(),
+                    email != null ? email : old.getEmail(), old.getCreatedAt()));
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean replacePassword(String username, String expectedHash, String newHash) throws SQLException {
+        writeLock.lock();
+        try {
+            User old = findByUsername(username);
+            if (old == null || !old.getPassword().equals(expectedHash)) {
+                return false;
+            }
+            replace(new User(old.getId(), username, newHash, old.getEmail(), old.getCreatedAt()));
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 追加修改后的完整记录并指向它，用户名和ID不变，哈希表不需要修改
+     */
+    private void replace(User user) throws SQLException {
+        try {
+            long position = append(PUT, user, 0);
+            publishLong(ids, user.getId() * 8, position + 1);
+        } catch (IOException e) {
+            throw new SQLException("写入堆外存储失败: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public List<User> findAll() {
+        List<User> users = new ArrayList<>((int) Math.min(count, Integer.MAX_VALUE));
+        forEachDescending(lastId, Integer.MAX_VALUE, users::add);
+        return users;
+    }
+
+    @Override
+    public void forEach(UserSource.UserVisitor visitor) throws IOException {
+        int from = lastId;
+        MappedByteBuffer table = ids;
+        for (int id = from; id > 0; id--) {
+            long offset = loadLong(table, id * 8);
+            if (offset != 0) {
+                visitor.visit(readUser(offset - 1));
+            }
+        }
+    }
+
+    @Override
+    public UserPage findPage(UserPage.Cursor after, int pageSize) {
+        int from = lastId;
+        if (after != null) {
+            if (!(after.getCreatedAt() instanceof Long)) {
+                throw new IllegalArgumentException("游标格式错误");
+            }
+            from = Math.min(from, after.getId() - 1);
+        }
+
+        // 多取一个，用来判断是否还有下一页
+        List<User> users = new ArrayList<>(pageSize + 1);
+        forEachDescending(from, pageSize + 1, users::add);
+        String nextCursor = null;
+        if (users.size() > pageSize) {
+            users.remove(pageSize);
+            User last = users.get(pageSize - 1);
+            nextCursor = new UserPage.Cursor(last.getCreatedAt().getTime(), last.getId()).encode();
+        }
+        return new UserPage(users, nextCursor);
+    }
+
+    /**
+     * 从from开始按ID倒序读取，from不能超过调用前读到的lastId
+     */
+    private void forEachDescending(int from, int limit, Consumer<User> consumer) {
+        MappedByteBuffer table = ids;
+        int found = 0;
+        for (int id = from; id > 0 && found < limit; id--) {
+            long offset = loadLong(table, id * 8);
+            if (offset != 0) {
+                consumer.accept(readUser(offset - 1));
+                found++;
+            }
+        }
+    }
+
+    @Override
+    public boolean deleteById(int id) throws SQLException {
+        writeLock.lock();
+        try {
+            if (id <= 0 || id > lastId || ids.getLong(id * 8) == 0) {
+                return false;
+            }
+            return deleteLocked(readUsername(ids.getLong(id * 8) - 1));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean deleteByUsername(String username) throws SQLException {
+        if (username == null) {
+            return false;
+        }
+        writeLock.lock();
+        try {
+            return deleteLocked(username.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public int[] deleteAll(List<String> usernames) throws SQLException {
+        int[] counts = new int[usernames.size()];
+        writeLock.lock();
+        try {
+            for (int i = 0; i < usernames.size(); i++) {
+                String username = usernames.get(i);
+                counts[i] = username != null && deleteLocked(username.getBytes(StandardCharsets.UTF_8)) ? 1 : 0;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        return counts;
+    }
+
+    private boolean deleteLocked(byte[] key) throws SQLException {
+        int hash = hash(key);
+        int slot = findSlot(key, hash);
+        if (slot < 0) {
+            return false;
+        }
+        int id = (int) slots.getLong(slot * 8);
+        try {
+            append(DELETE, null, id);
+        } catch (IOException e) {
+            throw new SQLException("写入堆外存储失败: " + e.getMessage(), e);
+        }
+        publishLong(ids, id * 8, 0);
+        publishLong(slots, slot * 8, slotValue(hash, DELETED));
+        count--;
+        return true;
+    }
+
+    @Override
+    public long count() {
+        return count;
+    }
+
+    @Override
+    public void forEachUsername(Consumer<String> consumer) {
+        int from = lastId;
+        MappedByteBuffer table = ids;
+        for (int id = from; id > 0; id--) {
+            long offset = loadLong(table, id * 8);
+            if (offset != 0) {
+                consumer.accept(new String(readUsername(offset - 1), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Override
+    public void registerGauges(ServerMetrics metrics) {
+        metrics.registerGauge("offheap.users", () -> count);
+        metrics.registerGauge("offheap.dataBytes", this::getDataBytes);
+        metrics.registerGauge("offheap.indexSlots", () -> slots.capacity() / 8);
+    }
+
+    /**
+     * @return 记录文件已写入的字节数，包含修改和删除留下的废弃记录
+     */
+    public long getDataBytes() {
+        return end;
+    }
+
+    /**
+     * @return users.ids和users.idx两个索引文件的字节数
+     */
+    public long getIndexBytes() {
+        return (long) ids.capacity() + slots.capacity();
+    }
+
+    @Override
+    public boolean isValid() {
+        return dataChannel.isOpen();
+    }
+
+    /**
+     * 把映射的内容落盘，在文件头记录状态和正常关闭标记
+     */
+    @Override
+    public void close() {
+        writeLock.lock();
+        try {
+            for (MappedByteBuffer chunk : chunks) {
+                chunk.force();
+            }
+            ids.force();
+            slots.force();
+            ByteBuffer header = chunks[0];
+            header.putLong(END_OFFSET, end);
+            header.putInt(LAST_ID_OFFSET, lastId);
+            header.putLong(COUNT_OFFSET, count);
+            header.putLong(LAST_CREATED_AT_OFFSET, lastCreatedAt);
+            header.putInt(CLEAN_OFFSET, 1);
+            chunks[0].force();
+            dataChannel.close();
+            idsChannel.close();
+        } catch (IOException e) {
+            Log.error("关闭堆外存储失败: " + e.getMessage());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 在记录文件末尾追加一条记录，调用方持有写锁
+     * @return 记录的位置
+     */
+    private long append(byte type, User user, int id) throws IOException {
+        int length = 1 + (user != null ? WriteAheadLog.userSize(user) : 4);
+        if (scratch.capacity() < 8 + length) {
+            scratch = ByteBuffer.allocate(Math.max(8 + length, scratch.capacity() * 2));
+        }
+        scratch.clear();
+        scratch.position(8);
+        scratch.put(type);
+        if (user != null) {
+            WriteAheadLog.putUser(scratch, user);
+        } else {
+            scratch.putInt(id);
+        }
+        crc.reset();
+        crc.update(scratch.array(), 8, length);
+
+        long position = end;
+        int offsetInChunk = (int) (position & (CHUNK_SIZE - 1));
+        if (offsetInChunk + 8L + length + 4 > CHUNK_SIZE) {
+            // 块末尾放不下时写入跳转标记，记录从下一块开始
+            chunks[(int) (position >>> CHUNK_BITS)].putInt(offsetInChunk, -1);
+            position = nextChunk(position);
+            offsetInChunk = 0;
+        }
+        ByteBuffer chunk = mapChunk((int) (position >>> CHUNK_BITS));
+        // 先写内容再写长度，扫描时长度不为0的记录内容已经写完
+        chunk.put(offsetInChunk + 8, scratch.array(), 8, length);
+        chunk.putInt(offsetInChunk + 4, (int) crc.getValue());
+        chunk.putInt(offsetInChunk + 8 + length, 0);
+        chunk.putInt(offsetInChunk, length);
+        end = position + 8 + length;
+        return position;
+    }
+
+    private static long nextChunk(long position) {
+        return ((position >>> CHUNK_BITS) + 1) << CHUNK_BITS;
+    }
+
+    /**
+     * 映射第index块，已映射时直接返回；映射超出文件大小的区域会扩展文件
+     */
+    private MappedByteBuffer mapChunk(int index) throws IOException {
+        MappedByteBuffer[] current = chunks;
+        if (index < current.length) {
+            return current[index];
+        }
+        MappedByteBuffer[] grown = Arrays.copyOf(current, index + 1);
+        for (int i = current.length; i <= index; i++) {
+            grown[i] = dataChannel.map(FileChannel.MapMode.READ_WRITE, i * CHUNK_SIZE, CHUNK_SIZE);
+        }
+        chunks = grown;
+        return grown[index];
+    }
+
+    private void ensureIdCapacity(int id) throws IOException {
+        long needed = (id + 1L) * 8;
+        if (needed > ids.capacity()) {
+            long size = Math.max(needed, ids.capacity() * 2L);
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("用户ID超出堆外存储的上限");
+            }
+            ids = idsChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * 查找用户名所在的槽，调用方持有写锁
+     * @return 槽下标，不存在时返回-1
+     */
+    private int findSlot(byte[] key, int hash) {
+        MappedByteBuffer table = slots;
+        int mask = table.capacity() / 8 - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            long value = table.getLong(i * 8);
+            int id = (int) value;
+            if (id == EMPTY) {
+                return -1;
+            }
+            if (id != DELETED && (int) (value >>> 32) == hash && matches(id, key) >= 0) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * 不加锁查找用户名对应记录的位置
+     * @param table 查找开始时的哈希表，查找期间被替换也不影响
+     * @return 记录位置，不存在时返回-1
+     */
+    private long findRecord(MappedByteBuffer table, byte[] key, int hash) {
+        int mask = table.capacity() / 8 - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            long value = loadLong(table, i * 8);
+            int id = (int) value;
+            if (id == EMPTY) {
+                return -1;
+            }
+            if (id != DELETED && (int) (value >>> 32) == hash) {
+                long position = matches(id, key);
+                if (position >= 0) {
+                    return position;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 用户当前记录的用户名与key相同时返回记录位置，否则返回-1
+     */
+    private long matches(int id, byte[] key) {
+        MappedByteBuffer offsets = ids;
+        if (id * 8L >= offsets.capacity()) {
+            return -1;
+        }
+        long offset = loadLong(offsets, id * 8);
+        return offset != 0 && usernameEquals(offset - 1, key) ? offset - 1 : -1;
+    }
+
+    /**
+     * 放入新用户名，调用方已确认不存在；已用槽超过容量的0.7时先重建
+     */
+    private void addSlot(int hash, int id) throws IOException {
+        int capacity = slots.capacity() / 8;
+        if (usedSlots + 1 > capacity * 0.7) {
+            // 删除标记较多时按原容量重建即可清除
+            int newCapacity = count > capacity * 0.35 ? capacity << 1 : capacity;
+            if (newCapacity * 8L > Integer.MAX_VALUE) {
+                throw new IOException("用户数超出堆外索引的上限");
+            }
+            MappedByteBuffer table = createTable(newCapacity);
+            for (int i = 0; i < capacity; i++) {
+                long value = slots.getLong(i * 8);
+                int existing = (int) value;
+                if (existing != EMPTY && existing != DELETED) {
+                    insertSlot(table, newCapacity - 1, (int) (value >>> 32), existing);
+                }
+            }
+            publishTable(table);
+            usedSlots = (int) count;
+        }
+        if (insertSlot(slots, slots.capacity() / 8 - 1, hash, id)) {
+            usedSlots++;
+        }
+    }
+
+    /**
+     * @return 是否占用了空槽（复用删除标记时为false）
+     */
+    private static boolean insertSlot(MappedByteBuffer table, int mask, int hash, int id) {
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int existing = (int) table.getLong(i * 8);
+            if (existing == EMPTY || existing == DELETED) {
+                publishLong(table, i * 8, slotValue(hash, id));
+                return existing == EMPTY;
+            }
+        }
+    }
+
+    private MappedByteBuffer createTable(int capacity) throws IOException {
+        Path temp = dir.resolve("users.idx.tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity * 8L);
+        }
+    }
+
+    /**
+     * 新表建好后替换旧表；正在用旧表查找的读取方不受影响
+     */
+    private void publishTable(MappedByteBuffer table) throws IOException {
+        Files.move(dir.resolve("users.idx.tmp"), dir.resolve("users.idx"), StandardCopyOption.REPLACE_EXISTING);
+        slots = table;
+    }
+
+    /**
+     * 读取槽或users.ids条目，之后能看到写入该值之前写入映射的全部内容
+     */
+    private static long loadLong(ByteBuffer buffer, int index) {
+        return (long) LONGS.getAcquire(buffer, index);
+    }
+
+    /**
+     * 写入槽或users.ids条目，写入之前对映射的修改对读到该值的线程可见
+     */
+    private static void publishLong(ByteBuffer buffer, int index, long value) {
+        LONGS.setRelease(buffer, index, value);
+    }
+
+    private static long slotValue(int hash, int id) {
+        return ((long) hash << 32) | (id & 0xFFFFFFFFL);
+    }
+
+    /**
+     * 用户名UTF-8字节的哈希，写入文件，不能依赖每次运行不同的哈希种子
+     */
+    private static int hash(byte[] key) {
+        int h = 0x9747b28c;
+        for (byte b : key) {
+            h = (h ^ b) * 0x01000193;
+        }
+        // murmur3的fmix32，让低位也充分混合
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private boolean usernameEquals(long position, byte[] key) {
+        ByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)];
+        int at = (int) (position & (CHUNK_SIZE - 1)) + RECORD_HEADER + 12;
+        if (chunk.getInt(at) != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (chunk.get(at + 4 + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] readUsername(long position) {
+        ByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)];
+        int at = (int) (position & (CHUNK_SIZE - 1)) + RECORD_HEADER + 12;
+        byte[] bytes = new byte[chunk.getInt(at)];
+        chunk.get(at + 4, bytes);
+        return bytes;
+    }
+
+    private User readUser(long position) {
+        ByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)];
+        int at = (int) (position & (CHUNK_SIZE - 1)) + RECORD_HEADER;
+        int length = chunk.getInt(at - RECORD_HEADER) - 1;
+        byte[] record = new byte[length];
+        chunk.get(at, record);
+        return WriteAheadLog.getUser(ByteBuffer.wrap(record));
+    }
+}
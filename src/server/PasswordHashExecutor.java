@@ -0,0 +1,172 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 密码哈希线程池
+ * 哈希是纯CPU计算，线程数默认等于CPU核数，排队的任务数有上限。
+ * 登录和注册先在请求线程中查询数据库并归还连接，再把哈希交给这里计算，
+ * 连接线程数再多，同时进行的哈希也不会超过CPU核数；队列已满时立即拒绝，由调用方返回"服务器繁忙"
+ */
+public class PasswordHashExecutor {
+
+    private final ThreadPoolExecutor executor;
+    private final int threads;
+    private final ServerMetrics metrics = ServerMetrics.global();
+
+    /**
+     * 构造函数
+     * @param threads 哈希线程数
+     * @param queueLimit 最多排队的哈希任务数
+     */
+    public PasswordHashExecutor(int threads, int queueLimit) {
+        AtomicInteger index = new AtomicInteger();
+        this.threads = threads;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueLimit),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "password-hash-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 按系统属性创建：-Dhash.threads（默认CPU核数）和-Dhash.queueLimit（默认线程数×64）
+     * @return 密码哈希线程池
+     */
+    public static PasswordHashExecutor fromSystemProperties() {
+        int threads = Integer.getInteger("hash.threads", Runtime.getRuntime().availableProcessors());
+        return new PasswordHashExecutor(threads, Integer.getInteger("hash.queueLimit", threads * 64));
+    }
+
+    /**
+     * 在哈希线程中执行任务并等待结果，等待期间调用方不持有数据库连接
+     * @param task 哈希任务
+     * @return 任务结果
+     * @throws RejectedExecutionException 队列已满或线程池已关闭
+     */
+    public <T> T call(Callable<T> task) {
+        // 分别记录排队时间和计算时间，判断延迟来自线程数不足还是哈希参数过重
+        long submitted = System.nanoTime();
+        Future<T> future = executor.submit(() -> {
+            long started = System.nanoTime();
+            metrics.recordTiming("hash.wait", submitted);
+            try {
+                return task.call();
+            } finally {
+                metrics.recordTiming("hash.compute", started);
+            }
+        });
+        return await(future);
+    }
+
+    /**
+     * 并行执行一批哈希任务并按顺序返回结果
+     * 任务按顺序分成不超过线程数的几组，每组在一个哈希线程中依次计算，只占一个队列位置，
+     * 批量注册上千个用户也不会把队列占满、挤掉其他请求的哈希
+     * @param tasks 哈希任务
+     * @return 与任务顺序相同的结果
+     * @throws RejectedExecutionException 队列已满或线程池已关闭，已提交的组会被取消
+     */
+    public <T> List<T> callAll(List<? extends Callable<T>> tasks) {
+        int groups = Math.min(threads, tasks.size());
+        List<Future<List<T>>> futures = new ArrayList<>(groups);
+        long submitted = System.nanoTime();
+        try {
+            for (int g = 0; g < groups; g++) {
+                List<? extends Callable<T>> group =
+                        tasks.subList(tasks.size() * g / groups, tasks.size() * (g + 1) / groups);
+                futures.add(executor.submit(() -> {
+                    metrics.recordTiming("hash.wait", submitted);
+                    List<T> results = new ArrayList<>(group.size());
+                    for (Callable<T> task : group) {
+                        long started = System.nanoTime();
+                        try {
+                            results.add(task.call());
+                        } finally {
+                            metrics.recordTiming("hash.compute", started);
+                        }
+                    }
+                    return results;
+                }));
+            }
+        } catch (RejectedExecutionException e) {
+            for (Future<List<T>> future : futures) {
+                future.cancel(true);
+            }
+            throw e;
+        }
+
+        List<T> results = new ArrayList<>(tasks.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.addAll(await(futures.get(i)));
+            } catch (RuntimeException e) {
+                for (int j = i + 1; j < futures.size(); j++) {
+                    futures.get(j).cancel(true);
+                }
+                throw e;
+            }
+        }
+        return results;
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待密码哈希时被中断", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("密码哈希失败", cause);
+        }
+    }
+
+    /**
+     * 提交后台任务，不等待结果
+     * @param task 任务
+     * @return 是否已提交，队列已满或线程池已关闭时返回false
+     */
+    public boolean tryExecute(Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return 正在排队的哈希任务数
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return 正在计算的哈希任务数
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
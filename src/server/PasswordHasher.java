@@ -0,0 +1,37 @@
+package server;
+
+/**
+ * 密码哈希算法
+ * 存储格式以"$算法名$"开头，后面是该算法自己的参数、盐值和哈希值，
+ * 登录时按前缀选择算法校验，不同格式的密码可以同时存在于数据库中。
+ * 实现必须是线程安全的
+ */
+public interface PasswordHasher {
+
+    /**
+     * @return 算法名，即存储格式中的前缀
+     */
+    String id();
+
+    /**
+     * 生成随机盐值并计算哈希
+     * @param password 原始密码
+     * @return 带前缀的存储格式
+     */
+    String hash(String password);
+
+    /**
+     * 校验密码
+     * @param password 输入的密码
+     * @param encoded 本算法生成的存储格式
+     * @return 是否匹配，格式错误时返回false
+     */
+    boolean verify(String password, String encoded);
+
+    /**
+     * 判断存储的哈希是否应按当前参数重新计算，例如工作因子与当前配置不同
+     * @param encoded 本算法生成的存储格式
+     * @return 是否需要重新哈希
+     */
+    boolean needsRehash(String encoded);
+}
@@ -0,0 +1,77 @@
+package server;
+
+/**
+ * 密码哈希算法的选择
+ * 新密码使用-Dhash.algorithm指定的算法（pbkdf2或sha256，默认pbkdf2），
+ * PBKDF2迭代次数由-Dhash.pbkdf2.iterations指定（默认600000，OWASP对PBKDF2-HMAC-SHA256的建议值）；
+ * 校验时按存储格式的前缀选择算法，没有前缀的旧版"盐值:哈希值"按SHA-256校验
+ */
+public final class PasswordHashers {
+
+    private static final Sha256PasswordHasher SHA256 = new Sha256PasswordHasher();
+
+    private final PasswordHasher current;
+    private final Pbkdf2PasswordHasher pbkdf2;
+
+    /**
+     * 构造函数
+     * @param algorithm 新密码使用的算法名
+     * @param pbkdf2Iterations PBKDF2迭代次数
+     * @throws IllegalArgumentException 不支持的算法
+     */
+    public PasswordHashers(String algorithm, int pbkdf2Iterations) {
+        this.pbkdf2 = new Pbkdf2PasswordHasher(pbkdf2Iterations);
+        switch (algorithm) {
+            case Pbkdf2PasswordHasher.ID:
+                current = pbkdf2;
+                break;
+            case Sha256PasswordHasher.ID:
+                current = SHA256;
+                break;
+            default:
+                throw new IllegalArgumentException("不支持的密码哈希算法: " + algorithm
+                        + "（可选: " + Pbkdf2PasswordHasher.ID + ", " + Sha256PasswordHasher.ID + "）");
+        }
+    }
+
+    /**
+     * 按系统属性创建
+     * @return 密码哈希算法选择
+     */
+    public static PasswordHashers fromSystemProperties() {
+        return new PasswordHashers(System.getProperty("hash.algorithm", Pbkdf2PasswordHasher.ID),
+                Integer.getInteger("hash.pbkdf2.iterations", 600_000));
+    }
+
+    /**
+     * @return 新密码使用的算法
+     */
+    public PasswordHasher current() {
+        return current;
+    }
+
+    /**
+     * 按存储格式选择算法
+     * @param encoded 存储的密码
+     * @return 对应的算法，无法识别时返回null
+     */
+    public PasswordHasher forEncoded(String encoded) {
+        if (encoded.startsWith("$" + Pbkdf2PasswordHasher.ID + "$")) {
+            return pbkdf2;
+        }
+        if (encoded.startsWith("$" + Sha256PasswordHasher.ID + "$") || Sha256PasswordHasher.isLegacyFormat(encoded)) {
+            return SHA256;
+        }
+        return null;
+    }
+
+    /**
+     * 判断存储的密码是否应按当前算法和参数重新哈希
+     * @param encoded 存储的密码
+     * @return 算法不同或参数与当前配置不同时返回true
+     */
+    public boolean needsRehash(String encoded) {
+        PasswordHasher hasher = forEncoded(encoded);
+        return hasher != current || hasher.needsRehash(encoded);
+    }
+}
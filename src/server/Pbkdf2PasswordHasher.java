@@ -0,0 +1,108 @@
+package server;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+/**
+ * PBKDF2-HMAC-SHA256
+ * 存储格式为"$pbkdf2$迭代次数$Base64盐值$Base64哈希"，迭代次数就是工作因子，
+ * 每次校验的耗时与它成正比，调高可以增加离线破解的成本，代价是登录延迟和CPU占用
+ */
+public class Pbkdf2PasswordHasher implements PasswordHasher {
+
+    public static final String ID = "pbkdf2";
+    private static final String PREFIX = "$" + ID + "$";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_LENGTH = 16;
+    private static final int KEY_LENGTH = 32;
+
+    // SecretKeyFactory不是线程安全的，每个线程一个
+    private static final ThreadLocal<SecretKeyFactory> FACTORIES = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("JVM不支持" + ALGORITHM, e);
+        }
+    });
+
+    private final int iterations;
+
+    /**
+     * 构造函数
+     * @param iterations 新密码使用的迭代次数
+     */
+    public Pbkdf2PasswordHasher(int iterations) {
+        if (iterations <= 0) {
+            throw new IllegalArgumentException("PBKDF2迭代次数必须为正数: " + iterations);
+        }
+        this.iterations = iterations;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    @Override
+    public String id() {
+        return ID;
+    }
+
+    @Override
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_LENGTH];
+        Sha256Hasher.random().nextBytes(salt);
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return PREFIX + iterations + "$" + encoder.encodeToString(salt) + "$"
+                + encoder.encodeToString(derive(password, salt, iterations));
+    }
+
+    @Override
+    public boolean verify(String password, String encoded) {
+        String[] parts = split(encoded);
+        if (parts == null) {
+            return false;
+        }
+        try {
+            int storedIterations = Integer.parseInt(parts[0]);
+            byte[] salt = Base64.getDecoder().decode(parts[1]);
+            byte[] expected = Base64.getDecoder().decode(parts[2]);
+            if (storedIterations <= 0 || expected.length == 0) {
+                return false;
+            }
+            return MessageDigest.isEqual(expected, derive(password, salt, storedIterations));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean needsRehash(String encoded) {
+        String[] parts = split(encoded);
+        return parts == null || !parts[0].equals(Integer.toString(iterations));
+    }
+
+    /**
+     * @return 迭代次数、盐值、哈希三段，格式错误时返回null
+     */
+    private static String[] split(String encoded) {
+        if (!encoded.startsWith(PREFIX)) {
+            return null;
+        }
+        String[] parts = encoded.substring(PREFIX.length()).split("\\$");
+        return parts.length == 3 ? parts : null;
+    }
+
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, KEY_LENGTH * 8);
+        try {
+            return FACTORIES.get().generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2计算失败", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package server;
+
+import protocol.BinaryProtocol;
+import protocol.BinaryReader;
+import protocol.JsonReader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 客户端请求
+ * 构造时用JsonReader扫描一遍请求，取出顶层的action、id字段和data对象中的各个字段。
+ * id是可选的非负整数，带id的请求可以和同一连接上的其他请求并发处理，响应中会带回该id。
+ * 批量操作的各项放在data.items数组中，每一项是一个字段都为字符串的对象
+ */
+public class Request {
+
+    /**
+     * 没有请求ID
+     */
+    public static final long NO_ID = -1;
+
+    private static final String[] TOP_LEVEL_NAMES = {"action", "data", "id"};
+    private static final String ITEMS = "items";
+
+    private final String action;
+    private final Map<String, String> data;
+    private final long id;
+    // 批量操作的各项，没有items数组时为null
+    private final List<Map<String, String>> items;
+
+    /**
+     * 构造函数
+     * @param action 操作类型
+     * @param data data对象中的字段
+     */
+    public Request(String action, Map<String, String> data) {
+        this(action, data, NO_ID);
+    }
+
+    /**
+     * 构造函数
+     * @param action 操作类型
+     * @param data data对象中的字段
+     * @param id 请求ID，没有时为NO_ID
+     */
+    public Request(String action, Map<String, String> data, long id) {
+        this(action, data, id, null);
+    }
+
+    /**
+     * 构造函数
+     * @param action 操作类型
+     * @param data data对象中的字段
+     * @param id 请求ID，没有时为NO_ID
+     * @param items 批量操作的各项，没有时为null
+     */
+    public Request(String action, Map<String, String> data, long id, List<Map<String, String>> items) {
+        this.action = action;
+        this.data = data;
+        this.id = id;
+        this.items = items;
+    }
+
+    /**
+     * 解析请求
+     * 只读取第一层的键，data等嵌套对象或字符串内容里出现的"action"不会被误认
+     * @param json 请求字符串（JSON格式）
+     * @return 请求对象，action缺失时getAction()返回null
+     * @throws IllegalArgumentException 请求不是合法的JSON对象
+     */
+    public static Request parse(CharSequence json) {
+        JsonReader reader = new JsonReader(json);
+        String action = null;
+        long id = NO_ID;
+        Map<String, String> data = new HashMap<>();
+        List<Map<String, String>> items = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            int field = reader.selectName(TOP_LEVEL_NAMES);
+            if (field == 0) {
+                action = reader.nextString();
+            } else if (field == 1 && reader.peek() == JsonReader.Token.BEGIN_OBJECT) {
+                items = readData(reader, data);
+            } else if (field == 2) {
+                id = reader.nextLong();
+                if (id < 0) {
+                    throw new IllegalArgumentException("请求ID不能为负数");
+                }
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new Request(action, data, id, items);
+    }
+
+    /**
+     * 解析二进制请求帧
+     * @param frame 帧内容（操作码 + 负载）
+     * @return 请求对象
+     * @throws IllegalArgumentException 帧格式错误或操作码未知
+     */
+    public static Request parseBinary(byte[] frame) {
+        BinaryReader reader = new BinaryReader(frame);
+        int opcode = reader.readByte();
+        long id = NO_ID;
+        if ((opcode & BinaryProtocol.FLAG_REQUEST_ID) != 0) {
+            opcode &= ~BinaryProtocol.FLAG_REQUEST_ID;
+            id = reader.readVarlong();
+            // 与JSON请求一致，负数会与NO_ID混淆，响应丢失ID后流水线无法对应请求
+            if (id < 0) {
+                throw new IllegalArgumentException("请求ID不能为负数");
+            }
+        }
+        Map<String, String> data = new HashMap<>();
+
+        if (opcode == BinaryProtocol.ACTION) {
+            String action = reader.readString();
+            int count = reader.readVarint();
+            for (int i = 0; i < count; i++) {
+                String name = reader.readString();
+                data.put(name, reader.readNullableString());
+            }
+            return new Request(action, data, id);
+        }
+
+        String[] fields = BinaryProtocol.fieldsOf(opcode);
+        if (fields == null) {
+            throw new IllegalArgumentException("未知的操作码: " + opcode);
+        }
+        if (BinaryProtocol.isBatch(opcode)) {
+            int count = reader.readVarint();
+            if (count < 0) {
+                throw new IllegalArgumentException("批量项数非法: " + count);
+            }
+            List<Map<String, String>> items = new ArrayList<>(Math.min(count, 1024));
+            for (int i = 0; i < count; i++) {
+                Map<String, String> item = new HashMap<>();
+                for (String field : fields) {
+                    String value = reader.readNullableString();
+                    if (value != null) {
+                        item.put(field, value);
+                    }
+                }
+                items.add(item);
+            }
+            return new Request(BinaryProtocol.actionOf(opcode), data, id, items);
+        }
+        for (String field : fields) {
+            String value = reader.readNullableString();
+            if (value != null) {
+                data.put(field, value);
+            }
+        }
+        return new Request(BinaryProtocol.actionOf(opcode), data, id);
+    }
+
+    /**
+     * 读取data对象，除items数组外的嵌套对象和数组都跳过
+     * @return items数组中的各项，没有时返回null
+     */
+    private static List<Map<String, String>> readData(JsonReader reader, Map<String, String> data) {
+        List<Map<String, String>> items = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            JsonReader.Token token = reader.peek();
+            if (token == JsonReader.Token.BEGIN_ARRAY && ITEMS.equals(name)) {
+                items = readItems(reader);
+            } else if (token == JsonReader.Token.BEGIN_OBJECT || token == JsonReader.Token.BEGIN_ARRAY) {
+                reader.skipValue();
+            } else {
+                data.put(name, reader.nextString());
+            }
+        }
+        reader.endObject();
+        return items;
+    }
+
+    private static List<Map<String, String>> readItems(JsonReader reader) {
+        List<Map<String, String>> items = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonReader.Token.BEGIN_OBJECT) {
+                throw new IllegalArgumentException("items中的每一项必须是对象");
+            }
+            Map<String, String> item = new HashMap<>();
+            readData(reader, item);
+            items.add(item);
+        }
+        reader.endArray();
+        return items;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    /**
+     * @return 请求ID，没有时为NO_ID
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return 是否带有请求ID
+     */
+    public boolean hasId() {
+        return id != NO_ID;
+    }
+
+    /**
+     * @return 批量操作的各项，请求中没有items数组时返回null
+     */
+    public List<Map<String, String>> getItems() {
+        return items;
+    }
+
+    /**
+     * 获取data对象中指定字段的值
+     * @param key 字段名
+     * @return 字段值，不存在时返回null
+     */
+    public String get(String key) {
+        return data.get(key);
+    }
+}
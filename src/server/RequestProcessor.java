@@ -0,0 +1,461 @@
+package server;
+
+import protocol.BinaryProtocol;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 请求处理器
+ * 负责解析客户端请求并调用数据库完成对应操作，与具体的连接模型无关，
+ * 阻塞模式的ClientHandler和NIO模式的NioServer共用同一套处理逻辑
+ */
+public class RequestProcessor {
+    // 设为false时拒绝协议升级，所有连接都使用JSON
+    private static final boolean BINARY_PROTOCOL_ENABLED =
+            Boolean.parseBoolean(System.getProperty("server.binaryProtocol", "true"));
+
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = Integer.getInteger("server.maxPageSize", 1000);
+    private static final int MAX_BATCH_SIZE = Integer.getInteger("server.maxBatchSize", 1000);
+
+    private final DatabaseManager dbManager;
+    private final CommandRouter router = new CommandRouter();
+    private final ServerMetrics metrics = ServerMetrics.global();
+
+    /**
+     * 构造函数，注册内置命令并加载命令插件
+     * @param dbManager 数据库管理器
+     */
+    public RequestProcessor(DatabaseManager dbManager) {
+        this.dbManager = dbManager;
+
+        router.register("register", this::handleRegister);
+        router.register("login", this::handleLogin);
+        router.register("getUserList", request -> handleGetUserList());
+        router.register("getUserPage", this::handleGetUserPage);
+        router.register("streamUsers", request -> Response.userStream(dbManager::streamAllUsers));
+        router.register("deleteUser", this::handleDeleteUser);
+        router.register("getUserByUsername", this::handleGetUserByUsername);
+        router.register("updateUser", this::handleUpdateUser);
+        router.register("batchRegister", this::handleBatchRegister);
+        router.register("batchGetUsers", this::handleBatchGetUsers);
+        router.register("batchDelete", this::handleBatchDelete);
+        router.register(BinaryProtocol.UPGRADE_ACTION, this::handleUpgrade);
+        router.register("getServerStats", request -> Response.serverStats(metrics));
+
+        for (CommandPlugin plugin : ServiceLoader.load(CommandPlugin.class)) {
+            plugin.registerCommands(router, dbManager);
+            Log.info("已加载命令插件: " + plugin.getClass().getName());
+        }
+    }
+
+    /**
+     * 处理客户端请求
+     * 流式响应（streamUsers）不能序列化为单个字符串，需要用process()取得响应后调用streamTo()
+     * @param request 请求字符串（JSON格式）
+     * @return 响应字符串（JSON格式）
+     */
+    public String processRequest(String request) {
+        return process(request).toJson();
+    }
+
+    /**
+     * 处理客户端请求
+     * @param request 请求字符串（JSON格式）
+     * @return 响应对象
+     */
+    public Response process(String request) {
+        Request parsed;
+        try {
+            parsed = Request.parse(request);
+        } catch (IllegalArgumentException e) {
+            return Response.malformedRequest();
+        }
+        return execute(parsed);
+    }
+
+    /**
+     * 处理二进制请求帧
+     * @param frame 帧内容（操作码 + 负载）
+     * @return 响应对象
+     */
+    public Response processFrame(byte[] frame) {
+        Request parsed;
+        try {
+            parsed = Request.parseBinary(frame);
+        } catch (IllegalArgumentException e) {
+            return Response.malformedRequest();
+        }
+        return execute(parsed);
+    }
+
+    /**
+     * 执行已解析的请求
+     * @param request 请求
+     * @return 响应对象，带有请求的ID
+     */
+    public Response execute(Request request) {
+        return dispatch(request).withRequestId(request.getId());
+    }
+
+    /**
+     * 判断请求是否可以与同一连接上的其他请求并发执行
+     * 只有带ID的请求才能乱序响应；协议升级会改变连接状态，必须按顺序执行
+     * @param request 请求
+     * @return 是否可以并发执行
+     */
+    public boolean isConcurrent(Request request) {
+        return request.hasId() && !BinaryProtocol.UPGRADE_ACTION.equals(request.getAction());
+    }
+
+    /**
+     * 执行命令并按操作名记录处理时间，流式响应只计到开始发送之前
+     */
+    private Response dispatch(Request request) {
+        long start = System.nanoTime();
+        Command command = router.find(request.getAction());
+        if (command == null) {
+            metrics.recordAction(ServerMetrics.UNKNOWN_ACTION, start, false);
+            return createErrorResponse("未知的操作类型");
+        }
+        Response response;
+        try {
+            response = command.execute(request);
+        } catch (Exception e) {
+            Log.error("处理请求时发生错误：" + e.getMessage(), e);
+            response = createErrorResponse("服务器内部错误");
+        }
+        metrics.recordAction(request.getAction(), start, response.isSuccess());
+        return response;
+    }
+
+    /**
+     * 处理用户注册请求
+     * @param request 注册请求
+     * @return 注册响应
+     */
+    private Response handleRegister(Request request) {
+        try {
+            // 简单解析JSON（实际项目中应使用JSON库）
+            String username = request.get("username");
+            String password = request.get("password");
+            String email = request.get("email");
+
+            if (username == null || password == null) {
+                return createErrorResponse("用户名和密码不能为空");
+            }
+
+            User user = new User(username, password, email);
+            boolean success = dbManager.registerUser(user);
+
+            if (success) {
+                return createSuccessResponse("注册成功");
+            } else {
+                return createErrorResponse("注册失败，用户名可能已存在");
+            }
+        } catch (RejectedExecutionException e) {
+            return Response.busy();
+        } catch (Exception e) {
+            return createErrorResponse("注册请求格式错误");
+        }
+    }
+
+    /**
+     * 处理用户登录请求
+     * @param request 登录请求
+     * @return 登录响应
+     */
+    private Response handleLogin(Request request) {
+        try {
+            String username = request.get("username");
+            String password = request.get("password");
+
+            if (username == null || password == null) {
+                return createErrorResponse("用户名和密码不能为空");
+            }
+
+            User user = dbManager.loginUser(username, password);
+            if (user != null) {
+                return createLoginSuccessResponse(user);
+            } else {
+                return createErrorResponse("登陆失败，用户名或密码错误");
+            }
+        } catch (RejectedExecutionException e) {
+            return Response.busy();
+        } catch (Exception e) {
+            return createErrorResponse("登录请求格式错误");
+        }
+    }
+
+    /**
+     * 处理获取用户列表请求
+     * @return 用户列表响应
+     */
+    private Response handleGetUserList() {
+        try {
+            List<User> users = dbManager.getAllUsers();
+            return createUserListResponse(users);
+        } catch (Exception e) {
+            return createErrorResponse("获取用户列表请求格式错误");
+        }
+    }
+
+    /**
+     * 处理分页获取用户列表请求
+     * @param request 分页请求，pageSize为每页用户数，cursor为上一页返回的游标（第一页不传）
+     * @return 一页用户和下一页游标
+     */
+    private Response handleGetUserPage(Request request) {
+        int pageSize = DEFAULT_PAGE_SIZE;
+        String pageSizeStr = request.get("pageSize");
+        if (pageSizeStr != null && !pageSizeStr.trim().isEmpty()) {
+            try {
+                pageSize = Integer.parseInt(pageSizeStr.trim());
+            } catch (NumberFormatException e) {
+                return createErrorResponse("分页大小格式错误");
+            }
+        }
+        pageSize = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+
+        String cursor = request.get("cursor");
+        if (cursor != null && cursor.isEmpty()) {
+            cursor = null;
+        }
+
+        try {
+            return Response.userPage(dbManager.getUserPage(cursor, pageSize));
+        } catch (IllegalArgumentException e) {
+            return createErrorResponse("游标格式错误");
+        }
+    }
+
+    /**
+     * 处理删除用户请求
+     * @param request 删除用户请求
+     * @return 删除响应
+     */
+    private Response handleDeleteUser(Request request) {
+        try {
+            String username = request.get("username");
+            String userIdStr = request.get("userIdStr");
+            
+            boolean success = false;
+            if (username != null && !username.trim().isEmpty()) {
+                // 根据用户名删除
+                success = dbManager.deleteUserByUsername(username);
+            } else if (userIdStr != null && !userIdStr.trim().isEmpty()) {
+                // 根据用户ID删除
+                try {
+                    int userId = Integer.parseInt(userIdStr);
+                    success = dbManager.deleteUserById(userId);
+                } catch (NumberFormatException e) {
+                    return createErrorResponse("用户ID格式错误");
+                }
+            } else {
+                return createErrorResponse("请提供用户名或用户ID");
+            }
+
+            if ( success) {
+                return createSuccessResponse("用户删除成功");
+            } else {
+                return createErrorResponse("用户删除失败");
+            }
+        } catch (Exception e) {
+            return createErrorResponse("删除用户请求格式错误");
+        }
+    }
+
+    /**
+     * 处理根据用户名获取用户请求
+     * @param request 获取用户请求
+     * @return 获取用户响应
+     */
+    private Response handleGetUserByUsername(Request request) {
+        try {
+            String username = request.get("username");
+
+            if (username == null || username.trim().isEmpty()) {
+                return createErrorResponse("用户名不能为空");
+            }
+            User user = dbManager.findUserByUsername(username);
+
+            if (user != null) {
+                return createUserResponse(user);
+            } else {
+                return createErrorResponse("用户不存在");
+            }
+        } catch (Exception e) {
+            return createErrorResponse("获取用户请求格式错误");
+        }
+    }
+
+    /**
+     * 处理修改用户信息请求
+     * @param request 修改用户请求
+     * @return 修改用户响应
+     */
+    private Response handleUpdateUser(Request request) {
+        try {
+            String username = request.get("username");
+            String newPassword = request.get("password");
+            String newEmail = request.get("email");
+
+            // 检查用户是否存在
+            if(username == null || username.trim().isEmpty()){
+                return createErrorResponse("用户不存在");
+            }
+
+            // 检查是否有要修改的内容
+            if((newPassword == null || newPassword.trim().isEmpty())&&
+                    (newEmail == null || newEmail.trim().isEmpty())) {
+                return createErrorResponse("请提供要修改的信息（密码或邮箱）");
+            }
+
+            boolean updated = dbManager.updateUserInfo(username, newPassword, newEmail);
+            if (updated) {
+                return createSuccessResponse("用户信息修改成功");
+            } else {
+                return createErrorResponse("用户信息修改失败");
+            }
+        } catch (RejectedExecutionException e) {
+            return Response.busy();
+        } catch (Exception e) {
+            return createErrorResponse("修改用户请求格式错误");
+        }
+    }
+
+    /**
+     * 处理批量注册请求
+     * @param request 批量注册请求，items中每一项有username、password和email
+     * @return 每一项的注册结果
+     */
+    private Response handleBatchRegister(Request request) {
+        List<Map<String, String>> items = request.getItems();
+        Response invalid = checkBatch(items);
+        if (invalid != null) {
+            return invalid;
+        }
+        List<User> users = new ArrayList<>(items.size());
+        for (Map<String, String> item : items) {
+            users.add(new User(item.get("username"), item.get("password"), item.get("email")));
+        }
+        try {
+            return Response.batch("批量注册", dbManager.registerUsers(users));
+        } catch (RejectedExecutionException e) {
+            return Response.busy();
+        }
+    }
+
+    /**
+     * 处理批量查找用户请求
+     * @param request 批量查找请求，items中每一项有username
+     * @return 每一项的查找结果，找到时带有用户信息
+     */
+    private Response handleBatchGetUsers(Request request) {
+        List<Map<String, String>> items = request.getItems();
+        Response invalid = checkBatch(items);
+        if (invalid != null) {
+            return invalid;
+        }
+        return Response.batch("批量查找", dbManager.findUsers(usernamesOf(items)));
+    }
+
+    /**
+     * 处理批量删除用户请求
+     * @param request 批量删除请求，items中每一项有username
+     * @return 每一项的删除结果
+     */
+    private Response handleBatchDelete(Request request) {
+        List<Map<String, String>> items = request.getItems();
+        Response invalid = checkBatch(items);
+        if (invalid != null) {
+            return invalid;
+        }
+        return Response.batch("批量删除", dbManager.deleteUsers(usernamesOf(items)));
+    }
+
+    /**
+     * 检查批量请求的项数
+     * @return 错误响应，项数合法时返回null
+     */
+    private Response checkBatch(List<Map<String, String>> items) {
+        if (items == null || items.isEmpty()) {
+            return createErrorResponse("请在items中提供至少一项");
+        }
+        if (items.size() > MAX_BATCH_SIZE) {
+            return createErrorResponse("批量操作最多 " + MAX_BATCH_SIZE + " 项");
+        }
+        return null;
+    }
+
+    private static List<String> usernamesOf(List<Map<String, String>> items) {
+        List<String> usernames = new ArrayList<>(items.size());
+        for (Map<String, String> item : items) {
+            usernames.add(item.get("username"));
+        }
+        return usernames;
+    }
+
+    /**
+     * 处理协议升级请求
+     * 这里只决定是否同意升级，真正切换协议由连接在发出响应后完成
+     * @param request 升级请求
+     * @return 升级响应
+     */
+    private Response handleUpgrade(Request request) {
+        String protocol = request.get("protocol");
+        if (!BINARY_PROTOCOL_ENABLED || !BinaryProtocol.NAME.equals(protocol)) {
+            return createErrorResponse("不支持的协议: " + protocol);
+        }
+        return Response.upgrade(BinaryProtocol.NAME);
+    }
+
+    /**
+     * 创建成功响应
+     * @param message 成功消息
+     * @return 响应
+     */
+    private Response createSuccessResponse(String message) {
+        return Response.success(message);
+    }
+
+    /**
+     * 创建错误响应
+     * @param message 错误消息
+     * @return 响应
+     */
+    private Response createErrorResponse(String message) {
+        return Response.error(message);
+    }
+
+    /**
+     * 创建单个用户响应
+     * @param user 用户对象
+     * @return 响应
+     */
+    private Response createUserResponse(User user) {
+        return Response.user(user);
+    }
+
+    /**
+     * 创建登录成功响应
+     * @param user 用户对象
+     * @return 响应
+     */
+    private Response createLoginSuccessResponse(User user) {
+        return Response.login(user);
+    }
+
+    /**
+     * 创建用户列表响应
+     * @param users 用户列表
+     * @return 响应
+     */
+    private Response createUserListResponse(List<User> users) {
+        return Response.userList(users);
+    }
+}
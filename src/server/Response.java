@@ -0,0 +1,486 @@
+package server;
+
+import protocol.BinaryProtocol;
+import protocol.BinaryWriter;
+import protocol.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 服务器响应
+ * 命令只负责构造响应对象，序列化由连接所用的协议决定
+ */
+public class Response {
+
+    /**
+     * 响应携带的数据类型
+     */
+    public enum Kind {
+        MESSAGE, USER, LOGIN, USER_LIST, USER_PAGE, UPGRADE, USER_STREAM, USER_CHUNK, STATS, BATCH
+    }
+
+    /**
+     * 流式响应的分块接收方，由连接实现，负责按连接的协议写出每一块
+     */
+    @FunctionalInterface
+    public interface ChunkSink {
+        void send(Response chunk) throws IOException;
+    }
+
+    // 流式响应每块的用户数，发送时只保留一块用户在内存中
+    private static final int STREAM_CHUNK_SIZE = Integer.getInteger("server.streamChunkSize", 256);
+
+    // 每个线程复用一个写入器，响应序列化不产生中间字符串
+    private static final ThreadLocal<JsonWriter> JSON_WRITERS = ThreadLocal.withInitial(JsonWriter::new);
+    private static final ThreadLocal<BinaryWriter> BINARY_WRITERS = ThreadLocal.withInitial(BinaryWriter::new);
+
+    private final boolean success;
+    private final String message;
+    private final Kind kind;
+    private final User user;
+    private final List<User> users;
+    private final String nextCursor;
+    private final long requestId;
+    private final UserSource source;
+    // 分块响应中已发送的用户总数，只在最后一块中有效，-1表示后面还有块
+    private final long total;
+    // 指标在序列化时才读取，响应中是发送时刻的值
+    private final ServerMetrics stats;
+    private final List<BatchResult> results;
+
+    private Response(boolean success, String message, Kind kind, User user, List<User> users) {
+        this(success, message, kind, user, users, null, Request.NO_ID, null, -1, null, null);
+    }
+
+    private Response(boolean success, String message, Kind kind, User user, List<User> users,
+                     String nextCursor, long requestId, UserSource source, long total, ServerMetrics stats,
+                     List<BatchResult> results) {
+        this.success = success;
+        this.message = message;
+        this.kind = kind;
+        this.user = user;
+        this.users = users;
+        this.nextCursor = nextCursor;
+        this.requestId = requestId;
+        this.source = source;
+        this.total = total;
+        this.stats = stats;
+        this.results = results;
+    }
+
+    /**
+     * 创建成功响应
+     * @param message 成功消息
+     * @return 响应
+     */
+    public static Response success(String message) {
+        return new Response(true, message, Kind.MESSAGE, null, null);
+    }
+
+    /**
+     * 创建错误响应
+     * @param message 错误消息
+     * @return 响应
+     */
+    public static Response error(String message) {
+        return new Response(false, message, Kind.MESSAGE, null, null);
+    }
+
+    /**
+     * 创建单个用户响应
+     * @param user 用户对象
+     * @return 响应
+     */
+    public static Response user(User user) {
+        return new Response(true, null, Kind.USER, user, null);
+    }
+
+    /**
+     * 创建登录成功响应
+     * @param user 用户对象
+     * @return 响应
+     */
+    public static Response login(User user) {
+        return new Response(true, "登录成功", Kind.LOGIN, user, null);
+    }
+
+    /**
+     * 创建用户列表响应
+     * @param users 用户列表
+     * @return 响应
+     */
+    public static Response userList(List<User> users) {
+        return new Response(true, null, Kind.USER_LIST, null, users);
+    }
+
+    /**
+     * 创建分页用户列表响应
+     * @param page 一页用户
+     * @return 响应
+     */
+    public static Response userPage(UserPage page) {
+        return new Response(true, null, Kind.USER_PAGE, null, page.getUsers(), page.getNextCursor(),
+                Request.NO_ID, null, -1, null, null);
+    }
+
+    /**
+     * 创建流式用户列表响应
+     * 数据源在streamTo()中才被读取，用户分块发送，最后一块带有用户总数
+     * @param source 用户数据源
+     * @return 响应
+     */
+    public static Response userStream(UserSource source) {
+        return new Response(true, null, Kind.USER_STREAM, null, null, null, Request.NO_ID, source, -1, null, null);
+    }
+
+    /**
+     * 创建服务器指标响应
+     * @param metrics 服务器指标
+     * @return 响应
+     */
+    public static Response serverStats(ServerMetrics metrics) {
+        return new Response(true, null, Kind.STATS, null, null, null, Request.NO_ID, null, -1, metrics, null);
+    }
+
+    /**
+     * 创建批量操作响应，消息中汇总成功和失败的项数
+     * @param operation 操作名称，用于汇总消息
+     * @param results 按请求顺序排列的每一项结果
+     * @return 响应
+     */
+    public static Response batch(String operation, List<BatchResult> results) {
+        int succeeded = 0;
+        for (BatchResult result : results) {
+            if (result.isSuccess()) {
+                succeeded++;
+            }
+        }
+        String message = operation + "完成: 成功 " + succeeded + " 项，失败 " + (results.size() - succeeded) + " 项";
+        return new Response(true, message, Kind.BATCH, null, null, null, Request.NO_ID, null, -1, null, results);
+    }
+
+    /**
+     * 创建协议升级响应，连接在发出该响应后改用新协议
+     * @param protocol 协议名称
+     * @return 响应
+     */
+    public static Response upgrade(String protocol) {
+        return new Response(true, protocol, Kind.UPGRADE, null, null);
+    }
+
+    /**
+     * 创建请求格式错误响应
+     * @return 响应
+     */
+    public static Response malformedRequest() {
+        return error("请求格式错误");
+    }
+
+    /**
+     * 创建服务器繁忙响应，密码哈希等有界资源已满时返回，客户端可以稍后重试
+     * @return 响应
+     */
+    public static Response busy() {
+        return error("服务器繁忙，请稍后重试");
+    }
+
+    /**
+     * 返回带有请求ID的响应，原响应不变，命令可以安全地返回共享的响应对象
+     * @param requestId 请求ID，NO_ID时返回原响应
+     * @return 响应
+     */
+    public Response withRequestId(long requestId) {
+        if (requestId == this.requestId) {
+            return this;
+        }
+        return new Response(success, message, kind, user, users, nextCursor, requestId, source, total, stats, results);
+    }
+
+    /**
+     * @return 是否为流式响应，需要用streamTo()分块发送
+     */
+    public boolean isStream() {
+        return kind == Kind.USER_STREAM;
+    }
+
+    /**
+     * 读取数据源并分块发送
+     * 每块最多STREAM_CHUNK_SIZE个用户，发送后块缓冲区立即复用；
+     * 数据库中途出错时以错误响应结束，接收方写出失败时停止读取
+     * @param sink 分块接收方，每块在send()返回前必须已经序列化
+     * @throws IOException 写出失败
+     */
+    public void streamTo(ChunkSink sink) throws IOException {
+        List<User> chunk = new ArrayList<>(STREAM_CHUNK_SIZE);
+        long[] count = {0};
+        boolean completed;
+        try {
+            completed = source.forEach(item -> {
+                chunk.add(item);
+                count[0]++;
+                if (chunk.size() == STREAM_CHUNK_SIZE) {
+                    sink.send(chunk(chunk, -1));
+                    chunk.clear();
+                }
+            });
+        } catch (RuntimeException e) {
+            // 数据源在命令执行之后才被读取，异常不经过RequestProcessor的统一处理，这里以错误响应结束
+            Log.error("流式读取用户时发生错误：" + e.getMessage());
+            completed = false;
+        }
+        if (completed) {
+            sink.send(chunk(chunk, count[0]));
+        } else {
+            sink.send(error("获取用户列表失败").withRequestId(requestId));
+        }
+    }
+
+    private Response chunk(List<User> chunkUsers, long chunkTotal) {
+        return new Response(true, null, Kind.USER_CHUNK, null, chunkUsers, null, requestId, null, chunkTotal, null,
+                null);
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public List<User> getUsers() {
+        return users;
+    }
+
+    /**
+     * @return 批量操作每一项的结果，不是批量响应时为null
+     */
+    public List<BatchResult> getResults() {
+        return results;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * @return 分块响应是否还有后续块
+     */
+    public boolean hasMore() {
+        return total < 0;
+    }
+
+    /**
+     * @return 最后一块中的用户总数，不是最后一块时为-1
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * 序列化为JSON字符串
+     * @return JSON响应字符串
+     */
+    public String toJson() {
+        JsonWriter writer = JSON_WRITERS.get().reset();
+        writeJson(writer);
+        return writer.toString();
+    }
+
+    /**
+     * 把响应写入JSON写入器
+     * @param writer JSON写入器
+     */
+    public void writeJson(JsonWriter writer) {
+        writer.beginObject();
+        if (requestId != Request.NO_ID) {
+            writer.name("id").value(requestId);
+        }
+        writer.name("status").value(success ? "success" : "error");
+        if (message != null) {
+            writer.name("message").value(message);
+        }
+        switch (kind) {
+            case USER:
+                writer.name("data");
+                writeUser(writer, user, true);
+                break;
+            case LOGIN:
+                writer.name("data");
+                writeUser(writer, user, false);
+                break;
+            case USER_LIST:
+            case USER_PAGE:
+                writer.name("data").beginArray();
+                for (User item : users) {
+                    writeUser(writer, item, true);
+                }
+                writer.endArray();
+                if (kind == Kind.USER_PAGE) {
+                    writer.name("nextCursor").value(nextCursor);
+                }
+                break;
+            case USER_CHUNK:
+                writer.name("data").beginArray();
+                for (User item : users) {
+                    writeUser(writer, item, true);
+                }
+                writer.endArray();
+                writer.name("more").value(hasMore());
+                if (!hasMore()) {
+                    writer.name("total").value(total);
+                }
+                break;
+            case STATS:
+                writer.name("data");
+                stats.writeJson(writer);
+                break;
+            case BATCH:
+                writer.name("data").beginArray();
+                for (BatchResult result : results) {
+                    writeResult(writer, result);
+                }
+                writer.endArray();
+                break;
+            case USER_STREAM:
+                throw new IllegalStateException("流式响应需要用streamTo()分块发送");
+            default:
+                break;
+        }
+        writer.endObject();
+    }
+
+    /**
+     * 序列化为二进制帧
+     * 返回的写入器属于当前线程，在同一线程序列化下一个响应之前需要把帧写出或复制
+     * @return 含有完整帧的写入器
+     */
+    public BinaryWriter toBinary() {
+        BinaryWriter writer = BINARY_WRITERS.get();
+        writeBinary(writer);
+        return writer;
+    }
+
+    /**
+     * 把响应写成一个二进制帧，格式见BinaryProtocol
+     * @param writer 二进制写入器
+     */
+    public void writeBinary(BinaryWriter writer) {
+        switch (kind) {
+            case USER:
+                beginFrame(writer, BinaryProtocol.RESPONSE_USER);
+                writeUser(writer, user, true);
+                break;
+            case LOGIN:
+                beginFrame(writer, BinaryProtocol.RESPONSE_LOGIN).writeString(message);
+                writeUser(writer, user, false);
+                break;
+            case USER_LIST:
+                beginFrame(writer, BinaryProtocol.RESPONSE_USER_LIST).writeVarint(users.size());
+                for (User item : users) {
+                    writeUser(writer, item, true);
+                }
+                break;
+            case USER_PAGE:
+                beginFrame(writer, BinaryProtocol.RESPONSE_USER_PAGE)
+                        .writeNullableString(nextCursor)
+                        .writeVarint(users.size());
+                for (User item : users) {
+                    writeUser(writer, item, true);
+                }
+                break;
+            case USER_CHUNK:
+                // 用户总数加1写入，0表示后面还有块
+                beginFrame(writer, BinaryProtocol.RESPONSE_USER_CHUNK)
+                        .writeVarlong(total + 1)
+                        .writeVarint(users.size());
+                for (User item : users) {
+                    writeUser(writer, item, true);
+                }
+                break;
+            case STATS:
+                // 指标的字段会随版本增减，二进制协议中直接携带JSON文本
+                JsonWriter json = JSON_WRITERS.get().reset();
+                stats.writeJson(json);
+                beginFrame(writer, BinaryProtocol.RESPONSE_STATS).writeString(json.buffer());
+                break;
+            case BATCH:
+                beginFrame(writer, BinaryProtocol.RESPONSE_BATCH).writeString(message).writeVarint(results.size());
+                for (BatchResult result : results) {
+                    writer.writeNullableString(result.getUsername())
+                            .writeVarint(result.isSuccess() ? 1 : 0)
+                            .writeNullableString(result.getMessage())
+                            .writeVarint(result.getUser() != null ? 1 : 0);
+                    if (result.getUser() != null) {
+                        writeUser(writer, result.getUser(), true);
+                    }
+                }
+                break;
+            case USER_STREAM:
+                throw new IllegalStateException("流式响应需要用streamTo()分块发送");
+            default:
+                beginFrame(writer, success ? BinaryProtocol.RESPONSE_SUCCESS : BinaryProtocol.RESPONSE_ERROR)
+                        .writeString(message);
+                break;
+        }
+        writer.endFrame();
+    }
+
+    private BinaryWriter beginFrame(BinaryWriter writer, int opcode) {
+        if (requestId == Request.NO_ID) {
+            return writer.beginFrame(opcode);
+        }
+        return writer.beginFrame(opcode | BinaryProtocol.FLAG_REQUEST_ID).writeVarlong(requestId);
+    }
+
+    private static void writeUser(BinaryWriter writer, User user, boolean details) {
+        writer.writeVarint(user.getId())
+                .writeString(user.getUsername())
+                .writeString(user.getEmail());
+        if (details) {
+            // 创建时间写为毫秒数加1，0表示null
+            writer.writeNullableString(user.getPassword())
+                    .writeVarlong(user.getCreatedAt() != null ? user.getCreatedAt().getTime() + 1 : 0);
+        }
+    }
+
+    private static void writeResult(JsonWriter writer, BatchResult result) {
+        writer.beginObject()
+                .name("username").value(result.getUsername())
+                .name("status").value(result.isSuccess() ? "success" : "error");
+        if (result.getMessage() != null) {
+            writer.name("message").value(result.getMessage());
+        }
+        if (result.getUser() != null) {
+            writer.name("data");
+            writeUser(writer, result.getUser(), true);
+        }
+        writer.endObject();
+    }
+
+    private static void writeUser(JsonWriter writer, User user, boolean details) {
+        writer.beginObject()
+                .name("id").value(user.getId())
+                .name("username").value(user.getUsername())
+                .name("email").value(user.getEmail() != null ? user.getEmail() : "");
+        if (details) {
+            writer.name("password").value(user.getPassword())
+                    .name("createdAt").valueOf(user.getCreatedAt());
+        }
+        writer.endObject();
+    }
+}
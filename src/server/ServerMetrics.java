@@ -0,0 +1,235 @@
+package server;
+
+import protocol.JsonWriter;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 服务器运行指标
+ * 按操作统计请求数、失败数和处理延迟，按数据库调用、连接借出和密码哈希等内部步骤统计耗时，另有连接数等计数器和线程池队列深度等即时值。
+ * 计数使用LongAdder，延迟使用LatencyHistogram，记录路径上没有锁；读取时汇总，开销只在查询和定期输出时产生。
+ *
+ * 指标在进程内全局共享，通过getServerStats操作查询，也可以用-Dmetrics.dumpIntervalSeconds（默认60，0表示关闭）
+ * 定期以INFO级别写入日志
+ */
+public final class ServerMetrics {
+
+    private static final ServerMetrics GLOBAL = new ServerMetrics();
+
+    // 客户端可以发送任意操作名，未注册的操作合并记录，避免指标数量无限增长
+    public static final String UNKNOWN_ACTION = "unknown";
+
+    private final long startedAt = System.currentTimeMillis();
+    private final Map<String, ActionStats> actions = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> timings = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService dumper;
+    private long lastDumpRequests;
+    private long lastDumpAt = System.nanoTime();
+
+    private ServerMetrics() {
+    }
+
+    /**
+     * @return 全局指标
+     */
+    public static ServerMetrics global() {
+        return GLOBAL;
+    }
+
+    /**
+     * 记录一次请求
+     * @param action 操作名
+     * @param startNanos 开始处理时的System.nanoTime()
+     * @param success 响应是否成功
+     */
+    public void recordAction(String action, long startNanos, boolean success) {
+        ActionStats stats = actions.computeIfAbsent(action, name -> new ActionStats());
+        stats.latency.recordSince(startNanos);
+        if (!success) {
+            stats.errors.increment();
+        }
+    }
+
+    /**
+     * 记录一次内部步骤的耗时，如数据库调用、等待连接、密码哈希
+     * @param step 步骤名称
+     * @param startNanos 开始时的System.nanoTime()
+     */
+    public void recordTiming(String step, long startNanos) {
+        timings.computeIfAbsent(step, name -> new LatencyHistogram()).recordSince(startNanos);
+    }
+
+    /**
+     * 取得计数器，同名计数器只创建一次，调用方可以保存返回值避免每次查表
+     * @param name 计数器名称
+     * @return 计数器
+     */
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * 注册即时值，读取指标时才调用，同名即时值会被替换
+     * @param name 名称
+     * @param supplier 读取当前值
+     */
+    public void registerGauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    /**
+     * @return 所有操作的请求总数
+     */
+    public long getTotalRequests() {
+        long total = 0;
+        for (ActionStats stats : actions.values()) {
+            total += stats.latency.getCount();
+        }
+        return total;
+    }
+
+    /**
+     * 按-Dmetrics.dumpIntervalSeconds启动定期输出，重复调用无效
+     */
+    public synchronized void startPeriodicDump() {
+        long interval = Long.getLong("metrics.dumpIntervalSeconds", 60);
+        if (interval <= 0 || dumper != null) {
+            return;
+        }
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> Log.info(dump()), interval, interval, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stopPeriodicDump() {
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dumper = null;
+        }
+    }
+
+    /**
+     * 生成文本报告，吞吐量按距上次报告的间隔计算
+     * @return 多行文本
+     */
+    public String dump() {
+        long now = System.nanoTime();
+        long total = getTotalRequests();
+        long throughput;
+        synchronized (this) {
+            long elapsed = Math.max(1, now - lastDumpAt);
+            throughput = (total - lastDumpRequests) * 1_000_000_000L / elapsed;
+            lastDumpRequests = total;
+            lastDumpAt = now;
+        }
+
+        StringBuilder sb = new StringBuilder(1024);
+        sb.append("服务器指标: 运行 ").append((System.currentTimeMillis() - startedAt) / 1000).append(" 秒, 请求 ")
+                .append(total).append(" 个, 最近 ").append(throughput).append(" 个/秒");
+        sb.append("\n  操作                      次数     失败     平均(us)  p50(us)   p99(us)   p999(us)  最大(us)");
+        for (Map.Entry<String, ActionStats> entry : new TreeMap<>(actions).entrySet()) {
+            appendRow(sb, entry.getKey(), entry.getValue().latency.snapshot(), entry.getValue().errors.sum());
+        }
+        sb.append("\n  内部步骤");
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(timings).entrySet()) {
+            appendRow(sb, entry.getKey(), entry.getValue().snapshot(), -1);
+        }
+        sb.append("\n  计数:");
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+            sb.append(' ').append(entry.getKey()).append('=').append(entry.getValue().sum());
+        }
+        sb.append("\n  即时值:");
+        for (Map.Entry<String, LongSupplier> entry : new TreeMap<>(gauges).entrySet()) {
+            sb.append(' ').append(entry.getKey()).append('=').append(readGauge(entry.getValue()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 以JSON对象写出所有指标，延迟单位为微秒
+     * @param writer JSON写入器
+     */
+    public void writeJson(JsonWriter writer) {
+        writer.beginObject()
+                .name("uptimeMillis").value(System.currentTimeMillis() - startedAt)
+                .name("requests").value(getTotalRequests());
+
+        writer.name("actions").beginObject();
+        for (Map.Entry<String, ActionStats> entry : new TreeMap<>(actions).entrySet()) {
+            writer.name(entry.getKey());
+            writeHistogram(writer, entry.getValue().latency.snapshot(), entry.getValue().errors.sum());
+        }
+        writer.endObject();
+
+        writer.name("timings").beginObject();
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(timings).entrySet()) {
+            writer.name(entry.getKey());
+            writeHistogram(writer, entry.getValue().snapshot(), -1);
+        }
+        writer.endObject();
+
+        writer.name("counters").beginObject();
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+            writer.name(entry.getKey()).value(entry.getValue().sum());
+        }
+        writer.endObject();
+
+        writer.name("gauges").beginObject();
+        for (Map.Entry<String, LongSupplier> entry : new TreeMap<>(gauges).entrySet()) {
+            writer.name(entry.getKey()).value(readGauge(entry.getValue()));
+        }
+        writer.endObject();
+
+        writer.endObject();
+    }
+
+    private static void writeHistogram(JsonWriter writer, LatencyHistogram.Snapshot snapshot, long errors) {
+        writer.beginObject().name("count").value(snapshot.getCount());
+        if (errors >= 0) {
+            writer.name("errors").value(errors);
+        }
+        writer.name("meanMicros").value(snapshot.getMean() / 1000)
+                .name("p50Micros").value(snapshot.getValueAtQuantile(0.5) / 1000)
+                .name("p99Micros").value(snapshot.getValueAtQuantile(0.99) / 1000)
+                .name("p999Micros").value(snapshot.getValueAtQuantile(0.999) / 1000)
+                .name("maxMicros").value(snapshot.getMax() / 1000)
+                .endObject();
+    }
+
+    private static void appendRow(StringBuilder sb, String name, LatencyHistogram.Snapshot snapshot, long errors) {
+        sb.append(String.format("\n  %-24s %8d %8s %9d %9d %9d %9d %9d", name, snapshot.getCount(),
+                errors >= 0 ? String.valueOf(errors) : "-",
+                snapshot.getMean() / 1000,
+                snapshot.getValueAtQuantile(0.5) / 1000,
+                snapshot.getValueAtQuantile(0.99) / 1000,
+                snapshot.getValueAtQuantile(0.999) / 1000,
+                snapshot.getMax() / 1000));
+    }
+
+    // 即时值来自其他组件，读取失败不应影响整份报告
+    private static long readGauge(LongSupplier supplier) {
+        try {
+            return supplier.getAsLong();
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static final class ActionStats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+    }
+}
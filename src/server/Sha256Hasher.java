@@ -0,0 +1,148 @@
+package server;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * 加盐SHA-256计算
+ * 每个线程复用一个MessageDigest和一块编码缓冲区，盐值和密码直接按UTF-8写入缓冲区后更新摘要，
+ * 不拼接字符串；十六进制编码查表完成；所有线程共用一个SecureRandom生成盐值。
+ * 计算结果与原来的hex(sha256(UTF-8(salt + password)))完全一致，已存储的密码不受影响
+ */
+public final class Sha256Hasher {
+
+    public static final int DIGEST_LENGTH = 32;
+    private static final int SALT_LENGTH = 16;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // SecureRandom是线程安全的，创建时需要收集熵，不应每次注册都新建
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final ThreadLocal<State> STATES = ThreadLocal.withInitial(State::new);
+
+    private Sha256Hasher() {
+    }
+
+    /**
+     * 生成随机盐值
+     * @return Base64编码的16字节盐值
+     */
+    public static String newSalt() {
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        return Base64.getEncoder().encodeToString(salt);
+    }
+
+    /**
+     * @return 所有哈希实现共用的随机数生成器
+     */
+    public static SecureRandom random() {
+        return RANDOM;
+    }
+
+    /**
+     * 计算sha256(UTF-8(salt + password))
+     * @param salt 盐值
+     * @param password 原始密码
+     * @return 64位小写十六进制字符串
+     */
+    public static String hashHex(String salt, String password) {
+        State state = STATES.get();
+        digest(state, salt, password);
+        char[] hex = state.hex;
+        byte[] out = state.out;
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            hex[i * 2] = HEX[(out[i] >> 4) & 0x0F];
+            hex[i * 2 + 1] = HEX[out[i] & 0x0F];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * 校验密码，直接比较摘要字节和存储的十六进制串，不生成中间字符串，比较时间与不匹配的位置无关
+     * @param salt 盐值
+     * @param password 输入的密码
+     * @param expectedHex 存储的十六进制哈希值
+     * @return 是否匹配
+     */
+    public static boolean matchesHex(String salt, String password, String expectedHex) {
+        if (expectedHex.length() != DIGEST_LENGTH * 2) {
+            return false;
+        }
+        State state = STATES.get();
+        digest(state, salt, password);
+        byte[] out = state.out;
+        int diff = 0;
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            diff |= HEX[(out[i] >> 4) & 0x0F] ^ expectedHex.charAt(i * 2);
+            diff |= HEX[out[i] & 0x0F] ^ expectedHex.charAt(i * 2 + 1);
+        }
+        return diff == 0;
+    }
+
+    private static void digest(State state, String salt, String password) {
+        MessageDigest digest = state.digest;
+        digest.reset();
+        update(state, salt);
+        update(state, password);
+        try {
+            digest.digest(state.out, 0, DIGEST_LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalStateException("SHA-256摘要失败", e);
+        }
+    }
+
+    /**
+     * 把字符串按UTF-8编码到线程缓冲区并更新摘要，缓冲区写满时分段更新
+     */
+    private static void update(State state, String value) {
+        byte[] buf = state.buf;
+        int pos = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            if (pos > buf.length - 4) {
+                state.digest.update(buf, 0, pos);
+                pos = 0;
+            }
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buf[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // 与String.getBytes(UTF_8)一致，不成对的代理项编码为'?'
+                buf[pos++] = '?';
+            } else {
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        state.digest.update(buf, 0, pos);
+    }
+
+    private static final class State {
+        private final MessageDigest digest;
+        private final byte[] buf = new byte[256];
+        private final byte[] out = new byte[DIGEST_LENGTH];
+        private final char[] hex = new char[DIGEST_LENGTH * 2];
+
+        State() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("JVM不支持SHA-256", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package server;
+
+/**
+ * 加盐SHA-256
+ * 存储格式为"$sha256$盐值$十六进制哈希"，同时能校验旧版的"盐值:十六进制哈希"。
+ * 计算很快，只适合兼容旧数据或对登录延迟要求极高的场合
+ */
+public class Sha256PasswordHasher implements PasswordHasher {
+
+    public static final String ID = "sha256";
+    private static final String PREFIX = "$" + ID + "$";
+
+    @Override
+    public String id() {
+        return ID;
+    }
+
+    @Override
+    public String hash(String password) {
+        String salt = Sha256Hasher.newSalt();
+        return PREFIX + salt + "$" + Sha256Hasher.hashHex(salt, password);
+    }
+
+    @Override
+    public boolean verify(String password, String encoded) {
+        String salt;
+        String hex;
+        if (encoded.startsWith(PREFIX)) {
+            int separator = encoded.indexOf('$', PREFIX.length());
+            if (separator < 0) {
+                return false;
+            }
+            salt = encoded.substring(PREFIX.length(), separator);
+            hex = encoded.substring(separator + 1);
+        } else {
+            int separator = encoded.indexOf(':');
+            if (separator < 0) {
+                return false;
+            }
+            salt = encoded.substring(0, separator);
+            hex = encoded.substring(separator + 1);
+        }
+        return Sha256Hasher.matchesHex(salt, password, hex);
+    }
+
+    /**
+     * 旧版无前缀格式总是需要重新哈希
+     */
+    @Override
+    public boolean needsRehash(String encoded) {
+        return !encoded.startsWith(PREFIX);
+    }
+
+    /**
+     * @param encoded 存储的密码
+     * @return 是否为旧版"盐值:哈希值"格式
+     */
+    static boolean isLegacyFormat(String encoded) {
+        return !encoded.startsWith("$") && encoded.indexOf(':') > 0;
+    }
+}
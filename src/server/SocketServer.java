@@ -1,10 +1,18 @@
 package server;
 
+import protocol.BinaryProtocol;
+import protocol.BinaryWriter;
+
 import java.io.*;
 import java.net.*;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Socket服务器类
@@ -14,54 +22,176 @@ public class SocketServer {
 
     private static final int PORT = 8888;
     private static final int Max_CLIENTS = 10;
+    private static final int DEFAULT_MAX_CONNECTIONS = 10000;
+
+    // 每个连接上同时执行的带ID请求数上限，超过后该连接的请求改为就地执行
+    static final int MAX_IN_FLIGHT = Integer.getInteger("server.maxInFlight", 64);
+
+    /**
+     * 服务器运行模式
+     * BLOCKING: 每个连接占用线程池中的一个线程
+     * NIO: 单个Selector线程管理所有连接，请求交给工作线程池处理
+     * VIRTUAL: 每个连接运行在一个虚拟线程上，用连接数上限代替线程数上限
+     */
+    public enum ServerMode {
+        BLOCKING, NIO, VIRTUAL
+    }
 
+    private final ServerMode mode;
     private ServerSocket serverSocket;
+    private NioServer nioServer;
     private DatabaseManager dbManager;
+    private RequestProcessor processor;
     private ExecutorService threadPool;
+    private ExecutorService requestPool;
+    private Semaphore connectionPermits;
     private boolean isRunning = false;
+    private final ServerMetrics metrics = ServerMetrics.global();
 
 
     /**
      * 构造函数，初始化服务器
      */
     public SocketServer() {
+        this(ServerMode.BLOCKING);
+    }
+
+    /**
+     * 构造函数，按指定模式初始化服务器
+     * @param mode 运行模式
+     */
+    public SocketServer(ServerMode mode) {
+        this.mode = mode;
         dbManager = new DatabaseManager();
-        threadPool = Executors.newFixedThreadPool(Max_CLIENTS);
+        processor = new RequestProcessor(dbManager);
     }
 
     /**
      * 启动服务器
      */
     public void start() {
+        metrics.startPeriodicDump();
+        if (mode == ServerMode.NIO) {
+            startNio();
+        } else {
+            startBlocking();
+        }
+    }
+
+    /**
+     * 以阻塞模式启动服务器，BLOCKING和VIRTUAL模式共用同一个ClientHandler，
+     * 区别只在于执行ClientHandler的线程池
+     */
+    private void startBlocking() {
+        if (mode == ServerMode.VIRTUAL) {
+            threadPool = newVirtualThreadExecutor();
+            requestPool = threadPool;
+            connectionPermits = new Semaphore(Integer.getInteger("server.maxConnections", DEFAULT_MAX_CONNECTIONS));
+        } else {
+            threadPool = Executors.newFixedThreadPool(Max_CLIENTS);
+            // 连接线程被读取阻塞，带ID的请求交给单独的线程池执行
+            requestPool = Executors.newFixedThreadPool(Integer.getInteger("server.workerThreads",
+                    Runtime.getRuntime().availableProcessors() * 2));
+            ExecutorService pool = requestPool;
+            metrics.registerGauge("server.requestQueue", () -> ((ThreadPoolExecutor) pool).getQueue().size());
+        }
+        if (connectionPermits != null) {
+            Semaphore permits = connectionPermits;
+            metrics.registerGauge("connections.waitingForPermit", permits::getQueueLength);
+        }
+        metrics.registerGauge("connections.open",
+                () -> metrics.counter("connections.accepted").sum() - metrics.counter("connections.closed").sum());
         try {
             serverSocket = new ServerSocket(PORT);
             isRunning = true;
 
-            System.out.println("==================================");
-            System.out.println("服务器启动成功！");
-            System.out.println("监听端口: " + PORT);
-            System.out.println("等待客户端连接...");
-            System.out.println("==================================");
+            printStartupBanner();
 
             //监听客户端连接
             while (isRunning) {
                 try {
+                    // 连接数达到上限时暂停accept，新连接留在系统backlog中等待
+                    if (connectionPermits != null) {
+                        connectionPermits.acquire();
+                    }
                     Socket clientSocket = serverSocket.accept();
-                    System.out.println("新客户端连接: " + clientSocket.getInetAddress().getHostAddress());
+                    Log.debug("新客户端连接: " + clientSocket.getInetAddress().getHostAddress());
 
                     // 创建一个线程来处理客户端请求
-                    threadPool.submit(new ClientHandler(clientSocket, dbManager));
+                    try {
+                        threadPool.submit(new ClientHandler(clientSocket, processor, connectionPermits, requestPool));
+                    } catch (RejectedExecutionException e) {
+                        // 线程池已关闭，ClientHandler不会运行，由这里关闭连接并归还许可
+                        try {
+                            clientSocket.close();
+                        } catch (IOException closeError) {
+                            Log.warn("关闭客户端连接失败: " + closeError.getMessage());
+                        }
+                        if (connectionPermits != null) {
+                            connectionPermits.release();
+                        }
+                        if (isRunning) {
+                            Log.warn("无法处理客户端连接: " + e.getMessage());
+                        }
+                    }
                 } catch (IOException e) {
+                    if (connectionPermits != null) {
+                        connectionPermits.release();
+                    }
                     if (isRunning) {
-                        System.err.println("接受客户端连接失败: " + e.getMessage());
+                        Log.warn("接受客户端连接失败: " + e.getMessage());
                     }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
                 }
             }
         } catch (IOException e) {
-            System.err.println("服务器启动失败: " + e.getMessage());
+            Log.error("服务器启动失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 创建每个任务一个虚拟线程的执行器
+     * 通过反射调用以便在Java 21以下的JDK上也能编译运行，不支持虚拟线程时退化为按需创建平台线程
+     * @return 执行器
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            Log.warn("当前JDK不支持虚拟线程，改用平台线程: " + System.getProperty("java.version"));
+            return Executors.newCachedThreadPool();
         }
     }
 
+    /**
+     * 以NIO模式启动服务器
+     */
+    private void startNio() {
+        int workerThreads = Integer.getInteger("server.workerThreads",
+                Runtime.getRuntime().availableProcessors() * 2);
+        nioServer = new NioServer(PORT, processor, workerThreads);
+        isRunning = true;
+        printStartupBanner();
+        try {
+            nioServer.start();
+        } catch (IOException e) {
+            if (isRunning) {
+                Log.error("服务器启动失败: " + e.getMessage());
+            }
+        }
+    }
+
+    private void printStartupBanner() {
+        Log.info("==================================");
+        Log.info("服务器启动成功！");
+        Log.info("监听端口: " + PORT);
+        Log.info("运行模式: " + mode);
+        Log.info("等待客户端连接...");
+        Log.info("==================================");
+    }
+
     /**
      * 停止服务器
      */
@@ -71,23 +201,95 @@ public class SocketServer {
            if(serverSocket != null && !serverSocket.isClosed()) {
                serverSocket.close();
            }
-           threadPool.shutdown();
+           if (threadPool != null) {
+               threadPool.shutdown();
+           }
+           if (requestPool != null) {
+               requestPool.shutdown();
+           }
+           if (nioServer != null) {
+               nioServer.stop();
+           }
            dbManager.closeConnection();
-           System.out.println("服务器已停止");
+           metrics.stopPeriodicDump();
+           Log.info(metrics.dump());
+           Log.info("服务器已停止");
         } catch (IOException e) {
-            System.err.println("停止服务器失败: " + e.getMessage());
+            Log.error("停止服务器失败: " + e.getMessage());
+        } finally {
+            Log.flush();
+        }
+    }
+
+    /**
+     * 既能按行读取文本请求、又能继续按字节读取二进制帧的缓冲输入流
+     */
+    static final class LineInputStream extends BufferedInputStream {
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        LineInputStream(InputStream in) {
+            super(in);
+        }
+
+        /**
+         * 读取一行UTF-8文本，去掉行尾的\n和\r\n
+         * @return 行内容，流已结束且没有剩余数据时返回null
+         */
+        synchronized String readLine() throws IOException {
+            line.reset();
+            while (true) {
+                if (pos >= count) {
+                    // read()会填充缓冲区，之后在缓冲区中直接查找换行符
+                    int b = read();
+                    if (b < 0) {
+                        return line.size() > 0 ? line.toString(StandardCharsets.UTF_8) : null;
+                    }
+                    if (b == '\n') {
+                        return toLine(line.toByteArray(), line.size());
+                    }
+                    line.write(b);
+                    continue;
+                }
+                for (int i = pos; i < count; i++) {
+                    if (buf[i] == '\n') {
+                        line.write(buf, pos, i - pos);
+                        pos = i + 1;
+                        return toLine(line.toByteArray(), line.size());
+                    }
+                }
+                line.write(buf, pos, count - pos);
+                pos = count;
+            }
+        }
+
+        private static String toLine(byte[] bytes, int length) {
+            if (length > 0 && bytes[length - 1] == '\r') {
+                length--;
+            }
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
         }
     }
 
     /**
      * 客户端处理器内部类
-     * 处理单个客户端的请求
+     * 处理单个客户端的请求，不带ID的请求在连接线程中按顺序执行，
+     * 带ID的请求交给请求线程池并发执行，完成后立即写回响应
      */
     public static class ClientHandler implements Runnable {
         private Socket clientSocket;
-        private DatabaseManager dbManager;
-        private BufferedReader reader;
+        private RequestProcessor processor;
+        private Semaphore connectionPermits;
+        private ExecutorService requestPool;
+        private final LongAdder acceptedConnections = ServerMetrics.global().counter("connections.accepted");
+        private final LongAdder closedConnections = ServerMetrics.global().counter("connections.closed");
+        private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        // 升级前按行读取、升级后按帧读取都经过同一个缓冲流，切换协议时不会丢失已预读的字节
+        private LineInputStream in;
         private PrintWriter writer;
+        private OutputStream frameOut;
+        // 多个请求线程并发写回响应时保证每个响应完整写出；阻塞的socket写入期间不用synchronized，
+        // 虚拟线程模式下等待和写入都不会占住载体线程
+        private final ReentrantLock writeLock = new ReentrantLock();
 
         /**
          * 构造函数
@@ -95,314 +297,172 @@ public class SocketServer {
          * @param dbManager 数据库管理器
          */
         public ClientHandler(Socket clientSocket, DatabaseManager dbManager) {
+            this(clientSocket, new RequestProcessor(dbManager), null);
+        }
+
+        /**
+         * 构造函数
+         * @param clientSocket 客户端Socket
+         * @param processor 所有连接共享的请求处理器
+         * @param connectionPermits 连接数许可，连接关闭时归还，可为null
+         */
+        public ClientHandler(Socket clientSocket, RequestProcessor processor, Semaphore connectionPermits) {
+            this(clientSocket, processor, connectionPermits, null);
+        }
+
+        /**
+         * 构造函数
+         * @param clientSocket 客户端Socket
+         * @param processor 所有连接共享的请求处理器
+         * @param connectionPermits 连接数许可，连接关闭时归还，可为null
+         * @param requestPool 执行带ID请求的线程池，为null时所有请求都按顺序执行
+         */
+        public ClientHandler(Socket clientSocket, RequestProcessor processor, Semaphore connectionPermits,
+                             ExecutorService requestPool) {
             this.clientSocket = clientSocket;
-            this.dbManager = dbManager;
+            this.processor = processor;
+            this.connectionPermits = connectionPermits;
+            this.requestPool = requestPool;
         }
 
         @Override
         public void run() {
+            acceptedConnections.increment();
             try {
-                reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
+                in = new LineInputStream(clientSocket.getInputStream());
                 writer = new PrintWriter(clientSocket.getOutputStream(), true);
 
                 String ClientAddress = clientSocket.getInetAddress().getHostAddress();
-                System.out.println("开始处理客户端请求: " + ClientAddress);
+                Log.debug("开始处理客户端请求: " + ClientAddress);
 
                 // 处理客户端请求
                 String request;
-                while ((request = reader.readLine()) != null) {
-                    System.out.println("收到请求: " + request);
-                    String response = processRequest(request);
-                    writer.println(response);
-                    System.out.println("发送响应: " + response);
+                while ((request = in.readLine()) != null) {
+                    if (Log.sampleRequest()) {
+                        Log.debug("收到请求: " + Log.payload(request));
+                    }
+                    Request parsed;
+                    try {
+                        parsed = Request.parse(request);
+                    } catch (IllegalArgumentException e) {
+                        sendJson(Response.malformedRequest());
+                        continue;
+                    }
+
+                    if (submitConcurrently(parsed, false)) {
+                        continue;
+                    }
+                    Response response = processor.execute(parsed);
+                    sendJson(response);
+
+                    if (response.getKind() == Response.Kind.UPGRADE) {
+                        // 紧跟在升级请求之后发送的帧可能已经读入缓冲区，继续从同一个流中读取
+                        processFrames();
+                        break;
+                    }
                 }
             } catch (IOException e) {
-                System.err.println("无法创建输入流");
+                Log.error("无法创建输入流");
             } finally {
                 closeConnection();
-            }
-        }
-
-
-        /**
-         * 处理客户端请求
-         * @param request 请求字符串（JSON格式）
-         * @return 响应字符串（JSON格式）
-         */
-        private String processRequest(String request) {
-            try {
-                // 简单的JSON解析（实际项目中应使用JSON库）
-                if (request.contains("\"action\":\"register\"")) {
-                    return handleRegister(request);
-                } else if (request.contains("\"action\":\"login\"")) {
-                    return handleLogin(request);
-                } else if (request.contains("\"action\":\"getUserList\"")) {
-                    return handleGetUserList();
-                } else if (request.contains("\"action\":\"deleteUser\"")) {
-                    return handleDeleteUser(request);
-                } else if (request.contains("\"action\":\"getUserByUsername\"")) {
-                    return handleGetUserByUsername(request);
-                } else if (request.contains("\"action\":\"updateUser\"")) {
-                    return handleUpdateUser(request);
-                } else {
-                    return createErrorResponse("未知的操作类型");
+                closedConnections.increment();
+                if (connectionPermits != null) {
+                    connectionPermits.release();
                 }
-            } catch (Exception e) {
-                System.err.println("处理请求时发生错误：" + e.getMessage());
-                return createErrorResponse("服务器内部错误");
             }
         }
 
         /**
-         * 处理用户注册请求
-         * @param request 注册请求
-         * @return 注册响应
+         * 协议升级后按二进制帧处理请求，直到连接关闭
          */
-        private String handleRegister(String request) {
-            try {
-                // 简单解析JSON（实际项目中应使用JSON库）
-                String username = extractValue(request, "username");
-                String password = extractValue(request, "password");
-                String email = extractValue(request, "email");
-
-                if (username == null || password == null) {
-                    return createErrorResponse("用户名和密码不能为空");
-                }
+        private void processFrames() throws IOException {
+            // 等待升级前提交的并发请求写完JSON响应，之后只写二进制帧
+            inFlight.acquireUninterruptibly(MAX_IN_FLIGHT);
+            inFlight.release(MAX_IN_FLIGHT);
 
-                User user = new User(username, password, email);
-                boolean success = dbManager.registerUser(user);
+            frameOut = new BufferedOutputStream(clientSocket.getOutputStream());
 
-                if (success) {
-                    return createSuccessResponse("注册成功");
-                } else {
-                    return createErrorResponse("注册失败，用户名可能已存在");
-                }
-            } catch (Exception e) {
-                return createErrorResponse("注册请求格式错误");
-            }
-        }
-
-        /**
-         * 处理用户登录请求
-         * @param request 登录请求
-         * @return 登录响应
-         */
-        private String handleLogin(String request) {
-            try {
-                String username = extractValue(request, "username");
-                String password = extractValue(request, "password");
-
-                if (username == null || password == null) {
-                    return createErrorResponse("用户名和密码不能为空");
+            byte[] frame;
+            while ((frame = BinaryProtocol.readFrame(in)) != null) {
+                Log.debug("收到二进制请求: " + frame.length + " 字节");
+                Request parsed;
+                try {
+                    parsed = Request.parseBinary(frame);
+                } catch (IllegalArgumentException e) {
+                    sendFrame(Response.malformedRequest());
+                    continue;
                 }
-
-                User user = dbManager.loginUser(username, password);
-                if (user != null) {
-                    return createLoginSuccessResponse(user);
-                } else {
-                    return createErrorResponse("登陆失败，用户名或密码错误");
+                if (!submitConcurrently(parsed, true)) {
+                    sendFrame(processor.execute(parsed));
                 }
-            } catch (Exception e) {
-                return createErrorResponse("登录请求格式错误");
             }
         }
 
         /**
-         * 处理获取用户列表请求
-         * @return 用户列表响应
+         * 带ID的请求提交给请求线程池执行
+         * @return 是否已提交；没有线程池、请求不带ID或并发数已满时返回false，由调用方就地执行
          */
-        private String handleGetUserList() {
-            try {
-                List<User> users = dbManager.getAllUsers();
-                return createUserListResponse(users);
-            } catch (Exception e) {
-                return createErrorResponse("获取用户列表请求格式错误");
+        private boolean submitConcurrently(Request request, boolean binary) {
+            if (requestPool == null || !processor.isConcurrent(request) || !inFlight.tryAcquire()) {
+                return false;
             }
-        }
-
-        /**
-         * 处理删除用户请求
-         * @param request 删除用户请求
-         * @return 删除响应
-         */
-        private String handleDeleteUser(String request) {
             try {
-                String username = extractValue(request, "username");
-                String userIdStr = extractValue(request, "userIdStr");
-                
-                boolean success = false;
-                if (username != null && !username.trim().isEmpty()) {
-                    // 根据用户名删除
-                    success = dbManager.deleteUserByUsername(username);
-                } else if (userIdStr != null && !userIdStr.trim().isEmpty()) {
-                    // 根据用户ID删除
+                requestPool.execute(() -> {
                     try {
-                        int userId = Integer.parseInt(userIdStr);
-                        success = dbManager.deleteUserById(userId);
-                    } catch (NumberFormatException e) {
-                        return createErrorResponse("用户ID格式错误");
+                        Response response = processor.execute(request);
+                        if (binary) {
+                            sendFrame(response);
+                        } else {
+                            sendJson(response);
+                        }
+                    } catch (IOException e) {
+                        Log.warn("发送响应失败: " + e.getMessage());
+                    } finally {
+                        inFlight.release();
                     }
-                } else {
-                    return createErrorResponse("请提供用户名或用户ID");
-                }
-
-                if ( success) {
-                    return createSuccessResponse("用户删除成功");
-                } else {
-                    return createErrorResponse("用户删除失败");
-                }
-            } catch (Exception e) {
-                return createErrorResponse("删除用户请求格式错误");
+                });
+                return true;
+            } catch (RejectedExecutionException e) {
+                inFlight.release();
+                return false;
             }
         }
 
-        /**
-         * 处理根据用户名获取用户请求
-         * @param request 获取用户请求
-         * @return 获取用户响应
-         */
-        private String handleGetUserByUsername(String request) {
-            try {
-                String username = extractValue(request, "username");
-
-                if (username == null || username.trim().isEmpty()) {
-                    return createErrorResponse("用户名不能为空");
-                }
-                User user = dbManager.findUserByUsername(username);
-
-                if (user != null) {
-                    return createUserResponse(user);
-                } else {
-                    return createErrorResponse("用户不存在");
-                }
-            } catch (Exception e) {
-                return createErrorResponse("获取用户请求格式错误");
+        private void sendJson(Response response) throws IOException {
+            if (response.isStream()) {
+                // 每块写出后才读取下一批行，客户端读得慢时由TCP窗口阻塞数据库读取
+                response.streamTo(this::sendJson);
+                return;
             }
-        }
-
-        /**
-         * 处理修改用户信息请求
-         * @param request 修改用户请求
-         * @return 修改用户响应
-         */
-        private String handleUpdateUser(String request) {
+            String json = response.toJson();
+            writeLock.lock();
             try {
-                String username = extractValue(request, "username");
-                String newPassword = extractValue(request, "password");
-                String newEmail = extractValue(request, "email");
-
-                // 检查用户是否存在
-                if(username == null || username.trim().isEmpty()){
-                    return createErrorResponse("用户不存在");
-                }
-
-                // 检查是否有要修改的内容
-                if((newPassword == null || newPassword.trim().isEmpty())&&
-                        (newEmail == null || newEmail.trim().isEmpty())) {
-                    return createErrorResponse("请提供要修改的信息（密码或邮箱）");
-                }
-
-                boolean updated = dbManager.updateUserInfo(username, newPassword, newEmail);
-                if (updated) {
-                    return createSuccessResponse("用户信息修改成功");
-                } else {
-                    return createErrorResponse("用户信息修改失败");
+                writer.println(json);
+                if (writer.checkError()) {
+                    throw new IOException("连接已断开");
                 }
-            } catch (Exception e) {
-                return createErrorResponse("修改用户请求格式错误");
+            } finally {
+                writeLock.unlock();
+            }
+            if (Log.sampleRequest()) {
+                Log.debug("发送响应: " + Log.payload(json));
             }
         }
 
-        /**
-         * 从JSON字符串中提取指定字段的值
-         * @param json JSON字符串
-         * @param key 字段名
-         * @return 字段值
-         */
-        private String extractValue(String json, String key) {
-            String pattern = "\"" + key + "\":\"";
-            int startIndex = json.indexOf(pattern);
-            if (startIndex == -1) return null;
-
-            startIndex += pattern.length();
-            int endIndex = json.indexOf("\"", startIndex);
-            if (endIndex == -1) return null;
-
-            return json.substring(startIndex, endIndex);
-        }
-
-        /**
-         * 创建成功响应
-         * @param message 成功消息
-         * @return JSON响应字符串
-         */
-        private String createSuccessResponse(String message) {
-            return "{\"status\":\"success\",\"message\":\"" + message + "\"}";
-        }
-
-        /**
-         * 创建错误响应
-         * @param message 错误消息
-         * @return JSON响应字符串
-         */
-        private String createErrorResponse(String message) {
-            return "{\"status\":\"error\",\"message\":\"" + message + "\"}";
-        }
-
-        /**
-         * 创建单个用户响应
-         * @param user 用户对象
-         * @return JSON响应字符串
-         */
-        private String createUserResponse(User user) {
-            return "{\"status\":\"success\",\"data\":{" +
-                    "\"id\":" + user.getId() + "," +
-                    "\"username\":\"" + user.getUsername() + "\"," +
-                    "\"email\":\"" + (user.getEmail() != null ? user.getEmail() : "") + "\"," +
-                    "\"password\":\"" + user.getPassword() + "\"," +
-                    "\"createdAt\":\"" + user.getCreatedAt() + "\"" +
-                    "}}";
-        }
-
-        /**
-         * 创建登录成功响应
-         * @param user 用户对象
-         * @return JSON响应字符串
-         */
-        private String createLoginSuccessResponse(User user) {
-            return "{\"status\":\"success\",\"message\":\"登录成功\",\"data\":{" +
-                    "\"id\":" + user.getId() + "," +
-                    "\"username\":\"" + user.getUsername() + "\"," +
-                    "\"email\":\"" + (user.getEmail() != null ? user.getEmail() : "") + "\"" +
-                    "}}";
-        }
-
-        /**
-         * 创建用户列表响应
-         * @param users 用户列表
-         * @return JSON响应字符串
-         */
-        private String createUserListResponse(List<User> users) {
-            StringBuilder sb = new StringBuilder();
-            sb.append("{\"status\":\"success\",\"data\":[");
-
-            for (int i = 0; i < users.size(); i++) {
-                User user = users.get(i);
-                sb.append("{")
-                        .append("\"id\":").append(user.getId()).append(",")
-                        .append("\"username\":\"").append(user.getUsername()).append("\",")
-                        .append("\"email\":\"").append(user.getEmail() != null ? user.getEmail() : "").append("\"")
-                        .append("\"password\":\"").append(user.getPassword()).append("\",")
-                        .append("\"createdAt\":\"").append(user.getCreatedAt()).append("\"")
-                        .append("}");
-
-                if (i < users.size() - 1) {
-                    sb.append(",");
-                }
+        private void sendFrame(Response response) throws IOException {
+            if (response.isStream()) {
+                response.streamTo(this::sendFrame);
+                return;
             }
-
-            sb.append("]}");
-            return sb.toString();
+            BinaryWriter frame = response.toBinary();
+            writeLock.lock();
+            try {
+                frameOut.write(frame.array(), frame.offset(), frame.length());
+                frameOut.flush();
+            } finally {
+                writeLock.unlock();
+            }
+            Log.debug("发送二进制响应: " + frame.length() + " 字节");
         }
 
         /**
@@ -410,28 +470,37 @@ public class SocketServer {
          */
         private void closeConnection() {
             try {
-                if (reader != null) reader.close();
+                if (in != null) in.close();
                 if (writer != null) writer.close();
                 if (clientSocket != null && !clientSocket.isClosed()) {
                     clientSocket.close();
                 }
-                System.out.println("客户端连接已关闭: " + clientSocket.getInetAddress().getHostAddress());
+                Log.debug("客户端连接已关闭: " + clientSocket.getInetAddress().getHostAddress());
             } catch (IOException e) {
-                System.err.println("关闭客户端连接失败: " + e.getMessage());
+                Log.warn("关闭客户端连接失败: " + e.getMessage());
             }
         }
     }
 
     /**
      * 主方法，启动服务器
-     * @param args 命令行参数
+     * @param args 命令行参数，第一个参数为运行模式（blocking/nio/virtual），也可以通过-Dserver.mode指定
      */
     public static void main(String[] args) {
-        SocketServer server = new SocketServer();
+        String modeName = args.length > 0 ? args[0] : System.getProperty("server.mode", "blocking");
+        ServerMode mode;
+        try {
+            mode = ServerMode.valueOf(modeName.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            Log.error("未知的运行模式: " + modeName + "，可选值: blocking, nio, virtual");
+            return;
+        }
+
+        SocketServer server = new SocketServer(mode);
 
         // 添加关闭钩子，确保服务器正常关闭
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            System.out.println("\n正在关闭服务器...");
+            Log.info("正在关闭服务器...");
             server.stop();
         }));
 
@@ -0,0 +1,358 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * SQLite用户存储
+ * 通过ConnectionPool访问数据库：查询使用只读连接，修改使用唯一的写连接；
+ * 启用组提交时单行修改交给GroupCommitWriter合并提交
+ */
+public class SqliteUserStore implements UserStore {
+
+    private static final String INSERT_SQL = "INSERT INTO users (username, password, email) VALUES (?, ?, ?)";
+    private static final String SELECT_BY_USERNAME_SQL = "SELECT * FROM users WHERE username = ?";
+    private static final String SELECT_ALL_SQL = "SELECT * FROM users ORDER BY created_at DESC, id DESC";
+    private static final String DELETE_BY_ID_SQL = "DELETE FROM users WHERE id = ?";
+    private static final String DELETE_BY_USERNAME_SQL = "DELETE FROM users WHERE username = ?";
+
+    private static final String UPDATE_PASSWORD_SQL = "UPDATE users SET password = ? WHERE username = ?";
+    private static final String UPDATE_EMAIL_SQL = "UPDATE users SET email = ? WHERE username = ?";
+    private static final String UPDATE_PASSWORD_AND_EMAIL_SQL =
+            "UPDATE users SET password = ?, email = ? WHERE username = ?";
+    // 只在密码仍是校验时的值时写回，避免覆盖期间修改过的新密码
+    private static final String REHASH_SQL = "UPDATE users SET password = ? WHERE username = ? AND password = ?";
+
+    // 批量注册中已存在的用户名被忽略，executeBatch中对应的更新数为0
+    private static final String BATCH_INSERT_SQL =
+            "INSERT OR IGNORE INTO users (username, password, email) VALUES (?, ?, ?)";
+    // 批量查找每次最多查询的用户名数，不足时用NULL补齐，只有一种形状的SQL，可以命中预编译语句缓存
+    private static final int BATCH_SELECT_SIZE = 100;
+    private static final String BATCH_SELECT_SQL = "SELECT * FROM users WHERE username IN ("
+            + String.join(", ", Collections.nCopies(BATCH_SELECT_SIZE, "?")) + ")";
+
+    // 键集分页：行值比较(created_at, id) < (?, ?)可以直接在idx_users_created_at_id上做范围扫描
+    private static final String FIRST_PAGE_SQL =
+            "SELECT * FROM users ORDER BY created_at DESC, id DESC LIMIT ?";
+    private static final String NEXT_PAGE_SQL =
+            "SELECT * FROM users WHERE (created_at, id) < (?, ?) ORDER BY created_at DESC, id DESC LIMIT ?";
+
+    // 连接池借出连接时在BlockingQueue上等待而不是在synchronized上阻塞，虚拟线程不会被固定(pin)
+    private final ConnectionPool pool;
+
+    // 启用组提交时单行修改由它合并提交，否则为null，各自借出写连接自动提交
+    private final GroupCommitWriter groupCommit;
+
+    /**
+     * 打开数据库并建立表结构，数据库目录不存在时自动创建
+     * @param dbPath 数据库文件路径
+     * @param profile 存储配置档
+     * @throws ClassNotFoundException SQLite JDBC驱动未找到
+     * @throws SQLException 数据库连接失败
+     */
+    public SqliteUserStore(String dbPath, StorageProfile profile) throws ClassNotFoundException, SQLException {
+        //确保数据库目录存在
+        File dbDir = new File(dbPath).getAbsoluteFile().getParentFile();
+        if (!dbDir.exists()) {
+            dbDir.mkdirs();
+        }
+
+        //加载SQLite驱动
+        Class.forName("org.sqlite.JDBC");
+        long borrowTimeoutMillis = Long.getLong("db.pool.borrowTimeoutMillis", 5000);
+        pool = new ConnectionPool("jdbc:sqlite:" + dbPath, profile,
+                Integer.getInteger("db.pool.readers", Runtime.getRuntime().availableProcessors()),
+                borrowTimeoutMillis,
+                Long.getLong("db.pool.leakThresholdMillis", 30000));
+        groupCommit = GroupCommitWriter.fromSystemProperties(pool, borrowTimeoutMillis);
+
+        //初始化数据库
+        initializeDatabase();
+    }
+
+    //初始化数据库表结构
+    private void initializeDatabase() {
+        try (ConnectionPool.PooledConnection writer = pool.borrowWrite();
+             Statement statement = writer.createStatement()) {
+            String sql = """
+                CREATE TABLE IF NOT EXISTS users (
+                    id INTEGER PRIMARY KEY AUTOINCREMENT,
+                    username TEXT UNIQUE NOT NULL,
+                    password TEXT NOT NULL,
+                    email TEXT,
+                    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+                )
+                """;
+            statement.executeUpdate(sql);
+            // 支持按(created_at, id)倒序分页和全表排序，SQLite可以反向扫描升序索引
+            statement.executeUpdate("CREATE INDEX IF NOT EXISTS idx_users_created_at_id ON users (created_at, id)");
+        } catch (SQLException e) {
+            Log.error("SQL初始化表错误: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean insert(String username, String passwordHash, String email) throws SQLException {
+        try {
+            return executeUpdate(INSERT_SQL, username, passwordHash, email) > 0;
+        } catch (SQLException e) {
+            if (e.getMessage() != null && e.getMessage().contains("UNIQUE constraint failed")) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public int[] insertAll(List<User> users) throws SQLException {
+        try (ConnectionPool.PooledConnection pooled = pool.borrowWrite()) {
+            PreparedStatement statement = pooled.prepareStatement(BATCH_INSERT_SQL);
+            for (User user : users) {
+                statement.setString(1, user.getUsername());
+                statement.setString(2, user.getPassword());
+                statement.setString(3, user.getEmail());
+                statement.addBatch();
+            }
+            return executeBatchInTransaction(pooled, statement);
+        }
+    }
+
+    @Override
+    public User findByUsername(String username) throws SQLException {
+        try (ConnectionPool.PooledConnection pooled = pool.borrowRead()) {
+            PreparedStatement statement = pooled.prepareStatement(SELECT_BY_USERNAME_SQL); // 预编译语句由连接缓存复用
+            statement.setString(1, username);
+
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? readUser(rs) : null;
+            }
+        }
+    }
+
+    @Override
+    public Map<String, User> findByUsernames(Collection<String> usernames) throws SQLException {
+        Map<String, User> found = new HashMap<>();
+        List<String> names = new ArrayList<>(usernames);
+        try (ConnectionPool.PooledConnection pooled = pool.borrowRead()) {
+            PreparedStatement statement = pooled.prepareStatement(BATCH_SELECT_SQL);
+            for (int from = 0; from < names.size(); from += BATCH_SELECT_SIZE) {
+                for (int j = 0; j < BATCH_SELECT_SIZE; j++) {
+                    int k = from + j;
+                    statement.setString(j + 1, k < names.size() ? names.get(k) : null);
+                }
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        User user = readUser(rs);
+                        found.put(user.getUsername(), user);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public boolean update(String username, String passwordHash, String email) throws SQLException {
+        // 只可能有三种形状的SQL，使用固定文本以便命中预编译语句缓存
+        if (passwordHash != null && email != null) {
+            return executeUpdate(UPDATE_PASSWORD_AND_EMAIL_SQL, passwordHash, email, username) > 0;
+        } else if (passwordHash != null) {
+            return executeUpdate(UPDATE_PASSWORD_SQL, passwordHash, username) > 0;
+        } else if (email != null) {
+            return executeUpdate(UPDATE_EMAIL_SQL, email, username) > 0;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean replacePassword(String username, String expectedHash, String newHash) throws SQLException {
+        return executeUpdate(REHASH_SQL, newHash, username, expectedHash) > 0;
+    }
+
+    @Override
+    public List<User> findAll() throws SQLException {
+        List<User> users = new ArrayList<>();
+        try (ConnectionPool.PooledConnection pooled = pool.borrowRead();
+             ResultSet rs = pooled.prepareStatement(SELECT_ALL_SQL).executeQuery()) {
+            while (rs.next()) {
+                users.add(readUser(rs));
+            }
+        }
+        return users;
+    }
+
+    @Override
+    public void forEach(UserSource.UserVisitor visitor) throws SQLException, IOException {
+        try (ConnectionPool.PooledConnection pooled = pool.borrowRead();
+             ResultSet rs = pooled.prepareStatement(SELECT_ALL_SQL).executeQuery()) {
+            while (rs.next()) {
+                visitor.visit(readUser(rs));
+            }
+        }
+    }
+
+    @Override
+    public UserPage findPage(UserPage.Cursor after, int pageSize) throws SQLException {
+        List<User> users = new ArrayList<>(pageSize);
+        Object lastCreatedAt = null;
+        boolean hasMore = false;
+
+        try (ConnectionPool.PooledConnection pooled = pool.borrowRead()) {
+            PreparedStatement statement;
+            if (after == null) {
+                statement = pooled.prepareStatement(FIRST_PAGE_SQL);
+                statement.setInt(1, pageSize + 1);
+            } else {
+                statement = pooled.prepareStatement(NEXT_PAGE_SQL);
+                statement.setObject(1, after.getCreatedAt());
+                statement.setInt(2, after.getId());
+                statement.setInt(3, pageSize + 1);
+            }
+
+            // 多取一行，用来判断是否还有下一页
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    if (users.size() == pageSize) {
+                        hasMore = true;
+                        break;
+                    }
+                    lastCreatedAt = rs.getObject("created_at");
+                    users.add(readUser(rs));
+                }
+            }
+        }
+
+        String nextCursor = null;
+        if (hasMore) {
+            User last = users.get(users.size() - 1);
+            nextCursor = new UserPage.Cursor(lastCreatedAt, last.getId()).encode();
+        }
+        return new UserPage(users, nextCursor);
+    }
+
+    @Override
+    public boolean deleteById(int id) throws SQLException {
+        return executeUpdate(DELETE_BY_ID_SQL, id) > 0;
+    }
+
+    @Override
+    public boolean deleteByUsername(String username) throws SQLException {
+        return executeUpdate(DELETE_BY_USERNAME_SQL, username) > 0;
+    }
+
+    @Override
+    public int[] deleteAll(List<String> usernames) throws SQLException {
+        try (ConnectionPool.PooledConnection pooled = pool.borrowWrite()) {
+            PreparedStatement statement = pooled.prepareStatement(DELETE_BY_USERNAME_SQL);
+            for (String username : usernames) {
+                statement.setString(1, username);
+                statement.addBatch();
+            }
+            return executeBatchInTransaction(pooled, statement);
+        }
+    }
+
+    @Override
+    public long count() throws SQLException {
+        try (ConnectionPool.PooledConnection pooled = pool.borrowRead();
+             ResultSet rs = pooled.prepareStatement("SELECT COUNT(*) FROM users").executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    @Override
+    public void forEachUsername(Consumer<String> consumer) throws SQLException {
+        try (ConnectionPool.PooledConnection pooled = pool.borrowRead();
+             ResultSet rs = pooled.prepareStatement("SELECT username FROM users").executeQuery()) {
+            while (rs.next()) {
+                consumer.accept(rs.getString(1));
+            }
+        }
+    }
+
+    @Override
+    public void registerGauges(ServerMetrics metrics) {
+        metrics.registerGauge("db.pool.borrowed", pool::getBorrowedCount);
+        metrics.registerGauge("db.pool.idleReaders", pool::getIdleReaderCount);
+    }
+
+    @Override
+    public boolean isValid() {
+        return pool.isValid();
+    }
+
+    @Override
+    public void close() {
+        // 先提交已排队的修改再关闭连接池
+        if (groupCommit != null) {
+            groupCommit.close();
+        }
+        pool.close();
+    }
+
+    /**
+     * 执行一条单行修改语句
+     * 启用组提交时交给GroupCommitWriter，与其他线程的修改合并在一个事务中提交后返回；
+     * 否则借出写连接自动提交
+     * @param sql SQL文本
+     * @param parameters 语句参数
+     * @return 影响的行数
+     * @throws SQLException 执行或提交失败
+     */
+    private int executeUpdate(String sql, Object... parameters) throws SQLException {
+        if (groupCommit != null) {
+            return groupCommit.execute(sql, parameters);
+        }
+        try (ConnectionPool.PooledConnection pooled = pool.borrowWrite()) {
+            PreparedStatement statement = pooled.prepareStatement(sql);
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+            return statement.executeUpdate();
+        }
+    }
+
+    /**
+     * 在一个事务中执行语句中积累的批处理，失败时回滚并清空批处理，结束后恢复自动提交
+     * @return 每条语句影响的行数
+     * @throws SQLException 执行或提交失败，事务已回滚
+     */
+    private static int[] executeBatchInTransaction(ConnectionPool.PooledConnection pooled,
+                                                   PreparedStatement statement) throws SQLException {
+        Connection connection = pooled.getConnection();
+        connection.setAutoCommit(false);
+        try {
+            int[] counts = statement.executeBatch();
+            connection.commit();
+            return counts;
+        } catch (SQLException e) {
+            connection.rollback();
+            statement.clearBatch();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private static User readUser(ResultSet rs) throws SQLException {
+        return new User(
+                rs.getInt("id"),
+                rs.getString("username"),
+                rs.getString("password"),
+                rs.getString("email"),
+                rs.getTimestamp("created_at")
+        );
+    }
+}
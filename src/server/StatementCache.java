@@ -0,0 +1,72 @@
+package server;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 预编译语句缓存
+ * 以SQL文本为键缓存PreparedStatement，避免SQLite对同一条SQL反复解析和生成执行计划。
+ * 每个连接持有一个缓存，而连接同一时间只会借给一个线程，所以不需要加锁。
+ * 容量有上限，超出时按LRU淘汰并关闭最久未使用的语句
+ */
+public class StatementCache {
+
+    private final Connection connection;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+
+    /**
+     * 构造函数
+     * @param connection 所属连接
+     * @param maxSize 最多缓存的语句数
+     */
+    public StatementCache(Connection connection, int maxSize) {
+        this.connection = connection;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > maxSize) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * 获取SQL对应的预编译语句，不存在时创建并缓存
+     * 返回的语句归缓存所有，调用方不能关闭它，只需关闭其ResultSet
+     * @param sql SQL文本
+     * @return 预编译语句
+     * @throws SQLException 预编译失败
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null || statement.isClosed()) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * 关闭并清空所有缓存的语句
+     */
+    public void clear() {
+        for (PreparedStatement statement : statements.values()) {
+            closeQuietly(statement);
+        }
+        statements.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            Log.warn("关闭预编译语句失败: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * SQLite存储配置档
+ * 在每个连接打开时执行对应的PRAGMA，三个档位在持久性和写入速度之间取舍：
+ * DURABLE: WAL + synchronous=FULL，每次提交都fsync，断电不丢已提交事务
+ * BALANCED: WAL + synchronous=NORMAL，只在检查点时fsync，断电可能丢失最近的提交但数据库不会损坏（默认）
+ * FAST: WAL + synchronous=OFF，完全交给操作系统刷盘，适合测试和可以重建的数据
+ *
+ * 单个PRAGMA可以通过-Ddb.pragma.名称=值 覆盖，例如 -Ddb.pragma.mmap_size=0
+ */
+public enum StorageProfile {
+
+    DURABLE("FULL", 0L, -8_000L, "DEFAULT"),
+    BALANCED("NORMAL", 256L * 1024 * 1024, -32_000L, "MEMORY"),
+    FAST("OFF", 1024L * 1024 * 1024, -64_000L, "MEMORY");
+
+    private static final long BUSY_TIMEOUT_MILLIS = 5000;
+
+    private final String synchronous;
+    private final long mmapSize;
+    private final long cacheSize;
+    private final String tempStore;
+
+    /**
+     * @param synchronous synchronous级别
+     * @param mmapSize 内存映射大小（字节）
+     * @param cacheSize 页缓存大小，负数表示KiB
+     * @param tempStore 临时表存储位置
+     */
+    StorageProfile(String synchronous, long mmapSize, long cacheSize, String tempStore) {
+        this.synchronous = synchronous;
+        this.mmapSize = mmapSize;
+        this.cacheSize = cacheSize;
+        this.tempStore = tempStore;
+    }
+
+    /**
+     * 返回需要在连接上执行的PRAGMA，按执行顺序排列
+     * @param writer 是否为写连接，journal_mode会写入数据库文件头，只能由写连接设置
+     * @return PRAGMA名称到值的映射
+     */
+    public Map<String, String> pragmas(boolean writer) {
+        Map<String, String> pragmas = new LinkedHashMap<>();
+        // busy_timeout放在最前面，后续PRAGMA遇到锁时也会等待
+        pragmas.put("busy_timeout", String.valueOf(BUSY_TIMEOUT_MILLIS));
+        if (writer) {
+            pragmas.put("journal_mode", "WAL");
+        }
+        pragmas.put("synchronous", synchronous);
+        pragmas.put("mmap_size", String.valueOf(mmapSize));
+        pragmas.put("cache_size", String.valueOf(cacheSize));
+        pragmas.put("temp_store", tempStore);
+
+        for (Map.Entry<String, String> entry : pragmas.entrySet()) {
+            String override = System.getProperty("db.pragma." + entry.getKey());
+            if (override != null) {
+                entry.setValue(override);
+            }
+        }
+        return pragmas;
+    }
+
+    /**
+     * 根据名称查找配置档，忽略大小写
+     * @param name 配置档名称（durable/balanced/fast）
+     * @return 配置档
+     */
+    public static StorageProfile fromName(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            Log.warn("未知的存储配置档: " + name + "，使用balanced");
+            return BALANCED;
+        }
+    }
+}
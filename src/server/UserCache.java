@@ -0,0 +1,261 @@
+package server;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 用户读缓存
+ * 以用户名为键按LRU缓存用户记录，另有用户ID到用户名的索引，按ID删除时也能失效。
+ * 条目超过存活时间后视为不存在，容量有上限，超出时淘汰最久未访问的条目。
+ *
+ * 从数据库读取前先取stamp()，读到后用put(user, stamp)写入；期间如果发生过任何失效，
+ * 写入会被放弃，避免并发修改之前读到的旧记录在修改之后被放回缓存。
+ * 临界区内只有内存操作，使用ReentrantLock而不是synchronized，虚拟线程不会被固定
+ */
+public class UserCache {
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Entry> byUsername;
+    private final Map<Integer, String> usernameById = new HashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * 构造函数
+     * @param maxSize 最多缓存的用户数，0表示禁用缓存
+     * @param ttlMillis 条目存活时间（毫秒）
+     */
+    public UserCache(int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.byUsername = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > UserCache.this.maxSize) {
+                    usernameById.remove(eldest.getValue().user.getId());
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * 按系统属性创建缓存：-Dcache.users.maxSize（默认10000）和-Dcache.users.ttlMillis（默认60000）
+     * @return 用户缓存
+     */
+    public static UserCache fromSystemProperties() {
+        return new UserCache(Integer.getInteger("cache.users.maxSize", 10000),
+                Long.getLong("cache.users.ttlMillis", 60000));
+    }
+
+    /**
+     * @return 缓存是否启用
+     */
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * 按用户名查找
+     * @param username 用户名
+     * @return 用户副本，未缓存或已过期时返回null
+     */
+    public User getByUsername(String username) {
+        if (!isEnabled() || username == null) {
+            return null;
+        }
+        lock.lock();
+        try {
+            return read(username);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按用户ID查找
+     * @param userId 用户ID
+     * @return 用户副本，未缓存或已过期时返回null
+     */
+    public User getById(int userId) {
+        if (!isEnabled()) {
+            return null;
+        }
+        lock.lock();
+        try {
+            String username = usernameById.get(userId);
+            if (username == null) {
+                misses.increment();
+                return null;
+            }
+            return read(username);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 当前的失效版本，在从数据库读取之前获取
+     */
+    public long stamp() {
+        return generation.get();
+    }
+
+    /**
+     * 缓存从数据库读到的用户
+     * @param user 用户记录
+     * @param stamp 读取之前通过stamp()获得的版本，之后发生过失效时不写入
+     */
+    public void put(User user, long stamp) {
+        if (!isEnabled() || user == null) {
+            return;
+        }
+        Entry entry = new Entry(copy(user), System.nanoTime() + ttlNanos);
+        lock.lock();
+        try {
+            if (generation.get() != stamp) {
+                return;
+            }
+            Entry previous = byUsername.put(user.getUsername(), entry);
+            if (previous != null && previous.user.getId() != user.getId()) {
+                usernameById.remove(previous.user.getId());
+            }
+            usernameById.put(user.getId(), user.getUsername());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 使用户名对应的条目失效
+     * @param username 用户名
+     */
+    public void invalidate(String username) {
+        if (!isEnabled()) {
+            return;
+        }
+        lock.lock();
+        try {
+            generation.incrementAndGet();
+            remove(username);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 使用户ID对应的条目失效
+     * @param userId 用户ID
+     */
+    public void invalidateById(int userId) {
+        if (!isEnabled()) {
+            return;
+        }
+        lock.lock();
+        try {
+            generation.incrementAndGet();
+            String username = usernameById.get(userId);
+            if (username != null) {
+                remove(username);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 清空缓存，计数器保留
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            generation.incrementAndGet();
+            byUsername.clear();
+            usernameById.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return 因容量或过期被移除的条目数，不含主动失效
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return byUsername.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        long hitCount = getHits();
+        long total = hitCount + getMisses();
+        return String.format("用户缓存: %d 条, 命中 %d, 未命中 %d, 淘汰 %d, 命中率 %.1f%%",
+                size(), hitCount, getMisses(), getEvictions(), total == 0 ? 0.0 : hitCount * 100.0 / total);
+    }
+
+    private User read(String username) {
+        Entry entry = byUsername.get(username);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresAt > 0) {
+            remove(username);
+            evictions.increment();
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return copy(entry.user);
+    }
+
+    private void remove(String username) {
+        Entry entry = byUsername.remove(username);
+        if (entry != null) {
+            usernameById.remove(entry.user.getId());
+        }
+    }
+
+    // User是可变对象，缓存内外各持有一份，调用方修改返回值不会影响缓存
+    private static User copy(User user) {
+        return new User(user.getId(), user.getUsername(), user.getPassword(), user.getEmail(), user.getCreatedAt());
+    }
+
+    private static final class Entry {
+        private final User user;
+        private final long expiresAt;
+
+        Entry(User user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * 用户列表的一页
+ * 按(created_at, id)倒序做键集分页，游标记录本页最后一行的created_at和id，
+ * 下一页从该位置之后继续读取，不受前面页中插入或删除的行影响，也不需要OFFSET扫描
+ */
+public class UserPage {
+
+    private final List<User> users;
+    private final String nextCursor;
+
+    /**
+     * 构造函数
+     * @param users 本页用户
+     * @param nextCursor 下一页的游标，已是最后一页时为null
+     */
+    public UserPage(List<User> users, String nextCursor) {
+        this.users = users;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<User> getUsers() {
+        return users;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * 分页位置，对客户端不透明，编码为URL安全的Base64
+     * created_at按数据库中的原始类型保存：默认值CURRENT_TIMESTAMP是文本，
+     * 以毫秒数写入的行是整数，两者在SQLite中的排序规则不同，不能混用
+     */
+    public static class Cursor {
+        private final Object createdAt;
+        private final int id;
+
+        /**
+         * 构造函数
+         * @param createdAt created_at列的原始值（String或Long）
+         * @param id 用户ID
+         */
+        public Cursor(Object createdAt, int id) {
+            this.createdAt = createdAt instanceof Number ? (Object) ((Number) createdAt).longValue() : createdAt;
+            this.id = id;
+        }
+
+        public Object getCreatedAt() {
+            return createdAt;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * @return 游标字符串
+         */
+        public String encode() {
+            String type = createdAt instanceof Long ? "i" : "s";
+            String raw = type + "|" + id + "|" + (createdAt != null ? createdAt : "");
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * 解析游标字符串
+         * @param cursor 游标字符串
+         * @return 分页位置
+         * @throws IllegalArgumentException 游标格式错误
+         */
+        public static Cursor decode(String cursor) {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int first = raw.indexOf('|');
+            int second = raw.indexOf('|', first + 1);
+            if (first != 1 || second < 0) {
+                throw new IllegalArgumentException("游标格式错误");
+            }
+            int id = Integer.parseInt(raw.substring(first + 1, second));
+            String value = raw.substring(second + 1);
+            switch (raw.charAt(0)) {
+                case 'i':
+                    return new Cursor(Long.parseLong(value), id);
+                case 's':
+                    return new Cursor(value, id);
+                default:
+                    throw new IllegalArgumentException("游标格式错误");
+            }
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * 内存用户存储的快照文件
+ * 文件名为snapshot-覆盖到的日志序号.snap，格式：
+ * int 魔数 | int 版本 | long 日志序号 | int 最大用户ID | int 用户数 | (int 长度 | 用户记录)... | int 前面所有字节的CRC32，
+ * 用户记录的编码与日志相同。
+ *
+ * 写入时先算出文件大小，按块映射到内存中顺序写出，force之后原子重命名，写到一半崩溃不会留下不完整的快照；
+ * 读取时同样按块映射顺序读取，整个文件不需要放进堆内存
+ */
+public class UserSnapshot {
+
+    private static final int MAGIC = 0x55534E50; // "USNP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+    // 每次映射的大小，文件可以超过单个MappedByteBuffer的2GB上限
+    private static final long CHUNK_SIZE = 64L * 1024 * 1024;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+
+    private final Path file;
+    private final long lsn;
+    private final int lastId;
+    private final int count;
+
+    private UserSnapshot(Path file, long lsn, int lastId, int count) {
+        this.file = file;
+        this.lsn = lsn;
+        this.lastId = lastId;
+        this.count = count;
+    }
+
+    /**
+     * 写出快照
+     * @param dir 目录
+     * @param lsn 快照覆盖到的日志序号
+     * @param lastId 分配过的最大用户ID，删除的ID不再复用
+     * @param users 所有用户，写出期间不能修改
+     * @return 写出的快照
+     * @throws IOException 写入失败，已有的快照不受影响
+     */
+    public static UserSnapshot write(Path dir, long lsn, int lastId, Collection<User> users) throws IOException {
+        long size = HEADER_SIZE + 4;
+        for (User user : users) {
+            size += 4 + WriteAheadLog.userSize(user);
+        }
+
+        Path temp = dir.resolve(PREFIX + "tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedOutput out = new MappedOutput(channel, size);
+            ByteBuffer scratch = ByteBuffer.allocate(4096);
+            scratch.putInt(MAGIC).putInt(VERSION).putLong(lsn).putInt(lastId).putInt(users.size());
+            out.write(scratch.flip());
+
+            for (User user : users) {
+                int recordSize = WriteAheadLog.userSize(user);
+                if (scratch.capacity() < 4 + recordSize) {
+                    scratch = ByteBuffer.allocate(4 + recordSize);
+                }
+                scratch.clear();
+                scratch.putInt(recordSize);
+                WriteAheadLog.putUser(scratch, user);
+                out.write(scratch.flip());
+            }
+
+            scratch.clear();
+            scratch.putInt((int) out.crc.getValue());
+            out.write(scratch.flip());
+            out.finish();
+        }
+
+        Path target = dir.resolve(String.format("%s%020d%s", PREFIX, lsn, SUFFIX));
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        WriteAheadLog.syncDirectory(dir);
+        return new UserSnapshot(target, lsn, lastId, users.size());
+    }
+
+    /**
+     * 读取目录中最新的快照
+     * @param dir 目录
+     * @param consumer 逐个接收快照中的用户
+     * @return 读取的快照，没有快照时返回null
+     * @throws IOException 读取失败或快照损坏
+     */
+    public static UserSnapshot load(Path dir, Consumer<User> consumer) throws IOException {
+        Path file = latest(dir);
+        if (file == null) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + 4) {
+                throw new IOException("快照文件不完整: " + file);
+            }
+            MappedInput in = new MappedInput(channel, size - 4);
+            byte[] record = new byte[4096];
+
+            ByteBuffer header = ByteBuffer.wrap(in.read(record, HEADER_SIZE), 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("不是用户快照文件或版本不支持: " + file);
+            }
+            long lsn = header.getLong();
+            int lastId = header.getInt();
+            int count = header.getInt();
+
+            for (int i = 0; i < count; i++) {
+                int length = ByteBuffer.wrap(in.read(record, 4), 0, 4).getInt();
+                if (length < 0 || length > MAX_RECORD_SIZE) {
+                    throw new IOException("快照记录长度错误: " + file);
+                }
+                if (record.length < length) {
+                    record = new byte[Math.max(length, record.length * 2)];
+                }
+                consumer.accept(WriteAheadLog.getUser(ByteBuffer.wrap(in.read(record, length), 0, length)));
+            }
+            if (in.position != size - 4) {
+                throw new IOException("快照记录数与文件大小不符: " + file);
+            }
+
+            ByteBuffer stored = ByteBuffer.allocate(4);
+            while (stored.hasRemaining()) {
+                if (channel.read(stored, size - 4 + stored.position()) < 0) {
+                    throw new IOException("快照文件不完整: " + file);
+                }
+            }
+            if (stored.flip().getInt() != (int) in.crc.getValue()) {
+                throw new IOException("快照校验失败: " + file);
+            }
+            return new UserSnapshot(file, lsn, lastId, count);
+        }
+    }
+
+    /**
+     * 删除比lsn旧的快照和没有写完的临时文件
+     * @param dir 目录
+     * @param lsn 最新快照的日志序号
+     */
+    public static void deleteBefore(Path dir, long lsn) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*")) {
+            for (Path file : files) {
+                long fileLsn = parseLsn(file);
+                if (fileLsn < lsn) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            Log.warn("删除旧快照失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return 目录中日志序号最大的快照，没有时返回null
+     */
+    private static Path latest(Path dir) throws IOException {
+        Path latest = null;
+        long latestLsn = -1;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                long lsn = parseLsn(file);
+                if (lsn > latestLsn) {
+                    latest = file;
+                    latestLsn = lsn;
+                }
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * @return 文件名中的日志序号，临时文件或无法识别的文件返回-1
+     */
+    private static long parseLsn(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public long getLsn() {
+        return lsn;
+    }
+
+    public int getLastId() {
+        return lastId;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * 按块映射文件并顺序写出，同时计算CRC32
+     */
+    private static final class MappedOutput {
+        private final FileChannel channel;
+        private final long size;
+        private final CRC32 crc = new CRC32();
+        private MappedByteBuffer region;
+        private long regionEnd;
+
+        private MappedOutput(FileChannel channel, long size) {
+            this.channel = channel;
+            this.size = size;
+        }
+
+        private void write(ByteBuffer source) throws IOException {
+            crc.update(source.duplicate());
+            while (source.hasRemaining()) {
+                if (region == null || !region.hasRemaining()) {
+                    nextRegion();
+                }
+                int n = Math.min(source.remaining(), region.remaining());
+                ByteBuffer part = source.duplicate();
+                part.limit(part.position() + n);
+                region.put(part);
+                source.position(source.position() + n);
+            }
+        }
+
+        private void nextRegion() throws IOException {
+            if (region != null) {
+                region.force();
+            }
+            long start = regionEnd;
+            if (start >= size) {
+                throw new IOException("快照内容超出计算的大小");
+            }
+            regionEnd = Math.min(size, start + CHUNK_SIZE);
+            region = channel.map(FileChannel.MapMode.READ_WRITE, start, regionEnd - start);
+        }
+
+        private void finish() throws IOException {
+            if (region != null) {
+                region.force();
+            }
+            if (regionEnd != size || (region != null && region.hasRemaining())) {
+                throw new IOException("快照内容与计算的大小不符");
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * 按块映射文件并顺序读取，同时计算CRC32
+     */
+    private static final class MappedInput {
+        private final FileChannel channel;
+        private final long size;
+        private final CRC32 crc = new CRC32();
+        private MappedByteBuffer region;
+        private long regionEnd;
+        private long position;
+
+        private MappedInput(FileChannel channel, long size) {
+            this.channel = channel;
+            this.size = size;
+        }
+
+        /**
+         * 读取length个字节到target开头
+         * @return target
+         */
+        private byte[] read(byte[] target, int length) throws IOException {
+            if (position + length > size) {
+                throw new IOException("快照文件不完整");
+            }
+            int offset = 0;
+            while (offset < length) {
+                if (region == null || !region.hasRemaining()) {
+                    long start = regionEnd;
+                    regionEnd = Math.min(size, start + CHUNK_SIZE);
+                    region = channel.map(FileChannel.MapMode.READ_ONLY, start, regionEnd - start);
+                }
+                int n = Math.min(length - offset, region.remaining());
+                region.get(target, offset, n);
+                offset += n;
+            }
+            crc.update(target, 0, length);
+            position += length;
+            return target;
+        }
+    }
+}
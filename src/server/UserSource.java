@@ -0,0 +1,27 @@
+package server;
+
+import java.io.IOException;
+
+/**
+ * 按顺序逐个产生用户的数据源
+ * 流式响应在发送时才读取数据源，读到的用户立即写给客户端，不在内存中保存完整列表
+ */
+@FunctionalInterface
+public interface UserSource {
+
+    /**
+     * 依次把每个用户交给访问器
+     * @param visitor 用户访问器
+     * @return 是否完整读取；数据库出错时返回false
+     * @throws IOException 访问器写出失败，读取随之中止
+     */
+    boolean forEach(UserVisitor visitor) throws IOException;
+
+    /**
+     * 用户访问器
+     */
+    @FunctionalInterface
+    interface UserVisitor {
+        void visit(User user) throws IOException;
+    }
+}
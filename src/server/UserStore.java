@@ -0,0 +1,147 @@
+package server;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * 用户存储引擎
+ * 只负责保存和读取用户记录，密码哈希、读缓存、用户名过滤器和指标都由DatabaseManager处理，
+ * 传入的密码已经是哈希后的存储格式。返回的User对象只能读取，不能修改。
+ * 列表、流式读取和分页都按(created_at, id)倒序排列。
+ *
+ * 有三种实现，由-Ddb.engine选择：sqlite（默认，SqliteUserStore）、memory（MemoryUserStore）
+ * 和offheap（OffHeapUserStore）。方法沿用JDBC的SQLException表示存储出错
+ */
+public interface UserStore {
+
+    /**
+     * 插入用户
+     * @param username 用户名
+     * @param passwordHash 哈希后的密码
+     * @param email 邮箱，可为null
+     * @return 是否插入；用户名已存在时返回false
+     * @throws SQLException 存储出错
+     */
+    boolean insert(String username, String passwordHash, String email) throws SQLException;
+
+    /**
+     * 在一个事务中插入一批用户，已存在的用户名跳过
+     * @param users 用户，密码为哈希后的值
+     * @return 与users顺序相同，插入的项为1，已存在的项为0
+     * @throws SQLException 存储出错，整批都没有插入
+     */
+    int[] insertAll(List<User> users) throws SQLException;
+
+    /**
+     * @param username 用户名
+     * @return 用户，不存在时返回null
+     * @throws SQLException 存储出错
+     */
+    User findByUsername(String username) throws SQLException;
+
+    /**
+     * @param usernames 用户名，不含重复
+     * @return 找到的用户，以用户名为键
+     * @throws SQLException 存储出错
+     */
+    Map<String, User> findByUsernames(Collection<String> usernames) throws SQLException;
+
+    /**
+     * 修改用户的密码和邮箱
+     * @param username 用户名
+     * @param passwordHash 新的哈希密码，null表示不修改
+     * @param email 新邮箱，null表示不修改
+     * @return 是否找到并修改了用户
+     * @throws SQLException 存储出错
+     */
+    boolean update(String username, String passwordHash, String email) throws SQLException;
+
+    /**
+     * 只在当前密码仍为expectedHash时替换，避免覆盖期间修改过的新密码
+     * @param username 用户名
+     * @param expectedHash 期望的当前哈希密码
+     * @param newHash 新的哈希密码
+     * @return 是否替换
+     * @throws SQLException 存储出错
+     */
+    boolean replacePassword(String username, String expectedHash, String newHash) throws SQLException;
+
+    /**
+     * @return 所有用户
+     * @throws SQLException 存储出错
+     */
+    List<User> findAll() throws SQLException;
+
+    /**
+     * 逐个读取所有用户，不保存已读过的用户
+     * @param visitor 用户访问器
+     * @throws SQLException 存储出错
+     * @throws IOException 访问器写出失败，读取随之中止
+     */
+    void forEach(UserSource.UserVisitor visitor) throws SQLException, IOException;
+
+    /**
+     * 读取一页用户
+     * @param after 上一页的结束位置，null表示第一页
+     * @param pageSize 每页用户数
+     * @return 一页用户和下一页的游标
+     * @throws SQLException 存储出错
+     * @throws IllegalArgumentException 游标不是本引擎产生的
+     */
+    UserPage findPage(UserPage.Cursor after, int pageSize) throws SQLException;
+
+    /**
+     * @param id 用户ID
+     * @return 是否删除
+     * @throws SQLException 存储出错
+     */
+    boolean deleteById(int id) throws SQLException;
+
+    /**
+     * @param username 用户名
+     * @return 是否删除
+     * @throws SQLException 存储出错
+     */
+    boolean deleteByUsername(String username) throws SQLException;
+
+    /**
+     * 在一个事务中删除一批用户
+     * @param usernames 用户名
+     * @return 与usernames顺序相同，删除的项为1，不存在的项为0
+     * @throws SQLException 存储出错，整批都没有删除
+     */
+    int[] deleteAll(List<String> usernames) throws SQLException;
+
+    /**
+     * @return 用户数
+     * @throws SQLException 存储出错
+     */
+    long count() throws SQLException;
+
+    /**
+     * 依次把每个用户名交给consumer，顺序不限
+     * @param consumer 用户名的接收方
+     * @throws SQLException 存储出错
+     */
+    void forEachUsername(Consumer<String> consumer) throws SQLException;
+
+    /**
+     * 把引擎自身的状态注册为指标中的即时值
+     * @param metrics 指标
+     */
+    void registerGauges(ServerMetrics metrics);
+
+    /**
+     * @return 存储是否可用
+     */
+    boolean isValid();
+
+    /**
+     * 关闭存储，之后不能再使用
+     */
+    void close();
+}
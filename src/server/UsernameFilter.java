@@ -0,0 +1,119 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 用户名布隆过滤器
+ * mightContain()返回false时用户名一定不存在，可以不查数据库直接拒绝登录或放行注册；
+ * 返回true时可能存在，仍需查询数据库确认。
+ *
+ * 位数组用AtomicLongArray保存，添加和查询都不加锁。布隆过滤器不能删除元素，
+ * 删除用户后对应的位保留，只会让误判率升高，由DatabaseManager在删除较多时重建
+ */
+public class UsernameFilter {
+
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+    private final long capacity;
+    private final LongAdder added = new LongAdder();
+
+    /**
+     * 构造函数，按预期元素数和误判率计算位数和哈希函数个数
+     * @param expectedInsertions 预期的用户名数量
+     * @param fpp 预期数量下的误判率，0到1之间
+     */
+    public UsernameFilter(long expectedInsertions, double fpp) {
+        if (expectedInsertions <= 0 || fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("布隆过滤器参数错误: expected=" + expectedInsertions + ", fpp=" + fpp);
+        }
+        long m = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        m = Math.max(64, (m + 63) / 64 * 64);
+        this.bits = new AtomicLongArray(Math.toIntExact(m / 64));
+        this.bitCount = m;
+        this.hashCount = Math.max(1, (int) Math.round((double) m / expectedInsertions * Math.log(2)));
+        this.capacity = expectedInsertions;
+    }
+
+    /**
+     * 添加用户名
+     * @param username 用户名
+     */
+    public void add(String username) {
+        long hash = hash(username);
+        long h1 = hash;
+        long h2 = Long.rotateLeft(hash, 32) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            int index = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long word = bits.get(index);
+            while ((word & mask) == 0 && !bits.compareAndSet(index, word, word | mask)) {
+                word = bits.get(index);
+            }
+        }
+        added.increment();
+    }
+
+    /**
+     * @param username 用户名
+     * @return 用户名可能存在时返回true，一定不存在时返回false
+     */
+    public boolean mightContain(String username) {
+        long hash = hash(username);
+        long h1 = hash;
+        long h2 = Long.rotateLeft(hash, 32) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return 已添加的用户名数量（含重复添加）
+     */
+    public long size() {
+        return added.sum();
+    }
+
+    /**
+     * @return 构造时的预期元素数，超过后误判率高于设定值
+     */
+    public long capacity() {
+        return capacity;
+    }
+
+    public long bitCount() {
+        return bitCount;
+    }
+
+    public int hashCount() {
+        return hashCount;
+    }
+
+    /**
+     * 64位FNV-1a加murmur3的最终混合，按UTF-16字符计算，不需要先编码为字节
+     */
+    private static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return "用户名过滤器: " + size() + " 个用户名, " + bitCount / 8 / 1024 + " KB, " + hashCount + " 个哈希函数";
+    }
+}
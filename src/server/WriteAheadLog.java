@@ -0,0 +1,538 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * 用户记录的追加写日志（WAL）
+ * 内存存储的每次修改先追加到日志再生效，重启时从最近的快照开始重放日志中之后的记录。
+ * 日志按段存放，文件名为wal-段内第一条记录的序号.log，生成快照时切换到新段，快照覆盖的旧段随后删除。
+ *
+ * 记录格式：int 负载长度 | int 负载的CRC32 | 负载；
+ * 负载：long 序号 | int 操作数 | 操作...，每个操作为byte 类型加字段：
+ * PUT携带完整的用户记录（插入和修改都写整条记录），DELETE只携带用户ID。
+ * 一批操作（批量注册、批量删除）写在同一条记录里，重放时要么全部生效要么全部丢弃。
+ *
+ * 同步方式见SyncMode。追加由调用方串行执行（内存存储的写锁），fsync可以与追加并发。
+ * 段文件用RandomAccessFile而不是FileChannel写入：请求线程被中断时FileChannel会被关闭，之后的写入全部失败
+ */
+public class WriteAheadLog {
+
+    static final byte PUT = 1;
+    static final byte DELETE = 2;
+
+    // 负载长度的上限，超过时视为损坏
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /**
+     * 日志落盘方式
+     */
+    public enum SyncMode {
+        // 每个修改返回前日志已fsync，同时等待的修改共用一次fsync（默认）
+        ALWAYS,
+        // 后台按固定间隔fsync，操作系统崩溃或断电时可能丢失最后一个间隔内的修改
+        INTERVAL,
+        // 不主动fsync，由操作系统决定写回时机
+        NONE;
+
+        /**
+         * 根据名称查找同步方式，忽略大小写
+         * @param name 同步方式名称（always/interval/none）
+         * @return 同步方式
+         */
+        public static SyncMode fromName(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                Log.warn("未知的日志同步方式: " + name + "，使用always");
+                return ALWAYS;
+            }
+        }
+    }
+
+    /**
+     * 重放时接收日志中的操作
+     */
+    public interface Replayer {
+        void put(User user);
+
+        void delete(int id);
+    }
+
+    private final Path dir;
+    private final SyncMode syncMode;
+
+    // 追加在调用方的写锁下进行；切换段时同时持有调用方的写锁和syncLock
+    private volatile RandomAccessFile segment;
+    private volatile long segmentBytes;
+    private ByteBuffer buffer = ByteBuffer.allocate(4096);
+    private final CRC32 crc = new CRC32();
+
+    // 已写入页缓存的最后序号和已fsync的最后序号
+    private volatile long appendedLsn;
+    private volatile long durableLsn;
+    private final ReentrantLock syncLock = new ReentrantLock();
+
+    private final ServerMetrics metrics = ServerMetrics.global();
+
+    /**
+     * 打开日志，新建一个从lastLsn + 1开始的段
+     * @param dir 日志目录
+     * @param lastLsn 重放到的最后序号
+     * @param syncMode 落盘方式
+     * @throws IOException 创建段文件失败
+     */
+    public WriteAheadLog(Path dir, long lastLsn, SyncMode syncMode) throws IOException {
+        this.dir = dir;
+        this.syncMode = syncMode;
+        this.appendedLsn = lastLsn;
+        this.durableLsn = lastLsn;
+        this.segment = openSegment(lastLsn + 1);
+    }
+
+    /**
+     * 重放目录中序号大于afterLsn的所有记录
+     * 最后一段末尾不完整或校验失败的记录视为崩溃时未写完，截断后继续；其他位置的损坏无法恢复
+     * @param dir 日志目录
+     * @param afterLsn 快照覆盖到的序号，之前的记录跳过
+     * @param replayer 操作的接收方
+     * @return 重放到的最后序号，没有新记录时为afterLsn
+     * @throws IOException 读取失败、日志损坏或序号不连续
+     */
+    public static long replay(Path dir, long afterLsn, Replayer replayer) throws IOException {
+        List<Long> segments = listSegments(dir);
+        long lastLsn = afterLsn;
+        for (int i = 0; i < segments.size(); i++) {
+            long first = segments.get(i);
+            if (first > lastLsn + 1) {
+                throw new IOException("日志缺少序号 " + (lastLsn + 1) + " 到 " + (first - 1) + " 的记录");
+            }
+            lastLsn = replaySegment(segmentPath(dir, first), lastLsn, replayer, i == segments.size() - 1);
+        }
+        return lastLsn;
+    }
+
+    private static long replaySegment(Path file, long lastLsn, Replayer replayer, boolean tail) throws IOException {
+        byte[] header = new byte[8];
+        byte[] payload = new byte[256];
+        CRC32 checksum = new CRC32();
+        long position = 0;
+        String damage = null;
+
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 64 * 1024)) {
+            while (true) {
+                int n = in.readNBytes(header, 0, header.length);
+                if (n == 0) {
+                    break;
+                }
+                if (n < header.length) {
+                    damage = "记录头不完整";
+                    break;
+                }
+                ByteBuffer head = ByteBuffer.wrap(header);
+                int length = head.getInt();
+                int expected = head.getInt();
+                if (length < 12 || length > MAX_RECORD_SIZE) {
+                    damage = "记录长度错误";
+                    break;
+                }
+                if (payload.length < length) {
+                    payload = new byte[Math.max(length, payload.length * 2)];
+                }
+                if (in.readNBytes(payload, 0, length) < length) {
+                    damage = "记录不完整";
+                    break;
+                }
+                checksum.reset();
+                checksum.update(payload, 0, length);
+                if ((int) checksum.getValue() != expected) {
+                    damage = "校验失败";
+                    break;
+                }
+
+                ByteBuffer record = ByteBuffer.wrap(payload, 0, length);
+                long lsn = record.getLong();
+                if (lsn > lastLsn) {
+                    if (lsn != lastLsn + 1) {
+                        throw new IOException("日志序号不连续: " + file + " 期望 " + (lastLsn + 1) + " 实际 " + lsn);
+                    }
+                    apply(record, replayer, file);
+                    lastLsn = lsn;
+                }
+                position += header.length + length;
+            }
+        }
+
+        if (damage != null) {
+            if (!tail) {
+                throw new IOException("日志损坏: " + file + " 位置 " + position + "，" + damage);
+            }
+            Log.warn("日志末尾有未写完的记录，已截断: " + file + " 位置 " + position + "，" + damage);
+            try (FileChannel truncate = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                truncate.truncate(position);
+                truncate.force(true);
+            }
+        }
+        return lastLsn;
+    }
+
+    private static void apply(ByteBuffer record, Replayer replayer, Path file) throws IOException {
+        int count = record.getInt();
+        for (int i = 0; i < count; i++) {
+            byte type = record.get();
+            if (type == PUT) {
+                replayer.put(getUser(record));
+            } else if (type == DELETE) {
+                replayer.delete(record.getInt());
+            } else {
+                throw new IOException("未知的日志记录类型: " + type + "，" + file);
+            }
+        }
+    }
+
+    /**
+     * 追加一条插入或修改，调用方持有写锁
+     * @param user 修改后的完整用户记录
+     * @return 记录序号，交给awaitDurable等待落盘
+     * @throws IOException 写入失败
+     */
+    public long appendPut(User user) throws IOException {
+        return append(Collections.singletonList(user), null);
+    }
+
+    /**
+     * 把一批插入写在同一条记录里，调用方持有写锁
+     * @param users 用户记录
+     * @return 记录序号
+     * @throws IOException 写入失败
+     */
+    public long appendPuts(List<User> users) throws IOException {
+        return append(users, null);
+    }
+
+    /**
+     * 追加一条删除，调用方持有写锁
+     * @param id 用户ID
+     * @return 记录序号
+     * @throws IOException 写入失败
+     */
+    public long appendDelete(int id) throws IOException {
+        return append(Collections.emptyList(), new int[] {id});
+    }
+
+    /**
+     * 把一批删除写在同一条记录里，调用方持有写锁
+     * @param ids 用户ID
+     * @return 记录序号
+     * @throws IOException 写入失败
+     */
+    public long appendDeletes(int[] ids) throws IOException {
+        return append(Collections.emptyList(), ids);
+    }
+
+    private long append(List<User> puts, int[] deletes) throws IOException {
+        int deleteCount = deletes != null ? deletes.length : 0;
+        if (puts.isEmpty() && deleteCount == 0) {
+            return appendedLsn;
+        }
+
+        long lsn = appendedLsn + 1;
+        buffer.clear();
+        buffer.position(8);
+        buffer.putLong(lsn);
+        buffer.putInt(puts.size() + deleteCount);
+        for (User user : puts) {
+            ensureCapacity(1 + userSize(user));
+            buffer.put(PUT);
+            putUser(buffer, user);
+        }
+        for (int i = 0; i < deleteCount; i++) {
+            ensureCapacity(5);
+            buffer.put(DELETE);
+            buffer.putInt(deletes[i]);
+        }
+
+        int length = buffer.position() - 8;
+        crc.reset();
+        crc.update(buffer.array(), 8, length);
+        buffer.putInt(0, length);
+        buffer.putInt(4, (int) crc.getValue());
+        buffer.flip();
+
+        RandomAccessFile current = segment;
+        try {
+            current.write(buffer.array(), 0, buffer.limit());
+        } catch (IOException e) {
+            // 去掉写了一半的记录，否则之后追加的记录在重放时会被当作损坏位置之后的数据
+            current.setLength(segmentBytes);
+            current.seek(segmentBytes);
+            throw e;
+        }
+        segmentBytes += buffer.limit();
+        appendedLsn = lsn;
+        return lsn;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (buffer.remaining() < needed) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+    }
+
+    /**
+     * SyncMode.ALWAYS时等待lsn及之前的记录落盘，其他方式直接返回
+     * 在调用方释放写锁之后调用，同时等待的线程中只有一个执行fsync，其余线程的记录随之落盘
+     * @param lsn 追加时返回的序号
+     * @throws IOException fsync失败
+     */
+    public void awaitDurable(long lsn) throws IOException {
+        if (syncMode == SyncMode.ALWAYS && durableLsn < lsn) {
+            sync();
+        }
+    }
+
+    /**
+     * 把已写入的记录全部fsync
+     * @throws IOException fsync失败
+     */
+    public void sync() throws IOException {
+        syncLock.lock();
+        try {
+            long target = appendedLsn;
+            if (durableLsn >= target) {
+                return;
+            }
+            long start = System.nanoTime();
+            segment.getFD().sync();
+            durableLsn = target;
+            metrics.recordTiming("db.wal.sync", start);
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * 结束当前段并新建一段，生成快照前在调用方的写锁下调用
+     * @return 旧段中最后一条记录的序号，快照应覆盖到这里
+     * @throws IOException 落盘或创建新段失败
+     */
+    public long roll() throws IOException {
+        syncLock.lock();
+        try {
+            long last = appendedLsn;
+            RandomAccessFile old = segment;
+            old.getFD().sync();
+            durableLsn = last;
+            segment = openSegment(last + 1);
+            segmentBytes = 0;
+            old.close();
+            return last;
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * 删除所有记录都不超过lsn的旧段，在快照写完之后调用
+     * @param lsn 快照覆盖到的序号
+     */
+    public void deleteSegmentsThrough(long lsn) {
+        try {
+            List<Long> segments = listSegments(dir);
+            for (int i = 0; i < segments.size(); i++) {
+                // 下一段从lsn + 1或更早开始时，这一段的记录都已被快照覆盖
+                long next = i + 1 < segments.size() ? segments.get(i + 1) : Long.MAX_VALUE;
+                if (next <= lsn + 1) {
+                    Files.deleteIfExists(segmentPath(dir, segments.get(i)));
+                }
+            }
+        } catch (IOException e) {
+            Log.warn("删除旧日志段失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return 最后追加的记录序号
+     */
+    public long getAppendedLsn() {
+        return appendedLsn;
+    }
+
+    /**
+     * @return 已写入但还没有fsync的记录数
+     */
+    public long getUnsyncedCount() {
+        return appendedLsn - durableLsn;
+    }
+
+    /**
+     * @return 当前段的字节数
+     */
+    public long getSegmentBytes() {
+        return segmentBytes;
+    }
+
+    /**
+     * 落盘并关闭当前段
+     * @throws IOException 落盘失败
+     */
+    public void close() throws IOException {
+        syncLock.lock();
+        try {
+            segment.getFD().sync();
+            durableLsn = appendedLsn;
+            segment.close();
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private RandomAccessFile openSegment(long firstLsn) throws IOException {
+        // 同名段只可能是上次启动新建后没有写入任何完整记录的段
+        RandomAccessFile opened = new RandomAccessFile(segmentPath(dir, firstLsn).toFile(), "rw");
+        opened.setLength(0);
+        syncDirectory(dir);
+        return opened;
+    }
+
+    private static Path segmentPath(Path dir, long firstLsn) {
+        return dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstLsn, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * @return 目录中各段的第一条记录序号，升序
+     */
+    private static List<Long> listSegments(Path dir) throws IOException {
+        List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    Log.warn("忽略无法识别的日志文件: " + file);
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    /**
+     * 把目录的修改（新建、重命名文件）落盘，不支持的平台上忽略
+     * @param dir 目录
+     */
+    static void syncDirectory(Path dir) {
+        try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            // Windows不能以通道方式打开目录
+        }
+    }
+
+    /**
+     * @param user 用户记录
+     * @return putUser写出的字节数
+     */
+    static int userSize(User user) {
+        return 4 + 8 + stringSize(user.getUsername()) + stringSize(user.getPassword()) + stringSize(user.getEmail());
+    }
+
+    /**
+     * 写出用户记录：int ID | long 创建时间（毫秒）| 用户名 | 密码 | 邮箱，
+     * 字符串为int 字节数（null为-1）加UTF-8字节
+     * @param buffer 剩余空间不少于userSize(user)
+     * @param user 用户记录
+     */
+    static void putUser(ByteBuffer buffer, User user) {
+        buffer.putInt(user.getId());
+        buffer.putLong(user.getCreatedAt() != null ? user.getCreatedAt().getTime() : 0L);
+        putString(buffer, user.getUsername());
+        putString(buffer, user.getPassword());
+        putString(buffer, user.getEmail());
+    }
+
+    /**
+     * 读取putUser写出的用户记录
+     * @param buffer 缓冲区
+     * @return 用户
+     */
+    static User getUser(ByteBuffer buffer) {
+        int id = buffer.getInt();
+        long createdAt = buffer.getLong();
+        String username = getString(buffer);
+        String password = getString(buffer);
+        String email = getString(buffer);
+        return new User(id, username, password, email, new Timestamp(createdAt));
+    }
+
+    private static int stringSize(String value) {
+        return 4 + (value != null ? utf8Length(value) : 0);
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    /**
+     * 计算UTF-8编码后的字节数，不实际编码；不成对的代理字符按编码器替换成的"?"计1字节
+     */
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}